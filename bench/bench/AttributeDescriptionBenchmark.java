@@ -0,0 +1,48 @@
+package bench;
+
+import lib.VulkanBuffers;
+import org.openjdk.jmh.annotations.*;
+import org.lwjgl.vulkan.VkVertexInputAttributeDescription;
+import org.lwjgl.vulkan.VkVertexInputBindingDescription;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Creation of the vertex input descriptions of a {@link VulkanBuffers.VertexBuffer}. CPU only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributeDescriptionBenchmark {
+
+    @Param({"2", "8"})
+    public int attributeCount;
+
+    private VulkanBuffers.VertexBuffer vertexBuffer;
+
+    @Setup
+    public void setup() {
+        VulkanBuffers.Attribute[] attributes = new VulkanBuffers.Attribute[attributeCount];
+
+        for (int i = 0; i < attributeCount; i++) {
+            attributes[i] = new VulkanBuffers.Attribute(i, VK_FORMAT_R32G32B32A32_SFLOAT, i * 16, 16);
+        }
+
+        vertexBuffer = new VulkanBuffers.VertexBuffer(0, attributes);
+    }
+
+    @Benchmark
+    public VkVertexInputAttributeDescription.Buffer createAttributeDescriptions() {
+        return vertexBuffer.createAttributeDescriptions();
+    }
+
+    @Benchmark
+    public VkVertexInputBindingDescription.Buffer createBindingDescription() {
+        return vertexBuffer.createBindingDescription();
+    }
+}
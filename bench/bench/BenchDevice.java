@@ -0,0 +1,155 @@
+package bench;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Minimal Vulkan instance and device without a window or surface, for the benchmarks which need a device. Picks the
+ * first physical device with a graphics queue, so a software ICD (for ex. lavapipe selected through
+ * VK_ICD_FILENAMES) works as well.
+ */
+final class BenchDevice {
+
+    final VkInstance instance;
+    final VkPhysicalDevice physicalDevice;
+    final VkDevice device;
+    final int graphicsFamily;
+
+    BenchDevice() {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkApplicationInfo applicationInfo = VkApplicationInfo.calloc(stack);
+            applicationInfo.sType$Default();
+            applicationInfo.pApplicationName(stack.UTF8("bench"));
+            applicationInfo.apiVersion(VK_API_VERSION_1_0);
+
+            VkInstanceCreateInfo instanceCreateInfo = VkInstanceCreateInfo.calloc(stack);
+            instanceCreateInfo.sType$Default();
+            instanceCreateInfo.pApplicationInfo(applicationInfo);
+
+            PointerBuffer pInstance = stack.mallocPointer(1);
+            check(vkCreateInstance(instanceCreateInfo, null, pInstance));
+            instance = new VkInstance(pInstance.get(0), instanceCreateInfo);
+
+            IntBuffer pCount = stack.mallocInt(1);
+            check(vkEnumeratePhysicalDevices(instance, pCount, null));
+
+            if (pCount.get(0) == 0)
+                throw new IllegalStateException("No Vulkan device found!");
+
+            PointerBuffer pDevices = stack.mallocPointer(pCount.get(0));
+            check(vkEnumeratePhysicalDevices(instance, pCount, pDevices));
+
+            VkPhysicalDevice chosen = null;
+            int family = -1;
+
+            for (int i = 0; i < pDevices.capacity() && chosen == null; i++) {
+                VkPhysicalDevice candidate = new VkPhysicalDevice(pDevices.get(i), instance);
+
+                vkGetPhysicalDeviceQueueFamilyProperties(candidate, pCount, null);
+                VkQueueFamilyProperties.Buffer families = VkQueueFamilyProperties.malloc(pCount.get(0), stack);
+                vkGetPhysicalDeviceQueueFamilyProperties(candidate, pCount, families);
+
+                for (int j = 0; j < families.capacity(); j++) {
+                    if ((families.get(j).queueFlags() & VK_QUEUE_GRAPHICS_BIT) != 0) {
+                        chosen = candidate;
+                        family = j;
+                        break;
+                    }
+                }
+            }
+
+            if (chosen == null)
+                throw new IllegalStateException("No Vulkan device with a graphics queue found!");
+
+            physicalDevice = chosen;
+            graphicsFamily = family;
+
+            VkDeviceQueueCreateInfo.Buffer queueCreateInfo = VkDeviceQueueCreateInfo.calloc(1, stack);
+            queueCreateInfo.sType$Default();
+            queueCreateInfo.queueFamilyIndex(graphicsFamily);
+            queueCreateInfo.pQueuePriorities(stack.floats(1.f));
+
+            VkDeviceCreateInfo deviceCreateInfo = VkDeviceCreateInfo.calloc(stack);
+            deviceCreateInfo.sType$Default();
+            deviceCreateInfo.pQueueCreateInfos(queueCreateInfo);
+            deviceCreateInfo.pEnabledFeatures(VkPhysicalDeviceFeatures.calloc(stack));
+
+            PointerBuffer pDevice = stack.mallocPointer(1);
+            check(vkCreateDevice(physicalDevice, deviceCreateInfo, null, pDevice));
+            device = new VkDevice(pDevice.get(0), physicalDevice, deviceCreateInfo);
+        }
+    }
+
+    long createCommandPool(int flags) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkCommandPoolCreateInfo poolInfo = VkCommandPoolCreateInfo.calloc(stack);
+            poolInfo.sType$Default();
+            poolInfo.queueFamilyIndex(graphicsFamily);
+            poolInfo.flags(flags);
+
+            LongBuffer pPool = stack.mallocLong(1);
+            check(vkCreateCommandPool(device, poolInfo, null, pPool));
+            return pPool.get(0);
+        }
+    }
+
+    VkCommandBuffer allocateCommandBuffer(long commandPool) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkCommandBufferAllocateInfo allocInfo = VkCommandBufferAllocateInfo.calloc(stack);
+            allocInfo.sType$Default();
+            allocInfo.commandPool(commandPool);
+            allocInfo.level(VK_COMMAND_BUFFER_LEVEL_PRIMARY);
+            allocInfo.commandBufferCount(1);
+
+            PointerBuffer pCommandBuffer = stack.mallocPointer(1);
+            check(vkAllocateCommandBuffers(device, allocInfo, pCommandBuffer));
+            return new VkCommandBuffer(pCommandBuffer.get(0), device);
+        }
+    }
+
+    /**
+     * Creates a buffer backed by the first compatible memory type. Returns {buffer, memory}.
+     */
+    long[] createBuffer(long size, int usage) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkBufferCreateInfo bufferInfo = VkBufferCreateInfo.calloc(stack);
+            bufferInfo.sType$Default();
+            bufferInfo.size(size);
+            bufferInfo.usage(usage);
+            bufferInfo.sharingMode(VK_SHARING_MODE_EXCLUSIVE);
+
+            LongBuffer pBuffer = stack.mallocLong(1);
+            check(vkCreateBuffer(device, bufferInfo, null, pBuffer));
+
+            VkMemoryRequirements requirements = VkMemoryRequirements.malloc(stack);
+            vkGetBufferMemoryRequirements(device, pBuffer.get(0), requirements);
+
+            VkMemoryAllocateInfo allocInfo = VkMemoryAllocateInfo.calloc(stack);
+            allocInfo.sType$Default();
+            allocInfo.allocationSize(requirements.size());
+            allocInfo.memoryTypeIndex(Integer.numberOfTrailingZeros(requirements.memoryTypeBits()));
+
+            LongBuffer pMemory = stack.mallocLong(1);
+            check(vkAllocateMemory(device, allocInfo, null, pMemory));
+            check(vkBindBufferMemory(device, pBuffer.get(0), pMemory.get(0), 0));
+
+            return new long[]{pBuffer.get(0), pMemory.get(0)};
+        }
+    }
+
+    void destroy() {
+        vkDestroyDevice(device, null);
+        vkDestroyInstance(instance, null);
+    }
+
+    static void check(int result) {
+        if (result != VK_SUCCESS)
+            throw new IllegalStateException(String.format("Vulkan error [0x%X]", result));
+    }
+}
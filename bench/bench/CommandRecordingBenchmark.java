@@ -0,0 +1,110 @@
+package bench;
+
+import lib.VulkanCommandBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkCommandBufferBeginInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Command recording through {@link VulkanCommandBuffer}, on one thread and on several threads which each own a
+ * command pool. The command buffers are only recorded, never submitted. Needs a Vulkan device, a software ICD
+ * (lavapipe) is enough.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandRecordingBenchmark {
+
+    @Param({"1000", "10000"})
+    public int commandCount;
+
+    @Param({"1", "2", "4", "8"})
+    public int threadCount;
+
+    private BenchDevice device;
+    private long[] buffer;
+
+    private long[] commandPools;
+    private VulkanCommandBuffer[] commandBuffers;
+    private ExecutorService executor;
+    private Future<?>[] pending;
+
+    @Setup
+    public void setup() {
+        device = new BenchDevice();
+        buffer = device.createBuffer(64 * 1024, VK_BUFFER_USAGE_TRANSFER_SRC_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT);
+
+        commandPools = new long[threadCount];
+        commandBuffers = new VulkanCommandBuffer[threadCount];
+
+        for (int i = 0; i < threadCount; i++) {
+            commandPools[i] = device.createCommandPool(VK_COMMAND_POOL_CREATE_TRANSIENT_BIT);
+            commandBuffers[i] = new VulkanCommandBuffer(device.allocateCommandBuffer(commandPools[i]));
+        }
+
+        executor = Executors.newFixedThreadPool(threadCount);
+        pending = new Future<?>[threadCount];
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+
+        for (long commandPool : commandPools)
+            vkDestroyCommandPool(device.device, commandPool, null);
+
+        vkDestroyBuffer(device.device, buffer[0], null);
+        vkFreeMemory(device.device, buffer[1], null);
+
+        device.destroy();
+    }
+
+    /**
+     * Records commandCount copy + barrier pairs, split evenly among the threads.
+     *
+     * @return Number of recorded commands. Throughput in commands is this times the ops/s.
+     */
+    @Benchmark
+    public int record() throws Exception {
+        int perThread = commandCount / threadCount;
+
+        for (int i = 0; i < threadCount; i++) {
+            int worker = i;
+            pending[i] = executor.submit(() -> recordChunk(worker, perThread));
+        }
+
+        for (Future<?> future : pending)
+            future.get();
+
+        return perThread * threadCount;
+    }
+
+    private void recordChunk(int worker, int count) {
+        BenchDevice.check(vkResetCommandPool(device.device, commandPools[worker], 0));
+
+        VulkanCommandBuffer commandBuffer = commandBuffers[worker];
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc(stack);
+            beginInfo.sType$Default();
+            beginInfo.flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+
+            commandBuffer.beginCommandBuffer(beginInfo);
+        }
+
+        for (int i = 0; i < count; i++) {
+            commandBuffer.copyBuffer(buffer[0], 0, buffer[0], 32 * 1024, 256);
+            commandBuffer.memoryBarrier(VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_TRANSFER_BIT,
+                    VK_ACCESS_TRANSFER_WRITE_BIT, VK_ACCESS_TRANSFER_READ_BIT);
+        }
+
+        commandBuffer.endCommandBuffer();
+    }
+}
@@ -0,0 +1,108 @@
+package bench;
+
+import mesh.Mesh;
+import mesh.MeshAnalyzer;
+import mesh.MeshOptimizer;
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The mesh optimization passes on a grid with unwelded vertices and shuffled triangles, the worst case input.
+ * The ACMR before and after is printed once per trial. CPU only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshOptimizerBenchmark {
+
+    private static final int STRIDE = 12;
+
+    @Param({"32", "256"})
+    public int gridSize;
+
+    private ByteBuffer vertices;
+    private Mesh mesh;
+
+    @Setup
+    public void setup() {
+        int triangleCount = gridSize * gridSize * 2;
+        int[] triangles = new int[triangleCount * 3];
+        int t = 0;
+
+        for (int y = 0; y < gridSize; y++) {
+            for (int x = 0; x < gridSize; x++) {
+                int v = y * (gridSize + 1) + x;
+
+                triangles[t++] = v;
+                triangles[t++] = v + 1;
+                triangles[t++] = v + gridSize + 1;
+
+                triangles[t++] = v + 1;
+                triangles[t++] = v + gridSize + 2;
+                triangles[t++] = v + gridSize + 1;
+            }
+        }
+
+        Random random = new Random(42);
+        for (int i = triangleCount - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+
+            for (int k = 0; k < 3; k++) {
+                int tmp = triangles[i * 3 + k];
+                triangles[i * 3 + k] = triangles[j * 3 + k];
+                triangles[j * 3 + k] = tmp;
+            }
+        }
+
+        // Every corner gets its own copy of the vertex
+        vertices = MemoryUtil.memAlloc(triangles.length * STRIDE);
+        int[] indices = new int[triangles.length];
+        long address = MemoryUtil.memAddress(vertices);
+
+        for (int i = 0; i < triangles.length; i++) {
+            MemoryUtil.memPutFloat(address + i * (long) STRIDE, triangles[i] % (gridSize + 1));
+            MemoryUtil.memPutFloat(address + i * (long) STRIDE + 4, triangles[i] / (gridSize + 1));
+            MemoryUtil.memPutFloat(address + i * (long) STRIDE + 8, 0.f);
+            indices[i] = i;
+        }
+
+        mesh = new Mesh(vertices, STRIDE, indices);
+
+        Mesh optimized = new MeshOptimizer().optimize(mesh);
+        System.out.println("\nbefore " + MeshAnalyzer.analyze(mesh, 16));
+        System.out.println("after  " + MeshAnalyzer.analyze(optimized, 16));
+        optimized.free();
+    }
+
+    @TearDown
+    public void tearDown() {
+        MemoryUtil.memFree(vertices);
+    }
+
+    @Benchmark
+    public void optimize(Blackhole blackhole) {
+        Mesh optimized = new MeshOptimizer().optimize(mesh);
+        blackhole.consume(optimized.getIndices());
+        optimized.free();
+    }
+
+    @Benchmark
+    public void optimizeWithoutOverdraw(Blackhole blackhole) {
+        Mesh optimized = new MeshOptimizer().setOptimizeOverdraw(false).optimize(mesh);
+        blackhole.consume(optimized.getIndices());
+        optimized.free();
+    }
+
+    @Benchmark
+    public void analyze(Blackhole blackhole) {
+        blackhole.consume(MeshAnalyzer.analyze(mesh, 16));
+    }
+}
@@ -0,0 +1,188 @@
+package bench;
+
+import lib.*;
+import org.lwjgl.vulkan.VkClearValue;
+import org.lwjgl.vulkan.VkCommandBufferBeginInfo;
+import org.lwjgl.vulkan.VkRenderPassBeginInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.util.vma.Vma.VMA_MEMORY_USAGE_GPU_ONLY;
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Draw recording through {@link VulkanParallelRecorder} as the number of workers grows. Every worker records its chunk
+ * of the draws into a secondary command buffer of an offscreen render pass, then a primary buffer begins the render
+ * pass and executes them, as a frame would. The command buffers are only recorded, never submitted. Needs a Vulkan
+ * device, a software ICD (lavapipe) is enough.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelRecordingBenchmark {
+
+    // Position (vec2) and color, the input of res/shaders/vertex_shader.vert
+    private static final VulkanBuffers.VertexBuffer VERTEX_LAYOUT = new VulkanBuffers.VertexBuffer(0, new VulkanBuffers.Attribute[]{
+            new VulkanBuffers.Attribute(0, VK_FORMAT_R32G32_SFLOAT, 0, 8),
+            new VulkanBuffers.Attribute(1, VertexEncoding.UNORM8, 4, 8),
+    });
+
+    private static final int MESH_COUNT = 16;
+
+    @Param({"1000", "10000"})
+    public int drawCount;
+
+    @Param({"1", "2", "4", "8"})
+    public int workerCount;
+
+    private VulkanInstance instance;
+    private VulkanDevices devices;
+    private VulkanLogicalDevice device;
+
+    private VulkanOffscreenTarget target;
+    private VulkanRenderPass renderPass;
+    private VulkanFrameBuffer frameBuffers;
+    private VulkanGraphicsPipeline pipeline;
+    private VulkanBuffers.Buffer vertexBuffer;
+    private VulkanBuffers.Buffer indexBuffer;
+
+    private VulkanParallelRecorder recorder;
+    private VulkanParallelRecorder.RecordTask drawTask;
+    private VulkanCmdPool primaryPool;
+    private VulkanCommandBuffer primaryBuffer;
+    private VkCommandBufferBeginInfo beginInfo;
+    private VkRenderPassBeginInfo renderPassBeginInfo;
+    private VkClearValue.Buffer clearValues;
+
+    @Setup
+    public void setup() throws IOException {
+        VulkanUtils.initVkHeadless();
+        VulkanUtils.enableValidationLayers = false;
+
+        instance = new VulkanInstance("bench", null, true);
+        devices = new VulkanDevices(instance);
+        device = devices.getLogicalDevice();
+
+        target = new VulkanOffscreenTarget(devices, 256, 256, VK_FORMAT_R8G8B8A8_UNORM, VK_FORMAT_UNDEFINED, 1);
+        renderPass = target.createRenderPass(device);
+        frameBuffers = target.createFrameBuffers(device, renderPass);
+        pipeline = createPipeline();
+
+        // The draws are only recorded, so the contents of the buffers don't matter
+        vertexBuffer = devices.allocateBuffer(VK_BUFFER_USAGE_VERTEX_BUFFER_BIT, VK_SHARING_MODE_EXCLUSIVE,
+                VMA_MEMORY_USAGE_GPU_ONLY, 0, (long) MESH_COUNT * 4 * VERTEX_LAYOUT.getStride());
+        indexBuffer = devices.allocateBuffer(VK_BUFFER_USAGE_INDEX_BUFFER_BIT, VK_SHARING_MODE_EXCLUSIVE,
+                VMA_MEMORY_USAGE_GPU_ONLY, 0, 6L * Short.BYTES);
+
+        recorder = new VulkanParallelRecorder(devices, workerCount, 1);
+        drawTask = this::recordDraws;
+
+        primaryPool = new VulkanCmdPool(device,
+                devices.getPhysicalDevice().getQueueFamilyIndices().getGraphicsFamily().get(), VK_COMMAND_POOL_CREATE_TRANSIENT_BIT);
+        primaryBuffer = new VulkanCommandBuffer(device, primaryPool, false);
+
+        beginInfo = VkCommandBufferBeginInfo.calloc();
+        beginInfo.sType$Default();
+        beginInfo.flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+
+        clearValues = VkClearValue.calloc(1);
+        renderPassBeginInfo = VkRenderPassBeginInfo.calloc();
+        renderPassBeginInfo.sType$Default();
+        renderPassBeginInfo.renderPass(renderPass.getRenderPassPtr());
+        renderPassBeginInfo.framebuffer(frameBuffers.getFrameBuffers()[0]);
+        renderPassBeginInfo.renderArea().extent(target.getExtent());
+        renderPassBeginInfo.pClearValues(clearValues);
+    }
+
+    @TearDown
+    public void tearDown() {
+        vkDeviceWaitIdle(devices.getVkDevice());
+
+        beginInfo.free();
+        renderPassBeginInfo.free();
+        clearValues.free();
+
+        recorder.destroy(device);
+        primaryPool.destroy(device);
+        vertexBuffer.destroy(device);
+        indexBuffer.destroy(device);
+        pipeline.destroy(device);
+        frameBuffers.destroy(device);
+        renderPass.destroy(device);
+        target.destroy(device);
+
+        devices.destroyTimelines();
+        devices.getVma().destroy(device);
+
+        // Not through VulkanPipelineCache.destroy(), the benchmark mustn't write the cache file of the application
+        vkDestroyPipelineCache(devices.getVkDevice(), devices.getPipelineCache().getPipelineCachePtr(), null);
+        devices.getPhysicalDevice().destroy();
+
+        vkDestroyDevice(devices.getVkDevice(), null);
+        vkDestroyInstance(instance.getVkInstance(), null);
+    }
+
+    /**
+     * Records the draws on the workers and executes the secondary buffers from the primary buffer.
+     *
+     * @return Number of recorded draws. Throughput in draws is this times the ops/s.
+     */
+    @Benchmark
+    public int record() {
+        recorder.record(0, renderPass, 0, frameBuffers.getFrameBuffers()[0], drawCount, drawTask);
+
+        VulkanUtils.check(vkResetCommandPool(device.getVkDevice(), primaryPool.pCommandPool, 0));
+
+        primaryBuffer.beginCommandBuffer(beginInfo);
+        primaryBuffer.beginRenderPass(renderPassBeginInfo, VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS);
+        recorder.executeCommands(primaryBuffer);
+        primaryBuffer.endRenderPass();
+        primaryBuffer.endCommandBuffer();
+
+        return drawCount;
+    }
+
+    /**
+     * Every draw binds the vertices of one of the meshes and draws it, like a scene of separate objects would.
+     */
+    private void recordDraws(VulkanCommandBuffer commandBuffer, int first, int last) {
+        commandBuffer.bindPipeline(VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline);
+        commandBuffer.bindIndexBuffer(indexBuffer.pBuffer, 0L, VK_INDEX_TYPE_UINT16);
+
+        for (int draw = first; draw < last; draw++) {
+            commandBuffer.bindVertexBuffers(0, vertexBuffer.pBuffer, (long) (draw % MESH_COUNT) * 4 * VERTEX_LAYOUT.getStride());
+            commandBuffer.drawIndexed(6);
+        }
+    }
+
+    private VulkanGraphicsPipeline createPipeline() throws IOException {
+        ShaderUtils.SPIRVShaderCode vertexCode = ShaderUtils.compileShader("vertex_shader.vert",
+                Files.readString(Paths.get("res", "shaders", "vertex_shader.vert")), ShaderUtils.ShaderType.VERTEX_SHADER);
+        ShaderUtils.SPIRVShaderCode fragmentCode = ShaderUtils.compileShader("fragment_shader.frag",
+                Files.readString(Paths.get("res", "shaders", "fragment_shader.frag")), ShaderUtils.ShaderType.FRAGMENT_SHADER);
+
+        VulkanGraphicsPipeline graphicsPipeline = new VulkanGraphicsPipeline(new ShaderUtils.ShaderModule[]{
+                ShaderUtils.createShaderModule(device, vertexCode),
+                ShaderUtils.createShaderModule(device, fragmentCode)
+        });
+
+        graphicsPipeline.setupVertexStage(VERTEX_LAYOUT)
+                .setupInputAssembly(VK_PRIMITIVE_TOPOLOGY_TRIANGLE_LIST)
+                .setupDefaultViewport(target.getExtent())
+                .setupDefaultRasterization()
+                .setupDefaultMultiSampling(VK_SAMPLE_COUNT_1_BIT, false)
+                .setupColorBlending(false)
+                .initializePipeline(device, renderPass);
+
+        vertexCode.free();
+        fragmentCode.free();
+        return graphicsPipeline;
+    }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import lib.ShaderUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static lib.ShaderUtils.*;
+import static org.lwjgl.util.shaderc.Shaderc.*;
+
+/**
+ * GLSL to SPIR-V compilation with shaderc. CPU only, needs just the shaderc natives.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShaderCompileBenchmark {
+
+    @Param({"vertex_shader.vert", "fragment_shader.frag"})
+    public String shader;
+
+    private String source;
+    private ShaderType type;
+
+    private long compiler;
+    private long options;
+
+    @Setup
+    public void setup() throws IOException {
+        source = Files.readString(Paths.get("res", "shaders", shader));
+        type = shader.endsWith(".vert") ? ShaderType.VERTEX_SHADER : ShaderType.FRAGMENT_SHADER;
+
+        compiler = shaderc_compiler_initialize();
+        options = shaderc_compile_options_initialize();
+    }
+
+    @TearDown
+    public void tearDown() {
+        shaderc_compile_options_release(options);
+        shaderc_compiler_release(compiler);
+    }
+
+    /**
+     * Creates and releases a compiler for every shader.
+     */
+    @Benchmark
+    public int compileShader() {
+        SPIRVShaderCode code = ShaderUtils.compileShader(shader, source, type);
+        int size = code.bytecode().remaining();
+        code.free();
+        return size;
+    }
+
+    /**
+     * Reuses a single compiler, the way ShaderCompilerPool workers do.
+     */
+    @Benchmark
+    public int compileShaderReusedCompiler() {
+        SPIRVShaderCode code = ShaderUtils.compileShader(compiler, options, shader, source, type);
+        int size = code.bytecode().remaining();
+        code.free();
+        return size;
+    }
+}
@@ -0,0 +1,111 @@
+package bench;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkPresentInfoKHR;
+import org.lwjgl.vulkan.VkSubmitInfo;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Filling of the per-frame VkSubmitInfo and VkPresentInfoKHR. Compares the MemoryStack path the render loop used
+ * before with the preallocated structures of render.FrameLoop. Only fake handles are written, so no GPU is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubmitSetupBenchmark {
+
+    private static final long IMAGE_AVAILABLE = 0x1000L;
+    private static final long RENDER_FINISHED = 0x2000L;
+    private static final long SWAPCHAIN = 0x3000L;
+    private static final long COMMAND_BUFFER = 0x4000L;
+
+    private VkSubmitInfo submitInfo;
+    private VkPresentInfoKHR presentInfo;
+    private PointerBuffer pCommandBuffers;
+    private LongBuffer pWaitSemaphores, pSignalSemaphores, pSwapchains;
+    private IntBuffer pWaitStages, pImageIndices;
+
+    private int frame = 0;
+
+    @Setup
+    public void setup() {
+        pWaitSemaphores = MemoryUtil.memAllocLong(1).put(0, IMAGE_AVAILABLE);
+        pSignalSemaphores = MemoryUtil.memAllocLong(1).put(0, RENDER_FINISHED);
+        pSwapchains = MemoryUtil.memAllocLong(1).put(0, SWAPCHAIN);
+        pWaitStages = MemoryUtil.memAllocInt(1).put(0, VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT);
+        pImageIndices = MemoryUtil.memAllocInt(1);
+        pCommandBuffers = MemoryUtil.memAllocPointer(1);
+
+        submitInfo = VkSubmitInfo.calloc();
+        submitInfo.sType$Default();
+        submitInfo.waitSemaphoreCount(1);
+        submitInfo.pWaitSemaphores(pWaitSemaphores);
+        submitInfo.pWaitDstStageMask(pWaitStages);
+        submitInfo.pSignalSemaphores(pSignalSemaphores);
+        submitInfo.pCommandBuffers(pCommandBuffers);
+
+        presentInfo = VkPresentInfoKHR.calloc();
+        presentInfo.sType$Default();
+        presentInfo.pWaitSemaphores(pSignalSemaphores);
+        presentInfo.swapchainCount(1);
+        presentInfo.pSwapchains(pSwapchains);
+        presentInfo.pImageIndices(pImageIndices);
+    }
+
+    @TearDown
+    public void tearDown() {
+        submitInfo.free();
+        presentInfo.free();
+
+        MemoryUtil.memFree(pWaitSemaphores);
+        MemoryUtil.memFree(pSignalSemaphores);
+        MemoryUtil.memFree(pSwapchains);
+        MemoryUtil.memFree(pWaitStages);
+        MemoryUtil.memFree(pImageIndices);
+        MemoryUtil.memFree(pCommandBuffers);
+    }
+
+    @Benchmark
+    public void stackAllocated(Blackhole blackhole) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack);
+            submitInfo.sType$Default();
+            submitInfo.waitSemaphoreCount(1);
+            submitInfo.pWaitSemaphores(stack.longs(IMAGE_AVAILABLE));
+            submitInfo.pWaitDstStageMask(stack.ints(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT));
+            submitInfo.pSignalSemaphores(stack.longs(RENDER_FINISHED));
+            submitInfo.pCommandBuffers(stack.pointers(COMMAND_BUFFER));
+
+            VkPresentInfoKHR presentInfo = VkPresentInfoKHR.calloc(stack);
+            presentInfo.sType$Default();
+            presentInfo.pWaitSemaphores(stack.longs(RENDER_FINISHED));
+            presentInfo.swapchainCount(1);
+            presentInfo.pSwapchains(stack.longs(SWAPCHAIN));
+            presentInfo.pImageIndices(stack.ints(frame++ & 1));
+
+            blackhole.consume(submitInfo.address());
+            blackhole.consume(presentInfo.address());
+        }
+    }
+
+    @Benchmark
+    public void preallocated(Blackhole blackhole) {
+        pCommandBuffers.put(0, COMMAND_BUFFER);
+        pImageIndices.put(0, frame++ & 1);
+
+        blackhole.consume(submitInfo.address());
+        blackhole.consume(presentInfo.address());
+    }
+}
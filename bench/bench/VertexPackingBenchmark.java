@@ -0,0 +1,88 @@
+package bench;
+
+import abstr.Vertex;
+import org.joml.Vector2f;
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packing of {@link Vertex} objects into an off-heap buffer, the way Application.createVertexBuffer does it.
+ * CPU only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VertexPackingBenchmark {
+
+    @Param({"4", "1024", "65536"})
+    public int vertexCount;
+
+    private Vertex[] vertices;
+    private ByteBuffer vertexData;
+
+    @Setup
+    public void setup() {
+        vertices = new Vertex[vertexCount];
+
+        for (int i = 0; i < vertexCount; i++) {
+            vertices[i] = new Vertex(new Vector2f(i * 0.5f, -i * 0.5f), new Vector4f(i & 1, i & 2, i & 4, 1.f));
+        }
+
+        vertexData = MemoryUtil.memAlloc(Vertex.SIZE_OF * vertexCount);
+    }
+
+    @TearDown
+    public void tearDown() {
+        MemoryUtil.memFree(vertexData);
+    }
+
+    /**
+     * Relative puts, same as Application.createVertexBuffer.
+     */
+    @Benchmark
+    public void relativePut(Blackhole blackhole) {
+        vertexData.clear();
+
+        for (Vertex vertex : vertices) {
+            vertexData.putFloat(vertex.getPos().x);
+            vertexData.putFloat(vertex.getPos().y);
+
+            vertexData.putFloat(vertex.getColor().x);
+            vertexData.putFloat(vertex.getColor().y);
+            vertexData.putFloat(vertex.getColor().z);
+            vertexData.putFloat(vertex.getColor().w);
+        }
+
+        blackhole.consume(vertexData);
+    }
+
+    /**
+     * Unchecked absolute writes through MemoryUtil.
+     */
+    @Benchmark
+    public void memPut(Blackhole blackhole) {
+        long address = MemoryUtil.memAddress(vertexData);
+
+        for (Vertex vertex : vertices) {
+            MemoryUtil.memPutFloat(address, vertex.getPos().x);
+            MemoryUtil.memPutFloat(address + 4, vertex.getPos().y);
+
+            MemoryUtil.memPutFloat(address + 8, vertex.getColor().x);
+            MemoryUtil.memPutFloat(address + 12, vertex.getColor().y);
+            MemoryUtil.memPutFloat(address + 16, vertex.getColor().z);
+            MemoryUtil.memPutFloat(address + 20, vertex.getColor().w);
+
+            address += Vertex.SIZE_OF;
+        }
+
+        blackhole.consume(vertexData);
+    }
+}
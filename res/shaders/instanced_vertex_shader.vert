@@ -0,0 +1,16 @@
+#version 450
+#extension GL_ARB_separate_shader_objects : enable
+
+layout (location = 0) in vec2 a_Position;
+layout (location = 1) in vec4 a_Color;
+
+// Per instance (InstanceDataBuffer), a mat4 takes 4 locations
+layout (location = 2) in mat4 i_Transform;
+layout (location = 6) in vec4 i_Color;
+
+layout (location = 0) out vec4 outColor;
+
+void main() {
+    gl_Position = i_Transform * vec4(a_Position, 0.f, 1.f);
+    outColor = a_Color * i_Color;
+}
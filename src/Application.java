@@ -1,17 +1,16 @@
-import abstr.Vertex;
 import lib.*;
-import org.joml.Vector2f;
-import org.joml.Vector4f;
+import mesh.Mesh;
+import mesh.MeshOptimizer;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
+import render.FrameLoop;
 import render.VulkanRenderer;
 
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.lwjgl.glfw.GLFW.glfwPollEvents;
 import static org.lwjgl.glfw.GLFW.glfwWindowShouldClose;
@@ -27,14 +26,38 @@ public class Application {
     private VulkanRenderer renderer;
     private VulkanGraphicsPipeline graphicsPipeline;
     private VulkanFrameBuffer frameBuffers;
-    private VulkanCmdPool commandPool;
-    private List<VulkanCommandBuffer> commandBuffers;
+    private VulkanFrameCommandAllocator commandAllocator;
+    private VulkanGpuProfiler gpuProfiler;
+    private PhaseTimers timers;
+    private int recordPhase, pollEventsPhase;
+
+    /**
+     * Layout of a vertex: position (vec2) and color (vec4 quantized to 4 bytes). Used both for writing the vertex data and for the
+     * vertex input of the pipeline.
+     */
+    private static final VulkanBuffers.VertexBuffer VERTEX_LAYOUT = new VulkanBuffers.VertexBuffer(0, new VulkanBuffers.Attribute[]{
+            new VulkanBuffers.Attribute(0, VK_FORMAT_R32G32_SFLOAT, 0, 8),
+            new VulkanBuffers.Attribute(1, VertexEncoding.UNORM8, 4, 8),
+    });
 
     private final int maxFramesInFlight = 2;
     private List<VulkanFrame> inFlightFrames = new ArrayList<>(maxFramesInFlight);
-    private Map<Integer, VulkanFrame> imagesInFlight;
+    private FrameLoop frameLoop;
     private VulkanBuffers.Buffer vertexBuffer;
     private VulkanBuffers.Buffer indexBuffer;
+    private EncodedIndices indices;
+    private VulkanStagingUploader uploader;
+    private IndirectDrawBatcher drawBatcher;
+    private IndirectDrawBatcher.MeshRange quad;
+    private VkCommandBufferBeginInfo cmdBufferBeginInfo;
+    private VkRenderPassBeginInfo renderPassBeginInfo;
+    private VkClearValue.Buffer clearValues;
+
+    /**
+     * The quad is drawn INSTANCE_GRID x INSTANCE_GRID times with a single draw.
+     */
+    private static final int INSTANCE_GRID = 32;
+    private InstanceDataBuffer instances;
 
 
     public static VkDebugUtilsMessengerCallbackEXT dbgCb = VkDebugUtilsMessengerCallbackEXT.create(
@@ -79,8 +102,6 @@ public class Application {
                 return VK_FALSE;
             }
     );
-    private long UINT64_MAX = 0xFFFFFFFFL;
-    private int currentFrame = 0;
 
     public void run(int width, int height) {
         VulkanUtils.initVk();
@@ -91,147 +112,159 @@ public class Application {
         createPipeline();
         createFrameBuffers();
         createCommandPool();
-        createCommandBuffer();
+        createRecordInfos();
         createSyncObjects();
-        loop();
+        loop(-1);
     }
 
-    private void createVertexBuffer() {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
+    /**
+     * Renders the given number of frames into offscreen images without a window and prints the frame timings, so the
+     * throughput of the renderer can be measured without the presentation.
+     */
+    public void runHeadless(int width, int height, int frameCount) {
+        VulkanUtils.initVkHeadless();
+        // CI machines without a display rarely have the validation layers installed
+        VulkanUtils.enableValidationLayers = false;
+        renderer = new VulkanRenderer("title", dbgCb, width, height, maxFramesInFlight);
+        System.out.format("Rendering %d frames headless on %s\n", frameCount, renderer.getDevices().getPhysicalDevice().getDeviceName());
+        renderPass = renderer.getOffscreenTarget().createRenderPass(renderer.getDevices().getLogicalDevice());
+        createVertexBuffer();
+        createPipeline();
+        frameBuffers = renderer.getOffscreenTarget().createFrameBuffers(renderer.getDevices().getLogicalDevice(), renderPass);
+        createCommandPool();
+        createRecordInfos();
+        createSyncObjects();
+        loop(frameCount);
+    }
 
-            Vertex[] vertices = new Vertex[]{
-                    new Vertex(new Vector2f(-0.5f, -0.5f), new Vector4f(0.f, 0.f, 1.f, 1.f)),
-                    new Vertex(new Vector2f(-0.5f, 0.5f), new Vector4f(1.f, 0.f, 0.f, 1.f)),
-                    new Vertex(new Vector2f(0.5f, 0.5f), new Vector4f(0.f, 1.f, 0.f, 1.f)),
-                    new Vertex(new Vector2f(0.5f, -0.5f), new Vector4f(1.f, 1.f, 0.f, 1.f)),
-            };
+    private void createVertexBuffer() {
+        // The vertices are written straight into off-heap memory in the layout the pipeline expects
+        VertexStreamBuilder vertices = new VertexStreamBuilder(VERTEX_LAYOUT, VertexStreamBuilder.Layout.INTERLEAVED, 4);
 
-            ByteBuffer vertexData = stack.calloc(Vertex.SIZE_OF * vertices.length);
+        vertices.vertex().put(0, -0.5f, -0.5f).put(1, 0.f, 0.f, 1.f, 1.f);
+        vertices.vertex().put(0, -0.5f, 0.5f).put(1, 1.f, 0.f, 0.f, 1.f);
+        vertices.vertex().put(0, 0.5f, 0.5f).put(1, 0.f, 1.f, 0.f, 1.f);
+        vertices.vertex().put(0, 0.5f, -0.5f).put(1, 1.f, 1.f, 0.f, 1.f);
 
-            for (Vertex vertex : vertices) {
-                vertexData.putFloat(vertex.getPos().x);
-                vertexData.putFloat(vertex.getPos().y);
+        // Duplicate vertices are welded and the triangles and vertices reordered for the vertex cache and fetch
+        Mesh mesh = new MeshOptimizer().optimize(Mesh.from(vertices, VERTEX_LAYOUT, new int[]{0, 2, 1, 0, 3, 2}, 0));
+        vertices.free();
 
-                vertexData.putFloat(vertex.getColor().x);
-                vertexData.putFloat(vertex.getColor().y);
-                vertexData.putFloat(vertex.getColor().z);
-                vertexData.putFloat(vertex.getColor().w);
-            }
+        ByteBuffer vertexData = mesh.getVertices();
 
-            // ------------------ VERTEX BUFFER ---------------------
-            // Used only temporarily for setting the data in the RAM (visible by the CPU), which then will be copied to the GPU
-            VulkanBuffers.Buffer stagingBuffer = renderer.getDevices().createBuffer(VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK_SHARING_MODE_EXCLUSIVE,
-                    VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT | VK_MEMORY_PROPERTY_HOST_COHERENT_BIT, vertexData);
+        // ------------------ VERTEX BUFFER ---------------------
+        // The data is copied into a staging ring (visible by the CPU) and then copied to the GPU in one batch
+        uploader = new VulkanStagingUploader(renderer.getDevices(), 1024 * 1024, 2);
 
-            vertexBuffer = renderer.getDevices().createBuffer(VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_SHARING_MODE_EXCLUSIVE,
-                    VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, vertexData.capacity());
+        vertexBuffer = renderer.getDevices().createBuffer(VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_SHARING_MODE_EXCLUSIVE,
+                VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, vertexData.capacity());
 
-            renderer.getDevices().copyBuffer(stagingBuffer, vertexBuffer,vertexData.capacity());
-            stagingBuffer.destroy(renderer.getDevices().getLogicalDevice());
+        uploader.upload(vertexData, vertexBuffer, 0);
 
-            // ------------------ INDEX BUFFER ---------------------
+        // ------------------ INDEX BUFFER ---------------------
 
-            ByteBuffer indexData = stack.calloc(6 * 4);
+        // 4 vertices fit into 16 bit indices
+        indices = EncodedIndices.encode(mesh.getIndices(), mesh.getVertexCount());
 
-            indexData.putInt(0);
-            indexData.putInt(2);
-            indexData.putInt(1);
-            indexData.putInt(0);
-            indexData.putInt(3);
-            indexData.putInt(2);
+        indexBuffer = renderer.getDevices().createBuffer(VK_BUFFER_USAGE_INDEX_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_SHARING_MODE_EXCLUSIVE,
+                VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, indices.getSizeInBytes());
 
-            stagingBuffer = renderer.getDevices().createBuffer(VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK_SHARING_MODE_EXCLUSIVE,
-                    VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT | VK_MEMORY_PROPERTY_HOST_COHERENT_BIT, indexData);
+        uploader.upload(indices.getData(), indexBuffer, 0);
 
-            indexBuffer = renderer.getDevices().createBuffer(VK_BUFFER_USAGE_INDEX_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_SHARING_MODE_EXCLUSIVE,
-                    VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, indexData.capacity());
-            renderer.getDevices().copyBuffer(stagingBuffer, indexBuffer, indexData.capacity());
+        // Both copies go in a single submit. The barrier at the end of the batch makes them visible to the draws.
+        uploader.flush();
 
-            stagingBuffer.destroy(renderer.getDevices().getLogicalDevice());
+        // The uploader has copied both into its staging memory
+        mesh.free();
+        indices.free();
 
-        }
+        // ------------------ INSTANCE BUFFER ---------------------
+        // Per-instance transforms and colors at binding 1, written every frame
+        instances = new InstanceDataBuffer(renderer.getDevices(), maxFramesInFlight, INSTANCE_GRID * INSTANCE_GRID, 1, 2);
     }
 
-
-    private void memcpy(ByteBuffer buffer, Vertex[] vertices) {
-        for (Vertex vertex : vertices) {
-            buffer.putFloat(vertex.getPos().x);
-            buffer.putFloat(vertex.getPos().y);
-
-            buffer.putFloat(vertex.getColor().x);
-            buffer.putFloat(vertex.getColor().y);
-            buffer.putFloat(vertex.getColor().z);
-            buffer.putFloat(vertex.getColor().z);
-        }
-    }
-
-
     public void createFrameBuffers() {
         frameBuffers = new VulkanFrameBuffer(renderer.getDevices().getLogicalDevice(), renderPass, renderer.getSwapChain());
     }
 
     public void createCommandPool() {
-        commandPool = new VulkanCmdPool(renderer.getDevices().getLogicalDevice(),
-                renderer.getDevices().getPhysicalDevice().getQueueFamilyIndices().getGraphicsFamily().get());
-    }
-
-    public void createCommandBuffer() {
-
-        int commandBufferCount = renderer.getSwapChain().getSwapChainBuffers().length;
-
-        commandBuffers = new ArrayList<>(commandBufferCount);
-
+        // One transient pool per frame in flight, the command buffers are recorded again every frame
+        commandAllocator = new VulkanFrameCommandAllocator(renderer.getDevices().getLogicalDevice(),
+                renderer.getDevices().getPhysicalDevice().getQueueFamilyIndices().getGraphicsFamily().get(), maxFramesInFlight);
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
+        // GPU times of the last 120 frames
+        gpuProfiler = new VulkanGpuProfiler(renderer.getDevices(), maxFramesInFlight, 16, 120);
 
-            for (int i = 0; i < commandBufferCount; i++) {
-                commandBuffers.add(new VulkanCommandBuffer(renderer.getDevices().getLogicalDevice(), commandPool, false));
-            }
+        // Draws sharing the pipeline and the buffers go out as one indirect draw
+        drawBatcher = new IndirectDrawBatcher(renderer.getDevices(), maxFramesInFlight, 1024, 0);
+        quad = new IndirectDrawBatcher.MeshRange(vertexBuffer.pBuffer, 0, indexBuffer.pBuffer, indices.getIndexType(), 0,
+                indices.getIndexCount());
+    }
 
-            VkCommandBufferBeginInfo cmdBufferBeginInfo = VkCommandBufferBeginInfo.calloc(stack);
-            cmdBufferBeginInfo.sType$Default();
+    /**
+     * Allocates the structures the command buffers are begun with. Only the framebuffer changes between the frames,
+     * so the same structures are filled in again instead of creating new ones every frame.
+     */
+    public void createRecordInfos() {
+        cmdBufferBeginInfo = VkCommandBufferBeginInfo.calloc();
+        cmdBufferBeginInfo.sType$Default();
+        cmdBufferBeginInfo.flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+
+        boolean hasDepth = renderer.isHeadless() && renderer.getOffscreenTarget().hasDepth();
+
+        clearValues = VkClearValue.calloc(hasDepth ? 2 : 1);
+        clearValues.get(0).color().float32(0, 0.0f).float32(1, 0.0f).float32(2, 0.0f).float32(3, 0.0f);
+        if (hasDepth)
+            clearValues.get(1).depthStencil().set(1.0f, 0);
+
+        renderPassBeginInfo = VkRenderPassBeginInfo.calloc();
+        renderPassBeginInfo.sType$Default();
+        renderPassBeginInfo.renderPass(renderPass.getRenderPassPtr());
+        renderPassBeginInfo.renderArea().offset().set(0, 0);
+        renderPassBeginInfo.renderArea().extent(renderer.getExtent());
+        renderPassBeginInfo.pClearValues(clearValues);
+    }
 
-            VkRenderPassBeginInfo renderPassBeginInfo = VkRenderPassBeginInfo.calloc(stack);
-            renderPassBeginInfo.sType$Default();
-            renderPassBeginInfo.renderPass(renderPass.getRenderPassPtr());
+    public void recordCommandBuffer(VulkanCommandBuffer buffer, int frameIndex, int imageIndex) {
+        renderPassBeginInfo.framebuffer(frameBuffers.getFrameBuffers()[imageIndex]);
 
-            VkRect2D renderArea = VkRect2D.calloc(stack);
-            renderArea.offset(VkOffset2D.calloc(stack).set(0, 0));
-            renderArea.extent(renderer.getSwapChain().getExtent());
+        buffer.beginCommandBuffer(cmdBufferBeginInfo);
 
-            renderPassBeginInfo.renderArea(renderArea);
+        gpuProfiler.beginFrame(frameIndex, buffer);
+        gpuProfiler.beginScope(buffer, "renderPass");
 
-            VkClearValue.Buffer clearValues = VkClearValue.calloc(1, stack);
-            clearValues.color().float32(stack.floats(0.0f, 0.0f, 0.0f, 0.0f));
-            renderPassBeginInfo.pClearValues(clearValues);
+        buffer.beginRenderPass(renderPassBeginInfo, VK_SUBPASS_CONTENTS_INLINE);
+        {
+            instances.bind(buffer);
 
-            for (int i = 0; i < commandBuffers.size(); i++) {
+            drawBatcher.add(graphicsPipeline, quad, instances.getInstanceCount(), 0);
+            drawBatcher.record(buffer);
+        }
+        buffer.endRenderPass();
 
-                VulkanCommandBuffer buffer = commandBuffers.get(i);
+        gpuProfiler.endScope(buffer);
 
-                renderPassBeginInfo.framebuffer(frameBuffers.getFrameBuffers()[i]);
+        buffer.endCommandBuffer();
+    }
 
-                buffer.beginCommandBuffer(cmdBufferBeginInfo);
+    /**
+     * Packs the transforms and colors of the quad instances of the current frame.
+     */
+    private void updateInstances(int frameIndex) {
+        instances.beginFrame(frameIndex);
 
-                buffer.beginRenderPass(renderPassBeginInfo, VK_SUBPASS_CONTENTS_INLINE);
-                {
-                    buffer.bindPipeline(VK_PIPELINE_BIND_POINT_GRAPHICS, graphicsPipeline);
-                    buffer.bindVertexBuffers(0, vertexBuffer.pBuffer, 0);
-                    buffer.bindIndexBuffer(indexBuffer, VK_INDEX_TYPE_UINT32);
-                    buffer.drawIndexed(6);
-                }
-                buffer.endRenderPass();
+        float cell = 2.f / INSTANCE_GRID;
 
-                buffer.endCommandBuffer();
+        for (int y = 0; y < INSTANCE_GRID; y++) {
+            for (int x = 0; x < INSTANCE_GRID; x++) {
+                instances.add(-1.f + (x + 0.5f) * cell, -1.f + (y + 0.5f) * cell, 0.f, cell * 0.8f,
+                        (float) x / INSTANCE_GRID, (float) y / INSTANCE_GRID, 1.f, 1.f);
             }
-
         }
     }
 
     public void createSyncObjects() {
 
-        imagesInFlight = new HashMap<>(renderer.getSwapChain().getSwapChainImagesSize());
-
         for (int i = 0; i < maxFramesInFlight; i++) {
             VulkanSemaphore imageAvailableSemaphore = new VulkanSemaphore(renderer.getDevices().getLogicalDevice());
             VulkanSemaphore renderFinishedSemaphore = new VulkanSemaphore(renderer.getDevices().getLogicalDevice());
@@ -241,108 +274,134 @@ public class Application {
             inFlightFrames.add(new VulkanFrame(imageAvailableSemaphore, renderFinishedSemaphore, fence));
         }
 
-    }
-
-    public void loop() {
-
-        while (!glfwWindowShouldClose(window.getWindowPtr())) {
-
-            try (MemoryStack stack = MemoryStack.stackPush()) {
-
-                // Draw Section
-
-                VulkanFrame thisFrame = inFlightFrames.get(currentFrame);
-
-                vkWaitForFences(renderer.getDevices().getVkDevice(), thisFrame.getFencePtr(), true, UINT64_MAX);
-
-                IntBuffer pImageIndex = stack.mallocInt(1);
-
-                vkAcquireNextImageKHR(renderer.getDevices().getVkDevice(),
-                        renderer.getSwapChain().getSwapchainPtr(),
-                        UINT64_MAX,
-                        thisFrame.getImageAvailableSemaphorePtr().get(0),
-                        VK_NULL_HANDLE,
-                        pImageIndex);
-                final int imageIndex = pImageIndex.get(0);
-
-                if (imagesInFlight.containsKey(imageIndex)) {
-                    vkWaitForFences(renderer.getDevices().getVkDevice(), imagesInFlight.get(imageIndex).getFencePtr(), true, UINT64_MAX);
-                }
-
-                imagesInFlight.put(imageIndex, thisFrame);
+        // The timeline of the graphics queue replaces the fences if the device supports it (null otherwise)
+        if (renderer.isHeadless())
+            frameLoop = new FrameLoop(renderer.getDevices(), inFlightFrames, renderer.getDevices().getGraphicsTimeline());
+        else
+            frameLoop = new FrameLoop(renderer.getDevices(), renderer.getSwapChain(), inFlightFrames,
+                    renderer.getDevices().getGraphicsTimeline());
 
-                VkSubmitInfo submitInfo = VkSubmitInfo.callocStack(stack);
-                submitInfo.sType(VK_STRUCTURE_TYPE_SUBMIT_INFO);
+        // CPU timings of the frame phases, printed every 5 seconds
+        timers = new PhaseTimers();
+        frameLoop.setTimers(timers);
+        recordPhase = timers.register("record");
+        pollEventsPhase = timers.register("pollEvents");
+        timers.setDumpInterval(5_000_000_000L, System.out, true);
 
-                submitInfo.waitSemaphoreCount(1);
-                submitInfo.pWaitSemaphores(thisFrame.getImageAvailableSemaphorePtr());
-                submitInfo.pWaitDstStageMask(stack.ints(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT));
-
-                submitInfo.pSignalSemaphores(thisFrame.getRenderFinishedSemaphorePtr());
-
-                submitInfo.pCommandBuffers(stack.pointers(commandBuffers.get(imageIndex).getVkCommandBuffer()));
+    }
 
-                vkResetFences(renderer.getDevices().getVkDevice(), thisFrame.getFencePtr());
+    /**
+     * @param frameCount - Number of frames to render, or -1 to render until the window is closed.
+     */
+    public void loop(int frameCount) {
 
-                if (vkQueueSubmit(renderer.getDevices().getLogicalDevice().getGraphicsQueue(), submitInfo, thisFrame.getFencePtr().get(0)) != VK_SUCCESS) {
-                    throw new RuntimeException("Failed to submit draw command buffer");
-                }
+        for (int frame = 0; frameCount < 0 ? !glfwWindowShouldClose(window.getWindowPtr()) : frame < frameCount; frame++) {
 
-                // Presentation Section
+            // Draw Section
+            int imageIndex = frameLoop.acquire();
 
-                VkPresentInfoKHR presentInfo = VkPresentInfoKHR.callocStack(stack);
-                presentInfo.sType(VK_STRUCTURE_TYPE_PRESENT_INFO_KHR);
+            // acquire() has waited for the previous submit of the frame, so its command pool can be reset
+            commandAllocator.beginFrame(frameLoop.getCurrentFrame());
+            drawBatcher.beginFrame(frameLoop.getCurrentFrame());
+            updateInstances(frameLoop.getCurrentFrame());
 
-                presentInfo.pWaitSemaphores(thisFrame.getRenderFinishedSemaphorePtr());
+            long start = timers.start();
 
-                presentInfo.swapchainCount(1);
-                presentInfo.pSwapchains(stack.longs(renderer.getSwapChain().getSwapchainPtr()));
+            VulkanCommandBuffer commandBuffer = commandAllocator.allocate();
+            recordCommandBuffer(commandBuffer, frameLoop.getCurrentFrame(), imageIndex);
 
-                presentInfo.pImageIndices(pImageIndex);
+            timers.stop(recordPhase, start);
 
-                vkQueuePresentKHR(renderer.getDevices().getLogicalDevice().getPresentQueue(), presentInfo);
+            frameLoop.submit(commandBuffer.getVkCommandBuffer());
 
-                currentFrame = (currentFrame + 1) % maxFramesInFlight;
+            // Presentation Section
+            frameLoop.present();
 
+            if (window != null) {
+                start = timers.start();
                 glfwPollEvents();
+                timers.stop(pollEventsPhase, start);
             }
+
+            timers.frameTick();
         }
 
         // Wait for the device to complete all operations before releasing resources
         vkDeviceWaitIdle(renderer.getDevices().getVkDevice());
 
+        if (renderer.isHeadless())
+            timers.dump(System.out);
+
         vertexBuffer.destroy(renderer.getDevices().getLogicalDevice());
+        indexBuffer.destroy(renderer.getDevices().getLogicalDevice());
+        uploader.destroy(renderer.getDevices().getLogicalDevice());
+        frameLoop.destroy();
+        commandAllocator.destroy(renderer.getDevices().getLogicalDevice());
+        drawBatcher.destroy(renderer.getDevices().getLogicalDevice());
+        instances.destroy(renderer.getDevices().getLogicalDevice());
+        gpuProfiler.destroy(renderer.getDevices().getLogicalDevice());
+        renderer.getDevices().destroyTimelines();
+
+        cmdBufferBeginInfo.free();
+        renderPassBeginInfo.free();
+        clearValues.free();
+
+        // Destroyed in the reverse order of their creation, the framebuffers reference the render pass and the
+        // offscreen images
+        frameBuffers.destroy(renderer.getDevices().getLogicalDevice());
+        graphicsPipeline.destroy(renderer.getDevices().getLogicalDevice());
+        renderPass.destroy(renderer.getDevices().getLogicalDevice());
+
+        if (renderer.isHeadless())
+            renderer.getOffscreenTarget().destroy(renderer.getDevices().getLogicalDevice());
+
+        // Saves the pipeline cache, so the next launch doesn't have to compile the pipelines again
+        renderer.getDevices().getPipelineCache().destroy(renderer.getDevices().getLogicalDevice());
+
+        // Every buffer and image has been freed by now, the allocator goes last
+        renderer.getDevices().getVma().destroy(renderer.getDevices().getLogicalDevice());
+        renderer.getDevices().getPhysicalDevice().destroy();
     }
 
     public void createPipeline() {
         try (MemoryStack stack = MemoryStack.stackPush()) {
 
-            SPIRVShaderCode fragShader = compileShaderFileIntoSPIRV("shaders/fragment_shader.frag", ShaderUtils.ShaderType.FRAGMENT_SHADER);
-            SPIRVShaderCode vertShader = compileShaderFileIntoSPIRV("shaders/vertex_shader.vert", ShaderUtils.ShaderType.VERTEX_SHADER);
+            ShaderCache shaderCache = new ShaderCache(Paths.get(".cache", "shaders"));
+
+            SPIRVShaderCode fragShader;
+            SPIRVShaderCode vertShader;
+
+            // Both shaders are compiled (or loaded from the cache) in parallel
+            try (ShaderCompilerPool compilerPool = new ShaderCompilerPool(2, shaderCache)) {
+                List<CompletableFuture<SPIRVShaderCode>> shaders = compilerPool.compileAll(List.of(
+                        new ShaderSource("shaders/fragment_shader.frag", ShaderUtils.ShaderType.FRAGMENT_SHADER),
+                        new ShaderSource("shaders/instanced_vertex_shader.vert", ShaderUtils.ShaderType.VERTEX_SHADER)
+                ));
+
+                fragShader = shaders.get(0).join();
+                vertShader = shaders.get(1).join();
+            }
 
             ShaderModule vertShaderModule = createShaderModule(renderer.getDevices().getLogicalDevice(), vertShader);
             ShaderModule fragShaderModule = createShaderModule(renderer.getDevices().getLogicalDevice(), fragShader);
 
             ShaderModule[] modules = new ShaderModule[]{vertShaderModule, fragShaderModule};
 
-            // Binding the vertex Buffer ...
-            VulkanBuffers.Attribute[] attributes = new VulkanBuffers.Attribute[]{
-                    new VulkanBuffers.Attribute(0, VK_FORMAT_R32G32_SFLOAT, 0, 8),
-                    new VulkanBuffers.Attribute(1, VK_FORMAT_R32G32B32A32_SFLOAT, 8, 16),
-            };
-
-            VulkanBuffers.VertexBuffer vertexBuffer = new VulkanBuffers.VertexBuffer(0, attributes);
-
             graphicsPipeline = new VulkanGraphicsPipeline(modules);
 
-            graphicsPipeline.setupVertexStage(vertexBuffer.createAttributeDescriptions(),
-                            vertexBuffer.createBindingDescription())                                // ===> VERTEX STAGE <===
+            graphicsPipeline.setupVertexStage(VERTEX_LAYOUT, instances.getLayout())           // ===> VERTEX STAGE <===
                     .setupInputAssembly(VK_PRIMITIVE_TOPOLOGY_TRIANGLE_LIST)                        // ===> ASSEMBLY STAGE <===
-                    .setupDefaultViewport(renderer.getSwapChain().getExtent())                      // ===> VIEWPORT & SCISSOR <===
+                    .setupDefaultViewport(renderer.getExtent())                                     // ===> VIEWPORT & SCISSOR <===
                     .setupDefaultRasterization()                                                    // ===> RASTERIZATION STAGE <===
                     .setupDefaultMultiSampling(VK_SAMPLE_COUNT_1_BIT, false)    // ===> MULTISAMPLING <===
-                    .setupColorBlending(false)                                                      // ===> COLOR BLENDING <===
-                    .initializePipeline(renderer.getDevices().getLogicalDevice(), renderPass);      // ===> PIPELINE CREATION <===
+                    .setupColorBlending(false);                                                     // ===> COLOR BLENDING <===
+
+            if (renderer.isHeadless() && renderer.getOffscreenTarget().hasDepth())
+                graphicsPipeline.setupDepthStencil(true, true, VK_COMPARE_OP_LESS);        // ===> DEPTH TEST <===
+
+            graphicsPipeline
+                    .initializePipeline(renderer.getDevices().getLogicalDevice(), renderPass,
+                            renderer.getDevices().getPipelineCache());                              // ===> PIPELINE CREATION <===
 
             vertShader.free();
             fragShader.free();
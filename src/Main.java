@@ -1,6 +1,13 @@
 public class Main {
     public static void main(String[] args) {
         Application app = new Application();
+
+        // --headless <frames> renders the given number of frames offscreen, without a window
+        if (args.length == 2 && args[0].equals("--headless")) {
+            app.runHeadless(1024, 768, Integer.parseInt(args[1]));
+            return;
+        }
+
         app.run(1024, 768);
     }
 }
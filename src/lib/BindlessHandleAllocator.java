@@ -0,0 +1,117 @@
+package lib;
+
+import java.util.Arrays;
+
+/**
+ * Pure bookkeeping allocator of stable integer handles (indices into a descriptor array) for the frames in flight.
+ * A released handle isn't handed out again right away. It waits in the list of the frame it was released in, until
+ * that frame slot begins again, i.e. until every frame which could still read the old descriptor has been retired.
+ * <p>
+ * It doesn't touch any Vulkan object, so it can be used and measured without a GPU.
+ */
+public class BindlessHandleAllocator {
+
+    /**
+     * Returned by {@link #allocate()} when every handle is in use.
+     */
+    public static final int NO_HANDLE = -1;
+
+    private final int capacity;
+
+    private int[] freeHandles;
+    private int freeCount = 0;
+    private int nextHandle = 0;
+
+    private final int[][] retired;
+    private final int[] retiredCounts;
+    private int frameIndex = 0;
+
+    private final boolean[] live;
+    private int liveCount = 0;
+
+    /**
+     * @param capacity       - Number of handles, the size of the descriptor array.
+     * @param framesInFlight - How many frames can be processed at once.
+     */
+    public BindlessHandleAllocator(int capacity, int framesInFlight) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity of the allocator has to be greater than 0!");
+
+        this.capacity = capacity;
+        freeHandles = new int[16];
+        retired = new int[framesInFlight][16];
+        retiredCounts = new int[framesInFlight];
+        live = new boolean[capacity];
+    }
+
+    /**
+     * Starts a frame. The handles released during the previous use of the frame slot become free again.
+     */
+    public void beginFrame(int frameIndex) {
+        this.frameIndex = frameIndex;
+
+        int count = retiredCounts[frameIndex];
+        ensureFreeCapacity(freeCount + count);
+        System.arraycopy(retired[frameIndex], 0, freeHandles, freeCount, count);
+
+        freeCount += count;
+        retiredCounts[frameIndex] = 0;
+    }
+
+    /**
+     * @return A handle which isn't in use, or {@link #NO_HANDLE} if all are.
+     */
+    public int allocate() {
+        int handle;
+
+        // Fresh handles first keep the used part of the array compact
+        if (nextHandle < capacity)
+            handle = nextHandle++;
+        else if (freeCount > 0)
+            handle = freeHandles[--freeCount];
+        else
+            return NO_HANDLE;
+
+        live[handle] = true;
+        liveCount++;
+        return handle;
+    }
+
+    /**
+     * Releases a handle. It can be allocated again once the current frame slot begins again.
+     */
+    public void release(int handle) {
+        if (handle < 0 || handle >= capacity || !live[handle])
+            throw new IllegalArgumentException(String.format("Handle %d isn't allocated!", handle));
+
+        live[handle] = false;
+        liveCount--;
+
+        int count = retiredCounts[frameIndex];
+        if (count == retired[frameIndex].length)
+            retired[frameIndex] = Arrays.copyOf(retired[frameIndex], count * 2);
+
+        retired[frameIndex][count] = handle;
+        retiredCounts[frameIndex] = count + 1;
+    }
+
+    private void ensureFreeCapacity(int required) {
+        if (freeHandles.length < required)
+            freeHandles = Arrays.copyOf(freeHandles, Math.max(required, freeHandles.length * 2));
+    }
+
+    public boolean isAllocated(int handle) {
+        return handle >= 0 && handle < capacity && live[handle];
+    }
+
+    /**
+     * @return Number of handles in use.
+     */
+    public int getLiveCount() {
+        return liveCount;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
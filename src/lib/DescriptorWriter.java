@@ -0,0 +1,170 @@
+package lib;
+
+import java.util.Arrays;
+
+import static org.lwjgl.vulkan.VK10.VK_WHOLE_SIZE;
+
+/**
+ * Describes the resources bound to a single descriptor set. The writer is only a plain list of values, so it can be
+ * reused every frame, compared against the content of an already written set, and hashed by the
+ * {@link VulkanFrameDescriptors} set cache:
+ * <pre>{@code
+ * writer.clear()
+ *       .buffer(0, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER, cameraBuffer)
+ *       .image(1, VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER, textureView, sampler, VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+ * long set = descriptors.getSet(layout, writer);
+ * }</pre>
+ * The writes are stored in the order they are added, so the same resources have to be added in the same order for
+ * a cache hit.
+ */
+public class DescriptorWriter {
+
+    static final int KIND_BUFFER = 0;
+    static final int KIND_IMAGE = 1;
+
+    /**
+     * binding, array element, descriptor type, kind, buffer or image view, offset or sampler, range or image layout
+     */
+    static final int FIELDS = 7;
+
+    long[] writes;
+    int writeCount = 0;
+
+    public DescriptorWriter() {
+        this(4);
+    }
+
+    /**
+     * @param capacity - How many writes fit in before the writer has to grow.
+     */
+    public DescriptorWriter(int capacity) {
+        writes = new long[Math.max(1, capacity) * FIELDS];
+    }
+
+    /**
+     * Binds a range of a buffer.
+     *
+     * @param binding - Binding of the descriptor in the set layout.
+     * @param type    - VkDescriptorType (for ex. VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER).
+     * @param buffer  - VkBuffer handle.
+     * @param offset  - Offset of the range in bytes.
+     * @param range   - Size of the range in bytes, or VK_WHOLE_SIZE.
+     * @return this
+     */
+    public DescriptorWriter buffer(int binding, int type, long buffer, long offset, long range) {
+        return buffer(binding, 0, type, buffer, offset, range);
+    }
+
+    /**
+     * Binds a range of a buffer to an element of an array binding.
+     *
+     * @param arrayElement - Element of the binding's array.
+     * @return this
+     */
+    public DescriptorWriter buffer(int binding, int arrayElement, int type, long buffer, long offset, long range) {
+        put(binding, arrayElement, type, KIND_BUFFER, buffer, offset, range);
+        return this;
+    }
+
+    /**
+     * Binds the whole range of a buffer view allocated from a {@link VulkanBufferPool}.
+     *
+     * @return this
+     */
+    public DescriptorWriter buffer(int binding, int type, VulkanBuffers.BufferView view) {
+        return buffer(binding, 0, type, view.pBuffer, view.offset, view.size);
+    }
+
+    /**
+     * Binds a whole buffer.
+     *
+     * @return this
+     */
+    public DescriptorWriter buffer(int binding, int type, VulkanBuffers.Buffer buffer) {
+        return buffer(binding, 0, type, buffer.pBuffer, 0L, VK_WHOLE_SIZE);
+    }
+
+    /**
+     * Binds an image, a sampler or both.
+     *
+     * @param binding     - Binding of the descriptor in the set layout.
+     * @param type        - VkDescriptorType (for ex. VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER).
+     * @param imageView   - VkImageView handle. VK_NULL_HANDLE for a plain sampler.
+     * @param sampler     - VkSampler handle. VK_NULL_HANDLE for an image without a sampler.
+     * @param imageLayout - Layout the image is in when the set is used.
+     * @return this
+     */
+    public DescriptorWriter image(int binding, int type, long imageView, long sampler, int imageLayout) {
+        return image(binding, 0, type, imageView, sampler, imageLayout);
+    }
+
+    /**
+     * Binds an image, a sampler or both to an element of an array binding.
+     *
+     * @param arrayElement - Element of the binding's array.
+     * @return this
+     */
+    public DescriptorWriter image(int binding, int arrayElement, int type, long imageView, long sampler, int imageLayout) {
+        put(binding, arrayElement, type, KIND_IMAGE, imageView, sampler, imageLayout);
+        return this;
+    }
+
+    private void put(int binding, int arrayElement, int type, int kind, long handle, long offsetOrSampler, long rangeOrLayout) {
+        if (writeCount * FIELDS == writes.length)
+            writes = Arrays.copyOf(writes, writes.length * 2);
+
+        int base = writeCount * FIELDS;
+        writes[base] = binding;
+        writes[base + 1] = arrayElement;
+        writes[base + 2] = type;
+        writes[base + 3] = kind;
+        writes[base + 4] = handle;
+        writes[base + 5] = offsetOrSampler;
+        writes[base + 6] = rangeOrLayout;
+
+        writeCount++;
+    }
+
+    /**
+     * Removes all writes, keeps the memory.
+     *
+     * @return this
+     */
+    public DescriptorWriter clear() {
+        writeCount = 0;
+        return this;
+    }
+
+    public int getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * @return 64-bit hash of the layout and every write.
+     */
+    long hash(long layout) {
+        long hash = layout * 0x9E3779B97F4A7C15L;
+
+        for (int i = 0; i < writeCount * FIELDS; i++) {
+            hash ^= writes[i];
+            hash *= 0xBF58476D1CE4E5B9L;
+            hash ^= hash >>> 31;
+        }
+
+        return hash;
+    }
+
+    /**
+     * @return Whether the writes are the same as the stored ones.
+     */
+    boolean matches(long[] stored, int storedCount) {
+        return storedCount == writeCount && Arrays.equals(writes, 0, writeCount * FIELDS, stored, 0, writeCount * FIELDS);
+    }
+
+    /**
+     * @return A copy of the writes, to be kept next to a cached set.
+     */
+    long[] copyWrites() {
+        return Arrays.copyOf(writes, writeCount * FIELDS);
+    }
+}
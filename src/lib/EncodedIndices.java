@@ -0,0 +1,108 @@
+package lib;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.NativeResource;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.vulkan.VK10.VK_INDEX_TYPE_UINT16;
+import static org.lwjgl.vulkan.VK10.VK_INDEX_TYPE_UINT32;
+
+/**
+ * Index data in the smallest index type the mesh allows. If every index fits into 16 bits, the indices are stored
+ * as VK_INDEX_TYPE_UINT16, which halves the size of the index buffer and the bandwidth of the index fetch.
+ * 0xFFFF is never used as an index, so the 16 bit data stays valid with primitive restart enabled.
+ * <p>
+ * The data is allocated off-heap and has to be released with {@link #free()}.
+ */
+public class EncodedIndices implements NativeResource {
+
+    /**
+     * The biggest vertex count whose indices can be narrowed to 16 bits (0xFFFF is reserved for primitive restart).
+     */
+    public static final int MAX_UINT16_VERTEX_COUNT = 0xFFFF;
+
+    private ByteBuffer data;
+    private final int indexType;
+    private final int indexCount;
+
+    private EncodedIndices(ByteBuffer data, int indexType, int indexCount) {
+        this.data = data;
+        this.indexType = indexType;
+        this.indexCount = indexCount;
+    }
+
+    public static EncodedIndices encode(int[] indices, int vertexCount) {
+        return encode(IntBuffer.wrap(indices), vertexCount);
+    }
+
+    /**
+     * Validates the indices and stores them as 16 bit indices if the vertex count allows it, otherwise as 32 bit.
+     *
+     * @param indices     - The indices from the position to the limit of the buffer are encoded.
+     * @param vertexCount - Number of vertices the indices point into.
+     * @throws IllegalArgumentException if an index is negative or points behind the last vertex.
+     */
+    public static EncodedIndices encode(IntBuffer indices, int vertexCount) {
+        int count = indices.remaining();
+        int start = indices.position();
+
+        boolean narrow = vertexCount <= MAX_UINT16_VERTEX_COUNT;
+
+        ByteBuffer data = MemoryUtil.memAlloc(count * (narrow ? 2 : 4));
+        long address = MemoryUtil.memAddress(data);
+
+        for (int i = 0; i < count; i++) {
+            int index = indices.get(start + i);
+
+            if (index < 0 || index >= vertexCount) {
+                MemoryUtil.memFree(data);
+                throw new IllegalArgumentException(String.format("Index %d at position %d is out of range! Vertex count: %d",
+                        index, i, vertexCount));
+            }
+
+            if (narrow)
+                MemoryUtil.memPutShort(address + i * 2L, (short) index);
+            else
+                MemoryUtil.memPutInt(address + i * 4L, index);
+        }
+
+        return new EncodedIndices(data, narrow ? VK_INDEX_TYPE_UINT16 : VK_INDEX_TYPE_UINT32, count);
+    }
+
+    /**
+     * @return The encoded indices, ready for an upload.
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    /**
+     * @return VK_INDEX_TYPE_UINT16 or VK_INDEX_TYPE_UINT32, to be passed to vkCmdBindIndexBuffer.
+     */
+    public int getIndexType() {
+        return indexType;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    public int getSizeInBytes() {
+        return data.capacity();
+    }
+
+    /**
+     * @return How many bytes the encoding saved compared to 32 bit indices.
+     */
+    public int getSavedBytes() {
+        return indexCount * 4 - getSizeInBytes();
+    }
+
+    @Override
+    public void free() {
+        MemoryUtil.memFree(data);
+        data = null;
+    }
+}
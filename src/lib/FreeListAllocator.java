@@ -0,0 +1,177 @@
+package lib;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Pure bookkeeping allocator which hands out aligned [offset, offset + size) ranges from a linear address space of
+ * a fixed capacity. It doesn't touch any Vulkan object, so it can be used for sub-allocating ranges of a VkBuffer or
+ * a VkDeviceMemory block as well as tested and measured without a GPU.
+ * <p>
+ * Free ranges are kept sorted both by offset (for coalescing neighbours on free) and by size (for a best-fit search).
+ */
+public class FreeListAllocator {
+
+    /**
+     * Returned by {@link #allocate(long, long)} when there isn't a free range big enough.
+     */
+    public static final long NO_SPACE = -1L;
+
+    private final long capacity;
+
+    private final TreeMap<Long, Long> freeByOffset = new TreeMap<>();
+    private final TreeSet<long[]> freeBySize = new TreeSet<>((a, b) -> a[1] != b[1] ? Long.compare(a[1], b[1]) : Long.compare(a[0], b[0]));
+    private final Map<Long, Long> allocations = new HashMap<>();
+
+    private long usedBytes = 0L;
+
+    /**
+     * @param capacity - Size of the address space in bytes.
+     */
+    public FreeListAllocator(long capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity of the allocator has to be greater than 0!");
+
+        this.capacity = capacity;
+        addFreeRange(0L, capacity);
+    }
+
+    /**
+     * Allocates a range of the given size.
+     *
+     * @param size      - How many bytes to allocate.
+     * @param alignment - Required alignment of the returned offset. Has to be a power of two.
+     * @return offset of the range or {@link #NO_SPACE} if no free range is big enough.
+     */
+    public long allocate(long size, long alignment) {
+        if (size <= 0)
+            throw new IllegalArgumentException("Size of the allocation has to be greater than 0!");
+
+        if (alignment <= 0 || (alignment & (alignment - 1)) != 0)
+            throw new IllegalArgumentException(String.format("Alignment has to be a power of two! Value is %d", alignment));
+
+        // Best fit: walk the free ranges from the smallest one which could possibly fit.
+        for (long[] range : freeBySize.tailSet(new long[]{-1L, size}, true)) {
+            long rangeOffset = range[0];
+            long rangeSize = range[1];
+
+            long alignedOffset = alignUp(rangeOffset, alignment);
+            long padding = alignedOffset - rangeOffset;
+
+            if (rangeSize - padding < size)
+                continue;
+
+            removeFreeRange(rangeOffset, rangeSize);
+
+            // Give back the parts in front of and behind the allocation.
+            if (padding > 0)
+                addFreeRange(rangeOffset, padding);
+
+            long tail = rangeSize - padding - size;
+            if (tail > 0)
+                addFreeRange(alignedOffset + size, tail);
+
+            allocations.put(alignedOffset, size);
+            usedBytes += size;
+
+            return alignedOffset;
+        }
+
+        return NO_SPACE;
+    }
+
+    /**
+     * Returns the range starting at the given offset back to the allocator and merges it with its free neighbours.
+     *
+     * @param offset - Offset previously returned by {@link #allocate(long, long)}
+     */
+    public void free(long offset) {
+        Long size = allocations.remove(offset);
+
+        if (size == null)
+            throw new IllegalArgumentException(String.format("No allocation exists at offset %d!", offset));
+
+        usedBytes -= size;
+
+        long start = offset;
+        long end = offset + size;
+
+        Map.Entry<Long, Long> previous = freeByOffset.floorEntry(start);
+        if (previous != null && previous.getKey() + previous.getValue() == start) {
+            removeFreeRange(previous.getKey(), previous.getValue());
+            start = previous.getKey();
+        }
+
+        Long nextSize = freeByOffset.get(end);
+        if (nextSize != null) {
+            removeFreeRange(end, nextSize);
+            end += nextSize;
+        }
+
+        addFreeRange(start, end - start);
+    }
+
+    /**
+     * Frees every allocation at once.
+     */
+    public void reset() {
+        freeByOffset.clear();
+        freeBySize.clear();
+        allocations.clear();
+        usedBytes = 0L;
+
+        addFreeRange(0L, capacity);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getFreeBytes() {
+        return capacity - usedBytes;
+    }
+
+    public int getAllocationCount() {
+        return allocations.size();
+    }
+
+    public int getFreeRangeCount() {
+        return freeByOffset.size();
+    }
+
+    public long getLargestFreeRange() {
+        return freeBySize.isEmpty() ? 0L : freeBySize.last()[1];
+    }
+
+    /**
+     * @return 0 if all of the free memory is one contiguous range, approaching 1 the more it is scattered.
+     */
+    public double getFragmentation() {
+        long free = getFreeBytes();
+        return free == 0 ? 0.0 : 1.0 - (double) getLargestFreeRange() / free;
+    }
+
+    public boolean isEmpty() {
+        return allocations.isEmpty();
+    }
+
+    public static long alignUp(long value, long alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+
+    private void addFreeRange(long offset, long size) {
+        freeByOffset.put(offset, size);
+        freeBySize.add(new long[]{offset, size});
+    }
+
+    private void removeFreeRange(long offset, long size) {
+        freeByOffset.remove(offset);
+        freeBySize.remove(new long[]{offset, size});
+    }
+}
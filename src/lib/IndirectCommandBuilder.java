@@ -0,0 +1,121 @@
+package lib;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.NativeResource;
+import org.lwjgl.vulkan.VkDrawIndexedIndirectCommand;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Off-heap array of VkDrawIndexedIndirectCommand structures. The commands are written with MemoryUtil directly,
+ * no struct object is created per draw:
+ * <pre>{@code
+ * builder.add(indexCount, 1, firstIndex, vertexOffset, drawId);
+ * long offset = builder.write(ringBuffer);
+ * commandBuffer.drawIndexedIndirect(ringBuffer.getBuffer(), offset, builder.getCommandCount(), IndirectCommandBuilder.STRIDE);
+ * }</pre>
+ * The memory grows when it is full and has to be released with {@link #free()}.
+ */
+public class IndirectCommandBuilder implements NativeResource {
+
+    /**
+     * Size of a tightly packed command, to be passed as the stride of the indirect draw.
+     */
+    public static final int STRIDE = VkDrawIndexedIndirectCommand.SIZEOF;
+
+    private ByteBuffer data;
+    private long address;
+    private int capacity;
+    private int commandCount = 0;
+
+    /**
+     * @param capacity - How many commands fit in before the memory has to grow.
+     */
+    public IndirectCommandBuilder(int capacity) {
+        this.capacity = Math.max(1, capacity);
+
+        data = MemoryUtil.memAlloc(this.capacity * STRIDE);
+        address = MemoryUtil.memAddress(data);
+    }
+
+    /**
+     * Appends a command.
+     *
+     * @param indexCount    - Number of indices to draw.
+     * @param instanceCount - Number of instances. 0 skips the draw.
+     * @param firstIndex    - First index in the bound index buffer.
+     * @param vertexOffset  - Value added to every index before the vertex is fetched.
+     * @param firstInstance - First instance. Other than 0 only with the drawIndirectFirstInstance feature, commonly
+     *                      used as a draw id (gl_InstanceIndex) to look up per draw data.
+     * @return Index of the command.
+     */
+    public int add(int indexCount, int instanceCount, int firstIndex, int vertexOffset, int firstInstance) {
+        if (commandCount == capacity) {
+            capacity *= 2;
+            data = MemoryUtil.memRealloc(data, capacity * STRIDE);
+            address = MemoryUtil.memAddress(data);
+        }
+
+        long command = address + (long) commandCount * STRIDE;
+
+        MemoryUtil.memPutInt(command + VkDrawIndexedIndirectCommand.INDEXCOUNT, indexCount);
+        MemoryUtil.memPutInt(command + VkDrawIndexedIndirectCommand.INSTANCECOUNT, instanceCount);
+        MemoryUtil.memPutInt(command + VkDrawIndexedIndirectCommand.FIRSTINDEX, firstIndex);
+        MemoryUtil.memPutInt(command + VkDrawIndexedIndirectCommand.VERTEXOFFSET, vertexOffset);
+        MemoryUtil.memPutInt(command + VkDrawIndexedIndirectCommand.FIRSTINSTANCE, firstInstance);
+
+        return commandCount++;
+    }
+
+    /**
+     * Changes the instance count of an already added command, for ex. to skip a culled draw.
+     */
+    public void setInstanceCount(int command, int instanceCount) {
+        if (command < 0 || command >= commandCount)
+            throw new IndexOutOfBoundsException(String.format("Command %d doesn't exist! Command count: %d", command, commandCount));
+
+        MemoryUtil.memPutInt(address + (long) command * STRIDE + VkDrawIndexedIndirectCommand.INSTANCECOUNT, instanceCount);
+    }
+
+    /**
+     * Copies the commands into the current frame partition of the ring buffer. The ring buffer has to be created with
+     * VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT.
+     *
+     * @return Offset of the first command in the ring buffer, to be passed to the indirect draw.
+     */
+    public long write(VulkanFrameRingBuffer ringBuffer) {
+        long size = (long) commandCount * STRIDE;
+
+        // Copies between the addresses, a ByteBuffer view would be a new object for every batch and frame
+        long offset = ringBuffer.allocate(size, 4);
+        MemoryUtil.memCopy(address, ringBuffer.getAddress(offset), size);
+        return offset;
+    }
+
+    /**
+     * Creates a new ByteBuffer object, so it is meant for inspecting the commands rather than for the frame loop.
+     *
+     * @return A view of the added commands. Valid until the builder is freed or more commands are added.
+     */
+    public ByteBuffer getData() {
+        return MemoryUtil.memByteBuffer(address, commandCount * STRIDE);
+    }
+
+    public int getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * Discards the added commands. Keeps the memory.
+     */
+    public void reset() {
+        commandCount = 0;
+    }
+
+    @Override
+    public void free() {
+        MemoryUtil.memFree(data);
+        data = null;
+        address = MemoryUtil.NULL;
+    }
+}
@@ -0,0 +1,317 @@
+package lib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Collects the draws of a frame and records every group of meshes which shares a pipeline, a vertex buffer and an
+ * index buffer (for ex. blocks of a {@link VulkanBufferPool} used as a mega-buffer) as a single indirect draw.
+ * The number of recorded commands grows with the number of batches instead of the number of draws.
+ * <p>
+ * The draw commands are written into a per-frame {@link VulkanFrameRingBuffer}:
+ * <pre>{@code
+ * batcher.beginFrame(frameIndex);
+ * for (...) batcher.add(pipeline, mesh, 1, drawId);
+ * batcher.record(commandBuffer); // inside the render pass
+ * }</pre>
+ * Without the multiDrawIndirect feature every command becomes an indirect draw of its own, which is still correct.
+ */
+public class IndirectDrawBatcher implements VulkanResource {
+
+    /**
+     * A mesh inside shared vertex and index buffers.
+     */
+    public static class MeshRange {
+        public final long vertexBuffer;
+        public final int vertexOffset;
+        public final long indexBuffer;
+        public final int indexType;
+        public final int firstIndex;
+        public final int indexCount;
+
+        /**
+         * @param vertexBuffer - VkBuffer with the vertices, bound at offset 0.
+         * @param vertexOffset - Index of the first vertex of the mesh in the vertex buffer.
+         * @param indexBuffer  - VkBuffer with the indices, bound at offset 0.
+         * @param indexType    - VK_INDEX_TYPE_UINT16 or VK_INDEX_TYPE_UINT32.
+         * @param firstIndex   - Index of the first index of the mesh in the index buffer.
+         * @param indexCount   - Number of indices of the mesh.
+         */
+        public MeshRange(long vertexBuffer, int vertexOffset, long indexBuffer, int indexType, int firstIndex, int indexCount) {
+            this.vertexBuffer = vertexBuffer;
+            this.vertexOffset = vertexOffset;
+            this.indexBuffer = indexBuffer;
+            this.indexType = indexType;
+            this.firstIndex = firstIndex;
+            this.indexCount = indexCount;
+        }
+
+        /**
+         * Creates a range from views allocated from buffer pools.
+         *
+         * @param vertices     - View with the vertices. Its offset has to be a multiple of the stride.
+         * @param vertexStride - Size of a vertex in bytes.
+         * @param indices      - View with the indices. Its offset has to be a multiple of the index size.
+         * @param indexType    - VK_INDEX_TYPE_UINT16 or VK_INDEX_TYPE_UINT32.
+         * @param indexCount   - Number of indices of the mesh.
+         */
+        public static MeshRange of(VulkanBuffers.BufferView vertices, int vertexStride, VulkanBuffers.BufferView indices,
+                                   int indexType, int indexCount) {
+            int indexSize = indexType == VK_INDEX_TYPE_UINT16 ? 2 : 4;
+
+            if (vertices.offset % vertexStride != 0)
+                throw new IllegalArgumentException("Offset of the vertex view isn't a multiple of the vertex stride!");
+
+            if (indices.offset % indexSize != 0)
+                throw new IllegalArgumentException("Offset of the index view isn't a multiple of the index size!");
+
+            return new MeshRange(vertices.pBuffer, (int) (vertices.offset / vertexStride), indices.pBuffer, indexType,
+                    (int) (indices.offset / indexSize), indexCount);
+        }
+    }
+
+    private static class Batch {
+        VulkanGraphicsPipeline pipeline;
+        long vertexBuffer;
+        long indexBuffer;
+        int indexType;
+        final IndirectCommandBuilder commands;
+
+        Batch(int capacity) {
+            this.commands = new IndirectCommandBuilder(capacity);
+        }
+
+        Batch set(VulkanGraphicsPipeline pipeline, MeshRange mesh) {
+            this.pipeline = pipeline;
+            this.vertexBuffer = mesh.vertexBuffer;
+            this.indexBuffer = mesh.indexBuffer;
+            this.indexType = mesh.indexType;
+            return this;
+        }
+
+        boolean matches(VulkanGraphicsPipeline pipeline, MeshRange mesh) {
+            return this.pipeline == pipeline && vertexBuffer == mesh.vertexBuffer && indexBuffer == mesh.indexBuffer
+                    && indexType == mesh.indexType;
+        }
+    }
+
+    private final VulkanFrameRingBuffer ringBuffer;
+    private final int vertexBinding;
+    private final int maxDrawCount;
+    private final boolean firstInstanceSupported;
+
+    /**
+     * How many batches without draws are kept for reuse, the rest is freed.
+     */
+    private static final int MAX_SPARE_BATCHES = 16;
+
+    private final List<Batch> batches = new ArrayList<>();
+    private final List<Batch> spareBatches = new ArrayList<>();
+    private Batch lastBatch = null;
+
+    private int drawCount = 0;
+    private int lastBatchCount = 0;
+    private int lastIndirectCallCount = 0;
+    private int lastDrawCount = 0;
+
+    /**
+     * @param devices          - VulkanDevices object which owns the VMA allocator.
+     * @param framesInFlight   - How many frames can be processed at once.
+     * @param maxDrawsPerFrame - How many draws fit into the commands of a single frame.
+     * @param vertexBinding    - Binding the vertex buffers are bound to.
+     */
+    public IndirectDrawBatcher(VulkanDevices devices, int framesInFlight, int maxDrawsPerFrame, int vertexBinding) {
+        this.ringBuffer = new VulkanFrameRingBuffer(devices, VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT, framesInFlight,
+                (long) maxDrawsPerFrame * IndirectCommandBuilder.STRIDE);
+        this.vertexBinding = vertexBinding;
+        this.maxDrawCount = devices.getLogicalDevice().getMaxDrawIndirectCount();
+
+        if (maxDrawCount < 1)
+            throw new IllegalStateException("maxDrawIndirectCount of the device has to be at least 1! Got: " + maxDrawCount);
+
+        this.firstInstanceSupported = devices.getLogicalDevice().isDrawIndirectFirstInstanceSupported();
+    }
+
+    /**
+     * Starts collecting the draws of a frame. The caller guarantees the GPU is done with the previous submit of the
+     * frame (for ex. after {@code FrameLoop.acquire()}).
+     */
+    public void beginFrame(int frameIndex) {
+        ringBuffer.beginFrame(frameIndex);
+        clear();
+    }
+
+    /**
+     * Waits until the last submit of the frame has been retired on the timeline, then starts collecting the draws.
+     */
+    public void beginFrame(int frameIndex, VulkanTimeline timeline, long retireValue) {
+        ringBuffer.beginFrame(frameIndex, timeline, retireValue);
+        clear();
+    }
+
+    /**
+     * Adds a draw of a mesh to the batch of its pipeline and buffers.
+     *
+     * @param pipeline      - Pipeline the mesh is drawn with.
+     * @param mesh          - The mesh.
+     * @param instanceCount - Number of instances.
+     * @param firstInstance - First instance, commonly a draw id. Has to be 0 without the drawIndirectFirstInstance feature.
+     */
+    public void add(VulkanGraphicsPipeline pipeline, MeshRange mesh, int instanceCount, int firstInstance) {
+        if (firstInstance != 0 && !firstInstanceSupported)
+            throw new IllegalArgumentException("The device doesn't support an indirect draw with the first instance other than 0!");
+
+        Batch batch = findBatch(pipeline, mesh);
+        batch.commands.add(mesh.indexCount, instanceCount, mesh.firstIndex, mesh.vertexOffset, firstInstance);
+        drawCount++;
+    }
+
+    private Batch findBatch(VulkanGraphicsPipeline pipeline, MeshRange mesh) {
+        // Draws are usually sorted, so the last batch is the likely one
+        if (lastBatch != null && lastBatch.matches(pipeline, mesh))
+            return lastBatch;
+
+        for (Batch batch : batches) {
+            if (batch.matches(pipeline, mesh)) {
+                lastBatch = batch;
+                return batch;
+            }
+        }
+
+        lastBatch = spareBatches.isEmpty() ? new Batch(64) : spareBatches.remove(spareBatches.size() - 1);
+        batches.add(lastBatch.set(pipeline, mesh));
+        return lastBatch;
+    }
+
+    /**
+     * Writes the commands of all batches into the ring buffer and records the indirect draws. Has to be recorded
+     * inside a render pass compatible with the pipelines. Binds the pipelines, vertex and index buffers, and leaves
+     * them bound.
+     * <p>
+     * Batches without any draw in this frame are dropped, so the pipelines and buffers which are no longer drawn
+     * don't keep their command memory. A few of them are kept as spares for the new batches.
+     */
+    public void record(VulkanCommandBuffer commandBuffer) {
+        VulkanGraphicsPipeline boundPipeline = null;
+        long boundVertexBuffer = VK_NULL_HANDLE;
+        long boundIndexBuffer = VK_NULL_HANDLE;
+        int boundIndexType = -1;
+
+        int batchCount = 0;
+        int indirectCallCount = 0;
+
+        for (Batch batch : batches) {
+            int commandCount = batch.commands.getCommandCount();
+
+            if (commandCount == 0)
+                continue;
+
+            long offset = batch.commands.write(ringBuffer);
+
+            if (batch.pipeline != boundPipeline) {
+                commandBuffer.bindPipeline(VK_PIPELINE_BIND_POINT_GRAPHICS, batch.pipeline);
+                boundPipeline = batch.pipeline;
+            }
+
+            if (batch.vertexBuffer != boundVertexBuffer) {
+                commandBuffer.bindVertexBuffers(vertexBinding, batch.vertexBuffer, 0L);
+                boundVertexBuffer = batch.vertexBuffer;
+            }
+
+            if (batch.indexBuffer != boundIndexBuffer || batch.indexType != boundIndexType) {
+                commandBuffer.bindIndexBuffer(batch.indexBuffer, 0L, batch.indexType);
+                boundIndexBuffer = batch.indexBuffer;
+                boundIndexType = batch.indexType;
+            }
+
+            // A single call can't execute more than maxDrawIndirectCount commands (1 without multiDrawIndirect)
+            for (int first = 0; first < commandCount; first += maxDrawCount) {
+                int count = Math.min(maxDrawCount, commandCount - first);
+
+                commandBuffer.drawIndexedIndirect(ringBuffer.getBuffer(), offset + (long) first * IndirectCommandBuilder.STRIDE,
+                        count, IndirectCommandBuilder.STRIDE);
+                indirectCallCount++;
+            }
+
+            batchCount++;
+        }
+
+        ringBuffer.endFrame();
+        retireIdleBatches();
+
+        lastBatchCount = batchCount;
+        lastIndirectCallCount = indirectCallCount;
+        lastDrawCount = drawCount;
+
+        clear();
+    }
+
+    private void retireIdleBatches() {
+        int kept = 0;
+
+        for (int i = 0; i < batches.size(); i++) {
+            Batch batch = batches.get(i);
+
+            if (batch.commands.getCommandCount() > 0) {
+                batches.set(kept++, batch);
+            } else if (spareBatches.size() < MAX_SPARE_BATCHES) {
+                batch.pipeline = null;
+                spareBatches.add(batch);
+            } else {
+                batch.commands.free();
+            }
+        }
+
+        while (batches.size() > kept)
+            batches.remove(batches.size() - 1);
+        lastBatch = null;
+    }
+
+    private void clear() {
+        for (Batch batch : batches)
+            batch.commands.reset();
+
+        drawCount = 0;
+    }
+
+    /**
+     * @return Number of batches recorded by the last {@link #record(VulkanCommandBuffer)}.
+     */
+    public int getLastBatchCount() {
+        return lastBatchCount;
+    }
+
+    /**
+     * @return Number of vkCmdDrawIndexedIndirect calls recorded by the last {@link #record(VulkanCommandBuffer)}.
+     */
+    public int getLastIndirectCallCount() {
+        return lastIndirectCallCount;
+    }
+
+    /**
+     * @return Number of draws recorded by the last {@link #record(VulkanCommandBuffer)}.
+     */
+    public int getLastDrawCount() {
+        return lastDrawCount;
+    }
+
+    public VulkanFrameRingBuffer getRingBuffer() {
+        return ringBuffer;
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        for (Batch batch : batches)
+            batch.commands.free();
+
+        for (Batch batch : spareBatches)
+            batch.commands.free();
+
+        batches.clear();
+        spareBatches.clear();
+        lastBatch = null;
+        ringBuffer.destroy(device);
+    }
+}
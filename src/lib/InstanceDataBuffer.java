@@ -0,0 +1,183 @@
+package lib;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector4fc;
+import org.lwjgl.system.MemoryUtil;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Packs per-instance data (a transform and a color) into a per-frame {@link VulkanFrameRingBuffer}, read as a
+ * VK_VERTEX_INPUT_RATE_INSTANCE stream. Any number of copies of a mesh can then be drawn with a single call.
+ * <p>
+ * An instance is 68 bytes: the transform as 4 vec4 columns at locations firstLocation to firstLocation + 3, and the
+ * color quantized to 4 bytes at firstLocation + 4. In the vertex shader:
+ * <pre>{@code
+ * layout (location = 2) in mat4 i_Transform;
+ * layout (location = 6) in vec4 i_Color;
+ * }</pre>
+ * Every frame the instances are added after {@link #beginFrame(int)}, and the stream is bound with
+ * {@link #bind(VulkanCommandBuffer)} (or together with the mesh by {@link #bind(VulkanCommandBuffer, long, long)}).
+ */
+public class InstanceDataBuffer implements VulkanResource {
+
+    public static final int TRANSFORM_SIZE = 16 * 4;
+    public static final int COLOR_SIZE = 4;
+    public static final int STRIDE = TRANSFORM_SIZE + COLOR_SIZE;
+
+    private final VulkanBuffers.VertexBuffer layout;
+    private final VulkanFrameRingBuffer ringBuffer;
+    private final int maxInstances;
+
+    private long firstOffset = 0L;
+    private int instanceCount = 0;
+
+    // Reused by the single call binding of the mesh and the instances
+    private final long[] bindBuffers = new long[2];
+    private final long[] bindOffsets = new long[2];
+
+    /**
+     * @param devices        - VulkanDevices object which owns the VMA allocator.
+     * @param framesInFlight - How many frames can be processed at once.
+     * @param maxInstances   - How many instances fit into a single frame.
+     * @param binding        - Vertex input binding of the instance stream.
+     * @param firstLocation  - Shader location of the first column of the transform.
+     */
+    public InstanceDataBuffer(VulkanDevices devices, int framesInFlight, int maxInstances, int binding, int firstLocation) {
+        this.maxInstances = maxInstances;
+
+        layout = new VulkanBuffers.VertexBuffer(binding, VK_VERTEX_INPUT_RATE_INSTANCE, new VulkanBuffers.Attribute[]{
+                new VulkanBuffers.Attribute(firstLocation, VK_FORMAT_R32G32B32A32_SFLOAT, 0, 16),
+                new VulkanBuffers.Attribute(firstLocation + 1, VK_FORMAT_R32G32B32A32_SFLOAT, 16, 16),
+                new VulkanBuffers.Attribute(firstLocation + 2, VK_FORMAT_R32G32B32A32_SFLOAT, 32, 16),
+                new VulkanBuffers.Attribute(firstLocation + 3, VK_FORMAT_R32G32B32A32_SFLOAT, 48, 16),
+                new VulkanBuffers.Attribute(firstLocation + 4, VertexEncoding.UNORM8, 4, TRANSFORM_SIZE),
+        });
+
+        ringBuffer = new VulkanFrameRingBuffer(devices, VK_BUFFER_USAGE_VERTEX_BUFFER_BIT, framesInFlight,
+                (long) maxInstances * STRIDE);
+    }
+
+    /**
+     * Starts packing the instances of a frame. The caller guarantees the GPU is done with the previous submit of the
+     * frame.
+     */
+    public void beginFrame(int frameIndex) {
+        ringBuffer.beginFrame(frameIndex);
+        instanceCount = 0;
+    }
+
+    /**
+     * Waits until the last submit of the frame has been retired on the timeline, then starts packing the instances.
+     */
+    public void beginFrame(int frameIndex, VulkanTimeline timeline, long retireValue) {
+        ringBuffer.beginFrame(frameIndex, timeline, retireValue);
+        instanceCount = 0;
+    }
+
+    /**
+     * Adds an instance with an arbitrary transform.
+     *
+     * @return Index of the instance (gl_InstanceIndex if drawn with firstInstance 0).
+     */
+    public int add(Matrix4fc transform, Vector4fc color) {
+        long address = reserve();
+
+        transform.getToAddress(address);
+        putColor(address, color.x(), color.y(), color.z(), color.w());
+
+        return instanceCount++;
+    }
+
+    /**
+     * Adds an instance which is translated and uniformly scaled. Doesn't need any matrix object.
+     *
+     * @return Index of the instance (gl_InstanceIndex if drawn with firstInstance 0).
+     */
+    public int add(float x, float y, float z, float scale, float r, float g, float b, float a) {
+        long address = reserve();
+
+        // Column major, the same as a JOML matrix
+        MemoryUtil.memSet(address, 0, TRANSFORM_SIZE);
+        MemoryUtil.memPutFloat(address, scale);
+        MemoryUtil.memPutFloat(address + 20, scale);
+        MemoryUtil.memPutFloat(address + 40, scale);
+        MemoryUtil.memPutFloat(address + 48, x);
+        MemoryUtil.memPutFloat(address + 52, y);
+        MemoryUtil.memPutFloat(address + 56, z);
+        MemoryUtil.memPutFloat(address + 60, 1.f);
+
+        putColor(address, r, g, b, a);
+
+        return instanceCount++;
+    }
+
+    private long reserve() {
+        if (instanceCount == maxInstances)
+            throw new IllegalStateException(String.format("Instance buffer is full! Max instances: %d", maxInstances));
+
+        // Every instance of the frame is allocated right behind the previous one, so they form one array
+        long offset = ringBuffer.allocate(STRIDE, 4);
+
+        if (instanceCount == 0)
+            firstOffset = offset;
+
+        return ringBuffer.getAddress(offset);
+    }
+
+    private static void putColor(long address, float r, float g, float b, float a) {
+        VertexEncoding.UNORM8.encode(address + TRANSFORM_SIZE, 4, r, g, b, a);
+    }
+
+    /**
+     * Makes the instances of the current frame visible to the GPU and binds them to the instance binding.
+     */
+    public void bind(VulkanCommandBuffer commandBuffer) {
+        ringBuffer.endFrame();
+        commandBuffer.bindVertexBuffers(layout.getBinding(), ringBuffer.getBuffer().pBuffer, firstOffset);
+    }
+
+    /**
+     * Makes the instances of the current frame visible to the GPU and binds them together with the per-vertex buffer
+     * of the mesh in a single call. The instance binding has to directly follow the vertex binding.
+     *
+     * @param vertexBuffer - VkBuffer with the vertices of the mesh, bound to the binding before the instances.
+     * @param vertexOffset - Binding offset of the vertices in bytes.
+     */
+    public void bind(VulkanCommandBuffer commandBuffer, long vertexBuffer, long vertexOffset) {
+        if (layout.getBinding() == 0)
+            throw new IllegalStateException("The instance binding has to follow the vertex binding!");
+
+        ringBuffer.endFrame();
+
+        bindBuffers[0] = vertexBuffer;
+        bindBuffers[1] = ringBuffer.getBuffer().pBuffer;
+        bindOffsets[0] = vertexOffset;
+        bindOffsets[1] = firstOffset;
+
+        commandBuffer.bindVertexBuffers(layout.getBinding() - 1, bindBuffers, bindOffsets);
+    }
+
+    /**
+     * @return Layout of the instance stream, to be passed to the pipeline next to the vertex layout.
+     */
+    public VulkanBuffers.VertexBuffer getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return Number of instances added in the current frame, to be passed as the instance count of the draw.
+     */
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        ringBuffer.destroy(device);
+    }
+}
@@ -0,0 +1,138 @@
+package lib;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds with a fixed memory footprint.
+ * <p>
+ * The buckets are log-linear: values below 32 ns have a bucket each, and every further power of two is split into
+ * 32 buckets, so a percentile is reported with at most ~3% relative error. Values up to 2^43 ns (about 2.4 hours)
+ * are tracked, bigger ones are clamped into the last bucket (the maximum is still exact).
+ * <p>
+ * {@link #record(long)} only increments atomic counters, so it never blocks or allocates and can be called from any
+ * thread. Reading the percentiles while values are being recorded gives a slightly inconsistent, but usable, result.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MSB = 43;
+
+    static final int BUCKET_COUNT = (MAX_MSB - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+    private final String name;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Adds a single duration. Negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+
+        long currentMax = max.get();
+        while (nanos > currentMax && !max.compareAndSet(currentMax, nanos))
+            currentMax = max.get();
+    }
+
+    /**
+     * @param percentile - Percentile in the range [0, 100] (for ex. 99.9).
+     * @return The value below which the given percentage of the recorded values falls, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+
+        if (total == 0)
+            return 0L;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+
+            if (seen >= rank)
+                return Math.min(bucketMidpoint(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long total = count.get();
+        return total == 0 ? 0.0 : (double) sum.get() / total;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Clears the histogram. Values recorded concurrently with the reset may be partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            buckets.set(i, 0L);
+
+        count.set(0L);
+        sum.set(0L);
+        max.set(0L);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+
+        if (msb > MAX_MSB)
+            return BUCKET_COUNT - 1;
+
+        int shift = msb - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long mantissa = index - (long) shift * SUB_BUCKET_COUNT;
+        return mantissa << shift;
+    }
+
+    private static long bucketMidpoint(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        return bucketLowerBound(index) + ((1L << shift) >> 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-12s n=%-8d p50 %8.3f ms  p99 %8.3f ms  p99.9 %8.3f ms  max %8.3f ms",
+                name, getCount(), getPercentile(50) / 1e6, getPercentile(99) / 1e6, getPercentile(99.9) / 1e6, getMax() / 1e6);
+    }
+}
@@ -0,0 +1,166 @@
+package lib;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Nanosecond timers for the phases of a frame (fence wait, acquire, submit, present, event polling...) and frame
+ * pacing statistics, each backed by a {@link LatencyHistogram}.
+ * <p>
+ * Phases are registered up front with {@link #register(String)}, which returns the id passed to
+ * {@link #stop(int, long)}:
+ * <pre>{@code
+ * long start = timers.start();
+ * glfwPollEvents();
+ * timers.stop(pollPhase, start);
+ * }</pre>
+ * Timing a phase and ticking a frame neither lock nor allocate. The statistics are either pulled through the getters
+ * or printed periodically by {@link #frameTick()} after {@link #setDumpInterval(long, PrintStream)} has been set.
+ */
+public class PhaseTimers {
+
+    // Copy on write, so phases can be registered while other threads time or dump the existing ones
+    private final List<LatencyHistogram> phases = new CopyOnWriteArrayList<>();
+
+    private final LatencyHistogram frameTime = new LatencyHistogram("frame");
+    private final LatencyHistogram frameJitter = new LatencyHistogram("jitter");
+
+    private long lastFrameTick = 0L;
+    private long lastFrameTime = -1L;
+
+    private long dumpInterval = 0L;
+    private long lastDump = 0L;
+    private PrintStream dumpStream;
+    private boolean resetOnDump = false;
+
+    /**
+     * Registers a new phase, or returns the id of the phase with the same name. Should be called during
+     * initialization, since every registration copies the list of phases.
+     *
+     * @return Id of the phase.
+     */
+    public synchronized int register(String name) {
+        for (int i = 0; i < phases.size(); i++) {
+            if (phases.get(i).getName().equals(name))
+                return i;
+        }
+
+        phases.add(new LatencyHistogram(name));
+        return phases.size() - 1;
+    }
+
+    /**
+     * @return Timestamp which marks the beginning of a phase.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since the given timestamp into the phase.
+     *
+     * @param phase - Id returned by {@link #register(String)}.
+     * @param start - Timestamp returned by {@link #start()}.
+     * @return The current timestamp, so consecutive phases can be chained without calling {@link #start()} again.
+     */
+    public long stop(int phase, long start) {
+        long now = System.nanoTime();
+        phases.get(phase).record(now - start);
+        return now;
+    }
+
+    /**
+     * Marks the end of a frame. Records the time since the previous tick and how much it differs from the previous
+     * frame time (jitter), and prints the statistics if the dump interval has elapsed.
+     */
+    public void frameTick() {
+        long now = System.nanoTime();
+
+        if (lastFrameTick != 0L) {
+            long time = now - lastFrameTick;
+            frameTime.record(time);
+
+            if (lastFrameTime >= 0L)
+                frameJitter.record(Math.abs(time - lastFrameTime));
+
+            lastFrameTime = time;
+        } else {
+            lastDump = now;
+        }
+
+        lastFrameTick = now;
+
+        if (dumpStream != null && now - lastDump >= dumpInterval) {
+            lastDump = now;
+            dump(dumpStream);
+
+            if (resetOnDump)
+                reset();
+        }
+    }
+
+    /**
+     * Makes {@link #frameTick()} print the statistics periodically.
+     *
+     * @param intervalNanos - How often the statistics are printed.
+     * @param stream        - Where to print them. null turns the dump off.
+     */
+    public void setDumpInterval(long intervalNanos, PrintStream stream) {
+        setDumpInterval(intervalNanos, stream, false);
+    }
+
+    /**
+     * @param resetOnDump - If true, the histograms are cleared after every dump, so every dump covers only its interval.
+     */
+    public void setDumpInterval(long intervalNanos, PrintStream stream, boolean resetOnDump) {
+        this.dumpInterval = intervalNanos;
+        this.dumpStream = stream;
+        this.resetOnDump = resetOnDump;
+    }
+
+    public LatencyHistogram getPhase(int phase) {
+        return phases.get(phase);
+    }
+
+    /**
+     * @return Histograms of all registered phases, in the order of registration.
+     */
+    public List<LatencyHistogram> getPhases() {
+        return Collections.unmodifiableList(phases);
+    }
+
+    public LatencyHistogram getFrameTime() {
+        return frameTime;
+    }
+
+    public LatencyHistogram getFrameJitter() {
+        return frameJitter;
+    }
+
+    /**
+     * @return Average frames per second computed from the frame time histogram.
+     */
+    public double getAverageFps() {
+        double mean = frameTime.getMean();
+        return mean == 0.0 ? 0.0 : 1e9 / mean;
+    }
+
+    public void dump(PrintStream stream) {
+        stream.format("---- Frame timings (%.1f fps) ----%n", getAverageFps());
+        stream.println(frameTime);
+        stream.println(frameJitter);
+
+        for (LatencyHistogram phase : phases)
+            stream.println(phase);
+    }
+
+    public void reset() {
+        frameTime.reset();
+        frameJitter.reset();
+
+        for (LatencyHistogram phase : phases)
+            phase.reset();
+    }
+}
@@ -0,0 +1,52 @@
+package lib;
+
+import java.util.Arrays;
+
+/**
+ * Immutable, hashable description of everything that makes a graphics pipeline unique: the shader code, vertex
+ * input, topology, rasterization, color blending, multisampling, viewport and the render pass. The shaders are
+ * identified by the hash of their SPIR-V rather than by the module handle, so the same shader loaded twice still
+ * results in one pipeline.
+ * <p>
+ * Two pipelines with equal keys are interchangeable, so a key can be used to find out that two materials need the
+ * same pipeline. Use {@link VulkanGraphicsPipeline#getStateKey(VulkanRenderPass)} to create one.
+ */
+public final class PipelineStateKey {
+
+    /**
+     * Shader code hashes and Vulkan handles (render pass, descriptor set layouts).
+     */
+    private final long[] handles;
+
+    /**
+     * Every other piece of the state packed into integers.
+     */
+    private final int[] state;
+
+    private final int hash;
+
+    public PipelineStateKey(long[] handles, int[] state) {
+        this.handles = handles.clone();
+        this.state = state.clone();
+        this.hash = 31 * Arrays.hashCode(this.handles) + Arrays.hashCode(this.state);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PipelineStateKey)) return false;
+
+        PipelineStateKey other = (PipelineStateKey) o;
+        return hash == other.hash && Arrays.equals(handles, other.handles) && Arrays.equals(state, other.state);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PipelineStateKey[%08x]", hash);
+    }
+}
@@ -0,0 +1,122 @@
+package lib;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector4fc;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.NativeResource;
+
+/**
+ * A push constant range together with a reusable off-heap scratch area holding its values. The same object declares
+ * the range on the pipeline and pushes the values while recording, so both always agree:
+ * <pre>{@code
+ * PushConstants constants = new PushConstants(VK_SHADER_STAGE_VERTEX_BIT | VK_SHADER_STAGE_FRAGMENT_BIT, 0, 80);
+ * pipeline.addPushConstantRange(constants);
+ * ...
+ * constants.putMatrix4(0, transform).putInt(64, textureHandle).push(commandBuffer, pipeline.getPipelineLayoutPtr());
+ * }</pre>
+ * The values are written with MemoryUtil straight into the scratch area, so neither writing nor pushing allocates.
+ * Every device supports at least 128 bytes of push constants.
+ */
+public class PushConstants implements NativeResource {
+
+    private final int stageFlags;
+    private final int offset;
+    private final int size;
+    private final long address;
+
+    /**
+     * @param stageFlags - VkShaderStageFlags of the stages which read the range.
+     * @param offset     - Offset of the range in the push constant block. Has to be a multiple of 4.
+     * @param size       - Size of the range in bytes. Has to be a multiple of 4.
+     */
+    public PushConstants(int stageFlags, int offset, int size) {
+        if (offset % 4 != 0 || size % 4 != 0 || size == 0)
+            throw new IllegalArgumentException("Offset and size of a push constant range have to be multiples of 4 and the size greater than 0!");
+
+        this.stageFlags = stageFlags;
+        this.offset = offset;
+        this.size = size;
+        this.address = MemoryUtil.nmemCalloc(1, size);
+    }
+
+    /**
+     * @param offset - Offset of the value in the push constant block, the same as in the shader.
+     * @return this
+     */
+    public PushConstants putInt(int offset, int value) {
+        MemoryUtil.memPutInt(at(offset, 4), value);
+        return this;
+    }
+
+    /**
+     * @return this
+     */
+    public PushConstants putFloat(int offset, float value) {
+        MemoryUtil.memPutFloat(at(offset, 4), value);
+        return this;
+    }
+
+    /**
+     * Puts a vec4 (or a vec3 followed by a float).
+     *
+     * @return this
+     */
+    public PushConstants putVector4(int offset, Vector4fc value) {
+        value.getToAddress(at(offset, 16));
+        return this;
+    }
+
+    /**
+     * Puts a column major mat4.
+     *
+     * @return this
+     */
+    public PushConstants putMatrix4(int offset, Matrix4fc value) {
+        value.getToAddress(at(offset, 64));
+        return this;
+    }
+
+    private long at(int offset, int valueSize) {
+        if (offset < this.offset || offset + valueSize > this.offset + size)
+            throw new IndexOutOfBoundsException(String.format("Value at %d (%d bytes) is outside of the push constant range [%d, %d)!",
+                    offset, valueSize, this.offset, this.offset + size));
+
+        return address + offset - this.offset;
+    }
+
+    /**
+     * Records the whole range.
+     *
+     * @param pipelineLayout - Pipeline layout which declares the range.
+     */
+    public void push(VulkanCommandBuffer commandBuffer, long pipelineLayout) {
+        commandBuffer.pushConstants(pipelineLayout, stageFlags, offset, size, address);
+    }
+
+    /**
+     * Records a part of the range, for ex. only the values which change per draw.
+     *
+     * @param offset - Offset of the part in the push constant block.
+     * @param size   - Size of the part in bytes.
+     */
+    public void push(VulkanCommandBuffer commandBuffer, long pipelineLayout, int offset, int size) {
+        commandBuffer.pushConstants(pipelineLayout, stageFlags, offset, size, at(offset, size));
+    }
+
+    public int getStageFlags() {
+        return stageFlags;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public void free() {
+        MemoryUtil.nmemFree(address);
+    }
+}
@@ -9,12 +9,20 @@ import static org.lwjgl.vulkan.VK10.*;
 
 import java.nio.IntBuffer;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public class QueueFamilyIndices {
 
     private Optional<Integer> graphicsFamily = Optional.empty();
     private Optional<Integer> presentFamily = Optional.empty();
-
+    private Optional<Integer> transferFamily = Optional.empty();
+    private Optional<Integer> computeFamily = Optional.empty();
+
+    /**
+     * @param device  - The physical device.
+     * @param surface - Surface the images are presented to. Without a surface (VK_NULL_HANDLE) nothing is presented
+     *                and the present family mirrors the graphics family.
+     */
     public QueueFamilyIndices(VkPhysicalDevice device, long surface) {
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
@@ -37,26 +45,60 @@ public class QueueFamilyIndices {
 
             for (int i = 0; i < queueProps.capacity(); i++) {
 
-                if ((queueProps.get(i).queueFlags() & VK_QUEUE_GRAPHICS_BIT) != 0) {
-                    graphicsFamily = Optional.of(i);
+                int flags = queueProps.get(i).queueFlags();
+
+                if (!isComplete()) {
+                    if ((flags & VK_QUEUE_GRAPHICS_BIT) != 0) {
+                        graphicsFamily = Optional.of(i);
+                    }
+
+                    if (surface != VK_NULL_HANDLE)
+                        vkGetPhysicalDeviceSurfaceSupportKHR(device,i,surface,presentSupport);
+                    else
+                        presentSupport.put(0, (flags & VK_QUEUE_GRAPHICS_BIT) != 0 ? VK_TRUE : VK_FALSE);
+
+                    /* If the queue supports presentation, get the index of that queue and store it.
+                       NOTE: The queueFamilyIndex member of each element of pQueueCreateInfos must be
+                       unique within pQueueCreateInfos, except that two members can share the same
+                       queueFamilyIndex if one describes protected-capable queues and one describes
+                       queues that are not protected-capable
+                     */
+                    if (presentSupport.get(0) == VK_TRUE) {
+                        presentFamily = Optional.of(i);
+                    }
                 }
 
-                vkGetPhysicalDeviceSurfaceSupportKHR(device,i,surface,presentSupport);
-
-                /* If the queue supports presentation, get the index of that queue and store it.
-                   NOTE: The queueFamilyIndex member of each element of pQueueCreateInfos must be
-                   unique within pQueueCreateInfos, except that two members can share the same
-                   queueFamilyIndex if one describes protected-capable queues and one describes
-                   queues that are not protected-capable
-                 */
-                if (presentSupport.get(0) == VK_TRUE) {
-                    presentFamily = Optional.of(i);
-                }
-                if (isComplete()) break;
+                findAsyncFamilies(i, flags);
             }
+
+            // Fall back to the graphics queue family, which is always capable of transfer and compute.
+            if (transferFamily.isEmpty()) transferFamily = graphicsFamily;
+            if (computeFamily.isEmpty()) computeFamily = graphicsFamily;
+        }
+
+    }
+
+    /**
+     * Picks the queue families for asynchronous uploads and compute. A transfer-only family (usually a DMA engine)
+     * is preferred over a compute family without graphics for the transfers.
+     */
+    private void findAsyncFamilies(int index, int flags) {
+        boolean graphics = (flags & VK_QUEUE_GRAPHICS_BIT) != 0;
+        boolean compute = (flags & VK_QUEUE_COMPUTE_BIT) != 0;
+        boolean transfer = (flags & VK_QUEUE_TRANSFER_BIT) != 0;
+
+        if (!graphics && compute && computeFamily.isEmpty()) {
+            computeFamily = Optional.of(index);
         }
 
+        if (!graphics && !compute && transfer) {
+            transferFamily = Optional.of(index);
+        } else if (!graphics && (transfer || compute) && transferFamily.isEmpty()) {
+            // Compute queues are implicitly capable of transfer operations
+            transferFamily = Optional.of(index);
+        }
     }
+
     public boolean isComplete() {
         return graphicsFamily.isPresent() && presentFamily.isPresent();
     }
@@ -72,4 +114,37 @@ public class QueueFamilyIndices {
     public Optional<Integer> getPresentFamily() {
         return presentFamily;
     }
+
+    public Optional<Integer> getTransferFamily() {
+        return transferFamily;
+    }
+
+    public Optional<Integer> getComputeFamily() {
+        return computeFamily;
+    }
+
+    /**
+     * @return true if uploads can run on a different queue family than the rendering.
+     */
+    public boolean hasDedicatedTransferFamily() {
+        return transferFamily.isPresent() && !transferFamily.equals(graphicsFamily);
+    }
+
+    /**
+     * @return true if compute work can run on a different queue family than the rendering.
+     */
+    public boolean hasDedicatedComputeFamily() {
+        return computeFamily.isPresent() && !computeFamily.equals(graphicsFamily);
+    }
+
+    /**
+     * @return Every distinct queue family index which the logical device has to create a queue for.
+     */
+    public int[] getUniqueFamilies() {
+        return Stream.of(graphicsFamily, presentFamily, transferFamily, computeFamily)
+                .flatMap(Optional::stream)
+                .mapToInt(Integer::intValue)
+                .distinct()
+                .toArray();
+    }
 }
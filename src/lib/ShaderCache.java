@@ -0,0 +1,280 @@
+package lib;
+
+import org.lwjgl.Version;
+import org.lwjgl.system.MemoryStack;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.lang.ClassLoader.getSystemClassLoader;
+import static lib.ShaderUtils.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.util.shaderc.Shaderc.shaderc_get_spv_version;
+
+/**
+ * Content addressed on-disk cache of compiled SPIR-V.
+ * <p>
+ * Every entry is keyed by a SHA-256 hash of the GLSL source, the shader stage, the entry point, a description of the
+ * compile options and the identity of the compiler (the LWJGL build, which bundles shaderc, the SPIR-V version and
+ * {@link #CACHE_VERSION}), so changing any of them results in a miss instead of stale code. Hits are read through
+ * a memory mapped file, which turns the cold start of a shader into a file read instead of a compilation.
+ */
+public class ShaderCache {
+
+    private static final int SPIRV_MAGIC = 0x07230203;
+    private static final String EXTENSION = ".spv";
+
+    /**
+     * Bump to invalidate every existing entry, for ex. when the compiler is changed without changing the LWJGL build.
+     */
+    public static final int CACHE_VERSION = 1;
+
+    private final Path directory;
+    private final String compilerVersion;
+
+    /**
+     * @param directory - Directory where the SPIR-V blobs are stored. Is created if it doesn't exist.
+     */
+    public ShaderCache(Path directory) {
+        this.directory = directory;
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create the shader cache directory " + directory, e);
+        }
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer version = stack.mallocInt(1);
+            IntBuffer revision = stack.mallocInt(1);
+
+            shaderc_get_spv_version(version, revision);
+            compilerVersion = String.format("lwjgl-%s-shaderc-spv%d-r%d-cache%d", Version.getVersion(), version.get(0),
+                    revision.get(0), CACHE_VERSION);
+        }
+    }
+
+    /**
+     * Returns the SPIR-V of the shader, compiling it only if it isn't cached yet. Uses the "main" entry point and
+     * the default compile options.
+     *
+     * @param filename   - Name of the shader. Used only in the error messages of the compiler.
+     * @param source     - GLSL source code.
+     * @param shaderType - Stage of the shader.
+     */
+    public SPIRVShaderCode getOrCompile(String filename, String source, ShaderType shaderType) {
+        return getOrCompile(filename, source, shaderType, NULL, NULL, "");
+    }
+
+    /**
+     * Returns the SPIR-V of the shader, compiling it with the given compiler only if it isn't cached yet.
+     *
+     * @param compiler           - shaderc compiler handle or NULL to create a temporary one.
+     * @param options            - shaderc compile options handle or NULL for the defaults.
+     * @param optionsDescription - Textual description of everything set on the options (optimization level, macros,
+     *                           target environment...), empty for the defaults. It is part of the key, so two
+     *                           different options must never share a description.
+     */
+    public SPIRVShaderCode getOrCompile(String filename, String source, ShaderType shaderType, long compiler, long options,
+                                       String optionsDescription) {
+        String key = key(source, shaderType, "main", optionsDescription);
+
+        SPIRVShaderCode code = load(key, shaderType);
+
+        if (code == null) {
+            code = compiler == NULL ? compileShader(filename, source, shaderType) :
+                    compileShader(compiler, options, filename, source, shaderType);
+            store(key, code.bytecode());
+        }
+
+        return code;
+    }
+
+    /**
+     * Computes the key of a cache entry.
+     *
+     * @param source     - GLSL source code.
+     * @param shaderType - Stage of the shader.
+     * @param entryPoint - Name of the entry point function.
+     * @param options    - Textual description of the compile options (empty for the defaults).
+     * @return Hexadecimal SHA-256 digest.
+     */
+    public String key(String source, ShaderType shaderType, String entryPoint, String options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            for (String part : new String[]{compilerVersion, shaderType.name(), entryPoint, options, source}) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                // Separator, so the parts can't blend into each other
+                digest.update((byte) 0);
+            }
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available!", e);
+        }
+    }
+
+    /**
+     * Hashes compiled SPIR-V, so identical shaders loaded into different modules can be told apart from different
+     * ones (see {@link PipelineStateKey}).
+     *
+     * @return The first 128 bits of the SHA-256 digest of the bytecode.
+     */
+    public static long[] contentHash(ByteBuffer bytecode) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            ByteBuffer data = bytecode.duplicate();
+            data.rewind();
+            digest.update(data);
+
+            ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+            return new long[]{hash.getLong(0), hash.getLong(8)};
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available!", e);
+        }
+    }
+
+    /**
+     * Reads a cached entry.
+     *
+     * @return The cached SPIR-V or null on a miss or if the entry is corrupted.
+     */
+    public SPIRVShaderCode load(String key, ShaderType shaderType) {
+        Path file = directory.resolve(key + EXTENSION);
+
+        if (!Files.isRegularFile(file))
+            return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer bytecode = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (!isValidSPIRV(bytecode))
+                return null;
+
+            return new SPIRVShaderCode(NULL, bytecode, shaderType);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the SPIR-V into the cache. The file is written under a temporary name first and then moved, so other
+     * threads or processes never see a half written entry.
+     */
+    public void store(String key, ByteBuffer bytecode) {
+        Path file = directory.resolve(key + EXTENSION);
+
+        try {
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer data = bytecode.duplicate();
+                data.rewind();
+
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // A failed write only means a miss next time
+            System.err.format("Failed to store shader %s in the cache: %s\n", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Makes sure every given shader resource is in the cache, compiling the missing ones.
+     *
+     * @param shaders - Shader resource files (looked up through the class loader) and their stages.
+     * @return How many shaders had to be compiled.
+     */
+    public int prewarm(List<ShaderSource> shaders) {
+        int compiled = 0;
+
+        for (ShaderSource shader : shaders) {
+            String source = readSource(shader.file);
+            String key = key(source, shader.type, "main", "");
+
+            if (Files.isRegularFile(directory.resolve(key + EXTENSION)))
+                continue;
+
+            SPIRVShaderCode code = compileShader(shader.file, source, shader.type);
+            store(key, code.bytecode());
+            code.free();
+
+            compiled++;
+        }
+
+        return compiled;
+    }
+
+    /**
+     * Checks every entry of the cache and deletes the ones which aren't valid SPIR-V (for ex. truncated files).
+     *
+     * @return How many entries were deleted.
+     */
+    public int verify() {
+        int removed = 0;
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!file.getFileName().toString().endsWith(EXTENSION))
+                    continue;
+
+                boolean valid;
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    valid = isValidSPIRV(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                }
+
+                if (!valid) {
+                    Files.deleteIfExists(file);
+                    removed++;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to verify the shader cache " + directory, e);
+        }
+
+        return removed;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private static boolean isValidSPIRV(ByteBuffer bytecode) {
+        if (bytecode.capacity() < 20 || bytecode.capacity() % 4 != 0)
+            return false;
+
+        return bytecode.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(0) == SPIRV_MAGIC ||
+                bytecode.duplicate().order(ByteOrder.BIG_ENDIAN).getInt(0) == SPIRV_MAGIC;
+    }
+
+    static String readSource(String shaderFile) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(new URI(getSystemClassLoader().getResource(shaderFile).toExternalForm()))));
+        } catch (IOException | URISyntaxException e) {
+            throw new RuntimeException("Failed to read shader " + shaderFile, e);
+        }
+    }
+}
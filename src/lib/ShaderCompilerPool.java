@@ -0,0 +1,141 @@
+package lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static lib.ShaderUtils.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.util.shaderc.Shaderc.*;
+
+/**
+ * Compiles shaders in parallel on a bounded number of worker threads.
+ * <p>
+ * A shaderc compiler isn't thread safe, so every worker lazily creates its own compiler and compile options object
+ * and keeps reusing them for every shader it compiles. They are all released in {@link #close()}.
+ */
+public class ShaderCompilerPool implements AutoCloseable {
+
+    private static final class WorkerCompiler {
+        final long compiler;
+        final long options;
+
+        WorkerCompiler() {
+            compiler = shaderc_compiler_initialize();
+
+            if (compiler == NULL)
+                throw new RuntimeException("Failed to create shader compiler");
+
+            options = shaderc_compile_options_initialize();
+        }
+
+        void release() {
+            shaderc_compile_options_release(options);
+            shaderc_compiler_release(compiler);
+        }
+    }
+
+    private final ExecutorService executor;
+    private final ShaderCache cache;
+
+    private final ConcurrentLinkedQueue<WorkerCompiler> compilers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<WorkerCompiler> workerCompiler = ThreadLocal.withInitial(() -> {
+        WorkerCompiler compiler = new WorkerCompiler();
+        compilers.add(compiler);
+        return compiler;
+    });
+
+    /**
+     * Creates a pool with a worker for every available processor and no cache.
+     */
+    public ShaderCompilerPool() {
+        this(Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * @param threadCount - Maximum number of shaders compiled at once.
+     * @param cache       - Optional SPIR-V cache which is looked into before compiling. Can be null.
+     */
+    public ShaderCompilerPool(int threadCount, ShaderCache cache) {
+        this.cache = cache;
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "shader-compiler-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules a compilation of a shader resource file.
+     *
+     * @return A future of the compiled code. The caller is responsible for freeing it.
+     */
+    public CompletableFuture<SPIRVShaderCode> compile(ShaderSource shader) {
+        return CompletableFuture.supplyAsync(() -> {
+            String source = ShaderCache.readSource(shader.file);
+            return compileOnWorker(shader.file, source, shader.type);
+        }, executor);
+    }
+
+    /**
+     * Schedules a compilation of GLSL source code.
+     *
+     * @return A future of the compiled code. The caller is responsible for freeing it.
+     */
+    public CompletableFuture<SPIRVShaderCode> compile(String filename, String source, ShaderType shaderType) {
+        return CompletableFuture.supplyAsync(() -> compileOnWorker(filename, source, shaderType), executor);
+    }
+
+    /**
+     * Schedules the compilation of every shader in the list.
+     *
+     * @return Futures in the same order as the shaders.
+     */
+    public List<CompletableFuture<SPIRVShaderCode>> compileAll(List<ShaderSource> shaders) {
+        List<CompletableFuture<SPIRVShaderCode>> futures = new ArrayList<>(shaders.size());
+
+        for (ShaderSource shader : shaders) {
+            futures.add(compile(shader));
+        }
+
+        return futures;
+    }
+
+    /**
+     * Runs on a worker thread with the compiler of that thread.
+     */
+    private SPIRVShaderCode compileOnWorker(String filename, String source, ShaderType shaderType) {
+        WorkerCompiler compiler = workerCompiler.get();
+
+        if (cache != null)
+            // The options of the workers are never changed from the defaults
+            return cache.getOrCompile(filename, source, shaderType, compiler.compiler, compiler.options, "");
+
+        return compileShader(compiler.compiler, compiler.options, filename, source, shaderType);
+    }
+
+    /**
+     * Waits for the running compilations and releases every compiler of the pool.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+                throw new IllegalStateException("Shader compilation didn't finish in time!");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shader compilation!", e);
+        }
+
+        for (WorkerCompiler compiler : compilers) {
+            compiler.release();
+        }
+
+        compilers.clear();
+    }
+}
@@ -23,6 +23,14 @@ public class ShaderUtils {
         return compileShaderAbsoluteFile(getSystemClassLoader().getResource(shaderFile).toExternalForm(), shaderType);
     }
 
+    /**
+     * Same as {@link #compileShaderFileIntoSPIRV(String, ShaderType)}, but looks into the on-disk cache first and
+     * compiles only on a cache miss.
+     */
+    public static SPIRVShaderCode compileShaderFileIntoSPIRV(String shaderFile, ShaderType shaderType, ShaderCache cache) {
+        return cache.getOrCompile(shaderFile, ShaderCache.readSource(shaderFile), shaderType);
+    }
+
     public static SPIRVShaderCode compileShaderAbsoluteFile(String shaderFile, ShaderType shaderType) {
         try {
             String source = new String(Files.readAllBytes(Paths.get(new URI(shaderFile))));
@@ -41,17 +49,37 @@ public class ShaderUtils {
             throw new RuntimeException("Failed to create shader compiler");
         }
 
-        long result = shaderc_compile_into_spv(compiler, source, shaderType.type, filename, "main", NULL);
+        // The compiler has to be released even if the compilation fails
+        try {
+            return compileShader(compiler, NULL, filename, source, shaderType);
+        } finally {
+            shaderc_compiler_release(compiler);
+        }
+    }
+
+    /**
+     * Compiles the shader with an already existing compiler, so it can be reused for many shaders.
+     *
+     * @param compiler   - shaderc compiler handle. Must not be used by another thread at the same time.
+     * @param options    - shaderc compile options handle or NULL for the defaults.
+     * @param filename   - Name of the shader. Used only in the error messages.
+     * @param source     - GLSL source code.
+     * @param shaderType - Stage of the shader.
+     */
+    public static SPIRVShaderCode compileShader(long compiler, long options, String filename, String source, ShaderType shaderType) {
+
+        long result = shaderc_compile_into_spv(compiler, source, shaderType.type, filename, "main", options);
 
         if (result == NULL) {
             throw new RuntimeException("Failed to compile shader " + filename + " into SPIR-V");
         }
 
         if (shaderc_result_get_compilation_status(result) != shaderc_compilation_status_success) {
-            throw new RuntimeException("Failed to compile shader " + filename + "into SPIR-V:\n " + shaderc_result_get_error_message(result));
-        }
+            String message = shaderc_result_get_error_message(result);
+            shaderc_result_release(result);
 
-        shaderc_compiler_release(compiler);
+            throw new RuntimeException("Failed to compile shader " + filename + " into SPIR-V:\n " + message);
+        }
 
         return new SPIRVShaderCode(result, shaderc_result_get_bytes(result), shaderType);
     }
@@ -72,14 +100,39 @@ public class ShaderUtils {
         }
     }
 
+    /**
+     * A shader resource file together with its stage.
+     */
+    public static final class ShaderSource {
+
+        public final String file;
+        public final ShaderType type;
+
+        public ShaderSource(String file, ShaderType type) {
+            this.file = file;
+            this.type = type;
+        }
+    }
+
     public static final class ShaderModule {
 
         public ShaderType type;
         public long modulePtr;
 
+        /**
+         * Hash of the SPIR-V the module was created from (see {@link ShaderCache#contentHash(ByteBuffer)}), or null if
+         * it isn't known.
+         */
+        public final long[] codeHash;
+
         public ShaderModule(long modulePtr, ShaderType type) {
+            this(modulePtr, type, null);
+        }
+
+        public ShaderModule(long modulePtr, ShaderType type, long[] codeHash) {
             this.modulePtr = modulePtr;
             this.type = type;
+            this.codeHash = codeHash;
         }
     }
 
@@ -100,9 +153,15 @@ public class ShaderUtils {
             return bytecode;
         }
 
+        public ShaderType getType() {
+            return type;
+        }
+
         @Override
         public void free() {
-            shaderc_result_release(handle);
+            // Code loaded from the shader cache isn't owned by shaderc
+            if (handle != NULL)
+                shaderc_result_release(handle);
             bytecode = null; // Help the GC
         }
     }
@@ -119,7 +178,7 @@ public class ShaderUtils {
 
             VulkanUtils.check(vkCreateShaderModule(device.getVkDevice(), createInfo, null, pShaderModule));
 
-            return new ShaderModule(pShaderModule.get(0), spirvCode.type);
+            return new ShaderModule(pShaderModule.get(0), spirvCode.type, ShaderCache.contentHash(spirvCode.bytecode));
         }
     }
 }
@@ -1,28 +1,45 @@
 package lib;
 
+import exc.MemoryAllocationException;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
-import org.lwjgl.util.vma.Vma;
-import org.lwjgl.util.vma.VmaAllocatorCreateInfo;
+import org.lwjgl.util.vma.*;
+import org.lwjgl.vulkan.VkBufferCreateInfo;
+import org.lwjgl.vulkan.VkImageCreateInfo;
 
-public class VMA {
+import java.nio.LongBuffer;
+
+import static org.lwjgl.util.vma.Vma.*;
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Wrapper around the Vulkan Memory Allocator. Instead of calling vkAllocateMemory for every single resource, VMA
+ * sub-allocates buffers and images from a small number of large VkDeviceMemory blocks, which keeps the application
+ * far below the maxMemoryAllocationCount limit.
+ */
+public class VMA implements VulkanResource {
 
     private long vmaAllocPtr;
 
     public VMA(VulkanInstance instance, VulkanPhysicalDevice physicalDevice, VulkanLogicalDevice logicalDevice) {
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
+            // VMA fetches the Vulkan entry points through this struct, it won't work without it.
+            VmaVulkanFunctions vulkanFunctions = VmaVulkanFunctions.calloc(stack);
+            vulkanFunctions.set(instance.getVkInstance(), logicalDevice.getVkDevice());
+
             VmaAllocatorCreateInfo createInfo = VmaAllocatorCreateInfo.calloc(stack);
 
             createInfo.device(logicalDevice.getVkDevice());
             createInfo.physicalDevice(physicalDevice.getVkPhysicalDevice());
             createInfo.instance(instance.getVkInstance());
-            createInfo.flags();
-            createInfo.vulkanApiVersion();
+            createInfo.pVulkanFunctions(vulkanFunctions);
+            createInfo.flags(0);
+            createInfo.vulkanApiVersion(VK_API_VERSION_1_0);
 
             PointerBuffer ptr = stack.mallocPointer(1);
-            VulkanUtils.check(Vma.vmaCreateAllocator(createInfo,ptr));
+            VulkanUtils.check(vmaCreateAllocator(createInfo, ptr));
 
             if (ptr.get(0) == MemoryUtil.NULL)
                 throw new NullPointerException("Couldn't construct VMA instance! the VMA " +
@@ -31,4 +48,134 @@ public class VMA {
             vmaAllocPtr = ptr.get(0);
         }
     }
+
+    public long getAllocatorPtr() {
+        return vmaAllocPtr;
+    }
+
+    /**
+     * Creates a VkBuffer with its memory allocated by VMA.
+     *
+     * @param usage         - What purpose will the buffer be used for.
+     * @param sharingMode   - Sets how the buffer will be shared between the queue families.
+     * @param memoryUsage   - A VMA_MEMORY_USAGE hint telling VMA where the memory should preferably reside.
+     * @param requiredFlags - VkMemoryPropertyFlags the memory type has to have. Can be 0.
+     * @param allocFlags    - VMA_ALLOCATION_CREATE flags (for ex. VMA_ALLOCATION_CREATE_MAPPED_BIT for a persistently
+     *                      mapped buffer).
+     * @param size          - Size of the buffer in bytes.
+     * @return A new buffer which holds the VMA allocation handle.
+     */
+    public VulkanBuffers.Buffer createBuffer(int usage, int sharingMode, int memoryUsage, int requiredFlags,
+                                             int allocFlags, long size) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+
+            VkBufferCreateInfo bufferCreateInfo = VkBufferCreateInfo.calloc(stack);
+            bufferCreateInfo.sType$Default()
+                    .usage(usage)
+                    .sharingMode(sharingMode)
+                    .size(size);
+
+            VmaAllocationCreateInfo allocCreateInfo = VmaAllocationCreateInfo.calloc(stack);
+            allocCreateInfo.usage(memoryUsage)
+                    .requiredFlags(requiredFlags)
+                    .flags(allocFlags);
+
+            LongBuffer pBuffer = stack.mallocLong(1);
+            PointerBuffer pAllocation = stack.mallocPointer(1);
+            VmaAllocationInfo allocationInfo = VmaAllocationInfo.calloc(stack);
+
+            VulkanUtils.check(vmaCreateBuffer(vmaAllocPtr, bufferCreateInfo, allocCreateInfo, pBuffer, pAllocation, allocationInfo));
+
+            if (pAllocation.get(0) == MemoryUtil.NULL)
+                throw new MemoryAllocationException("Failed to allocate Memory! vmaCreateBuffer returned a null allocation!");
+
+            VulkanBuffers.Buffer buffer = new VulkanBuffers.Buffer(pBuffer.get(0), allocationInfo.deviceMemory(), size);
+            buffer.pAllocator = vmaAllocPtr;
+            buffer.pAllocation = pAllocation.get(0);
+            buffer.pMappedData = allocationInfo.pMappedData();
+
+            return buffer;
+        }
+    }
+
+    /**
+     * Creates a VkBuffer with its memory allocated by VMA.
+     *
+     * @param usage       - What purpose will the buffer be used for.
+     * @param sharingMode - Sets how the buffer will be shared between the queue families.
+     * @param memoryUsage - A VMA_MEMORY_USAGE hint telling VMA where the memory should preferably reside.
+     * @param size        - Size of the buffer in bytes.
+     * @return A new buffer which holds the VMA allocation handle.
+     */
+    public VulkanBuffers.Buffer createBuffer(int usage, int sharingMode, int memoryUsage, long size) {
+        return createBuffer(usage, sharingMode, memoryUsage, 0, 0, size);
+    }
+
+    /**
+     * Creates a host visible buffer that stays mapped for its whole lifetime. The mapped pointer is stored in
+     * {@link VulkanBuffers.Buffer#pMappedData}.
+     *
+     * @param usage       - What purpose will the buffer be used for.
+     * @param sharingMode - Sets how the buffer will be shared between the queue families.
+     * @param memoryUsage - A VMA_MEMORY_USAGE hint, usually VMA_MEMORY_USAGE_CPU_TO_GPU or VMA_MEMORY_USAGE_CPU_ONLY.
+     * @param size        - Size of the buffer in bytes.
+     */
+    public VulkanBuffers.Buffer createMappedBuffer(int usage, int sharingMode, int memoryUsage, long size) {
+        return createBuffer(usage, sharingMode, memoryUsage, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT,
+                VMA_ALLOCATION_CREATE_MAPPED_BIT, size);
+    }
+
+    /**
+     * Creates a VkImage with its memory allocated by VMA.
+     *
+     * @param imageCreateInfo - Filled VkImageCreateInfo describing the image.
+     * @param memoryUsage     - A VMA_MEMORY_USAGE hint telling VMA where the memory should preferably reside.
+     * @return A new image which holds the VMA allocation handle.
+     */
+    public VulkanImage createImage(VkImageCreateInfo imageCreateInfo, int memoryUsage) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+
+            VmaAllocationCreateInfo allocCreateInfo = VmaAllocationCreateInfo.calloc(stack);
+            allocCreateInfo.usage(memoryUsage);
+
+            LongBuffer pImage = stack.mallocLong(1);
+            PointerBuffer pAllocation = stack.mallocPointer(1);
+
+            VulkanUtils.check(vmaCreateImage(vmaAllocPtr, imageCreateInfo, allocCreateInfo, pImage, pAllocation, null));
+
+            if (pAllocation.get(0) == MemoryUtil.NULL)
+                throw new MemoryAllocationException("Failed to allocate Memory! vmaCreateImage returned a null allocation!");
+
+            return new VulkanImage(pImage.get(0), vmaAllocPtr, pAllocation.get(0), imageCreateInfo.format(),
+                    imageCreateInfo.extent().width(), imageCreateInfo.extent().height());
+        }
+    }
+
+    /**
+     * @return How many VkDeviceMemory blocks VMA has allocated so far (Those are the real vkAllocateMemory calls).
+     */
+    public int getBlockCount() {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VmaStats stats = VmaStats.calloc(stack);
+            vmaCalculateStats(vmaAllocPtr, stats);
+            return stats.total().blockCount();
+        }
+    }
+
+    /**
+     * @return How many allocations (buffers and images) currently live inside the VMA blocks.
+     */
+    public int getAllocationCount() {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VmaStats stats = VmaStats.calloc(stack);
+            vmaCalculateStats(vmaAllocPtr, stats);
+            return stats.total().allocationCount();
+        }
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        vmaDestroyAllocator(vmaAllocPtr);
+        vmaAllocPtr = MemoryUtil.NULL;
+    }
 }
@@ -0,0 +1,353 @@
+package lib;
+
+import org.lwjgl.system.MemoryUtil;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Quantized encodings of float vertex attributes. An attribute created with an encoding
+ * ({@link VulkanBuffers.Attribute#Attribute(int, VertexEncoding, int, int)}) gets the matching VK_FORMAT and size,
+ * and the {@link VertexStreamBuilder} converts the floats written into it automatically. The shader still reads
+ * floats, the conversion back is done by the vertex fetch.
+ * <p>
+ * 3 component attributes are padded to 4 components, because the 3 component 8 and 16 bit formats are rarely
+ * supported for vertex buffers.
+ */
+public enum VertexEncoding {
+
+    /**
+     * 32 bit floats, no conversion.
+     */
+    FLOAT32 {
+        @Override
+        public int getFormat(int components) {
+            return pick(components, VK_FORMAT_R32_SFLOAT, VK_FORMAT_R32G32_SFLOAT, VK_FORMAT_R32G32B32_SFLOAT, VK_FORMAT_R32G32B32A32_SFLOAT);
+        }
+
+        @Override
+        public int getSize(int components) {
+            return components * 4;
+        }
+
+        @Override
+        void encode(long dst, int components, float x, float y, float z, float w) {
+            MemoryUtil.memPutFloat(dst, x);
+            if (components > 1) MemoryUtil.memPutFloat(dst + 4, y);
+            if (components > 2) MemoryUtil.memPutFloat(dst + 8, z);
+            if (components > 3) MemoryUtil.memPutFloat(dst + 12, w);
+        }
+
+        @Override
+        void decode(long src, int components, float[] out) {
+            for (int i = 0; i < components; i++)
+                out[i] = MemoryUtil.memGetFloat(src + i * 4L);
+        }
+    },
+
+    /**
+     * 16 bit IEEE half floats. Keeps about 3 significant digits, up to +-65504.
+     */
+    HALF {
+        @Override
+        public int getFormat(int components) {
+            return pick(components, VK_FORMAT_R16_SFLOAT, VK_FORMAT_R16G16_SFLOAT, VK_FORMAT_R16G16B16A16_SFLOAT, VK_FORMAT_R16G16B16A16_SFLOAT);
+        }
+
+        @Override
+        public int getSize(int components) {
+            return padded(components) * 2;
+        }
+
+        @Override
+        void encode(long dst, int components, float x, float y, float z, float w) {
+            for (int i = 0; i < padded(components); i++)
+                MemoryUtil.memPutShort(dst + i * 2L, i < components ? floatToHalf(component(i, x, y, z, w)) : (short) 0);
+        }
+
+        @Override
+        void decode(long src, int components, float[] out) {
+            for (int i = 0; i < components; i++)
+                out[i] = halfToFloat(MemoryUtil.memGetShort(src + i * 2L));
+        }
+    },
+
+    /**
+     * 8 bit unsigned normalized integers for values in [0, 1], for ex. colors.
+     */
+    UNORM8 {
+        @Override
+        public int getFormat(int components) {
+            return pick(components, VK_FORMAT_R8_UNORM, VK_FORMAT_R8G8_UNORM, VK_FORMAT_R8G8B8A8_UNORM, VK_FORMAT_R8G8B8A8_UNORM);
+        }
+
+        @Override
+        public int getSize(int components) {
+            return padded(components);
+        }
+
+        @Override
+        void encode(long dst, int components, float x, float y, float z, float w) {
+            for (int i = 0; i < padded(components); i++) {
+                float value = i < components ? Math.max(0.f, Math.min(1.f, component(i, x, y, z, w))) : 0.f;
+                MemoryUtil.memPutByte(dst + i, (byte) Math.round(value * 255.f));
+            }
+        }
+
+        @Override
+        void decode(long src, int components, float[] out) {
+            for (int i = 0; i < components; i++)
+                out[i] = (MemoryUtil.memGetByte(src + i) & 0xFF) / 255.f;
+        }
+    },
+
+    /**
+     * 16 bit signed normalized integers for values in [-1, 1], for ex. tangents or normalized positions.
+     */
+    SNORM16 {
+        @Override
+        public int getFormat(int components) {
+            return pick(components, VK_FORMAT_R16_SNORM, VK_FORMAT_R16G16_SNORM, VK_FORMAT_R16G16B16A16_SNORM, VK_FORMAT_R16G16B16A16_SNORM);
+        }
+
+        @Override
+        public int getSize(int components) {
+            return padded(components) * 2;
+        }
+
+        @Override
+        void encode(long dst, int components, float x, float y, float z, float w) {
+            for (int i = 0; i < padded(components); i++)
+                MemoryUtil.memPutShort(dst + i * 2L, i < components ? toSnorm16(component(i, x, y, z, w)) : (short) 0);
+        }
+
+        @Override
+        void decode(long src, int components, float[] out) {
+            for (int i = 0; i < components; i++)
+                out[i] = fromSnorm16(MemoryUtil.memGetShort(src + i * 2L));
+        }
+    },
+
+    /**
+     * Unit vectors (normals) mapped onto an octahedron and stored as 2 16 bit signed normalized integers.
+     * Takes 4 bytes instead of 12, the error is below 0.01 degrees. The shader has to decode the vector:
+     * <pre>{@code
+     * vec3 n = vec3(e.xy, 1.0 - abs(e.x) - abs(e.y));
+     * if (n.z < 0.0) n.xy = (1.0 - abs(n.yx)) * sign(n.xy);
+     * n = normalize(n);
+     * }</pre>
+     */
+    OCTAHEDRAL {
+        @Override
+        public int getFormat(int components) {
+            if (components != 3)
+                throw new IllegalArgumentException("Octahedral encoding needs a 3 component vector!");
+
+            return VK_FORMAT_R16G16_SNORM;
+        }
+
+        @Override
+        public int getSize(int components) {
+            return 4;
+        }
+
+        @Override
+        void encode(long dst, int components, float x, float y, float z, float w) {
+            float length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+
+            if (length == 0.f) {
+                MemoryUtil.memPutShort(dst, (short) 0);
+                MemoryUtil.memPutShort(dst + 2, (short) 0);
+                return;
+            }
+
+            float u = x / length;
+            float v = y / length;
+
+            // The lower half of the octahedron is folded over the diagonals
+            if (z < 0.f) {
+                float foldedU = (1.f - Math.abs(v)) * Math.signum(u == 0.f ? 1.f : u);
+                float foldedV = (1.f - Math.abs(u)) * Math.signum(v == 0.f ? 1.f : v);
+                u = foldedU;
+                v = foldedV;
+            }
+
+            MemoryUtil.memPutShort(dst, toSnorm16(u));
+            MemoryUtil.memPutShort(dst + 2, toSnorm16(v));
+        }
+
+        @Override
+        void decode(long src, int components, float[] out) {
+            float u = fromSnorm16(MemoryUtil.memGetShort(src));
+            float v = fromSnorm16(MemoryUtil.memGetShort(src + 2));
+
+            float x = u, y = v, z = 1.f - Math.abs(u) - Math.abs(v);
+
+            if (z < 0.f) {
+                x = (1.f - Math.abs(v)) * Math.signum(u == 0.f ? 1.f : u);
+                y = (1.f - Math.abs(u)) * Math.signum(v == 0.f ? 1.f : v);
+            }
+
+            float length = (float) Math.sqrt(x * x + y * y + z * z);
+
+            out[0] = x / length;
+            out[1] = y / length;
+            out[2] = z / length;
+        }
+    };
+
+    /**
+     * @param components - Number of float components of the attribute (1 - 4).
+     * @return VK_FORMAT the vertex fetch uses to read the encoded attribute.
+     */
+    public abstract int getFormat(int components);
+
+    /**
+     * @param components - Number of float components of the attribute (1 - 4).
+     * @return Size of the encoded attribute in bytes.
+     */
+    public abstract int getSize(int components);
+
+    /**
+     * Writes the first {@code components} values, encoded, to the given address.
+     */
+    abstract void encode(long dst, int components, float x, float y, float z, float w);
+
+    /**
+     * Reads an encoded attribute back into floats. Used for measuring the error of the encoding.
+     */
+    abstract void decode(long src, int components, float[] out);
+
+    private static int pick(int components, int one, int two, int three, int four) {
+        switch (components) {
+            case 1: return one;
+            case 2: return two;
+            case 3: return three;
+            case 4: return four;
+            default: throw new IllegalArgumentException(String.format("An attribute has 1 - 4 components! Got %d", components));
+        }
+    }
+
+    private static float component(int index, float x, float y, float z, float w) {
+        switch (index) {
+            case 0: return x;
+            case 1: return y;
+            case 2: return z;
+            default: return w;
+        }
+    }
+
+    private static int padded(int components) {
+        return components == 3 ? 4 : components;
+    }
+
+    static short toSnorm16(float value) {
+        return (short) Math.round(Math.max(-1.f, Math.min(1.f, value)) * 32767.f);
+    }
+
+    static float fromSnorm16(short value) {
+        return Math.max(value / 32767.f, -1.f);
+    }
+
+    /**
+     * Converts a float to an IEEE 754 half float with round to nearest even. Values out of range become infinity.
+     */
+    static short floatToHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xFF;
+        int mantissa = bits & 0x7FFFFF;
+
+        // NaN and infinity
+        if (exponent == 0xFF)
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+
+        int halfExponent = exponent - 127 + 15;
+
+        // Overflow
+        if (halfExponent >= 0x1F)
+            return (short) (sign | 0x7C00);
+
+        // Subnormal or zero
+        if (halfExponent <= 0) {
+            if (halfExponent < -10)
+                return (short) sign;
+
+            mantissa |= 0x800000;
+            int shift = 14 - halfExponent;
+            int halfMantissa = mantissa >>> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+
+            if (remainder > halfway || (remainder == halfway && (halfMantissa & 1) != 0))
+                halfMantissa++;
+
+            return (short) (sign | halfMantissa);
+        }
+
+        int half = sign | (halfExponent << 10) | (mantissa >>> 13);
+        int remainder = mantissa & 0x1FFF;
+
+        // Rounding may carry into the exponent, which is still correct (up to infinity)
+        if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0))
+            half++;
+
+        return (short) half;
+    }
+
+    static float halfToFloat(short half) {
+        int bits = half & 0xFFFF;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1F;
+        int mantissa = bits & 0x3FF;
+
+        if (exponent == 0x1F)
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+
+        if (exponent == 0) {
+            // Subnormal or zero
+            float value = mantissa / 1024.f / 16384.f;
+            return sign != 0 ? -value : value;
+        }
+
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+    /**
+     * Error statistics of an encoded attribute. The error of a single value is the euclidean distance between the
+     * written vector and the vector the GPU will read.
+     */
+    public static class EncodingError {
+        private long count = 0;
+        private double maxError = 0.0;
+        private double sumError = 0.0;
+        private double sumSquaredError = 0.0;
+
+        void add(double error) {
+            count++;
+            maxError = Math.max(maxError, error);
+            sumError += error;
+            sumSquaredError += error * error;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMaxError() {
+            return maxError;
+        }
+
+        public double getMeanError() {
+            return count == 0 ? 0.0 : sumError / count;
+        }
+
+        public double getRmsError() {
+            return count == 0 ? 0.0 : Math.sqrt(sumSquaredError / count);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d max %.6g mean %.6g rms %.6g", count, getMaxError(), getMeanError(), getRmsError());
+        }
+    }
+}
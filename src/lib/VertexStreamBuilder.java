@@ -0,0 +1,418 @@
+package lib;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.NativeResource;
+import org.lwjgl.system.libc.LibCString;
+import org.lwjgl.vulkan.VkVertexInputAttributeDescription;
+import org.lwjgl.vulkan.VkVertexInputBindingDescription;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes vertex data straight into off-heap memory, laid out according to a {@link VulkanBuffers.VertexBuffer}.
+ * <p>
+ * No object is created per vertex, the values are written with MemoryUtil.memPutFloat:
+ * <pre>{@code
+ * builder.vertex().put(0, x, y).put(1, r, g, b, a);
+ * }</pre>
+ * The data is either interleaved (one binding, the attribute offsets and stride of the layout are used) or a
+ * struct of arrays (every attribute is a tightly packed stream with its own binding). The builder generates the
+ * binding and attribute descriptions matching the chosen layout, so the pipeline and the data can't disagree.
+ * <p>
+ * Attributes created with a {@link VertexEncoding} are quantized while they are written. The error of the
+ * quantization can be measured with {@link #setMeasureEncodingErrors(boolean)}.
+ * <p>
+ * Every new vertex starts zeroed, so the attributes which are never put read as 0. The memory grows when it is full
+ * and has to be released with {@link #free()}.
+ */
+public class VertexStreamBuilder implements NativeResource {
+
+    public enum Layout {
+        /**
+         * All attributes of a vertex next to each other, one binding.
+         */
+        INTERLEAVED,
+        /**
+         * One tightly packed array per attribute, one binding per attribute.
+         */
+        STRUCT_OF_ARRAYS
+    }
+
+    private final VulkanBuffers.VertexBuffer vertexLayout;
+    private final VulkanBuffers.Attribute[] attributes;
+    private final Layout layout;
+
+    private ByteBuffer data;
+    private long address;
+    private int capacity;
+
+    // Offset of every attribute stream (struct of arrays only)
+    private final long[] streamOffsets;
+    // true if build() has moved the streams right behind each other
+    private boolean packed = false;
+
+    private int vertexCount = 0;
+
+    private VertexEncoding.EncodingError[] encodingErrors = null;
+    private final float[] decoded = new float[4];
+    private final float[] expected = new float[4];
+
+    /**
+     * @param vertexLayout - Attributes, offsets and stride of a vertex.
+     * @param layout       - How the attributes are laid out in memory.
+     * @param capacity     - How many vertices fit in before the memory has to grow.
+     */
+    public VertexStreamBuilder(VulkanBuffers.VertexBuffer vertexLayout, Layout layout, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity of the vertex stream has to be greater than 0!");
+
+        this.vertexLayout = vertexLayout;
+        this.attributes = vertexLayout.getAttributes();
+        this.layout = layout;
+        this.streamOffsets = new long[attributes.length];
+
+        allocate(capacity);
+    }
+
+    /**
+     * Starts a new vertex. The following puts write its attributes.
+     */
+    public VertexStreamBuilder vertex() {
+        if (packed)
+            unpackStreams();
+
+        if (vertexCount == capacity)
+            grow(Math.max(1, capacity * 2));
+
+        clearVertex(vertexCount);
+        vertexCount++;
+
+        return this;
+    }
+
+    public VertexStreamBuilder put(int attribute, float x) {
+        return write(attribute, 1, x, 0.f, 0.f, 0.f);
+    }
+
+    public VertexStreamBuilder put(int attribute, float x, float y) {
+        return write(attribute, 2, x, y, 0.f, 0.f);
+    }
+
+    public VertexStreamBuilder put(int attribute, float x, float y, float z) {
+        return write(attribute, 3, x, y, z, 0.f);
+    }
+
+    public VertexStreamBuilder put(int attribute, float x, float y, float z, float w) {
+        return write(attribute, 4, x, y, z, w);
+    }
+
+    private VertexStreamBuilder write(int attribute, int count, float x, float y, float z, float w) {
+        VertexEncoding encoding = attributes[attribute].getEncoding();
+
+        if (encoding == null) {
+            long dst = attributeAddress(attribute, count * 4);
+
+            MemoryUtil.memPutFloat(dst, x);
+            if (count > 1) MemoryUtil.memPutFloat(dst + 4, y);
+            if (count > 2) MemoryUtil.memPutFloat(dst + 8, z);
+            if (count > 3) MemoryUtil.memPutFloat(dst + 12, w);
+
+            return this;
+        }
+
+        int components = attributes[attribute].getComponents();
+
+        if (count > components)
+            throw new IllegalArgumentException(String.format("Attribute %d has only %d components, %d can't be written!",
+                    attribute, components, count));
+
+        // Missing components are written as 0
+        long dst = attributeAddress(attribute, 0);
+        encoding.encode(dst, components, x, y, z, w);
+
+        if (encodingErrors != null)
+            measureError(attribute, encoding, dst, components, x, y, z, w);
+
+        return this;
+    }
+
+    private void measureError(int attribute, VertexEncoding encoding, long dst, int components, float x, float y, float z, float w) {
+        encoding.decode(dst, components, decoded);
+
+        expected[0] = x;
+        expected[1] = y;
+        expected[2] = z;
+        expected[3] = w;
+
+        // The octahedral encoding stores only the direction
+        if (encoding == VertexEncoding.OCTAHEDRAL) {
+            float length = (float) Math.sqrt(x * x + y * y + z * z);
+            for (int i = 0; i < 3 && length > 0.f; i++)
+                expected[i] /= length;
+        }
+
+        double error = 0.0;
+        for (int i = 0; i < components; i++)
+            error += (expected[i] - decoded[i]) * (expected[i] - decoded[i]);
+
+        encodingErrors[attribute].add(Math.sqrt(error));
+    }
+
+    /**
+     * Turns the measuring of the quantization error of the encoded attributes on or off. Every written value is
+     * decoded again and compared with the original, so it slows the writing down.
+     */
+    public void setMeasureEncodingErrors(boolean measure) {
+        if (!measure) {
+            encodingErrors = null;
+            return;
+        }
+
+        encodingErrors = new VertexEncoding.EncodingError[attributes.length];
+        for (int i = 0; i < attributes.length; i++)
+            encodingErrors[i] = new VertexEncoding.EncodingError();
+    }
+
+    /**
+     * @return The quantization error of the attribute measured since {@link #setMeasureEncodingErrors(boolean)},
+     * or null if it isn't measured.
+     */
+    public VertexEncoding.EncodingError getEncodingError(int attribute) {
+        return encodingErrors == null ? null : encodingErrors[attribute];
+    }
+
+    /**
+     * @param attribute - Index of the attribute in the layout.
+     * @param bytes     - How many bytes will be written.
+     * @return Address the attribute of the current vertex is written to.
+     */
+    long attributeAddress(int attribute, int bytes) {
+        if (vertexCount == 0)
+            throw new IllegalStateException("vertex() has to be called before putting attributes!");
+
+        VulkanBuffers.Attribute attr = attributes[attribute];
+
+        if (bytes > attr.getSize())
+            throw new IllegalArgumentException(String.format("Attribute %d has only %d bytes, %d bytes can't be written!",
+                    attribute, attr.getSize(), bytes));
+
+        long vertex = vertexCount - 1;
+
+        if (layout == Layout.INTERLEAVED)
+            return address + vertex * vertexLayout.getStride() + attr.getOffset();
+
+        return address + streamOffsets[attribute] + vertex * attr.getSize();
+    }
+
+    /**
+     * Packs the written vertices tightly (the streams of a struct of arrays are moved right behind each other inside
+     * the same memory block) and returns them. The capacity is kept, adding more vertices afterwards moves the
+     * streams apart again.
+     *
+     * @return A view of the vertex data from position 0 to the last written byte. Valid until the builder is freed or
+     * more vertices are added.
+     */
+    public ByteBuffer build() {
+        if (layout == Layout.STRUCT_OF_ARRAYS && !packed)
+            packStreams();
+
+        return MemoryUtil.memByteBuffer(address, (int) getSizeInBytes());
+    }
+
+    /**
+     * Discards the written vertices. Keeps the memory.
+     */
+    public void reset() {
+        vertexCount = 0;
+        packed = false;
+        computeStreamOffsets();
+    }
+
+    /**
+     * @return Size of the written vertices in bytes.
+     */
+    public long getSizeInBytes() {
+        if (layout == Layout.INTERLEAVED)
+            return (long) vertexCount * vertexLayout.getStride();
+
+        long size = 0L;
+        for (VulkanBuffers.Attribute attribute : attributes)
+            size += (long) vertexCount * attribute.getSize();
+
+        return size;
+    }
+
+    /**
+     * @return Offset of the attribute stream in the built buffer (binding offset for the struct of arrays layout).
+     */
+    public long getStreamOffset(int attribute) {
+        return layout == Layout.INTERLEAVED ? 0L : streamOffsets[attribute];
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @param firstBinding - Binding of the first stream. Streams of a struct of arrays get consecutive bindings.
+     */
+    public VkVertexInputBindingDescription.Buffer createBindingDescriptions(int firstBinding) {
+        if (layout == Layout.INTERLEAVED) {
+            VkVertexInputBindingDescription.Buffer description = VkVertexInputBindingDescription.create(1);
+            description.binding(firstBinding);
+            description.stride(vertexLayout.getStride());
+            description.inputRate(vertexLayout.getInputRate());
+            return description;
+        }
+
+        VkVertexInputBindingDescription.Buffer descriptions = VkVertexInputBindingDescription.create(attributes.length);
+
+        for (int i = 0; i < attributes.length; i++) {
+            descriptions.get(i)
+                    .binding(firstBinding + i)
+                    .stride(attributes[i].getSize())
+                    .inputRate(vertexLayout.getInputRate());
+        }
+
+        return descriptions;
+    }
+
+    /**
+     * @param firstBinding - Binding of the first stream. Has to match {@link #createBindingDescriptions(int)}.
+     */
+    public VkVertexInputAttributeDescription.Buffer createAttributeDescriptions(int firstBinding) {
+        VkVertexInputAttributeDescription.Buffer descriptions = VkVertexInputAttributeDescription.create(attributes.length);
+
+        for (int i = 0; i < attributes.length; i++) {
+            boolean interleaved = layout == Layout.INTERLEAVED;
+
+            descriptions.get(i)
+                    .binding(interleaved ? firstBinding : firstBinding + i)
+                    .location(attributes[i].getLocation())
+                    .format(attributes[i].getFormat())
+                    .offset(interleaved ? attributes[i].getOffset() : 0);
+        }
+
+        return descriptions;
+    }
+
+    private void allocate(int capacity) {
+        data = MemoryUtil.memAlloc(sizeFor(capacity));
+        address = MemoryUtil.memAddress(data);
+        this.capacity = capacity;
+
+        computeStreamOffsets();
+    }
+
+    /**
+     * Every stream gets room for the whole capacity.
+     */
+    private void computeStreamOffsets() {
+        long offset = 0L;
+        for (int i = 0; i < attributes.length; i++) {
+            streamOffsets[i] = offset;
+            offset += (long) capacity * attributes[i].getSize();
+        }
+    }
+
+    private void clearVertex(int vertex) {
+        if (layout == Layout.INTERLEAVED) {
+            MemoryUtil.memSet(address + (long) vertex * vertexLayout.getStride(), 0, vertexLayout.getStride());
+            return;
+        }
+
+        for (int i = 0; i < attributes.length; i++)
+            MemoryUtil.memSet(address + streamOffsets[i] + (long) vertex * attributes[i].getSize(), 0, attributes[i].getSize());
+    }
+
+    private int sizeFor(int capacity) {
+        long size = 0L;
+
+        if (layout == Layout.INTERLEAVED) {
+            size = (long) capacity * vertexLayout.getStride();
+        } else {
+            for (VulkanBuffers.Attribute attribute : attributes)
+                size += (long) capacity * attribute.getSize();
+        }
+
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(String.format("Vertex stream of %d bytes is too big!", size));
+
+        return (int) size;
+    }
+
+    private void grow(int newCapacity) {
+        if (layout == Layout.INTERLEAVED) {
+            data = MemoryUtil.memRealloc(data, sizeFor(newCapacity));
+            address = MemoryUtil.memAddress(data);
+            capacity = newCapacity;
+            return;
+        }
+
+        moveStreams(newCapacity);
+    }
+
+    /**
+     * Moves the streams right behind each other. A stream only moves towards the beginning of the block, so the
+     * streams are moved in order. The locations may overlap, hence memmove.
+     */
+    private void packStreams() {
+        long offset = 0L;
+
+        for (int i = 0; i < attributes.length; i++) {
+            long size = (long) vertexCount * attributes[i].getSize();
+
+            if (offset != streamOffsets[i])
+                LibCString.nmemmove(address + offset, address + streamOffsets[i], size);
+
+            streamOffsets[i] = offset;
+            offset += size;
+        }
+
+        packed = true;
+    }
+
+    /**
+     * Moves the packed streams back to the offsets sized for the whole capacity, in reverse order, as every stream
+     * moves towards the end of the block.
+     */
+    private void unpackStreams() {
+        long[] packedOffsets = streamOffsets.clone();
+        computeStreamOffsets();
+
+        for (int i = attributes.length - 1; i >= 0; i--) {
+            if (packedOffsets[i] != streamOffsets[i])
+                LibCString.nmemmove(address + streamOffsets[i], address + packedOffsets[i], (long) vertexCount * attributes[i].getSize());
+        }
+
+        packed = false;
+    }
+
+    /**
+     * Copies the streams into a new memory block sized for the given capacity. A new block is used because the old
+     * and new location of a stream may overlap.
+     */
+    private void moveStreams(int newCapacity) {
+        ByteBuffer oldData = data;
+        long oldAddress = address;
+        long[] oldOffsets = streamOffsets.clone();
+
+        allocate(newCapacity);
+
+        for (int i = 0; i < attributes.length; i++)
+            MemoryUtil.memCopy(oldAddress + oldOffsets[i], address + streamOffsets[i], (long) vertexCount * attributes[i].getSize());
+
+        MemoryUtil.memFree(oldData);
+    }
+
+    @Override
+    public void free() {
+        MemoryUtil.memFree(data);
+        data = null;
+        address = MemoryUtil.NULL;
+    }
+}
@@ -0,0 +1,250 @@
+package lib;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkDescriptorSetLayoutBinding;
+
+import static org.lwjgl.vulkan.VK10.*;
+import static org.lwjgl.vulkan.VK12.*;
+
+/**
+ * A single descriptor set with one large array per resource type, bound once and indexed in the shaders by an integer
+ * handle instead of binding a set per material:
+ * <pre>{@code
+ * #extension GL_EXT_nonuniform_qualifier : require
+ * layout (set = 0, binding = 0) uniform sampler2D u_Textures[];
+ * layout (set = 0, binding = 1, rgba8) uniform image2D u_StorageImages[];
+ * layout (set = 0, binding = 2) buffer Storage { uint data[]; } u_StorageBuffers[];
+ *
+ * vec4 color = texture(u_Textures[nonuniformEXT(handle)], uv);
+ * }</pre>
+ * The handle is commonly passed in a push constant or in per-instance data.
+ * <p>
+ * The arrays are partially bound and update-after-bind, so a resource can be added while the set is bound by frames
+ * in flight. A released handle is reused only after the frames which could still read it have been retired, see
+ * {@link BindlessHandleAllocator}. New descriptors are submitted by {@link #flush()}, which has to be called before the
+ * frame using them is submitted.
+ * <p>
+ * Needs {@link VulkanUtils#enableBindlessResources} set before the logical device is created. Not thread safe.
+ */
+public class VulkanBindlessTable implements VulkanResource {
+
+    public static final int TEXTURE_BINDING = 0;
+    public static final int STORAGE_IMAGE_BINDING = 1;
+    public static final int STORAGE_BUFFER_BINDING = 2;
+
+    private static final int BINDING_FLAGS = VK_DESCRIPTOR_BINDING_PARTIALLY_BOUND_BIT
+            | VK_DESCRIPTOR_BINDING_UPDATE_AFTER_BIND_BIT
+            | VK_DESCRIPTOR_BINDING_UPDATE_UNUSED_WHILE_PENDING_BIT;
+
+    private final long layout;
+    private final long descriptorSet;
+
+    private final VulkanDescriptorAllocator allocator;
+    private final VulkanDescriptorUpdater updater;
+    private final DescriptorWriter writer = new DescriptorWriter(1);
+
+    private final BindlessHandleAllocator textures;
+    private final BindlessHandleAllocator storageImages;
+    private final BindlessHandleAllocator storageBuffers;
+
+    /**
+     * Creates the table. The capacities have to be greater than 0 and are clamped to the limits of the device.
+     *
+     * @param device                - Vulkan Logical device object created with the bindless resources enabled.
+     * @param layoutCache           - Cache which owns the set layout.
+     * @param framesInFlight        - How many frames can be processed at once.
+     * @param textureCapacity       - Size of the combined image sampler array.
+     * @param storageImageCapacity  - Size of the storage image array.
+     * @param storageBufferCapacity - Size of the storage buffer array.
+     */
+    public VulkanBindlessTable(VulkanLogicalDevice device, VulkanDescriptorLayoutCache layoutCache, int framesInFlight,
+                               int textureCapacity, int storageImageCapacity, int storageBufferCapacity) {
+        if (!device.isBindlessSupported())
+            throw new IllegalStateException("Bindless resources aren't enabled on the device! Set VulkanUtils.enableBindlessResources before the device is created.");
+
+        int[] capacities = {
+                Math.min(textureCapacity, device.getMaxBindlessSampledImages()),
+                Math.min(storageImageCapacity, device.getMaxBindlessStorageImages()),
+                Math.min(storageBufferCapacity, device.getMaxBindlessStorageBuffers()),
+        };
+        int[] types = {
+                VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER,
+                VK_DESCRIPTOR_TYPE_STORAGE_IMAGE,
+                VK_DESCRIPTOR_TYPE_STORAGE_BUFFER,
+        };
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkDescriptorSetLayoutBinding.Buffer bindings = VkDescriptorSetLayoutBinding.calloc(types.length, stack);
+
+            for (int i = 0; i < types.length; i++) {
+                bindings.get(i)
+                        .binding(i)
+                        .descriptorType(types[i])
+                        .descriptorCount(capacities[i])
+                        .stageFlags(VK_SHADER_STAGE_ALL);
+            }
+
+            layout = layoutCache.getLayout(bindings, VK_DESCRIPTOR_SET_LAYOUT_CREATE_UPDATE_AFTER_BIND_POOL_BIT,
+                    new int[]{BINDING_FLAGS, BINDING_FLAGS, BINDING_FLAGS});
+        }
+
+        // A pool of exactly one set with the whole arrays
+        float[] ratios = {capacities[0], capacities[1], capacities[2]};
+        allocator = new VulkanDescriptorAllocator(device, 1, VK_DESCRIPTOR_POOL_CREATE_UPDATE_AFTER_BIND_BIT, types, ratios);
+        descriptorSet = allocator.allocate(layout);
+
+        updater = new VulkanDescriptorUpdater(device, 64);
+
+        textures = new BindlessHandleAllocator(capacities[0], framesInFlight);
+        storageImages = new BindlessHandleAllocator(capacities[1], framesInFlight);
+        storageBuffers = new BindlessHandleAllocator(capacities[2], framesInFlight);
+    }
+
+    /**
+     * Starts a frame. The handles released during the previous use of the frame slot can be allocated again.
+     * The caller guarantees the GPU is done with the previous submit of the frame.
+     */
+    public void beginFrame(int frameIndex) {
+        textures.beginFrame(frameIndex);
+        storageImages.beginFrame(frameIndex);
+        storageBuffers.beginFrame(frameIndex);
+    }
+
+    /**
+     * Waits until the last submit of the frame has been retired on the timeline, then starts the frame.
+     */
+    public void beginFrame(int frameIndex, VulkanTimeline timeline, long retireValue) {
+        timeline.waitFor(retireValue);
+        beginFrame(frameIndex);
+    }
+
+    /**
+     * Adds a texture sampled with the given sampler.
+     *
+     * @param imageView   - VkImageView handle.
+     * @param sampler     - VkSampler handle.
+     * @param imageLayout - Layout the image is in when sampled, commonly VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL.
+     * @return Index of the texture in the texture array.
+     */
+    public int addTexture(long imageView, long sampler, int imageLayout) {
+        int handle = allocate(textures, "texture");
+
+        writer.clear().image(TEXTURE_BINDING, handle, VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER, imageView, sampler, imageLayout);
+        updater.write(descriptorSet, writer);
+
+        return handle;
+    }
+
+    /**
+     * Adds a storage image in VK_IMAGE_LAYOUT_GENERAL.
+     *
+     * @return Index of the image in the storage image array.
+     */
+    public int addStorageImage(long imageView) {
+        int handle = allocate(storageImages, "storage image");
+
+        writer.clear().image(STORAGE_IMAGE_BINDING, handle, VK_DESCRIPTOR_TYPE_STORAGE_IMAGE, imageView, VK_NULL_HANDLE,
+                VK_IMAGE_LAYOUT_GENERAL);
+        updater.write(descriptorSet, writer);
+
+        return handle;
+    }
+
+    /**
+     * Adds a range of a storage buffer.
+     *
+     * @param buffer - VkBuffer handle.
+     * @param offset - Offset of the range in bytes.
+     * @param range  - Size of the range in bytes, or VK_WHOLE_SIZE.
+     * @return Index of the buffer in the storage buffer array.
+     */
+    public int addStorageBuffer(long buffer, long offset, long range) {
+        int handle = allocate(storageBuffers, "storage buffer");
+
+        writer.clear().buffer(STORAGE_BUFFER_BINDING, handle, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER, buffer, offset, range);
+        updater.write(descriptorSet, writer);
+
+        return handle;
+    }
+
+    /**
+     * Adds a buffer view allocated from a {@link VulkanBufferPool} as a storage buffer.
+     *
+     * @return Index of the buffer in the storage buffer array.
+     */
+    public int addStorageBuffer(VulkanBuffers.BufferView view) {
+        return addStorageBuffer(view.pBuffer, view.offset, view.size);
+    }
+
+    private static int allocate(BindlessHandleAllocator handles, String kind) {
+        int handle = handles.allocate();
+
+        if (handle == BindlessHandleAllocator.NO_HANDLE)
+            throw new IllegalStateException(String.format("Bindless %s array is full! Capacity: %d", kind, handles.getCapacity()));
+
+        return handle;
+    }
+
+    /**
+     * Releases a texture. The shaders must not read it from the frames recorded after this call.
+     */
+    public void releaseTexture(int handle) {
+        textures.release(handle);
+    }
+
+    public void releaseStorageImage(int handle) {
+        storageImages.release(handle);
+    }
+
+    public void releaseStorageBuffer(int handle) {
+        storageBuffers.release(handle);
+    }
+
+    /**
+     * Submits the descriptors of the resources added since the last flush with a single vkUpdateDescriptorSets call.
+     */
+    public void flush() {
+        updater.flush();
+    }
+
+    /**
+     * Binds the table.
+     *
+     * @param pipelineBindPoint - commonly VK_PIPELINE_BIND_POINT_GRAPHICS.
+     * @param pipelineLayout    - Pipeline layout with {@link #getLayout()} at the set number.
+     * @param set               - Set number of the table in the shaders.
+     */
+    public void bind(VulkanCommandBuffer commandBuffer, int pipelineBindPoint, long pipelineLayout, int set) {
+        commandBuffer.bindDescriptorSet(pipelineBindPoint, pipelineLayout, set, descriptorSet);
+    }
+
+    /**
+     * @return VkDescriptorSetLayout of the table, to be passed to {@link VulkanGraphicsPipeline#setDescriptorSetLayouts(long...)}.
+     */
+    public long getLayout() {
+        return layout;
+    }
+
+    public long getDescriptorSet() {
+        return descriptorSet;
+    }
+
+    public int getTextureCount() {
+        return textures.getLiveCount();
+    }
+
+    public int getStorageImageCount() {
+        return storageImages.getLiveCount();
+    }
+
+    public int getStorageBufferCount() {
+        return storageBuffers.getLiveCount();
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        // The layout is owned by the layout cache
+        updater.destroy(device);
+        allocator.destroy(device);
+    }
+}
@@ -0,0 +1,165 @@
+package lib;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkMemoryRequirements;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Carves many small logical buffers ({@link VulkanBuffers.BufferView}) out of a few large VkBuffers. Thousands of
+ * small meshes can therefore share a handful of allocations and a handful of VkBuffer handles. The bookkeeping of
+ * every block is done by a {@link FreeListAllocator}.
+ */
+public class VulkanBufferPool implements VulkanResource {
+
+    private static class Block {
+        VulkanBuffers.Buffer buffer;
+        FreeListAllocator allocator;
+    }
+
+    private final VulkanDevices devices;
+    private final int usage;
+    private final int memoryUsage;
+    private final int allocFlags;
+    private final long blockSize;
+
+    private final List<Block> blocks = new ArrayList<>();
+
+    /**
+     * Alignment from the VkMemoryRequirements of the blocks. Queried once, when the first block exists.
+     */
+    private long blockAlignment = 0L;
+
+    /**
+     * Creates an empty pool. The first block is allocated with the first view.
+     *
+     * @param devices     - VulkanDevices object which owns the VMA allocator.
+     * @param usage       - VkBufferUsageFlags of every block (for ex. VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT)
+     * @param memoryUsage - A VMA_MEMORY_USAGE hint for the blocks.
+     * @param allocFlags  - VMA_ALLOCATION_CREATE flags of the blocks. Use VMA_ALLOCATION_CREATE_MAPPED_BIT to get
+     *                    views which can be written to directly from the CPU.
+     * @param blockSize   - Size of a single block in bytes. Views larger than that get a block of their own.
+     */
+    public VulkanBufferPool(VulkanDevices devices, int usage, int memoryUsage, int allocFlags, long blockSize) {
+        this.devices = devices;
+        this.usage = usage;
+        this.memoryUsage = memoryUsage;
+        this.allocFlags = allocFlags;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Allocates a view aligned to the alignment the VkBuffer memory requirements demand.
+     *
+     * @param size - Size of the view in bytes.
+     */
+    public VulkanBuffers.BufferView allocate(long size) {
+        return allocate(size, 1);
+    }
+
+    /**
+     * Allocates a view.
+     *
+     * @param size      - Size of the view in bytes.
+     * @param alignment - Additional alignment of the offset (for ex. minUniformBufferOffsetAlignment). Has to be a
+     *                  power of two. The alignment from the VkMemoryRequirements is always applied as well.
+     */
+    public VulkanBuffers.BufferView allocate(long size, long alignment) {
+
+        for (int i = 0; i < blocks.size(); i++) {
+            VulkanBuffers.BufferView view = tryAllocate(i, size, alignment);
+            if (view != null)
+                return view;
+        }
+
+        createBlock(Math.max(blockSize, size));
+
+        VulkanBuffers.BufferView view = tryAllocate(blocks.size() - 1, size, alignment);
+
+        if (view == null)
+            throw new IllegalStateException(String.format("Failed to allocate a buffer view of %d bytes from a new block!", size));
+
+        return view;
+    }
+
+    /**
+     * Returns the view back to its block. The view must not be used by the GPU anymore.
+     */
+    public void free(VulkanBuffers.BufferView view) {
+        Block block = blocks.get(view.block);
+        block.allocator.free(view.offset);
+
+        view.pBuffer = MemoryUtil.NULL;
+        view.pMappedData = MemoryUtil.NULL;
+        view.size = 0L;
+    }
+
+    public int getBlockCount() {
+        return blocks.size();
+    }
+
+    public long getUsedBytes() {
+        long used = 0L;
+        for (Block block : blocks) used += block.allocator.getUsedBytes();
+        return used;
+    }
+
+    public long getReservedBytes() {
+        long reserved = 0L;
+        for (Block block : blocks) reserved += block.allocator.getCapacity();
+        return reserved;
+    }
+
+    private VulkanBuffers.BufferView tryAllocate(int blockIndex, long size, long alignment) {
+        Block block = blocks.get(blockIndex);
+
+        long offset = block.allocator.allocate(size, Math.max(alignment, getBlockAlignment(block)));
+
+        if (offset == FreeListAllocator.NO_SPACE)
+            return null;
+
+        VulkanBuffers.BufferView view = new VulkanBuffers.BufferView(block.buffer.pBuffer, offset, size);
+        view.block = blockIndex;
+        view.pAllocator = block.buffer.pAllocator;
+        view.pAllocation = block.buffer.pAllocation;
+
+        if (block.buffer.isMapped())
+            view.pMappedData = block.buffer.pMappedData + offset;
+
+        return view;
+    }
+
+    private long getBlockAlignment(Block block) {
+        if (blockAlignment != 0L)
+            return blockAlignment;
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkMemoryRequirements memoryRequirements = VkMemoryRequirements.calloc(stack);
+            vkGetBufferMemoryRequirements(devices.getVkDevice(), block.buffer.pBuffer, memoryRequirements);
+
+            blockAlignment = memoryRequirements.alignment();
+            return blockAlignment;
+        }
+    }
+
+    private void createBlock(long size) {
+        Block block = new Block();
+        block.buffer = devices.allocateBuffer(usage, VK_SHARING_MODE_EXCLUSIVE, memoryUsage, allocFlags, size);
+        block.allocator = new FreeListAllocator(size);
+
+        blocks.add(block);
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        for (Block block : blocks) {
+            block.buffer.destroy(device);
+        }
+
+        blocks.clear();
+    }
+}
@@ -11,6 +11,7 @@ import org.lwjgl.vulkan.*;
 import java.nio.ByteBuffer;
 import java.nio.LongBuffer;
 
+import static org.lwjgl.util.vma.Vma.*;
 import static org.lwjgl.vulkan.VK10.*;
 
 public class VulkanBuffers {
@@ -20,13 +21,32 @@ public class VulkanBuffers {
         public long pDeviceMemory;
         public long size;
 
+        /**
+         * Handle of the VMA allocator and of the allocation backing this buffer. Both are NULL if the memory was
+         * allocated directly through vkAllocateMemory.
+         */
+        public long pAllocator = MemoryUtil.NULL;
+        public long pAllocation = MemoryUtil.NULL;
+
+        /**
+         * Pointer to the persistently mapped memory of this buffer. NULL if the buffer isn't persistently mapped.
+         */
+        public long pMappedData = MemoryUtil.NULL;
+
         @Override
         public void destroy(VulkanLogicalDevice device) {
-            vkDestroyBuffer(device.getVkDevice(), pBuffer, null);
-            vkFreeMemory(device.getVkDevice(), pDeviceMemory, null);
+            if (pAllocation != MemoryUtil.NULL) {
+                // VMA owns the VkDeviceMemory block, it must not be freed by us.
+                vmaDestroyBuffer(pAllocator, pBuffer, pAllocation);
+            } else {
+                vkDestroyBuffer(device.getVkDevice(), pBuffer, null);
+                vkFreeMemory(device.getVkDevice(), pDeviceMemory, null);
+            }
 
             pBuffer = MemoryUtil.NULL;
             pDeviceMemory = MemoryUtil.NULL;
+            pAllocation = MemoryUtil.NULL;
+            pMappedData = MemoryUtil.NULL;
             size = 0L;
         }
 
@@ -40,14 +60,38 @@ public class VulkanBuffers {
 
         }
 
+        public boolean isMapped() {
+            return pMappedData != MemoryUtil.NULL;
+        }
 
         public void setData(VulkanLogicalDevice device, ByteBuffer srcData) {
 
+            if (pBuffer == MemoryUtil.NULL)
+                throw new NullPointerException("VkBuffer is null!");
+
+            // Persistently mapped memory can be written straight away
+            if (pMappedData != MemoryUtil.NULL) {
+                MemoryUtil.memCopy(MemoryUtil.memAddress(srcData, 0), pMappedData, srcData.capacity());
+                vmaFlushAllocation(pAllocator, pAllocation, 0, srcData.capacity());
+                return;
+            }
+
             try (MemoryStack stack = MemoryStack.stackPush()){
 
                 PointerBuffer dest = stack.mallocPointer(1);
 
-                if (pDeviceMemory == MemoryUtil.NULL || pBuffer == MemoryUtil.NULL)
+                if (pAllocation != MemoryUtil.NULL) {
+                    // The VkDeviceMemory is shared with other allocations, so it has to be mapped through VMA.
+                    VulkanUtils.check(vmaMapMemory(pAllocator, pAllocation, dest));
+                    {
+                        dest.getByteBuffer(0, srcData.capacity()).put(srcData);
+                    }
+                    vmaFlushAllocation(pAllocator, pAllocation, 0, srcData.capacity());
+                    vmaUnmapMemory(pAllocator, pAllocation);
+                    return;
+                }
+
+                if (pDeviceMemory == MemoryUtil.NULL)
                     throw new NullPointerException("VkDeviceMemory or VkBuffer is null!");
 
                 vkMapMemory(device.getVkDevice(), pDeviceMemory, 0, srcData.capacity(), 0, dest);
@@ -63,6 +107,51 @@ public class VulkanBuffers {
 
     }
 
+    /**
+     * A range of a bigger VkBuffer handed out by the {@link VulkanBufferPool}. Many views share the same VkBuffer and
+     * the same device memory and differ only in their offset.
+     */
+    static public class BufferView {
+        public long pBuffer;
+        public long offset;
+        public long size;
+
+        /**
+         * Pointer to the beginning of this view in the persistently mapped memory. NULL if the pool isn't host visible.
+         */
+        public long pMappedData = MemoryUtil.NULL;
+
+        /**
+         * Index of the pool block this view was carved out of.
+         */
+        int block;
+
+        /**
+         * VMA handles of the whole block, needed to flush writes into non-coherent memory.
+         */
+        long pAllocator = MemoryUtil.NULL;
+        long pAllocation = MemoryUtil.NULL;
+
+        public BufferView(long pBuffer, long offset, long size) {
+            this.pBuffer = pBuffer;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        public void setData(ByteBuffer srcData) {
+            if (pMappedData == MemoryUtil.NULL)
+                throw new IllegalStateException("Buffer view is not host visible! Copy the data with a staging buffer instead.");
+
+            if (srcData.remaining() > size)
+                throw new IllegalArgumentException(String.format("Data (%d bytes) doesn't fit into the buffer view (%d bytes)!", srcData.remaining(), size));
+
+            MemoryUtil.memCopy(MemoryUtil.memAddress(srcData), pMappedData, srcData.remaining());
+
+            if (pAllocation != MemoryUtil.NULL)
+                vmaFlushAllocation(pAllocator, pAllocation, offset, srcData.remaining());
+        }
+    }
+
     static public class Attribute {
 
         /**
@@ -92,6 +181,16 @@ public class VulkanBuffers {
          */
         private int offsetof = 0;
 
+        /**
+         * How the float values of the attribute are encoded, or null if the data is written as it is.
+         */
+        private VertexEncoding encoding = null;
+
+        /**
+         * Number of float components of an encoded attribute.
+         */
+        private int components = 0;
+
         public Attribute(int location, int format, int offsetof, int size) {
             this.location = location;
             this.format = format;
@@ -99,6 +198,21 @@ public class VulkanBuffers {
             this.size = size;
         }
 
+        /**
+         * Creates an attribute whose floats are quantized by the {@link VertexStreamBuilder}. The format and size
+         * are derived from the encoding.
+         *
+         * @param location   - Location of the attribute in the vertex shader.
+         * @param encoding   - How the floats are stored.
+         * @param components - Number of floats of the attribute (for ex. 4 for a color).
+         * @param offsetof   - Offset of the attribute from the beginning of the vertex.
+         */
+        public Attribute(int location, VertexEncoding encoding, int components, int offsetof) {
+            this(location, encoding.getFormat(components), offsetof, encoding.getSize(components));
+            this.encoding = encoding;
+            this.components = components;
+        }
+
         public VkVertexInputAttributeDescription.Buffer createAttributeDescription() {
 
             VkVertexInputAttributeDescription.Buffer attributeDescription = VkVertexInputAttributeDescription.create(1);
@@ -110,24 +224,103 @@ public class VulkanBuffers {
 
             return attributeDescription;
         }
+
+        public int getBinding() {
+            return binding;
+        }
+
+        public int getLocation() {
+            return location;
+        }
+
+        public int getFormat() {
+            return format;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getOffset() {
+            return offsetof;
+        }
+
+        /**
+         * @return The encoding of the attribute, or null if the attribute isn't encoded.
+         */
+        public VertexEncoding getEncoding() {
+            return encoding;
+        }
+
+        public int getComponents() {
+            return components;
+        }
     }
 
     static public class VertexBuffer {
 
         int stride = 0;
         int binding = 0;
+        int inputRate = VK_VERTEX_INPUT_RATE_VERTEX;
         Attribute[] attributes;
 
         public VertexBuffer(int binding, Attribute[] attributes) {
+            this(binding, VK_VERTEX_INPUT_RATE_VERTEX, attributes);
+        }
+
+        /**
+         * @param binding    - Index of the vertex input binding the attributes are read from.
+         * @param inputRate  - VK_VERTEX_INPUT_RATE_VERTEX or VK_VERTEX_INPUT_RATE_INSTANCE (the attributes advance
+         *                   once per instance).
+         * @param attributes - Attributes of the binding. Their binding is set to this one.
+         */
+        public VertexBuffer(int binding, int inputRate, Attribute[] attributes) {
             this.binding = binding;
+            this.inputRate = inputRate;
             this.attributes = attributes;
 
             //TODO: Maybe set stride to -1 if there is not attribute to register, and throw an exception... Maybe.
             for (Attribute attribute : attributes) {
+                attribute.binding = binding;
                 stride += attribute.size;
             }
         }
 
+        /**
+         * Creates the binding descriptions of several bindings (for ex. a per-vertex and a per-instance stream), to be
+         * passed to the pipeline together with {@link #createAttributeDescriptions(VertexBuffer...)}.
+         */
+        public static VkVertexInputBindingDescription.Buffer createBindingDescriptions(VertexBuffer... layouts) {
+            VkVertexInputBindingDescription.Buffer descriptions = VkVertexInputBindingDescription.create(layouts.length);
+
+            for (int i = 0; i < layouts.length; i++) {
+                descriptions.get(i)
+                        .binding(layouts[i].binding)
+                        .stride(layouts[i].stride)
+                        .inputRate(layouts[i].inputRate);
+            }
+
+            return descriptions;
+        }
+
+        /**
+         * Creates the attribute descriptions of all attributes of several bindings.
+         */
+        public static VkVertexInputAttributeDescription.Buffer createAttributeDescriptions(VertexBuffer... layouts) {
+            int count = 0;
+            for (VertexBuffer layout : layouts)
+                count += layout.attributes.length;
+
+            VkVertexInputAttributeDescription.Buffer descriptions = VkVertexInputAttributeDescription.create(count);
+
+            for (VertexBuffer layout : layouts) {
+                for (Attribute attribute : layout.attributes)
+                    descriptions.put(attribute.createAttributeDescription());
+            }
+
+            return descriptions.rewind();
+        }
+
         public VkVertexInputAttributeDescription.Buffer createAttributeDescriptions() {
 
             VkVertexInputAttributeDescription.Buffer descriptions = VkVertexInputAttributeDescription.create(this.attributes.length);
@@ -140,7 +333,7 @@ public class VulkanBuffers {
         }
 
         public VkVertexInputBindingDescription.Buffer createBindingDescription() {
-            return createBindingDescription(VK_VERTEX_INPUT_RATE_VERTEX);
+            return createBindingDescription(inputRate);
         }
 
         public VkVertexInputBindingDescription.Buffer createBindingDescription(int inputRate) {
@@ -153,5 +346,24 @@ public class VulkanBuffers {
 
             return description;
         }
+
+        /**
+         * @return Size of a single vertex in bytes (sum of the sizes of the attributes).
+         */
+        public int getStride() {
+            return stride;
+        }
+
+        public int getBinding() {
+            return binding;
+        }
+
+        public int getInputRate() {
+            return inputRate;
+        }
+
+        public Attribute[] getAttributes() {
+            return attributes;
+        }
     }
 }
\ No newline at end of file
@@ -4,7 +4,9 @@ import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
 
-import static org.lwjgl.system.MemoryStack.stackGet;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
 import static org.lwjgl.vulkan.VK10.*;
 import static org.lwjgl.vulkan.VK10.VK_SUCCESS;
 
@@ -12,6 +14,12 @@ public class VulkanCommandBuffer {
 
     private VkCommandBuffer vkCommandBuffer;
 
+    // Reused by the binding of a single descriptor set or vertex buffer
+    private final long[] descriptorSetScratch = new long[1];
+    private final int[] dynamicOffsetScratch = new int[1];
+    private final long[] vertexBufferScratch = new long[1];
+    private final long[] vertexOffsetScratch = new long[1];
+
     public VulkanCommandBuffer(VulkanLogicalDevice device, VulkanCmdPool commandPool, boolean isSecondary) {
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
@@ -31,6 +39,14 @@ public class VulkanCommandBuffer {
         }
     }
 
+    /**
+     * Wraps an already allocated command buffer, for ex. one allocated in a batch by a {@link VulkanFrameCommandAllocator}.
+     * @param vkCommandBuffer - The allocated command buffer. It is owned (and freed) by its pool.
+     */
+    public VulkanCommandBuffer(VkCommandBuffer vkCommandBuffer) {
+        this.vkCommandBuffer = vkCommandBuffer;
+    }
+
     public VkCommandBuffer getVkCommandBuffer() {
         return vkCommandBuffer;
     }
@@ -39,10 +55,43 @@ public class VulkanCommandBuffer {
         VulkanUtils.check(vkBeginCommandBuffer(vkCommandBuffer,beginInfo));
     }
 
+    /**
+     * Begins recording of a secondary command buffer which will be executed inside of the given render pass.
+     *
+     * @param renderPass  - VkRenderPass the commands will be executed in.
+     * @param subpass     - Index of the subpass the commands will be executed in.
+     * @param framebuffer - VkFramebuffer the commands will render into. Can be VK_NULL_HANDLE if it is not known yet.
+     * @param flags       - Additional VkCommandBufferUsageFlags (for ex. VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT)
+     */
+    public void beginSecondary(long renderPass, int subpass, long framebuffer, int flags) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkCommandBufferInheritanceInfo inheritanceInfo = VkCommandBufferInheritanceInfo.calloc(stack);
+            inheritanceInfo.sType$Default();
+            inheritanceInfo.renderPass(renderPass);
+            inheritanceInfo.subpass(subpass);
+            inheritanceInfo.framebuffer(framebuffer);
+
+            VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc(stack);
+            beginInfo.sType$Default();
+            beginInfo.flags(VK_COMMAND_BUFFER_USAGE_RENDER_PASS_CONTINUE_BIT | flags);
+            beginInfo.pInheritanceInfo(inheritanceInfo);
+
+            VulkanUtils.check(vkBeginCommandBuffer(vkCommandBuffer, beginInfo));
+        }
+    }
+
     public void endCommandBuffer() {
         VulkanUtils.check(vkEndCommandBuffer(vkCommandBuffer));
     }
 
+    /**
+     * Resets the command buffer back to the initial state. The command pool has to be created with the
+     * VK_COMMAND_POOL_CREATE_RESET_COMMAND_BUFFER_BIT flag.
+     */
+    public void reset() {
+        VulkanUtils.check(vkResetCommandBuffer(vkCommandBuffer, 0));
+    }
+
     // ------------- COMMANDS ---------------
 
     public void beginRenderPass(VkRenderPassBeginInfo renderPassBeginInfo, int contents) {
@@ -53,10 +102,185 @@ public class VulkanCommandBuffer {
         vkCmdEndRenderPass(vkCommandBuffer);
     }
 
+    /**
+     * Executes secondary command buffers. The render pass has to be begun with
+     * VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS.
+     *
+     * @param secondaryBuffers - Handles of the recorded secondary command buffers. All of the remaining handles are executed.
+     */
+    public void executeCommands(PointerBuffer secondaryBuffers) {
+        vkCmdExecuteCommands(vkCommandBuffer, secondaryBuffers);
+    }
+
+    public void executeCommands(VulkanCommandBuffer secondaryBuffer) {
+        vkCmdExecuteCommands(vkCommandBuffer, secondaryBuffer.getVkCommandBuffer());
+    }
+
     public void bindPipeline(int pipelineBindPoint, VulkanGraphicsPipeline pipeline) {
         vkCmdBindPipeline(vkCommandBuffer,pipelineBindPoint,pipeline.getPipelinePtr());
     }
 
+    /**
+     * Copies a region from one buffer to another.
+     * @param srcBuffer VkBuffer to copy from.
+     * @param srcOffset offset in the source buffer in bytes.
+     * @param dstBuffer VkBuffer to copy to.
+     * @param dstOffset offset in the destination buffer in bytes.
+     * @param size how many bytes to copy.
+     */
+    public void copyBuffer(long srcBuffer, long srcOffset, long dstBuffer, long dstOffset, long size) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkBufferCopy.Buffer region = VkBufferCopy.calloc(1, stack);
+            region.srcOffset(srcOffset);
+            region.dstOffset(dstOffset);
+            region.size(size);
+
+            vkCmdCopyBuffer(vkCommandBuffer, srcBuffer, dstBuffer, region);
+        }
+    }
+
+    /**
+     * Inserts a global memory barrier, which makes the writes of the source stages visible to the destination stages.
+     */
+    public void memoryBarrier(int srcStageMask, int dstStageMask, int srcAccessMask, int dstAccessMask) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkMemoryBarrier.Buffer barrier = VkMemoryBarrier.calloc(1, stack);
+            barrier.sType$Default();
+            barrier.srcAccessMask(srcAccessMask);
+            barrier.dstAccessMask(dstAccessMask);
+
+            vkCmdPipelineBarrier(vkCommandBuffer, srcStageMask, dstStageMask, 0, barrier, null, null);
+        }
+    }
+
+    /**
+     * Inserts a buffer memory barrier. If the queue families differ, the barrier is a queue family ownership
+     * transfer: it has to be recorded once on the releasing queue and once, with the same families, on the
+     * acquiring queue.
+     *
+     * @param buffer         VkBuffer handle.
+     * @param offset         offset of the range in bytes.
+     * @param size           size of the range in bytes (or VK_WHOLE_SIZE).
+     * @param srcQueueFamily queue family which releases the buffer (or VK_QUEUE_FAMILY_IGNORED).
+     * @param dstQueueFamily queue family which acquires the buffer (or VK_QUEUE_FAMILY_IGNORED).
+     */
+    public void bufferBarrier(long buffer, long offset, long size, int srcQueueFamily, int dstQueueFamily,
+                              int srcStageMask, int dstStageMask, int srcAccessMask, int dstAccessMask) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkBufferMemoryBarrier.Buffer barrier = VkBufferMemoryBarrier.calloc(1, stack);
+            barrier.sType$Default();
+            barrier.srcAccessMask(srcAccessMask);
+            barrier.dstAccessMask(dstAccessMask);
+            barrier.srcQueueFamilyIndex(srcQueueFamily);
+            barrier.dstQueueFamilyIndex(dstQueueFamily);
+            barrier.buffer(buffer);
+            barrier.offset(offset);
+            barrier.size(size);
+
+            vkCmdPipelineBarrier(vkCommandBuffer, srcStageMask, dstStageMask, 0, null, barrier, null);
+        }
+    }
+
+    /**
+     * Inserts an image memory barrier for all mip levels and array layers. Changes the layout of the image and, if
+     * the queue families differ, transfers its ownership (has to be recorded on both queues).
+     *
+     * @param image          VkImage handle.
+     * @param aspectMask     VkImageAspectFlags of the image (for ex. VK_IMAGE_ASPECT_COLOR_BIT)
+     * @param oldLayout      current layout of the image.
+     * @param newLayout      layout the image will be transitioned to.
+     * @param srcQueueFamily queue family which releases the image (or VK_QUEUE_FAMILY_IGNORED).
+     * @param dstQueueFamily queue family which acquires the image (or VK_QUEUE_FAMILY_IGNORED).
+     */
+    public void imageBarrier(long image, int aspectMask, int oldLayout, int newLayout, int srcQueueFamily, int dstQueueFamily,
+                             int srcStageMask, int dstStageMask, int srcAccessMask, int dstAccessMask) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkImageMemoryBarrier.Buffer barrier = VkImageMemoryBarrier.calloc(1, stack);
+            barrier.sType$Default();
+            barrier.srcAccessMask(srcAccessMask);
+            barrier.dstAccessMask(dstAccessMask);
+            barrier.oldLayout(oldLayout);
+            barrier.newLayout(newLayout);
+            barrier.srcQueueFamilyIndex(srcQueueFamily);
+            barrier.dstQueueFamilyIndex(dstQueueFamily);
+            barrier.image(image);
+            barrier.subresourceRange(it -> it
+                    .aspectMask(aspectMask)
+                    .baseMipLevel(0)
+                    .levelCount(VK_REMAINING_MIP_LEVELS)
+                    .baseArrayLayer(0)
+                    .layerCount(VK_REMAINING_ARRAY_LAYERS));
+
+            vkCmdPipelineBarrier(vkCommandBuffer, srcStageMask, dstStageMask, 0, null, null, barrier);
+        }
+    }
+
+    /**
+     * Resets a range of queries. Has to be recorded outside of a render pass.
+     */
+    public void resetQueryPool(long queryPool, int firstQuery, int queryCount) {
+        vkCmdResetQueryPool(vkCommandBuffer, queryPool, firstQuery, queryCount);
+    }
+
+    /**
+     * Writes a timestamp into the query once all of the previous commands have reached the given stage.
+     * @param pipelineStage VkPipelineStageFlagBits (for ex. VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT)
+     */
+    public void writeTimestamp(int pipelineStage, long queryPool, int query) {
+        vkCmdWriteTimestamp(vkCommandBuffer, pipelineStage, queryPool, query);
+    }
+
+    /**
+     * Binds a single descriptor set.
+     * @param pipelineBindPoint commonly {@link VK10#VK_PIPELINE_BIND_POINT_GRAPHICS VK_PIPELINE_BIND_POINT_GRAPHICS}.
+     * @param pipelineLayout VkPipelineLayout the set layout is part of.
+     * @param set set number in the shaders.
+     * @param descriptorSet VkDescriptorSet handle.
+     */
+    public void bindDescriptorSet(int pipelineBindPoint, long pipelineLayout, int set, long descriptorSet) {
+        descriptorSetScratch[0] = descriptorSet;
+        vkCmdBindDescriptorSets(vkCommandBuffer, pipelineBindPoint, pipelineLayout, set, descriptorSetScratch, null);
+    }
+
+    /**
+     * Binds a single descriptor set with one dynamic uniform or storage buffer.
+     * @param dynamicOffset offset added to the offset of the dynamic buffer, commonly from a {@link VulkanUniformRing}.
+     */
+    public void bindDescriptorSet(int pipelineBindPoint, long pipelineLayout, int set, long descriptorSet, int dynamicOffset) {
+        descriptorSetScratch[0] = descriptorSet;
+        dynamicOffsetScratch[0] = dynamicOffset;
+        vkCmdBindDescriptorSets(vkCommandBuffer, pipelineBindPoint, pipelineLayout, set, descriptorSetScratch, dynamicOffsetScratch);
+    }
+
+    /**
+     * Binds several descriptor sets to consecutive set numbers with a single call.
+     * @param firstSet set number of the first set.
+     * @param descriptorSets VkDescriptorSet handles.
+     * @param dynamicOffsets offsets of the dynamic buffers of the sets, in the order of the sets and bindings. Can be null.
+     */
+    public void bindDescriptorSets(int pipelineBindPoint, long pipelineLayout, int firstSet, long[] descriptorSets, int[] dynamicOffsets) {
+        vkCmdBindDescriptorSets(vkCommandBuffer, pipelineBindPoint, pipelineLayout, firstSet, descriptorSets, dynamicOffsets);
+    }
+
+    /**
+     * Updates push constants from off-heap memory, without any allocation.
+     * @param pipelineLayout VkPipelineLayout which declares the range.
+     * @param stageFlags stages of the range being updated.
+     * @param offset offset of the values in the push constant block.
+     * @param size size of the values in bytes.
+     * @param address address of the values, for ex. the scratch area of {@link PushConstants}.
+     */
+    public void pushConstants(long pipelineLayout, int stageFlags, int offset, int size, long address) {
+        nvkCmdPushConstants(vkCommandBuffer, pipelineLayout, stageFlags, offset, size, address);
+    }
+
+    /**
+     * Updates push constants with the remaining bytes of the buffer.
+     */
+    public void pushConstants(long pipelineLayout, int stageFlags, int offset, ByteBuffer values) {
+        vkCmdPushConstants(vkCommandBuffer, pipelineLayout, stageFlags, offset, values);
+    }
+
     public void draw(int vertexCount, int instanceCount, int firstVertex, int firstInstance) {
         vkCmdDraw(vkCommandBuffer, vertexCount,instanceCount,firstVertex,firstInstance);
     }
@@ -65,7 +289,39 @@ public class VulkanCommandBuffer {
     public void bindVertexBuffers(int firstBinding, long buffer, long offsets) {
         if (buffer == 0L)
             throw new NullPointerException("Can not bind buffer! Vertex Buffer is null!");
-        vkCmdBindVertexBuffers(vkCommandBuffer, firstBinding, stackGet().longs(buffer), stackGet().longs(offsets));
+        // Scratch arrays instead of the MemoryStack, the caller may not have pushed a frame (for ex. a worker thread)
+        vertexBufferScratch[0] = buffer;
+        vertexOffsetScratch[0] = offsets;
+        vkCmdBindVertexBuffers(vkCommandBuffer, firstBinding, vertexBufferScratch, vertexOffsetScratch);
+    }
+
+    /**
+     * Binds several vertex buffers with a single call, for ex. a per-vertex and a per-instance stream.
+     * @param firstBinding index of the first vertex input binding. The buffers are bound to consecutive bindings.
+     * @param buffers VkBuffer handles.
+     * @param offsets binding offsets in bytes, one per buffer.
+     */
+    public void bindVertexBuffers(int firstBinding, long[] buffers, long[] offsets) {
+        if (buffers.length != offsets.length)
+            throw new IllegalArgumentException("Every vertex buffer needs an offset!");
+
+        vkCmdBindVertexBuffers(vkCommandBuffer, firstBinding, buffers, offsets);
+    }
+
+    /**
+     * Binds vertex buffers from the position to the limit of the buffers.
+     */
+    public void bindVertexBuffers(int firstBinding, LongBuffer buffers, LongBuffer offsets) {
+        vkCmdBindVertexBuffers(vkCommandBuffer, firstBinding, buffers, offsets);
+    }
+
+    /**
+     * Binds a vertex buffer view. The offset of the view inside its pool block is used as the binding offset.
+     * @param firstBinding index of the vertex input binding.
+     * @param vertexBuffer A view allocated from a {@link VulkanBufferPool}.
+     */
+    public void bindVertexBuffers(int firstBinding, VulkanBuffers.BufferView vertexBuffer) {
+        bindVertexBuffers(firstBinding, vertexBuffer.pBuffer, vertexBuffer.offset);
     }
 
     /**
@@ -80,6 +336,22 @@ public class VulkanCommandBuffer {
         vkCmdBindIndexBuffer(vkCommandBuffer, indexBuffer.pBuffer, offset, indexType);
     }
 
+    /**
+     * @param indexBuffer VkBuffer handle with the indices.
+     * @param offset offset of the first index in bytes. Has to be a multiple of the index size.
+     */
+    public void bindIndexBuffer(long indexBuffer, long offset, int indexType) {
+        vkCmdBindIndexBuffer(vkCommandBuffer, indexBuffer, offset, indexType);
+    }
+
+    /**
+     * @param indexBuffer A view allocated from a {@link VulkanBufferPool}. Its offset has to be a multiple of the index size.
+     * @param indexType how the index numbers are represented. Commonly {@link  VK10#VK_INDEX_TYPE_UINT16 VK_INDEX_TYPE_UINT16} or {@link  VK10#VK_INDEX_TYPE_UINT32 VK_INDEX_TYPE_UINT32}
+     */
+    public void bindIndexBuffer(VulkanBuffers.BufferView indexBuffer, int indexType) {
+        vkCmdBindIndexBuffer(vkCommandBuffer, indexBuffer.pBuffer, indexBuffer.offset, indexType);
+    }
+
     /**
      * Draws the Object with the bound index Buffer.
      * @param indexCount How many indices to draw.
@@ -107,4 +379,51 @@ public class VulkanCommandBuffer {
         vkCmdDrawIndexed(vkCommandBuffer, indexCount, instanceCount, firstIndex, 0,0);
     }
 
+    /**
+     * Draws with the parameters read from VkDrawIndirectCommand structures in a buffer.
+     * @param buffer Buffer created with VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT.
+     * @param offset Offset of the first command in bytes. Has to be a multiple of 4.
+     * @param drawCount Number of commands. Greater than 1 only with the multiDrawIndirect feature.
+     * @param stride Distance between the commands in bytes (at least VkDrawIndirectCommand.SIZEOF).
+     */
+    public void drawIndirect(long buffer, long offset, int drawCount, int stride) {
+        vkCmdDrawIndirect(vkCommandBuffer, buffer, offset, drawCount, stride);
+    }
+
+    public void drawIndirect(VulkanBuffers.Buffer buffer, long offset, int drawCount, int stride) {
+        vkCmdDrawIndirect(vkCommandBuffer, buffer.pBuffer, offset, drawCount, stride);
+    }
+
+    /**
+     * Draws with the bound index buffer and the parameters read from VkDrawIndexedIndirectCommand structures in a buffer.
+     * @param buffer Buffer created with VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT.
+     * @param offset Offset of the first command in bytes. Has to be a multiple of 4.
+     * @param drawCount Number of commands. Greater than 1 only with the multiDrawIndirect feature.
+     * @param stride Distance between the commands in bytes (at least VkDrawIndexedIndirectCommand.SIZEOF).
+     */
+    public void drawIndexedIndirect(long buffer, long offset, int drawCount, int stride) {
+        vkCmdDrawIndexedIndirect(vkCommandBuffer, buffer, offset, drawCount, stride);
+    }
+
+    public void drawIndexedIndirect(VulkanBuffers.Buffer buffer, long offset, int drawCount, int stride) {
+        vkCmdDrawIndexedIndirect(vkCommandBuffer, buffer.pBuffer, offset, drawCount, stride);
+    }
+
+    /**
+     * Same as {@link #drawIndexedIndirect(long, long, int, int)}, but the number of commands is read from a buffer as
+     * well, so the GPU (for ex. a culling compute shader) can decide how many draws are executed.
+     * Needs a Vulkan 1.2 device with the drawIndirectCount feature ({@link VulkanLogicalDevice#isDrawIndirectCountSupported()}).
+     * @param countBuffer Buffer with the draw count as a uint32.
+     * @param countOffset Offset of the draw count in bytes. Has to be a multiple of 4.
+     * @param maxDrawCount Upper bound of the draw count read from the buffer.
+     */
+    public void drawIndexedIndirectCount(long buffer, long offset, long countBuffer, long countOffset, int maxDrawCount, int stride) {
+        VK12.vkCmdDrawIndexedIndirectCount(vkCommandBuffer, buffer, offset, countBuffer, countOffset, maxDrawCount, stride);
+    }
+
+    public void drawIndexedIndirectCount(VulkanBuffers.Buffer buffer, long offset, VulkanBuffers.Buffer countBuffer, long countOffset,
+                                         int maxDrawCount, int stride) {
+        drawIndexedIndirectCount(buffer.pBuffer, offset, countBuffer.pBuffer, countOffset, maxDrawCount, stride);
+    }
+
 }
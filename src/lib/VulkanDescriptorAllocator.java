@@ -0,0 +1,198 @@
+package lib;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkDescriptorPoolCreateInfo;
+import org.lwjgl.vulkan.VkDescriptorPoolSize;
+import org.lwjgl.vulkan.VkDescriptorSetAllocateInfo;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.vulkan.VK10.*;
+import static org.lwjgl.vulkan.VK11.VK_ERROR_OUT_OF_POOL_MEMORY;
+
+/**
+ * Allocates descriptor sets of any layout from a growable list of VkDescriptorPools. When a pool runs out of sets or
+ * descriptors, the next one is taken (or created), so the caller never has to size the pools for the worst case.
+ * <p>
+ * The sets are never freed one by one, {@link #reset()} returns all of them at once and keeps the pools for reuse.
+ * An allocation reuses preallocated structures, it doesn't create any Java objects once the pools exist.
+ * Not thread safe.
+ */
+public class VulkanDescriptorAllocator implements VulkanResource {
+
+    /**
+     * Descriptors of every type reserved per set in a new pool. Fits typical materials (a few uniform buffers and
+     * textures per set).
+     */
+    private static final int[] DEFAULT_POOL_TYPES = {
+            VK_DESCRIPTOR_TYPE_SAMPLER,
+            VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER,
+            VK_DESCRIPTOR_TYPE_SAMPLED_IMAGE,
+            VK_DESCRIPTOR_TYPE_STORAGE_IMAGE,
+            VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER,
+            VK_DESCRIPTOR_TYPE_STORAGE_BUFFER,
+            VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC,
+            VK_DESCRIPTOR_TYPE_STORAGE_BUFFER_DYNAMIC,
+    };
+    private static final float[] DEFAULT_POOL_RATIOS = {0.5f, 4.f, 1.f, 0.5f, 2.f, 1.f, 1.f, 0.5f};
+
+    private final VulkanLogicalDevice device;
+    private final int setsPerPool;
+    private final int poolFlags;
+    private final int[] poolTypes;
+    private final float[] poolRatios;
+
+    private final List<Long> usedPools = new ArrayList<>();
+    private final List<Long> freePools = new ArrayList<>();
+    private long currentPool = VK_NULL_HANDLE;
+
+    private int allocatedSets = 0;
+
+    private final VkDescriptorSetAllocateInfo allocateInfo;
+    private final LongBuffer pLayout;
+    private final LongBuffer pSet;
+
+    /**
+     * Creates an allocator with the default descriptor ratios.
+     *
+     * @param device      - Vulkan Logical device object.
+     * @param setsPerPool - How many sets a single pool holds.
+     */
+    public VulkanDescriptorAllocator(VulkanLogicalDevice device, int setsPerPool) {
+        this(device, setsPerPool, 0, DEFAULT_POOL_TYPES, DEFAULT_POOL_RATIOS);
+    }
+
+    /**
+     * @param device      - Vulkan Logical device object.
+     * @param setsPerPool - How many sets a single pool holds.
+     * @param poolFlags   - VkDescriptorPoolCreateFlags of the pools.
+     * @param poolTypes   - Descriptor types the pools hold.
+     * @param poolRatios  - Descriptors of the matching type reserved per set.
+     */
+    public VulkanDescriptorAllocator(VulkanLogicalDevice device, int setsPerPool, int poolFlags, int[] poolTypes, float[] poolRatios) {
+        if (poolTypes.length != poolRatios.length)
+            throw new IllegalArgumentException("Every descriptor type of the pool needs a ratio!");
+
+        this.device = device;
+        this.setsPerPool = setsPerPool;
+        this.poolFlags = poolFlags;
+        this.poolTypes = poolTypes.clone();
+        this.poolRatios = poolRatios.clone();
+
+        pLayout = MemoryUtil.memAllocLong(1);
+        pSet = MemoryUtil.memAllocLong(1);
+
+        allocateInfo = VkDescriptorSetAllocateInfo.calloc();
+        allocateInfo.sType$Default()
+                .pSetLayouts(pLayout);
+    }
+
+    /**
+     * Allocates a set. Takes the next pool if the current one is exhausted.
+     *
+     * @param layout - VkDescriptorSetLayout of the set.
+     * @return The VkDescriptorSet handle.
+     */
+    public long allocate(long layout) {
+        if (currentPool == VK_NULL_HANDLE)
+            currentPool = grabPool();
+
+        int result = tryAllocate(layout);
+
+        if (result == VK_ERROR_OUT_OF_POOL_MEMORY || result == VK_ERROR_FRAGMENTED_POOL) {
+            currentPool = grabPool();
+            result = tryAllocate(layout);
+        }
+
+        VulkanUtils.check(result);
+
+        allocatedSets++;
+        return pSet.get(0);
+    }
+
+    private int tryAllocate(long layout) {
+        pLayout.put(0, layout);
+        allocateInfo.descriptorPool(currentPool);
+
+        return vkAllocateDescriptorSets(device.getVkDevice(), allocateInfo, pSet);
+    }
+
+    private long grabPool() {
+        long pool = freePools.isEmpty() ? createPool() : freePools.remove(freePools.size() - 1);
+        usedPools.add(pool);
+        return pool;
+    }
+
+    private long createPool() {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkDescriptorPoolSize.Buffer poolSizes = VkDescriptorPoolSize.calloc(poolTypes.length, stack);
+
+            for (int i = 0; i < poolTypes.length; i++) {
+                poolSizes.get(i)
+                        .type(poolTypes[i])
+                        .descriptorCount(Math.max(1, (int) (poolRatios[i] * setsPerPool)));
+            }
+
+            VkDescriptorPoolCreateInfo createInfo = VkDescriptorPoolCreateInfo.calloc(stack);
+            createInfo.sType$Default()
+                    .flags(poolFlags)
+                    .maxSets(setsPerPool)
+                    .pPoolSizes(poolSizes);
+
+            LongBuffer pPool = stack.mallocLong(1);
+
+            if (vkCreateDescriptorPool(device.getVkDevice(), createInfo, null, pPool) != VK_SUCCESS)
+                throw new RuntimeException("Failed to create descriptor pool");
+
+            return pPool.get(0);
+        }
+    }
+
+    /**
+     * Frees every set allocated so far. The GPU must not use any of them anymore.
+     */
+    public void reset() {
+        for (long pool : usedPools) {
+            VulkanUtils.check(vkResetDescriptorPool(device.getVkDevice(), pool, 0));
+            freePools.add(pool);
+        }
+
+        usedPools.clear();
+        currentPool = VK_NULL_HANDLE;
+        allocatedSets = 0;
+    }
+
+    /**
+     * @return Number of sets allocated since the last reset.
+     */
+    public int getAllocatedSets() {
+        return allocatedSets;
+    }
+
+    /**
+     * @return Number of pools created so far.
+     */
+    public int getPoolCount() {
+        return usedPools.size() + freePools.size();
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        for (long pool : usedPools)
+            vkDestroyDescriptorPool(device.getVkDevice(), pool, null);
+
+        for (long pool : freePools)
+            vkDestroyDescriptorPool(device.getVkDevice(), pool, null);
+
+        usedPools.clear();
+        freePools.clear();
+        currentPool = VK_NULL_HANDLE;
+
+        allocateInfo.free();
+        MemoryUtil.memFree(pLayout);
+        MemoryUtil.memFree(pSet);
+    }
+}
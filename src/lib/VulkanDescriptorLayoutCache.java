@@ -0,0 +1,164 @@
+package lib;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Creates every distinct VkDescriptorSetLayout only once. Layouts are keyed by their binding signature (binding,
+ * descriptor type, count, shader stages and binding flags), so materials and pipelines which declare the same
+ * bindings share one layout handle, and sets of one material can be bound with the pipeline layout of another.
+ * <p>
+ * The layouts live until the cache is destroyed.
+ */
+public class VulkanDescriptorLayoutCache implements VulkanResource {
+
+    private static final class LayoutKey {
+        final int[] signature;
+        final int hash;
+
+        LayoutKey(int[] signature) {
+            this.signature = signature;
+            this.hash = Arrays.hashCode(signature);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof LayoutKey)) return false;
+
+            LayoutKey other = (LayoutKey) o;
+            return hash == other.hash && Arrays.equals(signature, other.signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final int FIELDS = 5;
+
+    private final VulkanLogicalDevice device;
+    private final Map<LayoutKey, Long> layouts = new HashMap<>();
+
+    public VulkanDescriptorLayoutCache(VulkanLogicalDevice device) {
+        this.device = device;
+    }
+
+    /**
+     * @param bindings - Bindings of the layout. Immutable samplers aren't supported.
+     * @return A layout with the given bindings, created on the first request.
+     */
+    public long getLayout(VkDescriptorSetLayoutBinding.Buffer bindings) {
+        return getLayout(bindings, 0, null);
+    }
+
+    /**
+     * @param bindings     - Bindings of the layout. Immutable samplers aren't supported.
+     * @param createFlags  - VkDescriptorSetLayoutCreateFlags (for ex. VK_DESCRIPTOR_SET_LAYOUT_CREATE_UPDATE_AFTER_BIND_POOL_BIT).
+     * @param bindingFlags - VkDescriptorBindingFlags of every binding, in the order of the bindings (Vulkan 1.2
+     *                     descriptor indexing). Can be null.
+     * @return A layout with the given bindings, created on the first request.
+     */
+    public synchronized long getLayout(VkDescriptorSetLayoutBinding.Buffer bindings, int createFlags, int[] bindingFlags) {
+        if (bindingFlags != null && bindingFlags.length != bindings.remaining())
+            throw new IllegalArgumentException("Every binding needs its binding flags!");
+
+        LayoutKey key = new LayoutKey(signature(bindings, createFlags, bindingFlags));
+
+        Long layout = layouts.get(key);
+        if (layout != null)
+            return layout;
+
+        long created = createLayout(bindings, createFlags, bindingFlags);
+        layouts.put(key, created);
+        return created;
+    }
+
+    /**
+     * Packs the bindings sorted by the binding number, so the declaration order doesn't matter.
+     */
+    private static int[] signature(VkDescriptorSetLayoutBinding.Buffer bindings, int createFlags, int[] bindingFlags) {
+        int count = bindings.remaining();
+        long[] sorted = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            VkDescriptorSetLayoutBinding binding = bindings.get(bindings.position() + i);
+
+            if (binding.pImmutableSamplers() != null)
+                throw new IllegalArgumentException("Immutable samplers aren't supported by the layout cache!");
+
+            sorted[i] = ((long) binding.binding() << 32) | i;
+        }
+
+        Arrays.sort(sorted);
+
+        int[] signature = new int[1 + count * FIELDS];
+        signature[0] = createFlags;
+
+        for (int i = 0; i < count; i++) {
+            int index = (int) sorted[i];
+            VkDescriptorSetLayoutBinding binding = bindings.get(bindings.position() + index);
+
+            if (i > 0 && binding.binding() == signature[1 + (i - 1) * FIELDS])
+                throw new IllegalArgumentException(String.format("Binding %d is declared twice!", binding.binding()));
+
+            signature[1 + i * FIELDS] = binding.binding();
+            signature[2 + i * FIELDS] = binding.descriptorType();
+            signature[3 + i * FIELDS] = binding.descriptorCount();
+            signature[4 + i * FIELDS] = binding.stageFlags();
+            signature[5 + i * FIELDS] = bindingFlags != null ? bindingFlags[index] : 0;
+        }
+
+        return signature;
+    }
+
+    private long createLayout(VkDescriptorSetLayoutBinding.Buffer bindings, int createFlags, int[] bindingFlags) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkDescriptorSetLayoutCreateInfo createInfo = VkDescriptorSetLayoutCreateInfo.calloc(stack);
+            createInfo.sType$Default()
+                    .flags(createFlags)
+                    .pBindings(bindings);
+
+            if (bindingFlags != null) {
+                VkDescriptorSetLayoutBindingFlagsCreateInfo flagsCreateInfo = VkDescriptorSetLayoutBindingFlagsCreateInfo.calloc(stack);
+                flagsCreateInfo.sType$Default()
+                        .pBindingFlags(stack.ints(bindingFlags));
+
+                createInfo.pNext(flagsCreateInfo.address());
+            } else {
+                createInfo.pNext(NULL);
+            }
+
+            LongBuffer pLayout = stack.mallocLong(1);
+
+            if (vkCreateDescriptorSetLayout(device.getVkDevice(), createInfo, null, pLayout) != VK_SUCCESS)
+                throw new RuntimeException("Failed to create descriptor set layout");
+
+            return pLayout.get(0);
+        }
+    }
+
+    /**
+     * @return Number of distinct layouts created so far.
+     */
+    public synchronized int getLayoutCount() {
+        return layouts.size();
+    }
+
+    @Override
+    public synchronized void destroy(VulkanLogicalDevice device) {
+        for (long layout : layouts.values())
+            vkDestroyDescriptorSetLayout(device.getVkDevice(), layout, null);
+
+        layouts.clear();
+    }
+}
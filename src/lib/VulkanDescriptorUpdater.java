@@ -0,0 +1,159 @@
+package lib;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkDescriptorBufferInfo;
+import org.lwjgl.vulkan.VkDescriptorImageInfo;
+import org.lwjgl.vulkan.VkWriteDescriptorSet;
+
+import java.util.Arrays;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Collects descriptor writes of any number of sets and submits them with a single vkUpdateDescriptorSets call.
+ * The write structures are kept between flushes and only grow, so a flush doesn't allocate once the biggest batch has
+ * been seen.
+ * <p>
+ * The sets must not be in use by the GPU when {@link #flush()} is called.
+ */
+public class VulkanDescriptorUpdater implements VulkanResource {
+
+    // The target set followed by the fields of the DescriptorWriter
+    private static final int FIELDS = DescriptorWriter.FIELDS + 1;
+
+    private final VulkanLogicalDevice device;
+
+    private long[] pending;
+    private int pendingCount = 0;
+
+    private VkWriteDescriptorSet.Buffer writeStructs;
+    private VkDescriptorBufferInfo.Buffer bufferInfos;
+    private VkDescriptorImageInfo.Buffer imageInfos;
+
+    private int lastWriteCount = 0;
+
+    /**
+     * @param device   - Vulkan Logical device object.
+     * @param capacity - How many writes fit in before the structures have to grow.
+     */
+    public VulkanDescriptorUpdater(VulkanLogicalDevice device, int capacity) {
+        this.device = device;
+
+        int count = Math.max(1, capacity);
+        pending = new long[count * FIELDS];
+        writeStructs = VkWriteDescriptorSet.calloc(count);
+        bufferInfos = VkDescriptorBufferInfo.calloc(count);
+        imageInfos = VkDescriptorImageInfo.calloc(count);
+    }
+
+    /**
+     * Queues every write of the writer into the set.
+     */
+    public void write(long descriptorSet, DescriptorWriter writer) {
+        for (int i = 0; i < writer.writeCount; i++) {
+            if (pendingCount * FIELDS == pending.length)
+                pending = Arrays.copyOf(pending, pending.length * 2);
+
+            int base = pendingCount * FIELDS;
+            pending[base] = descriptorSet;
+            System.arraycopy(writer.writes, i * DescriptorWriter.FIELDS, pending, base + 1, DescriptorWriter.FIELDS);
+
+            pendingCount++;
+        }
+    }
+
+    /**
+     * Submits all queued writes. Does nothing if there are none.
+     */
+    public void flush() {
+        lastWriteCount = pendingCount;
+
+        if (pendingCount == 0)
+            return;
+
+        if (writeStructs.capacity() < pendingCount)
+            grow(pendingCount);
+
+        int bufferCount = 0;
+        int imageCount = 0;
+
+        // Filled through the raw addresses, no struct object is created per write
+        for (int i = 0; i < pendingCount; i++) {
+            int base = i * FIELDS;
+            long write = writeStructs.address(i);
+
+            VkWriteDescriptorSet.nsType(write, VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET);
+            VkWriteDescriptorSet.npNext(write, 0L);
+            VkWriteDescriptorSet.ndstSet(write, pending[base]);
+            VkWriteDescriptorSet.ndstBinding(write, (int) pending[base + 1]);
+            VkWriteDescriptorSet.ndstArrayElement(write, (int) pending[base + 2]);
+            VkWriteDescriptorSet.ndescriptorType(write, (int) pending[base + 3]);
+            VkWriteDescriptorSet.ndescriptorCount(write, 1);
+            MemoryUtil.memPutAddress(write + VkWriteDescriptorSet.PTEXELBUFFERVIEW, 0L);
+
+            if (pending[base + 4] == DescriptorWriter.KIND_BUFFER) {
+                long info = bufferInfos.address(bufferCount++);
+                VkDescriptorBufferInfo.nbuffer(info, pending[base + 5]);
+                VkDescriptorBufferInfo.noffset(info, pending[base + 6]);
+                VkDescriptorBufferInfo.nrange(info, pending[base + 7]);
+
+                MemoryUtil.memPutAddress(write + VkWriteDescriptorSet.PBUFFERINFO, info);
+                MemoryUtil.memPutAddress(write + VkWriteDescriptorSet.PIMAGEINFO, 0L);
+            } else {
+                long info = imageInfos.address(imageCount++);
+                VkDescriptorImageInfo.nimageView(info, pending[base + 5]);
+                VkDescriptorImageInfo.nsampler(info, pending[base + 6]);
+                VkDescriptorImageInfo.nimageLayout(info, (int) pending[base + 7]);
+
+                MemoryUtil.memPutAddress(write + VkWriteDescriptorSet.PIMAGEINFO, info);
+                MemoryUtil.memPutAddress(write + VkWriteDescriptorSet.PBUFFERINFO, 0L);
+            }
+        }
+
+        writeStructs.limit(pendingCount);
+        vkUpdateDescriptorSets(device.getVkDevice(), writeStructs, null);
+        writeStructs.clear();
+
+        pendingCount = 0;
+    }
+
+    private void grow(int required) {
+        int capacity = writeStructs.capacity();
+        while (capacity < required)
+            capacity *= 2;
+
+        writeStructs.free();
+        bufferInfos.free();
+        imageInfos.free();
+
+        writeStructs = VkWriteDescriptorSet.calloc(capacity);
+        bufferInfos = VkDescriptorBufferInfo.calloc(capacity);
+        imageInfos = VkDescriptorImageInfo.calloc(capacity);
+    }
+
+    /**
+     * Drops the queued writes without submitting them.
+     */
+    public void discard() {
+        pendingCount = 0;
+    }
+
+    public int getPendingWriteCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return Number of descriptors written by the last {@link #flush()}.
+     */
+    public int getLastWriteCount() {
+        return lastWriteCount;
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        writeStructs.free();
+        bufferInfos.free();
+        imageInfos.free();
+        pendingCount = 0;
+    }
+}
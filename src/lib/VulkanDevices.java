@@ -1,6 +1,5 @@
 package lib;
 
-import exc.MemoryAllocationException;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
@@ -11,16 +10,53 @@ import java.nio.LongBuffer;
 
 import static org.lwjgl.system.MemoryStack.stackPush;
 import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.util.vma.Vma.VMA_MEMORY_USAGE_UNKNOWN;
 import static org.lwjgl.vulkan.VK10.*;
 
 public class VulkanDevices {
 
     private VulkanLogicalDevice logicalDevice;
     private VulkanPhysicalDevice physicalDevice;
+    private VMA vma;
+    private VulkanPipelineCache pipelineCache;
 
+    private VulkanTimeline graphicsTimeline;
+    private VulkanTimeline transferTimeline;
+    private VulkanTimeline computeTimeline;
+
+    /**
+     * Picks a device for offscreen rendering, without a surface and the swapchain extension.
+     */
+    public VulkanDevices(VulkanInstance instance) {
+        this(instance, null);
+    }
+
+    /**
+     * @param surface - Surface the images are presented to. Null for offscreen rendering.
+     */
     public VulkanDevices(VulkanInstance instance, VulkanSurface surface) {
         physicalDevice = new VulkanPhysicalDevice(instance, surface);
         logicalDevice = new VulkanLogicalDevice(physicalDevice);
+        vma = new VMA(instance, physicalDevice, logicalDevice);
+        pipelineCache = new VulkanPipelineCache(this, VulkanPipelineCache.DEFAULT_FILE);
+
+        if (logicalDevice.isTimelineSemaphoreSupported())
+            createTimelines();
+    }
+
+    /**
+     * Creates one timeline per distinct queue. Queues which fall back to the graphics queue share its timeline.
+     */
+    private void createTimelines() {
+        graphicsTimeline = new VulkanTimeline(logicalDevice, logicalDevice.getGraphicsQueue());
+
+        transferTimeline = logicalDevice.getTransferQueue().address() == logicalDevice.getGraphicsQueue().address()
+                ? graphicsTimeline
+                : new VulkanTimeline(logicalDevice, logicalDevice.getTransferQueue());
+
+        computeTimeline = logicalDevice.getComputeQueue().address() == logicalDevice.getGraphicsQueue().address()
+                ? graphicsTimeline
+                : new VulkanTimeline(logicalDevice, logicalDevice.getComputeQueue());
     }
 
     public VulkanLogicalDevice getLogicalDevice() {
@@ -39,6 +75,58 @@ public class VulkanDevices {
         return physicalDevice.getVkPhysicalDevice();
     }
 
+    public VMA getVma() {
+        return vma;
+    }
+
+    /**
+     * @return The pipeline cache shared by every pipeline created on this device.
+     */
+    public VulkanPipelineCache getPipelineCache() {
+        return pipelineCache;
+    }
+
+    /**
+     * @return Timeline of the graphics queue, or null if the device doesn't support timeline semaphores.
+     */
+    public VulkanTimeline getGraphicsTimeline() {
+        return graphicsTimeline;
+    }
+
+    /**
+     * @return Timeline of the transfer queue (shared with the graphics queue if there is no dedicated transfer
+     * family), or null if the device doesn't support timeline semaphores.
+     */
+    public VulkanTimeline getTransferTimeline() {
+        return transferTimeline;
+    }
+
+    /**
+     * @return Timeline of the compute queue (shared with the graphics queue if there is no dedicated compute
+     * family), or null if the device doesn't support timeline semaphores.
+     */
+    public VulkanTimeline getComputeTimeline() {
+        return computeTimeline;
+    }
+
+    /**
+     * Destroys the timelines of the queues. The device has to be idle.
+     */
+    public void destroyTimelines() {
+        if (graphicsTimeline == null)
+            return;
+
+        if (computeTimeline != graphicsTimeline)
+            computeTimeline.destroy(logicalDevice);
+
+        if (transferTimeline != graphicsTimeline)
+            transferTimeline.destroy(logicalDevice);
+
+        graphicsTimeline.destroy(logicalDevice);
+
+        graphicsTimeline = transferTimeline = computeTimeline = null;
+    }
+
 
     /**
      * Creates a VkBuffer, binds the device memory to it and fills it up with the given data.
@@ -62,7 +150,8 @@ public class VulkanDevices {
     }
 
     /**
-     * Creates a VkBuffer and binds the device memory to it.
+     * Creates a VkBuffer and binds the device memory to it. The memory is sub-allocated by VMA, so this doesn't
+     * result in a vkAllocateMemory call for every buffer.
      *
      * @param usage          What purpose will the buffer be used for.
      * @param sharingMode    Sets how the buffer will be shared. That means if it's going to be exclusive to only one
@@ -72,43 +161,21 @@ public class VulkanDevices {
      * @return A pointer to the newly created buffer;
      */
     public VulkanBuffers.Buffer createBuffer(int usage, int sharingMode, int memoryProperty, int size) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-
-            VkBufferCreateInfo bufferCreateInfo = VkBufferCreateInfo.create();
-            bufferCreateInfo.sType$Default()
-                    .usage(usage)
-                    .sharingMode(sharingMode)
-                    .size(size);
-
-            LongBuffer pBuffer = stack.callocLong(1);
-
-            VulkanUtils.check(vkCreateBuffer(getVkDevice(), bufferCreateInfo, null, pBuffer));
-
-            VkMemoryRequirements memoryRequirements = VkMemoryRequirements.calloc(stack);
-
-            vkGetBufferMemoryRequirements(getVkDevice(), pBuffer.get(0), memoryRequirements);
-
-            VkMemoryAllocateInfo allocateInfo = VkMemoryAllocateInfo.calloc(stack);
-
-            allocateInfo.sType$Default()
-                    .allocationSize(memoryRequirements.size())
-                    .memoryTypeIndex(physicalDevice.findMemoryType(memoryRequirements.memoryTypeBits(), memoryProperty));
-
-
-            LongBuffer pBufferMemory = stack.mallocLong(1);
-
-            VulkanUtils.check(vkAllocateMemory(getVkDevice(), allocateInfo, null, pBufferMemory));
-
-            if (pBufferMemory.get(0) == MemoryUtil.NULL)
-                throw new MemoryAllocationException("Failed to allocate Memory! vkAllocateMemory returned a null pointer!");
-
-            vkBindBufferMemory(getVkDevice(), pBuffer.get(0), pBufferMemory.get(0), 0);
-
-            VulkanBuffers.Buffer vertexBuffer;
-            vertexBuffer = new VulkanBuffers.Buffer(pBuffer.get(0), pBufferMemory.get(0), bufferCreateInfo.size());
+        return vma.createBuffer(usage, sharingMode, VMA_MEMORY_USAGE_UNKNOWN, memoryProperty, 0, size);
+    }
 
-            return vertexBuffer;
-        }
+    /**
+     * Creates a VkBuffer through VMA with a memory usage hint instead of explicit memory properties.
+     *
+     * @param usage       What purpose will the buffer be used for.
+     * @param sharingMode Sets how the buffer will be shared between the queue families.
+     * @param memoryUsage A VMA_MEMORY_USAGE hint (for ex. VMA_MEMORY_USAGE_GPU_ONLY or VMA_MEMORY_USAGE_CPU_TO_GPU)
+     * @param allocFlags  VMA_ALLOCATION_CREATE flags. Pass VMA_ALLOCATION_CREATE_MAPPED_BIT to keep the buffer mapped.
+     * @param size        Size of the data in bytes
+     * @return A pointer to the newly created buffer;
+     */
+    public VulkanBuffers.Buffer allocateBuffer(int usage, int sharingMode, int memoryUsage, int allocFlags, long size) {
+        return vma.createBuffer(usage, sharingMode, memoryUsage, 0, allocFlags, size);
     }
 
     /**
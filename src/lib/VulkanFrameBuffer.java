@@ -9,7 +9,7 @@ import java.nio.LongBuffer;
 import static org.lwjgl.system.MemoryStack.stackPush;
 import static org.lwjgl.vulkan.VK10.*;
 
-public class VulkanFrameBuffer {
+public class VulkanFrameBuffer implements VulkanResource {
 
 
     private long[] pFrameBuffers;
@@ -79,7 +79,45 @@ public class VulkanFrameBuffer {
         }
     }
 
+    /**
+     * Creates a framebuffer with several attachments (for ex. a color and a depth image) for every set of views.
+     *
+     * @param attachments - Image views of every framebuffer, in the order of the attachments of the render pass.
+     */
+    public VulkanFrameBuffer(VulkanLogicalDevice device, VulkanRenderPass renderPass, int width, int height, long[][] attachments) {
+        try(MemoryStack stack = stackPush()) {
+
+            LongBuffer pFramebuffer = stack.mallocLong(1);
+
+            VkFramebufferCreateInfo framebufferInfo = VkFramebufferCreateInfo.calloc(stack);
+            framebufferInfo.sType$Default();
+            framebufferInfo.renderPass(renderPass.getRenderPassPtr());
+            framebufferInfo.width(width);
+            framebufferInfo.height(height);
+            framebufferInfo.layers(1);
+
+            pFrameBuffers = new long[attachments.length];
+
+            for(int i = 0; i < attachments.length; i++) {
+
+                framebufferInfo.pAttachments(stack.longs(attachments[i]));
+
+                if(vkCreateFramebuffer(device.getVkDevice(), framebufferInfo, null, pFramebuffer) != VK_SUCCESS) {
+                    throw new RuntimeException("Failed to create framebuffer");
+                }
+
+                pFrameBuffers[i] = (pFramebuffer.get(0));
+            }
+        }
+    }
+
     public long[] getFrameBuffers() {
         return pFrameBuffers;
     }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        for (long frameBuffer : pFrameBuffers)
+            vkDestroyFramebuffer(device.getVkDevice(), frameBuffer, null);
+    }
 }
@@ -0,0 +1,158 @@
+package lib;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkCommandBuffer;
+import org.lwjgl.vulkan.VkCommandBufferAllocateInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Hands out command buffers which live for a single frame.
+ * <p>
+ * Every frame in flight has its own command pool created with VK_COMMAND_POOL_CREATE_TRANSIENT_BIT. When the frame
+ * comes around again (and its last submit has been retired), the whole pool is reset with one vkResetCommandPool call instead
+ * of resetting or freeing the buffers one by one. The buffers themselves are never freed: the handles allocated by
+ * previous frames are kept in a list and handed out again, so re-recording every frame doesn't allocate anything.
+ */
+public class VulkanFrameCommandAllocator implements VulkanResource {
+
+    private static final class FramePool {
+        final VulkanCmdPool commandPool;
+        final List<VulkanCommandBuffer> primaryBuffers = new ArrayList<>();
+        final List<VulkanCommandBuffer> secondaryBuffers = new ArrayList<>();
+        int primaryUsed = 0;
+        int secondaryUsed = 0;
+
+        FramePool(VulkanCmdPool commandPool) {
+            this.commandPool = commandPool;
+        }
+    }
+
+    private final VulkanLogicalDevice device;
+    private final FramePool[] framePools;
+
+    private FramePool currentPool;
+
+    /**
+     * @param device           - A VulkanLogicalDevice object.
+     * @param queueFamilyIndex - Queue family the command buffers will be submitted to.
+     * @param framesInFlight   - How many frames can be processed at once (Should match the number of VulkanFrames).
+     */
+    public VulkanFrameCommandAllocator(VulkanLogicalDevice device, int queueFamilyIndex, int framesInFlight) {
+        this.device = device;
+
+        framePools = new FramePool[framesInFlight];
+
+        for (int i = 0; i < framesInFlight; i++)
+            framePools[i] = new FramePool(new VulkanCmdPool(device, queueFamilyIndex, VK_COMMAND_POOL_CREATE_TRANSIENT_BIT));
+    }
+
+    /**
+     * Waits until the last submit of the frame has been retired on the timeline, then calls {@link #beginFrame(int)}.
+     *
+     * @param frameIndex  - Index of the frame in flight (0 to framesInFlight - 1).
+     * @param timeline    - Timeline of the queue the frame was submitted to.
+     * @param retireValue - Value signaled by the last submit which used the command buffers.
+     */
+    public void beginFrame(int frameIndex, VulkanTimeline timeline, long retireValue) {
+        timeline.waitFor(retireValue);
+        beginFrame(frameIndex);
+    }
+
+    /**
+     * Resets the command pool of the frame and starts handing out its command buffers. The caller guarantees the
+     * GPU has finished executing the buffers of the frame.
+     *
+     * @param frameIndex - Index of the frame in flight (0 to framesInFlight - 1).
+     */
+    public void beginFrame(int frameIndex) {
+        if (frameIndex < 0 || frameIndex >= framePools.length)
+            throw new IndexOutOfBoundsException(String.format("Frame index %d is out of range! Frames in flight: %d", frameIndex, framePools.length));
+
+        currentPool = framePools[frameIndex];
+
+        VulkanUtils.check(vkResetCommandPool(device.getVkDevice(), currentPool.commandPool.pCommandPool, 0));
+
+        currentPool.primaryUsed = 0;
+        currentPool.secondaryUsed = 0;
+    }
+
+    /**
+     * @return A primary command buffer in the initial state, valid until the frame comes around again.
+     */
+    public VulkanCommandBuffer allocate() {
+        if (currentPool == null)
+            throw new IllegalStateException("beginFrame() has to be called before allocating command buffers!");
+
+        if (currentPool.primaryUsed == currentPool.primaryBuffers.size())
+            allocateBuffers(currentPool, false, Math.max(1, currentPool.primaryBuffers.size()));
+
+        return currentPool.primaryBuffers.get(currentPool.primaryUsed++);
+    }
+
+    /**
+     * @return A secondary command buffer in the initial state, valid until the frame comes around again.
+     */
+    public VulkanCommandBuffer allocateSecondary() {
+        if (currentPool == null)
+            throw new IllegalStateException("beginFrame() has to be called before allocating command buffers!");
+
+        if (currentPool.secondaryUsed == currentPool.secondaryBuffers.size())
+            allocateBuffers(currentPool, true, Math.max(1, currentPool.secondaryBuffers.size()));
+
+        return currentPool.secondaryBuffers.get(currentPool.secondaryUsed++);
+    }
+
+    /**
+     * @return How many command buffers (primary and secondary) have been allocated from the device in total.
+     */
+    public int getAllocatedCount() {
+        int count = 0;
+
+        for (FramePool pool : framePools)
+            count += pool.primaryBuffers.size() + pool.secondaryBuffers.size();
+
+        return count;
+    }
+
+    /**
+     * Grows the free list of the pool. The count doubles every time, so a frame which records more buffers than
+     * the previous ones allocates only a few times.
+     */
+    private void allocateBuffers(FramePool pool, boolean isSecondary, int count) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkCommandBufferAllocateInfo allocInfo = VkCommandBufferAllocateInfo.calloc(stack);
+            allocInfo.sType$Default();
+            allocInfo.commandPool(pool.commandPool.pCommandPool);
+            allocInfo.level(isSecondary ? VK_COMMAND_BUFFER_LEVEL_SECONDARY : VK_COMMAND_BUFFER_LEVEL_PRIMARY);
+            allocInfo.commandBufferCount(count);
+
+            PointerBuffer pCommandBuffers = stack.mallocPointer(count);
+
+            if (vkAllocateCommandBuffers(device.getVkDevice(), allocInfo, pCommandBuffers) != VK_SUCCESS) {
+                throw new RuntimeException("Failed to allocate command buffers");
+            }
+
+            List<VulkanCommandBuffer> buffers = isSecondary ? pool.secondaryBuffers : pool.primaryBuffers;
+
+            for (int i = 0; i < count; i++)
+                buffers.add(new VulkanCommandBuffer(new VkCommandBuffer(pCommandBuffers.get(i), device.getVkDevice())));
+        }
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        // Destroying the pools frees all of their command buffers
+        for (FramePool pool : framePools) {
+            pool.commandPool.destroy(device);
+            pool.primaryBuffers.clear();
+            pool.secondaryBuffers.clear();
+        }
+
+        currentPool = null;
+    }
+}
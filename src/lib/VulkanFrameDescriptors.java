@@ -0,0 +1,247 @@
+package lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.lwjgl.vulkan.VK10.VK_NULL_HANDLE;
+
+/**
+ * Hands out descriptor sets for the frames in flight.
+ * <ul>
+ *     <li>Transient sets from {@link #allocate(long)} live only for the current frame. Every frame slot has its own
+ *     {@link VulkanDescriptorAllocator} which is reset when the slot comes around again.</li>
+ *     <li>Cached sets from {@link #getSet(long, DescriptorWriter)} are looked up by a hash of the layout and the bound
+ *     resources. A set with unchanged resources is reused as is, only a new combination is allocated and written.</li>
+ * </ul>
+ * All writes are only queued and submitted by {@link #flush()} with a single vkUpdateDescriptorSets call. A set must
+ * not be bound before its writes are flushed, so the sets of a frame are gathered first:
+ * <pre>{@code
+ * descriptors.beginFrame(frameIndex);
+ * for (Material material : materials) material.set = descriptors.getSet(layout, material.writer);
+ * descriptors.flush();
+ * // record the draws
+ * }</pre>
+ * When the cache holds more sets than its capacity, it's cleared at the next {@link #beginFrame(int)}. The sets of the
+ * cleared cache are freed only after every frame which could have bound them has been retired. Not thread safe.
+ */
+public class VulkanFrameDescriptors implements VulkanResource {
+
+    private final VulkanLogicalDevice device;
+    private final int setsPerPool;
+    private final int cacheCapacity;
+
+    private final VulkanDescriptorAllocator[] frameAllocators;
+    private final VulkanDescriptorUpdater updater;
+
+    // Allocator of the cached sets, replaced when the cache is cleared
+    private VulkanDescriptorAllocator cacheAllocator;
+    private final List<List<VulkanDescriptorAllocator>> retiredAllocators = new ArrayList<>();
+    private final List<VulkanDescriptorAllocator> spareAllocators = new ArrayList<>();
+
+    // Open addressing table of the cached sets, twice the capacity so the probes stay short
+    private final long[] hashes;
+    private final long[] layouts;
+    private final long[] sets;
+    private final long[][] contents;
+    private final int mask;
+    private int cachedCount = 0;
+
+    private int frameIndex = 0;
+
+    private int hits = 0;
+    private int misses = 0;
+    private int lastHits = 0;
+    private int lastMisses = 0;
+
+    /**
+     * @param device         - Vulkan Logical device object.
+     * @param framesInFlight - How many frames can be processed at once.
+     * @param setsPerPool    - How many sets a single descriptor pool holds.
+     * @param cacheCapacity  - How many cached sets are kept before the cache is cleared.
+     */
+    public VulkanFrameDescriptors(VulkanLogicalDevice device, int framesInFlight, int setsPerPool, int cacheCapacity) {
+        this.device = device;
+        this.setsPerPool = setsPerPool;
+        this.cacheCapacity = cacheCapacity;
+
+        frameAllocators = new VulkanDescriptorAllocator[framesInFlight];
+        for (int i = 0; i < framesInFlight; i++) {
+            frameAllocators[i] = new VulkanDescriptorAllocator(device, setsPerPool);
+            retiredAllocators.add(new ArrayList<>());
+        }
+
+        cacheAllocator = new VulkanDescriptorAllocator(device, setsPerPool);
+        updater = new VulkanDescriptorUpdater(device, 64);
+
+        int tableSize = Integer.highestOneBit(Math.max(2, cacheCapacity) * 2 - 1) << 1;
+        hashes = new long[tableSize];
+        layouts = new long[tableSize];
+        sets = new long[tableSize];
+        contents = new long[tableSize][];
+        mask = tableSize - 1;
+    }
+
+    /**
+     * Starts a frame. Frees the transient sets of the frame slot. The caller guarantees the GPU is done with the
+     * previous submit of the frame (for ex. after {@code FrameLoop.acquire()}).
+     */
+    public void beginFrame(int frameIndex) {
+        this.frameIndex = frameIndex;
+
+        frameAllocators[frameIndex].reset();
+
+        // Every frame which could have bound the sets of these allocators has been retired by now
+        List<VulkanDescriptorAllocator> retired = retiredAllocators.get(frameIndex);
+        for (VulkanDescriptorAllocator allocator : retired) {
+            allocator.reset();
+            spareAllocators.add(allocator);
+        }
+        retired.clear();
+
+        if (cachedCount > cacheCapacity)
+            evict();
+
+        lastHits = hits;
+        lastMisses = misses;
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Waits until the last submit of the frame has been retired on the timeline, then starts the frame.
+     */
+    public void beginFrame(int frameIndex, VulkanTimeline timeline, long retireValue) {
+        timeline.waitFor(retireValue);
+        beginFrame(frameIndex);
+    }
+
+    /**
+     * Allocates a set which is valid only in the current frame. The writes are queued with
+     * {@link #write(long, DescriptorWriter)}.
+     */
+    public long allocate(long layout) {
+        return frameAllocators[frameIndex].allocate(layout);
+    }
+
+    /**
+     * Queues the writes of the writer into the set.
+     */
+    public void write(long descriptorSet, DescriptorWriter writer) {
+        updater.write(descriptorSet, writer);
+    }
+
+    /**
+     * Returns a cached set with the given resources, or allocates it and queues its writes.
+     *
+     * @param layout - VkDescriptorSetLayout of the set, commonly from a {@link VulkanDescriptorLayoutCache}.
+     * @param writer - The resources of the set.
+     * @return The VkDescriptorSet handle. Valid for this frame and for the following ones until the cache is cleared.
+     */
+    public long getSet(long layout, DescriptorWriter writer) {
+        long hash = writer.hash(layout);
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+
+        while (sets[slot] != VK_NULL_HANDLE) {
+            if (hashes[slot] == hash && layouts[slot] == layout && writer.matches(contents[slot], contents[slot].length / DescriptorWriter.FIELDS)) {
+                hits++;
+                return sets[slot];
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        misses++;
+
+        // The table is full, which happens only when a frame alone uses more sets than the capacity
+        if (cachedCount == mask) {
+            long set = allocate(layout);
+            updater.write(set, writer);
+            return set;
+        }
+
+        long set = cacheAllocator.allocate(layout);
+        updater.write(set, writer);
+
+        hashes[slot] = hash;
+        layouts[slot] = layout;
+        sets[slot] = set;
+        contents[slot] = writer.copyWrites();
+        cachedCount++;
+
+        return set;
+    }
+
+    /**
+     * Submits every queued write with a single vkUpdateDescriptorSets call. Has to be called before the sets are
+     * bound.
+     */
+    public void flush() {
+        updater.flush();
+    }
+
+    /**
+     * Clears the cache, for ex. after a buffer or an image referenced by the cached sets has been destroyed. The sets
+     * are freed once the current frame slot comes around again.
+     */
+    public void invalidate() {
+        evict();
+    }
+
+    private void evict() {
+        retiredAllocators.get(frameIndex).add(cacheAllocator);
+        cacheAllocator = spareAllocators.isEmpty()
+                ? new VulkanDescriptorAllocator(device, setsPerPool)
+                : spareAllocators.remove(spareAllocators.size() - 1);
+
+        Arrays.fill(hashes, 0L);
+        Arrays.fill(layouts, VK_NULL_HANDLE);
+        Arrays.fill(sets, VK_NULL_HANDLE);
+        Arrays.fill(contents, null);
+        cachedCount = 0;
+    }
+
+    public int getCachedSetCount() {
+        return cachedCount;
+    }
+
+    /**
+     * @return Number of sets reused from the cache in the previous frame.
+     */
+    public int getLastHits() {
+        return lastHits;
+    }
+
+    /**
+     * @return Number of sets allocated and written by the cache in the previous frame.
+     */
+    public int getLastMisses() {
+        return lastMisses;
+    }
+
+    /**
+     * @return Number of descriptors written by the last {@link #flush()}.
+     */
+    public int getLastWriteCount() {
+        return updater.getLastWriteCount();
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        for (VulkanDescriptorAllocator allocator : frameAllocators)
+            allocator.destroy(device);
+
+        for (List<VulkanDescriptorAllocator> retired : retiredAllocators) {
+            for (VulkanDescriptorAllocator allocator : retired)
+                allocator.destroy(device);
+            retired.clear();
+        }
+
+        for (VulkanDescriptorAllocator allocator : spareAllocators)
+            allocator.destroy(device);
+        spareAllocators.clear();
+
+        cacheAllocator.destroy(device);
+        updater.destroy(device);
+    }
+}
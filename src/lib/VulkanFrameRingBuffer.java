@@ -0,0 +1,142 @@
+package lib;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.util.vma.Vma.*;
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Persistently mapped buffer for data which changes every frame (dynamic vertices, uniforms, ...).
+ * <p>
+ * The buffer is split into one partition per frame in flight. Every frame writes only into its own partition, so
+ * the CPU never overwrites data the GPU may still read. A partition is reused only after the last submit which used
+ * it has been retired, either on the timeline or by the fence wait of the frame loop. Handing out ranges costs
+ * neither a vkMapMemory call nor a Java allocation.
+ */
+public class VulkanFrameRingBuffer implements VulkanResource {
+
+    private final VulkanBuffers.Buffer buffer;
+
+    private final int framesInFlight;
+    private final long frameSize;
+
+    private int currentFrame = -1;
+    private long frameBegin = 0L;
+    private long cursor = 0L;
+
+    /**
+     * Creates the ring buffer.
+     *
+     * @param devices        - VulkanDevices object which owns the VMA allocator.
+     * @param usage          - VkBufferUsageFlags of the buffer (for ex. VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT)
+     * @param framesInFlight - How many frames can be processed at once (Should match the number of VulkanFrames).
+     * @param frameSize      - How many bytes can be written by a single frame.
+     */
+    public VulkanFrameRingBuffer(VulkanDevices devices, int usage, int framesInFlight, long frameSize) {
+        this.framesInFlight = framesInFlight;
+        this.frameSize = frameSize;
+
+        buffer = devices.getVma().createMappedBuffer(usage, VK_SHARING_MODE_EXCLUSIVE, VMA_MEMORY_USAGE_CPU_TO_GPU,
+                frameSize * framesInFlight);
+    }
+
+    /**
+     * Waits until the last submit of the frame has been retired on the timeline, then calls {@link #beginFrame(int)}.
+     *
+     * @param frameIndex  - Index of the frame in flight (0 to framesInFlight - 1).
+     * @param timeline    - Timeline of the queue the frame was submitted to.
+     * @param retireValue - Value signaled by the last submit which used the partition.
+     */
+    public void beginFrame(int frameIndex, VulkanTimeline timeline, long retireValue) {
+        timeline.waitFor(retireValue);
+        beginFrame(frameIndex);
+    }
+
+    /**
+     * Starts writing into the partition of the given frame. The caller guarantees the GPU is done with it.
+     *
+     * @param frameIndex - Index of the frame in flight (0 to framesInFlight - 1).
+     */
+    public void beginFrame(int frameIndex) {
+        if (frameIndex < 0 || frameIndex >= framesInFlight)
+            throw new IndexOutOfBoundsException(String.format("Frame index %d is out of range! Frames in flight: %d", frameIndex, framesInFlight));
+
+        currentFrame = frameIndex;
+        frameBegin = frameIndex * frameSize;
+        cursor = frameBegin;
+    }
+
+    /**
+     * Reserves an aligned range in the partition of the current frame.
+     *
+     * @param size      - Size of the range in bytes.
+     * @param alignment - Alignment of the range. Has to be a power of two.
+     * @return Offset of the range from the beginning of the whole VkBuffer (can be passed as a binding offset).
+     */
+    public long allocate(long size, long alignment) {
+        if (currentFrame < 0)
+            throw new IllegalStateException("beginFrame() has to be called before allocating from the ring buffer!");
+
+        long offset = FreeListAllocator.alignUp(cursor, alignment);
+
+        if (offset + size > frameBegin + frameSize)
+            throw new IllegalStateException(String.format("Frame partition of the ring buffer is full! Requested %d bytes, %d bytes left",
+                    size, frameBegin + frameSize - cursor));
+
+        cursor = offset + size;
+        return offset;
+    }
+
+    /**
+     * Copies the remaining bytes of the given buffer into the current frame partition.
+     *
+     * @return Offset of the data from the beginning of the whole VkBuffer.
+     */
+    public long write(ByteBuffer srcData, long alignment) {
+        long offset = allocate(srcData.remaining(), alignment);
+        MemoryUtil.memCopy(MemoryUtil.memAddress(srcData), buffer.pMappedData + offset, srcData.remaining());
+        return offset;
+    }
+
+    /**
+     * @param offset - Offset returned by {@link #allocate(long, long)}
+     * @return CPU address of the range, which can be written with MemoryUtil.memPutFloat and similar.
+     */
+    public long getAddress(long offset) {
+        return buffer.pMappedData + offset;
+    }
+
+    /**
+     * Makes the writes of the current frame visible to the GPU. Does nothing on coherent memory.
+     */
+    public void endFrame() {
+        if (cursor > frameBegin)
+            vmaFlushAllocation(buffer.pAllocator, buffer.pAllocation, frameBegin, cursor - frameBegin);
+    }
+
+    public VulkanBuffers.Buffer getBuffer() {
+        return buffer;
+    }
+
+    public long getFrameSize() {
+        return frameSize;
+    }
+
+    public int getFramesInFlight() {
+        return framesInFlight;
+    }
+
+    /**
+     * @return How many bytes the current frame has used so far.
+     */
+    public long getUsedBytes() {
+        return cursor - frameBegin;
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        buffer.destroy(device);
+    }
+}
@@ -0,0 +1,342 @@
+package lib;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkQueryPoolCreateInfo;
+import org.lwjgl.vulkan.VkQueueFamilyProperties;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.*;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Measures the GPU time of named, nested regions of command buffers with timestamp queries.
+ * <p>
+ * Every frame in flight has its own timestamp query pool, so the results of a frame can be read back when the frame
+ * comes around again, i.e. after its fence (or timeline value) has been waited for. The readback doesn't wait: the
+ * results are requested with the availability bit and scopes whose timestamps aren't available yet are skipped.
+ * Ticks are converted to nanoseconds with the timestampPeriod limit of the device.
+ * <p>
+ * A scope is identified by its path, which is the names of all the open scopes joined by '/' (for ex.
+ * "frame/shadows"). The recorded times are collected into a rolling window of {@link ScopeStats} per path. The paths
+ * are built once per (parent, name) pair and kept in a tree of scopes, so recording a known scope doesn't allocate.
+ * <p>
+ * The profiler isn't thread safe. Scopes have to be recorded from the thread which calls {@link #beginFrame}.
+ */
+public class VulkanGpuProfiler implements VulkanResource {
+
+    /**
+     * Rolling statistics of a single scope over the last {@code windowSize} frames.
+     */
+    public static class ScopeStats {
+        private final String path;
+        private final long[] samples;
+        private int sampleCount = 0;
+        private int next = 0;
+        private long totalCount = 0;
+
+        ScopeStats(String path, int windowSize) {
+            this.path = path;
+            this.samples = new long[windowSize];
+        }
+
+        void add(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            sampleCount = Math.min(sampleCount + 1, samples.length);
+            totalCount++;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return The most recent time in nanoseconds.
+         */
+        public long getLast() {
+            return sampleCount == 0 ? 0L : samples[(next - 1 + samples.length) % samples.length];
+        }
+
+        public double getAverage() {
+            if (sampleCount == 0)
+                return 0.0;
+
+            long sum = 0;
+            for (int i = 0; i < sampleCount; i++)
+                sum += samples[i];
+
+            return (double) sum / sampleCount;
+        }
+
+        public long getMin() {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < sampleCount; i++)
+                min = Math.min(min, samples[i]);
+
+            return sampleCount == 0 ? 0L : min;
+        }
+
+        public long getMax() {
+            long max = 0L;
+            for (int i = 0; i < sampleCount; i++)
+                max = Math.max(max, samples[i]);
+
+            return max;
+        }
+
+        /**
+         * @return How many samples are in the window.
+         */
+        public int getSampleCount() {
+            return sampleCount;
+        }
+
+        /**
+         * @return How many samples have been recorded in total.
+         */
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: last %.3f ms, avg %.3f ms, min %.3f ms, max %.3f ms",
+                    path, getLast() / 1e6, getAverage() / 1e6, getMin() / 1e6, getMax() / 1e6);
+        }
+    }
+
+    /**
+     * A scope under a given parent scope, identified by its interned path.
+     */
+    private static final class ScopeNode {
+        final String path;
+        final Map<String, ScopeNode> children = new HashMap<>();
+        ScopeStats stats;
+
+        ScopeNode(String path) {
+            this.path = path;
+        }
+
+        ScopeNode getChild(String name) {
+            ScopeNode child = children.get(name);
+
+            if (child == null) {
+                child = new ScopeNode(path == null ? name : path + '/' + name);
+                children.put(name, child);
+            }
+
+            return child;
+        }
+    }
+
+    /**
+     * Scopes recorded into the query pool of one frame in flight.
+     */
+    private static final class FrameQueries {
+        final long pQueryPool;
+        final ScopeNode[] scopes;
+        int scopeCount = 0;
+
+        FrameQueries(long pQueryPool, int maxScopes) {
+            this.pQueryPool = pQueryPool;
+            this.scopes = new ScopeNode[maxScopes];
+        }
+    }
+
+    private final VulkanLogicalDevice device;
+    private final double timestampPeriod;
+    private final long timestampMask;
+    private final int maxScopes;
+    private final int windowSize;
+
+    private final FrameQueries[] frames;
+    private FrameQueries currentFrame;
+
+    // Indices of the open scopes of the current frame
+    private final int[] openScopes;
+    private int depth = 0;
+
+    // [value, availability] pairs of every query of one pool
+    private final LongBuffer results;
+
+    // Parent of the top level scopes, it has no path of its own
+    private final ScopeNode root = new ScopeNode(null);
+
+    private final Map<String, ScopeStats> stats = new LinkedHashMap<>();
+
+    /**
+     * @param devices        - VulkanDevices object. The timestamps are written on the graphics queue.
+     * @param framesInFlight - How many frames can be processed at once (Should match the number of VulkanFrames).
+     * @param maxScopes      - Maximum number of scopes recorded in a single frame.
+     * @param windowSize     - How many frames the rolling statistics are computed from.
+     */
+    public VulkanGpuProfiler(VulkanDevices devices, int framesInFlight, int maxScopes, int windowSize) {
+        this.device = devices.getLogicalDevice();
+        this.maxScopes = maxScopes;
+        this.windowSize = windowSize;
+        this.timestampPeriod = devices.getPhysicalDevice().getProperties().limits().timestampPeriod();
+
+        int validBits = getTimestampValidBits(devices);
+
+        if (validBits == 0)
+            throw new UnsupportedOperationException("The graphics queue doesn't support timestamp queries!");
+
+        timestampMask = validBits >= 64 ? -1L : (1L << validBits) - 1;
+
+        frames = new FrameQueries[framesInFlight];
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkQueryPoolCreateInfo createInfo = VkQueryPoolCreateInfo.calloc(stack);
+            createInfo.sType$Default();
+            createInfo.queryType(VK_QUERY_TYPE_TIMESTAMP);
+            createInfo.queryCount(maxScopes * 2);
+
+            LongBuffer pQueryPool = stack.mallocLong(1);
+
+            for (int i = 0; i < framesInFlight; i++) {
+                VulkanUtils.check(vkCreateQueryPool(device.getVkDevice(), createInfo, null, pQueryPool));
+                frames[i] = new FrameQueries(pQueryPool.get(0), maxScopes);
+            }
+        }
+
+        openScopes = new int[maxScopes];
+        results = MemoryUtil.memAllocLong(maxScopes * 2 * 2);
+    }
+
+    private static int getTimestampValidBits(VulkanDevices devices) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer pCount = stack.mallocInt(1);
+            vkGetPhysicalDeviceQueueFamilyProperties(devices.getVkPhysicalDevice(), pCount, null);
+
+            VkQueueFamilyProperties.Buffer properties = VkQueueFamilyProperties.malloc(pCount.get(0), stack);
+            vkGetPhysicalDeviceQueueFamilyProperties(devices.getVkPhysicalDevice(), pCount, properties);
+
+            int graphicsFamily = devices.getPhysicalDevice().getQueueFamilyIndices().getGraphicsFamily().get();
+            return properties.get(graphicsFamily).timestampValidBits();
+        }
+    }
+
+    /**
+     * Collects the results of the previous use of the frame and resets its query pool. Has to be recorded outside
+     * of a render pass, before any scope of the frame. The GPU has to be done with the previous use of the frame.
+     *
+     * @param frameIndex    - Index of the frame in flight (0 to framesInFlight - 1).
+     * @param commandBuffer - Command buffer the reset is recorded into.
+     */
+    public void beginFrame(int frameIndex, VulkanCommandBuffer commandBuffer) {
+        if (depth != 0)
+            throw new IllegalStateException(String.format("%d scopes of the previous frame haven't been ended!", depth));
+
+        currentFrame = frames[frameIndex];
+
+        collect(currentFrame);
+
+        currentFrame.scopeCount = 0;
+        commandBuffer.resetQueryPool(currentFrame.pQueryPool, 0, maxScopes * 2);
+    }
+
+    /**
+     * Opens a scope, which ends with the matching {@link #endScope(VulkanCommandBuffer)}. Scopes can be nested.
+     *
+     * @param commandBuffer - Command buffer the timestamp is written into.
+     * @param name          - Name of the scope. Must not contain '/'.
+     */
+    public void beginScope(VulkanCommandBuffer commandBuffer, String name) {
+        if (currentFrame == null)
+            throw new IllegalStateException("beginFrame() has to be called before beginning a scope!");
+
+        if (currentFrame.scopeCount == maxScopes)
+            throw new IllegalStateException(String.format("Too many scopes in a single frame! The maximum is %d", maxScopes));
+
+        int scope = currentFrame.scopeCount++;
+
+        ScopeNode parent = depth == 0 ? root : currentFrame.scopes[openScopes[depth - 1]];
+        currentFrame.scopes[scope] = parent.getChild(name);
+        openScopes[depth++] = scope;
+
+        commandBuffer.writeTimestamp(VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT, currentFrame.pQueryPool, scope * 2);
+    }
+
+    /**
+     * Closes the innermost open scope.
+     */
+    public void endScope(VulkanCommandBuffer commandBuffer) {
+        if (depth == 0)
+            throw new IllegalStateException("There isn't any open scope to end!");
+
+        int scope = openScopes[--depth];
+
+        commandBuffer.writeTimestamp(VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT, currentFrame.pQueryPool, scope * 2 + 1);
+    }
+
+    /**
+     * Reads the available timestamps of the frame without waiting and adds them to the statistics.
+     */
+    private void collect(FrameQueries frame) {
+        if (frame.scopeCount == 0)
+            return;
+
+        int queryCount = frame.scopeCount * 2;
+
+        results.clear().limit(queryCount * 2);
+
+        int result = vkGetQueryPoolResults(device.getVkDevice(), frame.pQueryPool, 0, queryCount, results, 2 * Long.BYTES,
+                VK_QUERY_RESULT_64_BIT | VK_QUERY_RESULT_WITH_AVAILABILITY_BIT);
+
+        if (result != VK_SUCCESS && result != VK_NOT_READY)
+            VulkanUtils.check(result);
+
+        for (int scope = 0; scope < frame.scopeCount; scope++) {
+            int begin = scope * 4;
+            int end = begin + 2;
+
+            // Skip the scope if any of its timestamps isn't available (yet)
+            if (results.get(begin + 1) == 0 || results.get(end + 1) == 0)
+                continue;
+
+            long ticks = (results.get(end) - results.get(begin)) & timestampMask;
+
+            ScopeNode node = frame.scopes[scope];
+
+            if (node.stats == null) {
+                node.stats = new ScopeStats(node.path, windowSize);
+                stats.put(node.path, node.stats);
+            }
+
+            node.stats.add((long) (ticks * timestampPeriod));
+        }
+    }
+
+    /**
+     * @param path - Path of the scope (for ex. "frame/shadows").
+     * @return Statistics of the scope or null if it hasn't been measured yet.
+     */
+    public ScopeStats getStats(String path) {
+        return stats.get(path);
+    }
+
+    /**
+     * @return Statistics of every measured scope, in the order the scopes were first measured.
+     */
+    public Collection<ScopeStats> getAllStats() {
+        return Collections.unmodifiableCollection(stats.values());
+    }
+
+    /**
+     * @return How many nanoseconds a single timestamp tick takes.
+     */
+    public double getTimestampPeriod() {
+        return timestampPeriod;
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        for (FrameQueries frame : frames)
+            vkDestroyQueryPool(device.getVkDevice(), frame.pQueryPool, null);
+
+        MemoryUtil.memFree(results);
+    }
+}
@@ -9,6 +9,7 @@ import org.lwjgl.vulkan.*;
 
 import java.nio.FloatBuffer;
 import java.nio.LongBuffer;
+import java.util.Arrays;
 
 import static lib.ShaderUtils.*;
 import static org.lwjgl.system.MemoryUtil.memUTF8;
@@ -28,6 +29,26 @@ public class VulkanGraphicsPipeline implements VulkanResource {
     private VkPipelineViewportStateCreateInfo viewportStateCreateInfo;
     private VkPipelineColorBlendStateCreateInfo colorBlendStateCreateInfo;
     private VkPipelineRasterizationStateCreateInfo rasterizerCreateInfo;
+    private VkPipelineDepthStencilStateCreateInfo depthStencilCreateInfo;
+
+    // The vertex input create info only points to the descriptions, the references keep them alive until creation
+    private VkVertexInputAttributeDescription.Buffer vertexAttributeDescriptions;
+    private VkVertexInputBindingDescription.Buffer vertexBindingDescriptions;
+
+    /**
+     * Whether the shader modules are destroyed right after the pipeline is created.
+     */
+    private boolean releaseShaderModules = true;
+
+    /**
+     * VkDescriptorSetLayouts of the pipeline layout, in the order of the set numbers.
+     */
+    private long[] descriptorSetLayouts = new long[0];
+
+    /**
+     * Push constant ranges of the pipeline layout, packed as stage flags, offset and size.
+     */
+    private final IntList pushConstantRanges = new IntList();
 
 
     /**
@@ -76,9 +97,22 @@ public class VulkanGraphicsPipeline implements VulkanResource {
         vertexInputCreateInfo.pVertexAttributeDescriptions(attributeDesc);
         vertexInputCreateInfo.pVertexBindingDescriptions(bindingDesc);
 
+        vertexAttributeDescriptions = attributeDesc;
+        vertexBindingDescriptions = bindingDesc;
+
         return this;
     }
 
+    /**
+     * Sets up the vertex stage with several bindings, for ex. a per-vertex stream and a per-instance stream.
+     * @param layouts Layouts of the bindings. Every layout has a binding of its own and its own input rate.
+     * @return this
+     */
+    public VulkanGraphicsPipeline setupVertexStage(VulkanBuffers.VertexBuffer... layouts) {
+        return setupVertexStage(VulkanBuffers.VertexBuffer.createAttributeDescriptions(layouts),
+                VulkanBuffers.VertexBuffer.createBindingDescriptions(layouts));
+    }
+
     /**
      * Sets up the input assembly stage of the pipeline. Restart of primitives is disabled.
      *
@@ -197,6 +231,28 @@ public class VulkanGraphicsPipeline implements VulkanResource {
         return this;
     }
 
+    /**
+     * Sets up the depth test. Required if the subpass has a depth attachment, optional otherwise.
+     *
+     * @param depthTest  - Whether the fragments are tested against the depth attachment.
+     * @param depthWrite - Whether the depth of the passed fragments is written.
+     * @param compareOp  - VkCompareOp of the test (for ex. VK_COMPARE_OP_LESS).
+     * @return this
+     */
+    public VulkanGraphicsPipeline setupDepthStencil(boolean depthTest, boolean depthWrite, int compareOp) {
+        depthStencilCreateInfo = VkPipelineDepthStencilStateCreateInfo.calloc();
+        depthStencilCreateInfo.sType$Default();
+        depthStencilCreateInfo.depthTestEnable(depthTest);
+        depthStencilCreateInfo.depthWriteEnable(depthWrite);
+        depthStencilCreateInfo.depthCompareOp(compareOp);
+        depthStencilCreateInfo.depthBoundsTestEnable(false);
+        depthStencilCreateInfo.stencilTestEnable(false);
+        depthStencilCreateInfo.minDepthBounds(0.0f);
+        depthStencilCreateInfo.maxDepthBounds(1.0f);
+
+        return this;
+    }
+
     /**
      * Initializes and creates the Pipeline with previous setups.
      *
@@ -204,6 +260,17 @@ public class VulkanGraphicsPipeline implements VulkanResource {
      * @param renderPass - Vullan Render Pass object
      */
     public void initializePipeline(VulkanLogicalDevice device, VulkanRenderPass renderPass) {
+        initializePipeline(device, renderPass, null);
+    }
+
+    /**
+     * Initializes and creates the Pipeline with previous setups.
+     *
+     * @param device        - Vulkan Logical device object
+     * @param renderPass    - Vullan Render Pass object
+     * @param pipelineCache - Pipeline cache which speeds up the creation if the pipeline was created before. Can be null.
+     */
+    public void initializePipeline(VulkanLogicalDevice device, VulkanRenderPass renderPass, VulkanPipelineCache pipelineCache) {
 
         if (device == null)
             throw new NullPointerException("VulkanRenderPass is null!");
@@ -214,9 +281,26 @@ public class VulkanGraphicsPipeline implements VulkanResource {
         //Creation of the Pipeline
         try (MemoryStack stack = MemoryStack.stackPush()) {
 
-            VkPipelineLayoutCreateInfo layoutCreateInfo = VkPipelineLayoutCreateInfo.calloc();
+            VkPipelineLayoutCreateInfo layoutCreateInfo = VkPipelineLayoutCreateInfo.calloc(stack);
             layoutCreateInfo.sType$Default();
 
+            if (descriptorSetLayouts.length > 0)
+                layoutCreateInfo.pSetLayouts(stack.longs(descriptorSetLayouts));
+
+            int rangeCount = pushConstantRanges.size / 3;
+            if (rangeCount > 0) {
+                VkPushConstantRange.Buffer ranges = VkPushConstantRange.calloc(rangeCount, stack);
+
+                for (int i = 0; i < rangeCount; i++) {
+                    ranges.get(i)
+                            .stageFlags(pushConstantRanges.values[i * 3])
+                            .offset(pushConstantRanges.values[i * 3 + 1])
+                            .size(pushConstantRanges.values[i * 3 + 2]);
+                }
+
+                layoutCreateInfo.pPushConstantRanges(ranges);
+            }
+
             LongBuffer pPipelineLayout = stack.longs(VK_NULL_HANDLE);
 
             if (vkCreatePipelineLayout(device.getVkDevice(), layoutCreateInfo, null, pPipelineLayout) != VK_SUCCESS) {
@@ -234,6 +318,7 @@ public class VulkanGraphicsPipeline implements VulkanResource {
             pipelineInfo.pRasterizationState(rasterizerCreateInfo);
             pipelineInfo.pMultisampleState(multisampleCreateInfo);
             pipelineInfo.pColorBlendState(colorBlendStateCreateInfo);
+            pipelineInfo.pDepthStencilState(depthStencilCreateInfo);
             pipelineInfo.layout(pPipelineLayout.get(0));
             pipelineInfo.renderPass(renderPass.getRenderPassPtr());
             pipelineInfo.subpass(0);
@@ -242,17 +327,173 @@ public class VulkanGraphicsPipeline implements VulkanResource {
 
             LongBuffer pGraphicsPipeline = stack.mallocLong(1);
 
-            if (vkCreateGraphicsPipelines(device.getVkDevice(), VK_NULL_HANDLE, pipelineInfo, null, pGraphicsPipeline) != VK_SUCCESS) {
+            long pipelineCachePtr = pipelineCache != null ? pipelineCache.getPipelineCachePtr() : VK_NULL_HANDLE;
+
+            if (vkCreateGraphicsPipelines(device.getVkDevice(), pipelineCachePtr, pipelineInfo, null, pGraphicsPipeline) != VK_SUCCESS) {
                 throw new RuntimeException("Failed to create graphics pipeline");
             }
 
             pipelinePtr = pGraphicsPipeline.get(0);
 
             //Release Resources
-            for (ShaderModule module : modules) {
-                vkDestroyShaderModule(device.getVkDevice(), module.modulePtr, null);
+            if (releaseShaderModules) {
+                for (ShaderModule module : modules) {
+                    vkDestroyShaderModule(device.getVkDevice(), module.modulePtr, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the descriptor set layouts of the pipeline layout. Pipelines whose layouts are created by the same
+     * {@link VulkanDescriptorLayoutCache} can share the bound sets.
+     *
+     * @param setLayouts - VkDescriptorSetLayout handles, the index is the set number in the shaders.
+     * @return this
+     */
+    public VulkanGraphicsPipeline setDescriptorSetLayouts(long... setLayouts) {
+        this.descriptorSetLayouts = setLayouts.clone();
+        return this;
+    }
+
+    /**
+     * Adds a push constant range to the pipeline layout. A stage can be part of at most one range.
+     *
+     * @param stageFlags - VkShaderStageFlags of the stages which read the range.
+     * @param offset     - Offset of the range in bytes. Has to be a multiple of 4.
+     * @param size       - Size of the range in bytes. Has to be a multiple of 4.
+     * @return this
+     */
+    public VulkanGraphicsPipeline addPushConstantRange(int stageFlags, int offset, int size) {
+        if (offset % 4 != 0 || size % 4 != 0 || size == 0)
+            throw new IllegalArgumentException("Offset and size of a push constant range have to be multiples of 4 and the size greater than 0!");
+
+        pushConstantRanges.add(stageFlags, offset, size);
+        return this;
+    }
+
+    /**
+     * Adds the range of the push constants to the pipeline layout.
+     *
+     * @return this
+     */
+    public VulkanGraphicsPipeline addPushConstantRange(PushConstants pushConstants) {
+        return addPushConstantRange(pushConstants.getStageFlags(), pushConstants.getOffset(), pushConstants.getSize());
+    }
+
+    /**
+     * Sets whether the shader modules are destroyed after the pipeline is created (the default). Turn it off if the
+     * modules are shared with other pipelines, the caller is responsible for destroying them then.
+     *
+     * @return this
+     */
+    public VulkanGraphicsPipeline setReleaseShaderModules(boolean releaseShaderModules) {
+        this.releaseShaderModules = releaseShaderModules;
+        return this;
+    }
+
+    /**
+     * Builds the key describing the whole state of this pipeline. Has to be called after every setup function and
+     * before the pipeline is initialized or discarded.
+     *
+     * @param renderPass - Render pass the pipeline will be used with.
+     */
+    public PipelineStateKey getStateKey(VulkanRenderPass renderPass) {
+        // A module is identified by the hash of its SPIR-V, so identical shaders in different modules share the key
+        long[] handles = new long[modules.length * 2 + 1 + descriptorSetLayouts.length];
+        for (int i = 0; i < modules.length; i++) {
+            long[] codeHash = modules[i].codeHash;
+            handles[2 * i] = codeHash != null ? codeHash[0] : modules[i].modulePtr;
+            handles[2 * i + 1] = codeHash != null ? codeHash[1] : 0L;
+        }
+        handles[modules.length * 2] = renderPass.getRenderPassPtr();
+        System.arraycopy(descriptorSetLayouts, 0, handles, modules.length * 2 + 1, descriptorSetLayouts.length);
+
+        IntList state = new IntList();
+
+        for (ShaderModule module : modules) {
+            state.add(module.type.ordinal());
+        }
+
+        VkVertexInputBindingDescription.Buffer bindings = vertexInputCreateInfo.pVertexBindingDescriptions();
+        state.add(bindings == null ? 0 : bindings.remaining());
+        if (bindings != null) {
+            for (VkVertexInputBindingDescription binding : bindings) {
+                state.add(binding.binding(), binding.stride(), binding.inputRate());
             }
         }
+
+        VkVertexInputAttributeDescription.Buffer attributes = vertexInputCreateInfo.pVertexAttributeDescriptions();
+        state.add(attributes == null ? 0 : attributes.remaining());
+        if (attributes != null) {
+            for (VkVertexInputAttributeDescription attribute : attributes) {
+                state.add(attribute.location(), attribute.binding(), attribute.format(), attribute.offset());
+            }
+        }
+
+        state.add(inputAssemblyCreateInfo.topology(), inputAssemblyCreateInfo.primitiveRestartEnable() ? 1 : 0);
+
+        VkViewport.Buffer viewports = viewportStateCreateInfo.pViewports();
+        state.add(viewports == null ? 0 : viewports.remaining());
+        if (viewports != null) {
+            for (VkViewport viewport : viewports) {
+                state.add(Float.floatToIntBits(viewport.x()), Float.floatToIntBits(viewport.y()),
+                        Float.floatToIntBits(viewport.width()), Float.floatToIntBits(viewport.height()),
+                        Float.floatToIntBits(viewport.minDepth()), Float.floatToIntBits(viewport.maxDepth()));
+            }
+        }
+
+        state.add(rasterizerCreateInfo.depthClampEnable() ? 1 : 0, rasterizerCreateInfo.rasterizerDiscardEnable() ? 1 : 0,
+                rasterizerCreateInfo.polygonMode(), rasterizerCreateInfo.cullMode(), rasterizerCreateInfo.frontFace(),
+                rasterizerCreateInfo.depthBiasEnable() ? 1 : 0, Float.floatToIntBits(rasterizerCreateInfo.lineWidth()));
+
+        state.add(multisampleCreateInfo.rasterizationSamples(), multisampleCreateInfo.sampleShadingEnable() ? 1 : 0);
+
+        state.add(colorBlendStateCreateInfo.logicOpEnable() ? 1 : 0, colorBlendStateCreateInfo.logicOp());
+        VkPipelineColorBlendAttachmentState.Buffer blendAttachments = colorBlendStateCreateInfo.pAttachments();
+        state.add(blendAttachments == null ? 0 : blendAttachments.remaining());
+        if (blendAttachments != null) {
+            for (VkPipelineColorBlendAttachmentState attachment : blendAttachments) {
+                state.add(attachment.blendEnable() ? 1 : 0, attachment.colorWriteMask(),
+                        attachment.srcColorBlendFactor(), attachment.dstColorBlendFactor(), attachment.colorBlendOp(),
+                        attachment.srcAlphaBlendFactor(), attachment.dstAlphaBlendFactor(), attachment.alphaBlendOp());
+            }
+        }
+
+        if (depthStencilCreateInfo != null) {
+            state.add(1, depthStencilCreateInfo.depthTestEnable() ? 1 : 0, depthStencilCreateInfo.depthWriteEnable() ? 1 : 0,
+                    depthStencilCreateInfo.depthCompareOp());
+        } else {
+            state.add(0);
+        }
+
+        state.add(pushConstantRanges.size);
+        state.add(pushConstantRanges.toArray());
+
+        // Subpass
+        state.add(0);
+
+        return new PipelineStateKey(handles, state.toArray());
+    }
+
+    /**
+     * Growable int array, so the state key can be packed without boxing.
+     */
+    private static final class IntList {
+        private int[] values = new int[64];
+        private int size = 0;
+
+        void add(int... newValues) {
+            if (size + newValues.length > values.length)
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + newValues.length));
+
+            System.arraycopy(newValues, 0, values, size, newValues.length);
+            size += newValues.length;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
     }
 
     private int chooseStage(ShaderType shaderType) {
@@ -271,12 +512,22 @@ public class VulkanGraphicsPipeline implements VulkanResource {
         return pipelinePtr;
     }
 
-    @Override
-    public void destroy(VulkanLogicalDevice device) {
+    /**
+     * @return VkPipelineLayout handle, needed to bind descriptor sets.
+     */
+    public long getPipelineLayoutPtr() {
+        return pipelineLayoutPtr;
+    }
 
-        vkDestroyPipeline(device.getVkDevice(), pipelinePtr, null);
-        vkDestroyPipelineLayout(device.getVkDevice(), pipelineLayoutPtr, null);
+    /**
+     * Frees the setup structures of a pipeline which is not going to be initialized (for ex. because an identical
+     * pipeline already exists).
+     */
+    public void discard() {
+        freeCreateInfos();
+    }
 
+    private void freeCreateInfos() {
         shaderStages.free();
         vertexInputCreateInfo.free();
         inputAssemblyCreateInfo.free();
@@ -284,5 +535,17 @@ public class VulkanGraphicsPipeline implements VulkanResource {
         viewportStateCreateInfo.free();
         colorBlendStateCreateInfo.free();
         rasterizerCreateInfo.free();
+
+        if (depthStencilCreateInfo != null)
+            depthStencilCreateInfo.free();
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+
+        vkDestroyPipeline(device.getVkDevice(), pipelinePtr, null);
+        vkDestroyPipelineLayout(device.getVkDevice(), pipelineLayoutPtr, null);
+
+        freeCreateInfos();
     }
 }
@@ -0,0 +1,44 @@
+package lib;
+
+import org.lwjgl.system.MemoryUtil;
+
+import static org.lwjgl.util.vma.Vma.vmaDestroyImage;
+
+public class VulkanImage implements VulkanResource {
+
+    public long pImage;
+    public long pAllocator;
+    public long pAllocation;
+
+    private final int format;
+    private final int width, height;
+
+    public VulkanImage(long pImage, long pAllocator, long pAllocation, int format, int width, int height) {
+        this.pImage = pImage;
+        this.pAllocator = pAllocator;
+        this.pAllocation = pAllocation;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        vmaDestroyImage(pAllocator, pImage, pAllocation);
+
+        pImage = MemoryUtil.NULL;
+        pAllocation = MemoryUtil.NULL;
+    }
+}
@@ -18,14 +18,27 @@ public class VulkanInstance {
 
     private VkInstance instance;
 
+    private final boolean headless;
+
     public VulkanInstance(String appName, VkDebugUtilsMessengerCallbackEXT dbgFunc) {
+        this(appName, dbgFunc, false);
+    }
+
+    /**
+     * @param appName  - Name of the application.
+     * @param dbgFunc  - Callback of the validation messages.
+     * @param headless - Creates the instance without the platform surface extensions, so GLFW doesn't have to be
+     *                 initialized. Such an instance can render only offscreen.
+     */
+    public VulkanInstance(String appName, VkDebugUtilsMessengerCallbackEXT dbgFunc, boolean headless) {
+        this.headless = headless;
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             if (VulkanUtils.enableValidationLayers && !VulkanUtils.checkValidationLayerSupport()) {
                 throw new IllegalStateException("Validation layers requested, but some or none of them are available!");
             }
 
-            PointerBuffer required_extensions = glfwGetRequiredInstanceExtensions();
+            PointerBuffer required_extensions = headless ? headlessExtensions(stack) : glfwGetRequiredInstanceExtensions();
             if (required_extensions == null) {
                 throw new IllegalStateException("glfwGetRequiredInstanceExtensions failed to find the platform surface extensions.");
             }
@@ -67,7 +80,9 @@ public class VulkanInstance {
                 requiredLayers.put(i, stack.ASCII(VulkanUtils.validationLayers[i]));
             }
 
-            instanceCreateInfo.ppEnabledLayerNames(requiredLayers)
+            // Headless, the layers are enabled only if VulkanUtils.enableValidationLayers is set. A machine without a
+            // display commonly has none installed, so the headless runner turns the flag off.
+            instanceCreateInfo.ppEnabledLayerNames(headless && !VulkanUtils.enableValidationLayers ? null : requiredLayers)
                     .ppEnabledExtensionNames(required_extensions);
             extensionNames.clear();
 
@@ -112,6 +127,16 @@ public class VulkanInstance {
 
     }
 
+    /**
+     * Without a surface only the debug utils are needed, and only with the validation layers.
+     */
+    private static PointerBuffer headlessExtensions(MemoryStack stack) {
+        if (!VulkanUtils.enableValidationLayers)
+            return stack.mallocPointer(0);
+
+        return stack.pointers(stack.ASCII(VK_EXT_DEBUG_UTILS_EXTENSION_NAME));
+    }
+
     public static boolean checkInstanceExtensionsSupport(PointerBuffer extensionNames) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
             IntBuffer intBuff = memAllocInt(1);
@@ -139,4 +164,11 @@ public class VulkanInstance {
         return instance;
     }
 
+    /**
+     * @return true if the instance was created without the surface extensions.
+     */
+    public boolean isHeadless() {
+        return headless;
+    }
+
 }
@@ -20,6 +20,19 @@ public class VulkanLogicalDevice {
     private VkDevice vkDevice;
     private VkQueue graphicsQueue;
     private VkQueue presentQueue;
+    private VkQueue transferQueue;
+    private VkQueue computeQueue;
+
+    private boolean timelineSemaphoreSupported = false;
+    private boolean multiDrawIndirectSupported = false;
+    private boolean drawIndirectFirstInstanceSupported = false;
+    private boolean drawIndirectCountSupported = false;
+    private int maxDrawIndirectCount = 1;
+
+    private boolean bindlessSupported = false;
+    private int maxBindlessSampledImages = 0;
+    private int maxBindlessStorageImages = 0;
+    private int maxBindlessStorageBuffers = 0;
 
 
     public VulkanLogicalDevice(VulkanPhysicalDevice physicalDevice) {
@@ -29,80 +42,92 @@ public class VulkanLogicalDevice {
             FloatBuffer queuePriority = stack.mallocFloat(1);
             queuePriority.put(0, 1.f);
 
-            // TODO: This can change in further development as more queue types will be needed
-            VkDeviceQueueCreateInfo.Buffer deviceQueueCreateInfos = VkDeviceQueueCreateInfo.malloc(
-                    physicalDevice.getQueueFamilyIndices().isQueueIndexSame() ? 1 : 2
-            );
-
-
             if (!physicalDevice.getQueueFamilyIndices().isComplete())
                 throw new IllegalStateException("No Presentation or Graphics queue family exists!");
 
-            IntBuffer queueIndices;
-            if (physicalDevice.getQueueFamilyIndices().isQueueIndexSame()) {
-                queueIndices = stack.mallocInt(1);
+            // One queue for every distinct family. The transfer and compute families fall back to the graphics
+            // family if the GPU has no dedicated ones, in which case they share its queue.
+            int[] queueFamilies = physicalDevice.getQueueFamilyIndices().getUniqueFamilies();
+
+            VkDeviceQueueCreateInfo.Buffer deviceQueueCreateInfos = VkDeviceQueueCreateInfo.calloc(queueFamilies.length, stack);
 
-                VkDeviceQueueCreateInfo createInfo = VkDeviceQueueCreateInfo.calloc();
-                createInfo.sType$Default()
+            for (int i = 0; i < queueFamilies.length; i++) {
+                deviceQueueCreateInfos.get(i)
+                        .sType$Default()
                         .pNext(NULL)
                         .pQueuePriorities(queuePriority)
                         .flags(0)
-                        // Since the queue families indices are the same (at least for now, it doesn't matter
-                        // which one we choose to pass in.
-                        // TODO: This can change in further development as more queue types will be needed
-                        // No need for isPresent. The isComplete function does this already for us
-                        .queueFamilyIndex(physicalDevice.getQueueFamilyIndices().getGraphicsFamily().get());
-
-                deviceQueueCreateInfos.put(0, createInfo);
-            } else {
-                // TODO: This can change in further development as more queue types will be needed
-                queueIndices = stack.mallocInt(2);
-
-                // No need for isPresent. The isComplete function does this already for us
-                queueIndices.put(physicalDevice.getQueueFamilyIndices().getGraphicsFamily().get());
-                queueIndices.put(physicalDevice.getQueueFamilyIndices().getPresentFamily().get());
-
-                for (int i = 0; i < deviceQueueCreateInfos.capacity(); i++) {
-                    deviceQueueCreateInfos.position(i);
-                    queueIndices.position(i);
-
-                    VkDeviceQueueCreateInfo createInfo = VkDeviceQueueCreateInfo.calloc();
-                    createInfo.sType$Default()
-                            .pNext(NULL)
-                            .pQueuePriorities(queuePriority)
-                            .flags(0)
-                            .queueFamilyIndex(queueIndices.get());
-
-                    deviceQueueCreateInfos.put(createInfo);
-                }
-
+                        .queueFamilyIndex(queueFamilies[i]);
             }
 
-            deviceQueueCreateInfos.position(0);
+            // Every feature which isn't explicitly enabled has to be VK_FALSE, hence calloc.
+            VkPhysicalDeviceFeatures2 features = VkPhysicalDeviceFeatures2.calloc(stack);
+            features.sType$Default();
+
+            VkPhysicalDeviceVulkan12Features vulkan12Features = VkPhysicalDeviceVulkan12Features.calloc(stack);
+            vulkan12Features.sType$Default();
+
+            // Indirect draws of many meshes at once, and with per draw instance offsets (draw ids)
+            VkPhysicalDeviceFeatures supportedCoreFeatures = VkPhysicalDeviceFeatures.calloc(stack);
+            vkGetPhysicalDeviceFeatures(physicalDevice.getVkPhysicalDevice(), supportedCoreFeatures);
+
+            multiDrawIndirectSupported = supportedCoreFeatures.multiDrawIndirect();
+            drawIndirectFirstInstanceSupported = supportedCoreFeatures.drawIndirectFirstInstance();
+
+            features.features()
+                    .multiDrawIndirect(multiDrawIndirectSupported)
+                    .drawIndirectFirstInstance(drawIndirectFirstInstanceSupported);
+
+            // Vulkan 1.2 features can only be chained if the device supports 1.2
+            if (physicalDevice.getProperties().apiVersion() >= VK12.VK_API_VERSION_1_2) {
+                VkPhysicalDeviceVulkan12Features supported12Features = VkPhysicalDeviceVulkan12Features.calloc(stack);
+                supported12Features.sType$Default();
 
-            // TODO: Add a function for enabling certain GPU features. also make a handler for setting all of not wanted
-            //  feature to false (Vulkan doesn't like the NULL value).
-            VkPhysicalDeviceFeatures features = VkPhysicalDeviceFeatures.malloc(stack);
+                VkPhysicalDeviceFeatures2 supportedFeatures = VkPhysicalDeviceFeatures2.calloc(stack);
+                supportedFeatures.sType$Default();
+                supportedFeatures.pNext(supported12Features.address());
+
+                VK11.vkGetPhysicalDeviceFeatures2(physicalDevice.getVkPhysicalDevice(), supportedFeatures);
+
+                timelineSemaphoreSupported = supported12Features.timelineSemaphore();
+                vulkan12Features.timelineSemaphore(timelineSemaphoreSupported);
+
+                drawIndirectCountSupported = supported12Features.drawIndirectCount();
+                vulkan12Features.drawIndirectCount(drawIndirectCountSupported);
+
+                if (VulkanUtils.enableBindlessResources)
+                    enableBindless(physicalDevice, supported12Features, vulkan12Features, stack);
+
+                features.pNext(vulkan12Features.address());
+            }
+
+            maxDrawIndirectCount = multiDrawIndirectSupported ? VulkanUtils.clampUnsigned(physicalDevice.getProperties().limits().maxDrawIndirectCount()) : 1;
 
             VkDeviceCreateInfo deviceCreateInfo = VkDeviceCreateInfo.calloc(stack);
 
-            PointerBuffer extensionProperties = stack.mallocPointer(VulkanPhysicalDevice.deviceExtensions.length);
+            String[] deviceExtensions = physicalDevice.getRequiredExtensions();
+            PointerBuffer extensionProperties = stack.mallocPointer(deviceExtensions.length);
 
             // TODO: Careful here, there could be some other extension that maybe have been added before this.
             //  This needs to be maybe addressed later.
-            for (int i = 0; i < VulkanPhysicalDevice.deviceExtensions.length; i++) {
+            for (int i = 0; i < deviceExtensions.length; i++) {
                 extensionProperties.position(i);
-                extensionProperties.put(memASCII(VulkanPhysicalDevice.deviceExtensions[i]));
+                extensionProperties.put(memASCII(deviceExtensions[i]));
             }
 
             extensionProperties.flip();
 
             deviceCreateInfo.sType$Default()
-                    .pNext(NULL)
                     .pQueueCreateInfos(deviceQueueCreateInfos)
-                    .pEnabledFeatures(features)
                     .ppEnabledExtensionNames(extensionProperties);
 
+            // With a feature chain the features are passed through pNext and pEnabledFeatures has to stay NULL.
+            // A Vulkan 1.0 device doesn't know VkPhysicalDeviceFeatures2, so it gets just the core features.
+            if (features.pNext() != NULL)
+                deviceCreateInfo.pNext(features.address()).pEnabledFeatures(null);
+            else
+                deviceCreateInfo.pNext(NULL).pEnabledFeatures(features.features());
+
             System.out.println(deviceCreateInfo.queueCreateInfoCount());
 
             if (VulkanUtils.enableValidationLayers) {
@@ -132,6 +157,12 @@ public class VulkanLogicalDevice {
             vkGetDeviceQueue(vkDevice, indices.getPresentFamily().get(), 0, pQueue);
             presentQueue = new VkQueue(pQueue.get(0), vkDevice);
 
+            vkGetDeviceQueue(vkDevice, indices.getTransferFamily().get(), 0, pQueue);
+            transferQueue = new VkQueue(pQueue.get(0), vkDevice);
+
+            vkGetDeviceQueue(vkDevice, indices.getComputeFamily().get(), 0, pQueue);
+            computeQueue = new VkQueue(pQueue.get(0), vkDevice);
+
 
         }
     }
@@ -149,4 +180,134 @@ public class VulkanLogicalDevice {
         return presentQueue;
     }
 
+    /**
+     * @return Queue of the dedicated transfer family, or the graphics queue if the GPU has no such family.
+     */
+    public VkQueue getTransferQueue() {
+        return transferQueue;
+    }
+
+    /**
+     * @return Queue of the dedicated compute family, or the graphics queue if the GPU has no such family.
+     */
+    public VkQueue getComputeQueue() {
+        return computeQueue;
+    }
+
+    /**
+     * Enables the descriptor indexing features needed by {@link VulkanBindlessTable}: runtime sized arrays which are
+     * only partially bound, indexed with non-uniform indices and updated after the set has been bound.
+     */
+    private void enableBindless(VulkanPhysicalDevice physicalDevice, VkPhysicalDeviceVulkan12Features supported,
+                                VkPhysicalDeviceVulkan12Features enabled, MemoryStack stack) {
+        bindlessSupported = supported.runtimeDescriptorArray()
+                && supported.descriptorBindingPartiallyBound()
+                && supported.descriptorBindingUpdateUnusedWhilePending()
+                && supported.descriptorBindingSampledImageUpdateAfterBind()
+                && supported.descriptorBindingStorageImageUpdateAfterBind()
+                && supported.descriptorBindingStorageBufferUpdateAfterBind()
+                && supported.shaderSampledImageArrayNonUniformIndexing();
+
+        // Left disabled otherwise, isBindlessSupported() tells the caller
+        if (!bindlessSupported)
+            return;
+
+        enabled.descriptorIndexing(supported.descriptorIndexing())
+                .runtimeDescriptorArray(true)
+                .descriptorBindingPartiallyBound(true)
+                .descriptorBindingUpdateUnusedWhilePending(true)
+                .descriptorBindingSampledImageUpdateAfterBind(true)
+                .descriptorBindingStorageImageUpdateAfterBind(true)
+                .descriptorBindingStorageBufferUpdateAfterBind(true)
+                .shaderSampledImageArrayNonUniformIndexing(true)
+                .shaderStorageImageArrayNonUniformIndexing(supported.shaderStorageImageArrayNonUniformIndexing())
+                .shaderStorageBufferArrayNonUniformIndexing(supported.shaderStorageBufferArrayNonUniformIndexing());
+
+        VkPhysicalDeviceVulkan12Properties properties12 = VkPhysicalDeviceVulkan12Properties.calloc(stack);
+        properties12.sType$Default();
+
+        VkPhysicalDeviceProperties2 properties = VkPhysicalDeviceProperties2.calloc(stack);
+        properties.sType$Default();
+        properties.pNext(properties12.address());
+
+        VK11.vkGetPhysicalDeviceProperties2(physicalDevice.getVkPhysicalDevice(), properties);
+
+        // The limits are uint32, drivers commonly report UINT32_MAX. A combined image sampler counts as a sampled image
+        // and as a sampler.
+        maxBindlessSampledImages = Math.min(
+                Math.min(VulkanUtils.clampUnsigned(properties12.maxDescriptorSetUpdateAfterBindSampledImages()),
+                        VulkanUtils.clampUnsigned(properties12.maxPerStageDescriptorUpdateAfterBindSampledImages())),
+                Math.min(VulkanUtils.clampUnsigned(properties12.maxDescriptorSetUpdateAfterBindSamplers()),
+                        VulkanUtils.clampUnsigned(properties12.maxPerStageDescriptorUpdateAfterBindSamplers())));
+        maxBindlessStorageImages = Math.min(VulkanUtils.clampUnsigned(properties12.maxDescriptorSetUpdateAfterBindStorageImages()),
+                VulkanUtils.clampUnsigned(properties12.maxPerStageDescriptorUpdateAfterBindStorageImages()));
+        maxBindlessStorageBuffers = Math.min(VulkanUtils.clampUnsigned(properties12.maxDescriptorSetUpdateAfterBindStorageBuffers()),
+                VulkanUtils.clampUnsigned(properties12.maxPerStageDescriptorUpdateAfterBindStorageBuffers()));
+    }
+
+    /**
+     * @return true if the device supports Vulkan 1.2 timeline semaphores and the feature has been enabled.
+     */
+    public boolean isTimelineSemaphoreSupported() {
+        return timelineSemaphoreSupported;
+    }
+
+    /**
+     * @return true if a single indirect draw can execute more than one draw command (multiDrawIndirect feature).
+     */
+    public boolean isMultiDrawIndirectSupported() {
+        return multiDrawIndirectSupported;
+    }
+
+    /**
+     * @return true if the firstInstance of an indirect draw command may be other than 0 (drawIndirectFirstInstance feature).
+     */
+    public boolean isDrawIndirectFirstInstanceSupported() {
+        return drawIndirectFirstInstanceSupported;
+    }
+
+    /**
+     * @return true if the draw count of an indirect draw can be read from a buffer (Vulkan 1.2 drawIndirectCount feature).
+     */
+    public boolean isDrawIndirectCountSupported() {
+        return drawIndirectCountSupported;
+    }
+
+    /**
+     * @return Maximum draw count of a single indirect draw. 1 without multiDrawIndirect.
+     */
+    public int getMaxDrawIndirectCount() {
+        return maxDrawIndirectCount;
+    }
+
+    /**
+     * @return true if {@link VulkanUtils#enableBindlessResources} was set and the descriptor indexing features have
+     * been enabled. false if they were requested but the device doesn't support them, which the caller can log or
+     * fall back on.
+     */
+    public boolean isBindlessSupported() {
+        return bindlessSupported;
+    }
+
+    /**
+     * @return Maximum size of an update-after-bind array of combined image samplers. 0 without bindless support.
+     */
+    public int getMaxBindlessSampledImages() {
+        return maxBindlessSampledImages;
+    }
+
+    /**
+     * @return Maximum size of an update-after-bind array of storage images. 0 without bindless support.
+     */
+    public int getMaxBindlessStorageImages() {
+        return maxBindlessStorageImages;
+    }
+
+    /**
+     * @return Maximum size of an update-after-bind array of storage buffers. 0 without bindless support.
+     */
+    public int getMaxBindlessStorageBuffers() {
+        return maxBindlessStorageBuffers;
+    }
+
 }
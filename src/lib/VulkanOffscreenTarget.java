@@ -0,0 +1,248 @@
+package lib;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import java.nio.LongBuffer;
+
+import static org.lwjgl.util.vma.Vma.VMA_MEMORY_USAGE_GPU_ONLY;
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Color and depth images allocated by VMA which replace the swapchain images when rendering without a window.
+ * There is one color image (and one depth image) per frame in flight, so frame i always renders into image i and a
+ * frame never has to wait for an image used by another one.
+ * <p>
+ * The color images end the render pass in VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL, ready to be copied out.
+ */
+public class VulkanOffscreenTarget implements VulkanResource {
+
+    private static final int[] DEPTH_FORMATS = {
+            VK_FORMAT_D32_SFLOAT,
+            VK_FORMAT_D24_UNORM_S8_UINT,
+            VK_FORMAT_D16_UNORM,
+    };
+
+    private final VulkanImage[] colorImages;
+    private final long[] colorViews;
+    private final VulkanImage[] depthImages;
+    private final long[] depthViews;
+
+    private final int colorFormat;
+    private final int depthFormat;
+    private final VkExtent2D extent;
+
+    /**
+     * @param devices     - VulkanDevices object which owns the VMA allocator.
+     * @param width       - Width of the images in pixels.
+     * @param height      - Height of the images in pixels.
+     * @param colorFormat - Format of the color images (for ex. VK_FORMAT_R8G8B8A8_UNORM).
+     * @param depthFormat - Format of the depth images, or VK_FORMAT_UNDEFINED for no depth attachment.
+     * @param imageCount  - Number of images, commonly the number of frames in flight.
+     */
+    public VulkanOffscreenTarget(VulkanDevices devices, int width, int height, int colorFormat, int depthFormat, int imageCount) {
+        this.colorFormat = colorFormat;
+        this.depthFormat = depthFormat;
+
+        extent = VkExtent2D.malloc();
+        extent.set(width, height);
+
+        colorImages = new VulkanImage[imageCount];
+        colorViews = new long[imageCount];
+        depthImages = depthFormat != VK_FORMAT_UNDEFINED ? new VulkanImage[imageCount] : null;
+        depthViews = depthFormat != VK_FORMAT_UNDEFINED ? new long[imageCount] : null;
+
+        for (int i = 0; i < imageCount; i++) {
+            colorImages[i] = createImage(devices, colorFormat,
+                    VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT | VK_IMAGE_USAGE_TRANSFER_SRC_BIT | VK_IMAGE_USAGE_SAMPLED_BIT);
+            colorViews[i] = createView(devices.getLogicalDevice(), colorImages[i], VK_IMAGE_ASPECT_COLOR_BIT);
+
+            if (depthImages != null) {
+                depthImages[i] = createImage(devices, depthFormat, VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT);
+                depthViews[i] = createView(devices.getLogicalDevice(), depthImages[i], VK_IMAGE_ASPECT_DEPTH_BIT);
+            }
+        }
+    }
+
+    private VulkanImage createImage(VulkanDevices devices, int format, int usage) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkImageCreateInfo createInfo = VkImageCreateInfo.calloc(stack);
+            createInfo.sType$Default()
+                    .imageType(VK_IMAGE_TYPE_2D)
+                    .format(format)
+                    .mipLevels(1)
+                    .arrayLayers(1)
+                    .samples(VK_SAMPLE_COUNT_1_BIT)
+                    .tiling(VK_IMAGE_TILING_OPTIMAL)
+                    .usage(usage)
+                    .sharingMode(VK_SHARING_MODE_EXCLUSIVE)
+                    .initialLayout(VK_IMAGE_LAYOUT_UNDEFINED);
+            createInfo.extent().set(extent.width(), extent.height(), 1);
+
+            return devices.getVma().createImage(createInfo, VMA_MEMORY_USAGE_GPU_ONLY);
+        }
+    }
+
+    private static long createView(VulkanLogicalDevice device, VulkanImage image, int aspectMask) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkImageViewCreateInfo createInfo = VkImageViewCreateInfo.calloc(stack);
+            createInfo.sType$Default()
+                    .image(image.pImage)
+                    .viewType(VK_IMAGE_VIEW_TYPE_2D)
+                    .format(image.getFormat());
+            createInfo.subresourceRange()
+                    .aspectMask(aspectMask)
+                    .baseMipLevel(0)
+                    .levelCount(1)
+                    .baseArrayLayer(0)
+                    .layerCount(1);
+
+            LongBuffer pView = stack.mallocLong(1);
+
+            if (vkCreateImageView(device.getVkDevice(), createInfo, null, pView) != VK_SUCCESS)
+                throw new RuntimeException("Failed to create image view");
+
+            return pView.get(0);
+        }
+    }
+
+    /**
+     * Picks the first depth format the device can use as an optimally tiled depth attachment.
+     *
+     * @return The format, or VK_FORMAT_UNDEFINED if there is none.
+     */
+    public static int findDepthFormat(VulkanPhysicalDevice physicalDevice) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkFormatProperties properties = VkFormatProperties.malloc(stack);
+
+            for (int format : DEPTH_FORMATS) {
+                vkGetPhysicalDeviceFormatProperties(physicalDevice.getVkPhysicalDevice(), format, properties);
+
+                if ((properties.optimalTilingFeatures() & VK_FORMAT_FEATURE_DEPTH_STENCIL_ATTACHMENT_BIT) != 0)
+                    return format;
+            }
+
+            return VK_FORMAT_UNDEFINED;
+        }
+    }
+
+    /**
+     * Creates a render pass with a single subpass which clears and stores the color attachment (0) and clears the
+     * depth attachment (1) if there is one.
+     */
+    public VulkanRenderPass createRenderPass(VulkanLogicalDevice device) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            boolean hasDepth = depthImages != null;
+
+            VkAttachmentDescription.Buffer attachments = VkAttachmentDescription.calloc(hasDepth ? 2 : 1, stack);
+            attachments.get(0)
+                    .format(colorFormat)
+                    .samples(VK_SAMPLE_COUNT_1_BIT)
+                    .loadOp(VK_ATTACHMENT_LOAD_OP_CLEAR)
+                    .storeOp(VK_ATTACHMENT_STORE_OP_STORE)
+                    .stencilLoadOp(VK_ATTACHMENT_LOAD_OP_DONT_CARE)
+                    .stencilStoreOp(VK_ATTACHMENT_STORE_OP_DONT_CARE)
+                    .initialLayout(VK_IMAGE_LAYOUT_UNDEFINED)
+                    .finalLayout(VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL);
+
+            VkAttachmentReference.Buffer colorReference = VkAttachmentReference.calloc(1, stack);
+            colorReference.attachment(0)
+                    .layout(VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL);
+
+            VkSubpassDescription.Buffer subpass = VkSubpassDescription.calloc(1, stack);
+            subpass.pipelineBindPoint(VK_PIPELINE_BIND_POINT_GRAPHICS);
+            subpass.colorAttachmentCount(1);
+            subpass.pColorAttachments(colorReference);
+
+            if (hasDepth) {
+                attachments.get(1)
+                        .format(depthFormat)
+                        .samples(VK_SAMPLE_COUNT_1_BIT)
+                        .loadOp(VK_ATTACHMENT_LOAD_OP_CLEAR)
+                        .storeOp(VK_ATTACHMENT_STORE_OP_DONT_CARE)
+                        .stencilLoadOp(VK_ATTACHMENT_LOAD_OP_DONT_CARE)
+                        .stencilStoreOp(VK_ATTACHMENT_STORE_OP_DONT_CARE)
+                        .initialLayout(VK_IMAGE_LAYOUT_UNDEFINED)
+                        .finalLayout(VK_IMAGE_LAYOUT_DEPTH_STENCIL_ATTACHMENT_OPTIMAL);
+
+                VkAttachmentReference depthReference = VkAttachmentReference.calloc(stack);
+                depthReference.attachment(1)
+                        .layout(VK_IMAGE_LAYOUT_DEPTH_STENCIL_ATTACHMENT_OPTIMAL);
+
+                subpass.pDepthStencilAttachment(depthReference);
+            }
+
+            // The previous frame may still read the image (a copy) or write its depth when this one starts
+            VkSubpassDependency.Buffer dependencies = VkSubpassDependency.calloc(1, stack);
+            dependencies.srcSubpass(VK_SUBPASS_EXTERNAL)
+                    .dstSubpass(0)
+                    .srcStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT | VK_PIPELINE_STAGE_LATE_FRAGMENT_TESTS_BIT | VK_PIPELINE_STAGE_TRANSFER_BIT)
+                    .dstStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT | VK_PIPELINE_STAGE_EARLY_FRAGMENT_TESTS_BIT)
+                    .srcAccessMask(0)
+                    .dstAccessMask(VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT | VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_WRITE_BIT);
+
+            return new VulkanRenderPass(device, attachments, subpass, dependencies);
+        }
+    }
+
+    /**
+     * Creates one framebuffer per image, framebuffer i renders into the images i.
+     *
+     * @param renderPass - Render pass compatible with {@link #createRenderPass(VulkanLogicalDevice)}.
+     */
+    public VulkanFrameBuffer createFrameBuffers(VulkanLogicalDevice device, VulkanRenderPass renderPass) {
+        long[][] attachments = new long[colorViews.length][];
+
+        for (int i = 0; i < colorViews.length; i++) {
+            attachments[i] = depthViews != null ? new long[]{colorViews[i], depthViews[i]} : new long[]{colorViews[i]};
+        }
+
+        return new VulkanFrameBuffer(device, renderPass, extent.width(), extent.height(), attachments);
+    }
+
+    public VkExtent2D getExtent() {
+        return extent;
+    }
+
+    public int getImageCount() {
+        return colorImages.length;
+    }
+
+    public VulkanImage getColorImage(int index) {
+        return colorImages[index];
+    }
+
+    public long getColorView(int index) {
+        return colorViews[index];
+    }
+
+    public int getColorFormat() {
+        return colorFormat;
+    }
+
+    /**
+     * @return Format of the depth images, or VK_FORMAT_UNDEFINED without a depth attachment.
+     */
+    public int getDepthFormat() {
+        return depthFormat;
+    }
+
+    public boolean hasDepth() {
+        return depthImages != null;
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        for (int i = 0; i < colorImages.length; i++) {
+            vkDestroyImageView(device.getVkDevice(), colorViews[i], null);
+            colorImages[i].destroy(device);
+
+            if (depthImages != null) {
+                vkDestroyImageView(device.getVkDevice(), depthViews[i], null);
+                depthImages[i].destroy(device);
+            }
+        }
+
+        extent.free();
+    }
+}
@@ -0,0 +1,187 @@
+package lib;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Records the draws of a render pass on several threads.
+ * <p>
+ * Every worker owns one VulkanCmdPool per frame in flight (command pools can't be used by two threads at once) and
+ * one secondary command buffer allocated from it. A call to {@link #record} splits the draws into contiguous
+ * chunks, one per worker, and every worker records its chunk into its secondary buffer, which inherits the render
+ * pass and framebuffer. The caller then executes all of them from the primary buffer with
+ * {@link #executeCommands(VulkanCommandBuffer)}, in the chunk order, so the draw order is preserved.
+ */
+public class VulkanParallelRecorder implements VulkanResource {
+
+    /**
+     * Records the draws [first, last) into a secondary command buffer. Called on a worker thread.
+     */
+    @FunctionalInterface
+    public interface RecordTask {
+        void record(VulkanCommandBuffer commandBuffer, int first, int last);
+    }
+
+    private final VulkanLogicalDevice device;
+    private final ExecutorService executor;
+
+    private final int workerCount;
+    private final int framesInFlight;
+
+    // [frame][worker]
+    private final VulkanCmdPool[][] commandPools;
+    private final VulkanCommandBuffer[][] secondaryBuffers;
+    private final PointerBuffer[] pSecondaryBuffers;
+
+    private final Future<?>[] pending;
+    private int currentFrame = -1;
+
+    /**
+     * @param devices        - VulkanDevices object. The buffers are recorded for the graphics queue family.
+     * @param workerCount    - Number of recording threads (and of secondary command buffers per frame).
+     * @param framesInFlight - How many frames can be processed at once (Should match the number of VulkanFrames).
+     */
+    public VulkanParallelRecorder(VulkanDevices devices, int workerCount, int framesInFlight) {
+        this.device = devices.getLogicalDevice();
+        this.workerCount = workerCount;
+        this.framesInFlight = framesInFlight;
+
+        int graphicsFamily = devices.getPhysicalDevice().getQueueFamilyIndices().getGraphicsFamily().get();
+
+        commandPools = new VulkanCmdPool[framesInFlight][workerCount];
+        secondaryBuffers = new VulkanCommandBuffer[framesInFlight][workerCount];
+        pSecondaryBuffers = new PointerBuffer[framesInFlight];
+
+        for (int frame = 0; frame < framesInFlight; frame++) {
+            pSecondaryBuffers[frame] = MemoryUtil.memAllocPointer(workerCount);
+
+            for (int worker = 0; worker < workerCount; worker++) {
+                commandPools[frame][worker] = new VulkanCmdPool(device, graphicsFamily, VK_COMMAND_POOL_CREATE_TRANSIENT_BIT);
+                secondaryBuffers[frame][worker] = new VulkanCommandBuffer(device, commandPools[frame][worker], true);
+                pSecondaryBuffers[frame].put(worker, secondaryBuffers[frame][worker].getVkCommandBuffer());
+            }
+        }
+
+        pending = new Future<?>[workerCount];
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "command-recorder-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Records the draws [0, drawCount) of the given frame on all workers and waits until every worker is done.
+     * The fence of the frame has to be signaled, because the command pools of the frame are reset.
+     *
+     * @param frameIndex  - Index of the frame in flight (0 to framesInFlight - 1).
+     * @param renderPass  - Render pass the secondary buffers will be executed in.
+     * @param subpass     - Index of the subpass the secondary buffers will be executed in.
+     * @param framebuffer - VkFramebuffer which is rendered into.
+     * @param drawCount   - Number of draws which are split among the workers.
+     * @param task        - Records a chunk of the draws.
+     */
+    public void record(int frameIndex, VulkanRenderPass renderPass, int subpass, long framebuffer, int drawCount, RecordTask task) {
+        if (frameIndex < 0 || frameIndex >= framesInFlight)
+            throw new IndexOutOfBoundsException(String.format("Frame index %d is out of range! Frames in flight: %d", frameIndex, framesInFlight));
+
+        currentFrame = frameIndex;
+
+        int chunkSize = (drawCount + workerCount - 1) / workerCount;
+
+        for (int worker = 0; worker < workerCount; worker++) {
+            VulkanCmdPool commandPool = commandPools[frameIndex][worker];
+            VulkanCommandBuffer commandBuffer = secondaryBuffers[frameIndex][worker];
+
+            int first = Math.min(worker * chunkSize, drawCount);
+            int last = Math.min(first + chunkSize, drawCount);
+
+            pending[worker] = executor.submit(() -> {
+                // Whatever the task allocates on the stack of the worker is released with the chunk
+                MemoryStack stack = MemoryStack.stackPush();
+                try {
+                    VulkanUtils.check(vkResetCommandPool(device.getVkDevice(), commandPool.pCommandPool, 0));
+
+                    commandBuffer.beginSecondary(renderPass.getRenderPassPtr(), subpass, framebuffer,
+                            VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+
+                    if (first < last)
+                        task.record(commandBuffer, first, last);
+
+                    commandBuffer.endCommandBuffer();
+                } finally {
+                    stack.pop();
+                }
+            });
+        }
+
+        // Every worker has to be done before throwing, the next record() or destroy() would pull the pools away
+        RuntimeException failure = null;
+        boolean interrupted = false;
+
+        for (int worker = 0; worker < workerCount; worker++) {
+            while (true) {
+                try {
+                    pending[worker].get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = new RuntimeException("Failed to record a secondary command buffer", e.getCause());
+                    else
+                        failure.addSuppressed(e.getCause());
+                    break;
+                }
+            }
+
+            pending[worker] = null;
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+
+            if (failure == null)
+                failure = new RuntimeException("Interrupted while recording command buffers");
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Executes the secondary buffers recorded by the last {@link #record} call. The render pass of the primary buffer
+     * has to be begun with VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS.
+     */
+    public void executeCommands(VulkanCommandBuffer primaryBuffer) {
+        if (currentFrame < 0)
+            throw new IllegalStateException("record() has to be called before executing the secondary command buffers!");
+
+        primaryBuffer.executeCommands(pSecondaryBuffers[currentFrame]);
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        executor.shutdownNow();
+
+        for (int frame = 0; frame < framesInFlight; frame++) {
+            // Destroying the pool frees its command buffers too
+            for (int worker = 0; worker < workerCount; worker++)
+                commandPools[frame][worker].destroy(device);
+
+            MemoryUtil.memFree(pSecondaryBuffers[frame]);
+        }
+    }
+}
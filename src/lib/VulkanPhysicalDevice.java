@@ -6,6 +6,7 @@ import org.lwjgl.vulkan.VkPhysicalDevice;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VkPhysicalDeviceMemoryProperties;
+import org.lwjgl.vulkan.VkPhysicalDeviceProperties;
 
 import java.nio.IntBuffer;
 import java.util.ArrayList;
@@ -20,11 +21,19 @@ public class VulkanPhysicalDevice {
     private VkPhysicalDevice vkPhysicalDevice;
     private QueueFamilyIndices queueFamilyIndices;
     private SwapChainSupportDetails swapChainSupportDetails;
+    private VkPhysicalDeviceProperties properties;
 
     final static String[] deviceExtensions = new String[]{
             VK_KHR_SWAPCHAIN_EXTENSION_NAME,
     };
 
+    /**
+     * Offscreen rendering doesn't need any device extension.
+     */
+    final static String[] headlessDeviceExtensions = new String[0];
+
+    private final boolean headless;
+
     public QueueFamilyIndices getQueueFamilyIndices() {
         return queueFamilyIndices;
     }
@@ -37,12 +46,23 @@ public class VulkanPhysicalDevice {
         return swapChainSupportDetails;
     }
 
+    /**
+     * @return Properties of the chosen device (IDs, limits, pipeline cache UUID...)
+     */
+    public VkPhysicalDeviceProperties getProperties() {
+        return properties;
+    }
+
     /**
      * Constructs a VkPhysicalDevice.
      * @param instance - A VulkanInstance object that is needed for discovering the available GPUs (physical devices)
-     * @param surface - A VulkanSurface object that is needed for determining each device's capabilities.
+     * @param surface - A VulkanSurface object that is needed for determining each device's capabilities. Null for
+     *                offscreen rendering, then any device with a graphics queue is suitable and a discrete or
+     *                integrated GPU is preferred over a software rasterizer.
      */
     public VulkanPhysicalDevice(VulkanInstance instance, VulkanSurface surface) {
+        this.headless = surface == null;
+
         try (MemoryStack stack = MemoryStack.stackPush()) {
             IntBuffer deviceCount = stack.mallocInt(1);
 
@@ -60,13 +80,26 @@ public class VulkanPhysicalDevice {
 
             IntBuffer queueFamilyCount = stack.mallocInt(1);
 
+            VkPhysicalDeviceProperties candidateProperties = VkPhysicalDeviceProperties.malloc(stack);
+            int bestRank = -1;
+
             for (int i = 0; i < availablePhysicalDevices.capacity(); i++) {
                 availablePhysicalDevices.position(i);
 
                 device = new VkPhysicalDevice(availablePhysicalDevices.get(i),instance.getVkInstance());
-                QueueFamilyIndices indices = new QueueFamilyIndices(device, surface.getSurfacePtr());
-
-                if (isDeviceSuitable(device, surface, indices)) {
+                QueueFamilyIndices indices = new QueueFamilyIndices(device, headless ? VK_NULL_HANDLE : surface.getSurfacePtr());
+
+                if (headless) {
+                    // A software rasterizer (lavapipe) is often installed next to the GPU, the GPU wins
+                    vkGetPhysicalDeviceProperties(device, candidateProperties);
+                    int rank = rankDeviceType(candidateProperties.deviceType());
+
+                    if (indices.isComplete() && rank > bestRank) {
+                        vkPhysicalDevice = device;
+                        queueFamilyIndices = indices;
+                        bestRank = rank;
+                    }
+                } else if (isDeviceSuitable(device, surface, indices)) {
                     vkPhysicalDevice = device;
                     //TODO: Maybe optimize this further to not call the constructor twice.
                     swapChainSupportDetails = new SwapChainSupportDetails(device,surface);
@@ -78,10 +111,54 @@ public class VulkanPhysicalDevice {
             if (vkPhysicalDevice == null)
                 throw new NullPointerException("Failed to find suitable GPU!");
 
+            properties = VkPhysicalDeviceProperties.malloc();
+            vkGetPhysicalDeviceProperties(vkPhysicalDevice, properties);
+
         }
     }
 
 
+    /**
+     * Frees the device properties, nothing may read them afterwards.
+     */
+    public void destroy() {
+        properties.free();
+    }
+
+    private static int rankDeviceType(int deviceType) {
+        switch (deviceType) {
+            case VK_PHYSICAL_DEVICE_TYPE_DISCRETE_GPU:
+                return 3;
+            case VK_PHYSICAL_DEVICE_TYPE_INTEGRATED_GPU:
+                return 2;
+            case VK_PHYSICAL_DEVICE_TYPE_VIRTUAL_GPU:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return Name of the chosen device.
+     */
+    public String getDeviceName() {
+        return properties.deviceNameString();
+    }
+
+    /**
+     * @return Device extensions the logical device has to enable.
+     */
+    public String[] getRequiredExtensions() {
+        return headless ? headlessDeviceExtensions : deviceExtensions;
+    }
+
+    /**
+     * @return true if the device was chosen without a surface, for offscreen rendering only.
+     */
+    public boolean isHeadless() {
+        return headless;
+    }
+
     private boolean isDeviceSuitable(VkPhysicalDevice physicalDevice, VulkanSurface surface, QueueFamilyIndices indices) {
         try (MemoryStack stack = stackPush()) {
             boolean extensionsSupported = checkDeviceExtensionSupport(physicalDevice);
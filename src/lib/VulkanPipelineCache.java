@@ -0,0 +1,189 @@
+package lib;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkPhysicalDeviceProperties;
+import org.lwjgl.vulkan.VkPipelineCacheCreateInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * A VkPipelineCache which survives application restarts. The cache data is loaded from a file when created and
+ * written back by {@link #save()} (and on {@link #destroy(VulkanLogicalDevice)}).
+ * <p>
+ * The data is used only if its header matches the vendor ID, device ID and pipeline cache UUID of the current
+ * physical device. Data of another GPU or another driver version is discarded.
+ */
+public class VulkanPipelineCache implements VulkanResource {
+
+    public static final Path DEFAULT_FILE = Paths.get(".cache", "pipeline_cache.bin");
+
+    /**
+     * Size of the VK_PIPELINE_CACHE_HEADER_VERSION_ONE header: length, version, vendorID, deviceID and UUID.
+     */
+    private static final int HEADER_SIZE = 16 + VK_UUID_SIZE;
+
+    private final VulkanLogicalDevice logicalDevice;
+    private final Path file;
+    private long pipelineCachePtr;
+
+    private boolean loadedFromFile = false;
+
+    /**
+     * @param devices - Devices the cache belongs to.
+     * @param file    - File the cache data is read from and saved to.
+     */
+    public VulkanPipelineCache(VulkanDevices devices, Path file) {
+        this.logicalDevice = devices.getLogicalDevice();
+        this.file = file;
+
+        ByteBuffer initialData = readValidData(devices.getPhysicalDevice().getProperties());
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkPipelineCacheCreateInfo createInfo = VkPipelineCacheCreateInfo.calloc(stack);
+            createInfo.sType$Default();
+
+            if (initialData != null) {
+                createInfo.pInitialData(initialData);
+                loadedFromFile = true;
+            }
+
+            LongBuffer pPipelineCache = stack.mallocLong(1);
+            VulkanUtils.check(vkCreatePipelineCache(logicalDevice.getVkDevice(), createInfo, null, pPipelineCache));
+
+            pipelineCachePtr = pPipelineCache.get(0);
+        } finally {
+            if (initialData != null)
+                MemoryUtil.memFree(initialData);
+        }
+    }
+
+    /**
+     * Reads the cache file and validates its header.
+     *
+     * @return The data in native memory or null if the file doesn't exist or belongs to another device.
+     */
+    private ByteBuffer readValidData(VkPhysicalDeviceProperties properties) {
+        if (!Files.isRegularFile(file))
+            return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+                return null;
+
+            ByteBuffer data = MemoryUtil.memAlloc((int) channel.size());
+
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0)
+                    break;
+            }
+            data.flip();
+
+            if (!isHeaderValid(data, properties)) {
+                System.err.format("Pipeline cache %s doesn't match the current device, discarding it.\n", file);
+                MemoryUtil.memFree(data);
+                return null;
+            }
+
+            return data;
+        } catch (IOException e) {
+            System.err.format("Failed to read the pipeline cache %s: %s\n", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isHeaderValid(ByteBuffer data, VkPhysicalDeviceProperties properties) {
+        // The header is written by the driver in the native byte order
+        ByteBuffer header = data.duplicate().order(ByteOrder.nativeOrder());
+
+        int headerLength = header.getInt(0);
+        int headerVersion = header.getInt(4);
+        int vendorID = header.getInt(8);
+        int deviceID = header.getInt(12);
+
+        if (headerLength < HEADER_SIZE || headerLength > data.limit())
+            return false;
+
+        if (headerVersion != VK_PIPELINE_CACHE_HEADER_VERSION_ONE)
+            return false;
+
+        if (vendorID != properties.vendorID() || deviceID != properties.deviceID())
+            return false;
+
+        ByteBuffer uuid = properties.pipelineCacheUUID();
+        for (int i = 0; i < VK_UUID_SIZE; i++) {
+            if (header.get(16 + i) != uuid.get(i))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the current content of the cache into the file. The file is replaced atomically.
+     */
+    public void save() {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            PointerBuffer pDataSize = stack.mallocPointer(1);
+            VulkanUtils.check(vkGetPipelineCacheData(logicalDevice.getVkDevice(), pipelineCachePtr, pDataSize, null));
+
+            ByteBuffer data = MemoryUtil.memAlloc((int) pDataSize.get(0));
+
+            try {
+                VulkanUtils.check(vkGetPipelineCacheData(logicalDevice.getVkDevice(), pipelineCachePtr, pDataSize, data));
+                data.limit((int) pDataSize.get(0));
+
+                if (file.getParent() != null)
+                    Files.createDirectories(file.getParent());
+
+                Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    while (data.hasRemaining()) {
+                        channel.write(data);
+                    }
+                }
+
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.format("Failed to save the pipeline cache %s: %s\n", file, e.getMessage());
+            } finally {
+                MemoryUtil.memFree(data);
+            }
+        }
+    }
+
+    public long getPipelineCachePtr() {
+        return pipelineCachePtr;
+    }
+
+    /**
+     * @return true if the cache was filled with valid data from the file.
+     */
+    public boolean isLoadedFromFile() {
+        return loadedFromFile;
+    }
+
+    /**
+     * Saves the cache into the file and destroys it.
+     */
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        save();
+
+        vkDestroyPipelineCache(device.getVkDevice(), pipelineCachePtr, null);
+        pipelineCachePtr = VK_NULL_HANDLE;
+    }
+}
@@ -0,0 +1,147 @@
+package lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deduplicating store of graphics pipelines.
+ * <p>
+ * Pipelines are keyed by their {@link PipelineStateKey}, so asking for a pipeline whose state matches an already
+ * created (or currently being created) one returns the existing pipeline instead of compiling a new one. Distinct
+ * pipelines can be created in parallel on worker threads, all of them sharing the same {@link VulkanPipelineCache}
+ * (a VkPipelineCache is internally synchronized).
+ * <p>
+ * The shader modules of the pipelines passed in are not destroyed, since they may be shared between pipelines. They
+ * stay owned by the caller.
+ */
+public class VulkanPipelineLibrary implements VulkanResource {
+
+    private final VulkanLogicalDevice logicalDevice;
+    private final VulkanPipelineCache pipelineCache;
+    private final ExecutorService executor;
+
+    private final ConcurrentHashMap<PipelineStateKey, CompletableFuture<VulkanGraphicsPipeline>> pipelines = new ConcurrentHashMap<>();
+
+    /**
+     * @param devices     - Devices the pipelines are created on. Their shared pipeline cache is used.
+     * @param threadCount - How many pipelines can be created at once.
+     */
+    public VulkanPipelineLibrary(VulkanDevices devices, int threadCount) {
+        this.logicalDevice = devices.getLogicalDevice();
+        this.pipelineCache = devices.getPipelineCache();
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "pipeline-compiler-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns a pipeline with the state of the given one, creating it on the calling thread if no such pipeline
+     * exists yet. If it already exists, the given pipeline is discarded.
+     *
+     * @param pipeline   - Fully set up (but not initialized) pipeline.
+     * @param renderPass - Render pass the pipeline will be used with.
+     */
+    public VulkanGraphicsPipeline getOrCreate(VulkanGraphicsPipeline pipeline, VulkanRenderPass renderPass) {
+        PipelineStateKey key = pipeline.getStateKey(renderPass);
+        CompletableFuture<VulkanGraphicsPipeline> created = new CompletableFuture<>();
+        CompletableFuture<VulkanGraphicsPipeline> existing = claim(key, pipeline, created);
+
+        if (existing != null)
+            return existing.join();
+
+        initialize(key, pipeline, renderPass, created);
+        return created.join();
+    }
+
+    /**
+     * Creates every distinct pipeline of the list in parallel. Pipelines whose state matches an existing pipeline
+     * (or another pipeline of the list) are discarded and resolve to the existing one.
+     *
+     * @param pipelines  - Fully set up (but not initialized) pipelines.
+     * @param renderPass - Render pass the pipelines will be used with.
+     * @return Futures in the same order as the given pipelines.
+     */
+    public List<CompletableFuture<VulkanGraphicsPipeline>> createAll(List<VulkanGraphicsPipeline> pipelines, VulkanRenderPass renderPass) {
+        List<CompletableFuture<VulkanGraphicsPipeline>> futures = new ArrayList<>(pipelines.size());
+
+        for (VulkanGraphicsPipeline pipeline : pipelines) {
+            PipelineStateKey key = pipeline.getStateKey(renderPass);
+            CompletableFuture<VulkanGraphicsPipeline> created = new CompletableFuture<>();
+            CompletableFuture<VulkanGraphicsPipeline> existing = claim(key, pipeline, created);
+
+            if (existing != null) {
+                futures.add(existing);
+                continue;
+            }
+
+            executor.execute(() -> initialize(key, pipeline, renderPass, created));
+            futures.add(created);
+        }
+
+        return futures;
+    }
+
+    /**
+     * Registers the future under the key of the pipeline.
+     *
+     * @return The future of the identical pipeline, or null if the caller is the one who has to create it.
+     */
+    private CompletableFuture<VulkanGraphicsPipeline> claim(PipelineStateKey key, VulkanGraphicsPipeline pipeline,
+                                                           CompletableFuture<VulkanGraphicsPipeline> created) {
+        CompletableFuture<VulkanGraphicsPipeline> existing = pipelines.putIfAbsent(key, created);
+
+        if (existing != null)
+            pipeline.discard();
+
+        return existing;
+    }
+
+    private void initialize(PipelineStateKey key, VulkanGraphicsPipeline pipeline, VulkanRenderPass renderPass,
+                            CompletableFuture<VulkanGraphicsPipeline> created) {
+        try {
+            pipeline.setReleaseShaderModules(false);
+            pipeline.initializePipeline(logicalDevice, renderPass, pipelineCache);
+            created.complete(pipeline);
+        } catch (Throwable e) {
+            // The waiting callers get the failure, the next request for the state tries again
+            pipelines.remove(key, created);
+            created.completeExceptionally(e);
+            pipeline.discard();
+
+            // Exceptions reach the callers through the future, errors also have to reach the worker thread
+            if (e instanceof Error error)
+                throw error;
+        }
+    }
+
+    /**
+     * @return How many distinct pipelines the library holds.
+     */
+    public int size() {
+        return pipelines.size();
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (CompletableFuture<VulkanGraphicsPipeline> pipeline : pipelines.values()) {
+            if (pipeline.isDone() && !pipeline.isCompletedExceptionally())
+                pipeline.join().destroy(device);
+        }
+
+        pipelines.clear();
+    }
+}
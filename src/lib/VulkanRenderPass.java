@@ -9,9 +9,10 @@ import java.util.List;
 
 import static org.lwjgl.system.MemoryUtil.NULL;
 import static org.lwjgl.vulkan.VK10.vkCreateRenderPass;
+import static org.lwjgl.vulkan.VK10.vkDestroyRenderPass;
 import static org.lwjgl.vulkan.VK12.vkCreateRenderPass2;
 
-public class VulkanRenderPass {
+public class VulkanRenderPass implements VulkanResource {
 
 
     private long renderPassPtr;
@@ -89,4 +90,9 @@ public class VulkanRenderPass {
     public long getRenderPassPtr() {
         return renderPassPtr;
     }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        vkDestroyRenderPass(device.getVkDevice(), renderPassPtr, null);
+    }
 }
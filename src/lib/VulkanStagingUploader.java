@@ -0,0 +1,397 @@
+package lib;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkCommandBufferBeginInfo;
+import org.lwjgl.vulkan.VkSubmitInfo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+import static org.lwjgl.util.vma.Vma.*;
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Uploads data into device local buffers through a persistently mapped ring of staging memory.
+ * <p>
+ * Unlike {@link VulkanDevices#copyBuffer(VulkanBuffers.Buffer, VulkanBuffers.Buffer, long)}, which submits and waits
+ * for the whole queue after every copy, many copies are recorded into a single command buffer (a batch). The batch is
+ * submitted with a fence once it is flushed (or once it runs out of staging memory), and its staging memory is
+ * recycled after the fence signals. Every upload returns a future which is completed when its batch has retired.
+ * <p>
+ * The end of every batch contains a memory barrier, so buffers can be used by any later submission on the same
+ * queue without waiting for the future on the CPU.
+ * <p>
+ * If the GPU has a dedicated transfer queue family, the copies run on it, in parallel with the rendering. Every copied
+ * range is then released by the transfer family and acquired by the graphics family in a small command buffer
+ * which the graphics queue executes after a semaphore signaled by the transfer submission.
+ */
+public class VulkanStagingUploader implements VulkanResource {
+
+    /**
+     * Alignment of every copy inside the staging ring.
+     */
+    private static final long STAGING_ALIGNMENT = 16L;
+
+    private static final long UINT64_MAX = 0xFFFFFFFFFFFFFFFFL;
+
+    private static class Batch {
+        VulkanCommandBuffer commandBuffer;
+        VulkanFence fence;
+
+        /**
+         * Only used with a dedicated transfer queue. Acquires the ownership of the copied ranges on the graphics queue.
+         */
+        VulkanCommandBuffer acquireCommandBuffer;
+        VulkanSemaphore transferSemaphore;
+
+        CompletableFuture<Void> future;
+
+        /**
+         * Position in the ring (monotonic, not wrapped) which is released when this batch retires.
+         */
+        long ringEnd;
+    }
+
+    private final VulkanLogicalDevice logicalDevice;
+    private final VulkanCmdPool cmdPool;
+    private VulkanCmdPool acquireCmdPool;
+
+    private final boolean useTransferQueue;
+    private final int graphicsFamily;
+    private final int transferFamily;
+
+    private final VulkanBuffers.Buffer stagingBuffer;
+    private final long capacity;
+
+    /**
+     * Monotonically growing positions of the ring. head - tail is the amount of staging memory in use.
+     */
+    private long head = 0L;
+    private long tail = 0L;
+
+    private final ArrayDeque<Batch> freeBatches = new ArrayDeque<>();
+    private final ArrayDeque<Batch> inFlightBatches = new ArrayDeque<>();
+    private Batch currentBatch;
+
+    private int submitCount = 0;
+
+    /**
+     * Creates the uploader and its staging ring. The dedicated transfer queue is used if the GPU has one.
+     *
+     * @param devices       - VulkanDevices object which owns the VMA allocator.
+     * @param stagingSize   - Size of the staging ring in bytes. Uploads larger than that are split into chunks.
+     * @param maxBatches    - How many batches can be in flight at once.
+     */
+    public VulkanStagingUploader(VulkanDevices devices, long stagingSize, int maxBatches) {
+        this(devices, stagingSize, maxBatches, true);
+    }
+
+    /**
+     * Creates the uploader and its staging ring.
+     *
+     * @param devices          - VulkanDevices object which owns the VMA allocator.
+     * @param stagingSize      - Size of the staging ring in bytes. Uploads larger than that are split into chunks.
+     * @param maxBatches       - How many batches can be in flight at once.
+     * @param useTransferQueue - Whether the copies should run on the dedicated transfer queue (if there is one).
+     */
+    public VulkanStagingUploader(VulkanDevices devices, long stagingSize, int maxBatches, boolean useTransferQueue) {
+        this.logicalDevice = devices.getLogicalDevice();
+        this.capacity = stagingSize;
+
+        QueueFamilyIndices indices = devices.getPhysicalDevice().getQueueFamilyIndices();
+
+        this.useTransferQueue = useTransferQueue && indices.hasDedicatedTransferFamily();
+        this.graphicsFamily = indices.getGraphicsFamily().get();
+        this.transferFamily = this.useTransferQueue ? indices.getTransferFamily().get() : graphicsFamily;
+
+        cmdPool = new VulkanCmdPool(logicalDevice, transferFamily,
+                VK_COMMAND_POOL_CREATE_TRANSIENT_BIT | VK_COMMAND_POOL_CREATE_RESET_COMMAND_BUFFER_BIT);
+
+        if (this.useTransferQueue) {
+            acquireCmdPool = new VulkanCmdPool(logicalDevice, graphicsFamily,
+                    VK_COMMAND_POOL_CREATE_TRANSIENT_BIT | VK_COMMAND_POOL_CREATE_RESET_COMMAND_BUFFER_BIT);
+        }
+
+        stagingBuffer = devices.getVma().createMappedBuffer(VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK_SHARING_MODE_EXCLUSIVE,
+                VMA_MEMORY_USAGE_CPU_ONLY, stagingSize);
+
+        for (int i = 0; i < maxBatches; i++) {
+            Batch batch = new Batch();
+            batch.commandBuffer = new VulkanCommandBuffer(logicalDevice, cmdPool, false);
+            batch.fence = new VulkanFence(logicalDevice);
+
+            if (this.useTransferQueue) {
+                batch.acquireCommandBuffer = new VulkanCommandBuffer(logicalDevice, acquireCmdPool, false);
+                batch.transferSemaphore = new VulkanSemaphore(logicalDevice);
+            }
+
+            freeBatches.add(batch);
+        }
+    }
+
+    /**
+     * Schedules an upload of the remaining bytes of the source buffer into the destination buffer.
+     *
+     * @param srcData   - Data to upload. Its position is not altered.
+     * @param dstBuffer - Device local buffer created with VK_BUFFER_USAGE_TRANSFER_DST_BIT.
+     * @param dstOffset - Offset in the destination buffer in bytes.
+     * @return A future completed once the copy has finished on the GPU.
+     */
+    public CompletableFuture<Void> upload(ByteBuffer srcData, VulkanBuffers.Buffer dstBuffer, long dstOffset) {
+        return upload(srcData, dstBuffer.pBuffer, dstOffset);
+    }
+
+    /**
+     * Schedules an upload of the remaining bytes of the source buffer into the buffer view.
+     */
+    public CompletableFuture<Void> upload(ByteBuffer srcData, VulkanBuffers.BufferView dstView) {
+        if (srcData.remaining() > dstView.size)
+            throw new IllegalArgumentException(String.format("Data (%d bytes) doesn't fit into the buffer view (%d bytes)!",
+                    srcData.remaining(), dstView.size));
+
+        return upload(srcData, dstView.pBuffer, dstView.offset);
+    }
+
+    /**
+     * Schedules an upload of the remaining bytes of the source buffer.
+     *
+     * @param srcData   - Data to upload. Its position is not altered.
+     * @param dstBuffer - VkBuffer handle created with VK_BUFFER_USAGE_TRANSFER_DST_BIT.
+     * @param dstOffset - Offset in the destination buffer in bytes.
+     * @return A future completed once the copy has finished on the GPU.
+     */
+    public CompletableFuture<Void> upload(ByteBuffer srcData, long dstBuffer, long dstOffset) {
+        long srcAddress = MemoryUtil.memAddress(srcData);
+        long size = srcData.remaining();
+
+        if (size == 0)
+            return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> future = null;
+        long uploaded = 0L;
+
+        // Anything larger than the ring has to go in several chunks, each of them possibly in a different batch.
+        while (uploaded < size) {
+            long chunk = Math.min(size - uploaded, capacity);
+
+            CompletableFuture<Void> chunkFuture = uploadChunk(srcAddress + uploaded, dstBuffer, dstOffset + uploaded, chunk);
+            future = future == null || future == chunkFuture ? chunkFuture : CompletableFuture.allOf(future, chunkFuture);
+
+            uploaded += chunk;
+        }
+
+        return future;
+    }
+
+    private CompletableFuture<Void> uploadChunk(long srcAddress, long dstBuffer, long dstOffset, long size) {
+        long stagingOffset = reserve(size);
+
+        MemoryUtil.memCopy(srcAddress, stagingBuffer.pMappedData + stagingOffset, size);
+        vmaFlushAllocation(stagingBuffer.pAllocator, stagingBuffer.pAllocation, stagingOffset, size);
+
+        Batch batch = getRecordingBatch();
+        batch.commandBuffer.copyBuffer(stagingBuffer.pBuffer, stagingOffset, dstBuffer, dstOffset, size);
+        batch.ringEnd = head;
+
+        if (useTransferQueue) {
+            // Release on the transfer queue ...
+            batch.commandBuffer.bufferBarrier(dstBuffer, dstOffset, size, transferFamily, graphicsFamily,
+                    VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT, VK_ACCESS_TRANSFER_WRITE_BIT, 0);
+
+            // ... and acquire on the graphics queue.
+            batch.acquireCommandBuffer.bufferBarrier(dstBuffer, dstOffset, size, transferFamily, graphicsFamily,
+                    VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT, VK_PIPELINE_STAGE_ALL_COMMANDS_BIT, 0, VK_ACCESS_MEMORY_READ_BIT);
+        }
+
+        return batch.future;
+    }
+
+    /**
+     * Reserves a range of the staging ring, waiting for older batches to retire if there isn't enough space.
+     *
+     * @return wrapped offset inside the staging buffer.
+     */
+    private long reserve(long size) {
+        while (true) {
+            long position = FreeListAllocator.alignUp(head, STAGING_ALIGNMENT);
+            long wrapped = position % capacity;
+
+            // The range can't wrap around the end of the buffer, skip the rest of the buffer in that case.
+            if (wrapped + size > capacity) {
+                position += capacity - wrapped;
+                wrapped = 0L;
+            }
+
+            if (position + size - tail <= capacity) {
+                head = position + size;
+                return wrapped;
+            }
+
+            // Not enough space, the current batch has to go and the oldest one has to finish.
+            if (currentBatch != null)
+                flush();
+
+            if (inFlightBatches.isEmpty())
+                throw new IllegalStateException("Staging ring is full, but no batch is in flight!");
+
+            retireOldest(true);
+        }
+    }
+
+    private Batch getRecordingBatch() {
+        if (currentBatch != null)
+            return currentBatch;
+
+        if (freeBatches.isEmpty()) {
+            poll();
+
+            if (freeBatches.isEmpty())
+                retireOldest(true);
+        }
+
+        Batch batch = freeBatches.poll();
+        batch.future = new CompletableFuture<>();
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc(stack);
+            beginInfo.sType$Default();
+            beginInfo.flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+
+            batch.commandBuffer.beginCommandBuffer(beginInfo);
+
+            if (useTransferQueue)
+                batch.acquireCommandBuffer.beginCommandBuffer(beginInfo);
+        }
+
+        currentBatch = batch;
+        return batch;
+    }
+
+    /**
+     * Submits the batch which is currently being recorded. Doesn't wait for anything.
+     */
+    public void flush() {
+        if (currentBatch == null)
+            return;
+
+        Batch batch = currentBatch;
+        currentBatch = null;
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack);
+            submitInfo.sType$Default();
+            submitInfo.pCommandBuffers(stack.pointers(batch.commandBuffer.getVkCommandBuffer()));
+
+            if (useTransferQueue) {
+                batch.commandBuffer.endCommandBuffer();
+                batch.acquireCommandBuffer.endCommandBuffer();
+
+                submitInfo.pSignalSemaphores(stack.longs(batch.transferSemaphore.getSemaphorePtr()));
+
+                if (vkQueueSubmit(logicalDevice.getTransferQueue(), submitInfo, VK_NULL_HANDLE) != VK_SUCCESS) {
+                    throw new RuntimeException("Failed to submit upload command buffer");
+                }
+
+                VkSubmitInfo acquireInfo = VkSubmitInfo.calloc(stack);
+                acquireInfo.sType$Default();
+                acquireInfo.waitSemaphoreCount(1);
+                acquireInfo.pWaitSemaphores(stack.longs(batch.transferSemaphore.getSemaphorePtr()));
+                acquireInfo.pWaitDstStageMask(stack.ints(VK_PIPELINE_STAGE_ALL_COMMANDS_BIT));
+                acquireInfo.pCommandBuffers(stack.pointers(batch.acquireCommandBuffer.getVkCommandBuffer()));
+
+                if (vkQueueSubmit(logicalDevice.getGraphicsQueue(), acquireInfo, batch.fence.getFencePtr()) != VK_SUCCESS) {
+                    throw new RuntimeException("Failed to submit ownership acquire command buffer");
+                }
+            } else {
+                // Make the copies visible to whatever reads the buffers later on the same queue.
+                batch.commandBuffer.memoryBarrier(VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_ALL_COMMANDS_BIT,
+                        VK_ACCESS_TRANSFER_WRITE_BIT, VK_ACCESS_MEMORY_READ_BIT);
+                batch.commandBuffer.endCommandBuffer();
+
+                if (vkQueueSubmit(logicalDevice.getGraphicsQueue(), submitInfo, batch.fence.getFencePtr()) != VK_SUCCESS) {
+                    throw new RuntimeException("Failed to submit upload command buffer");
+                }
+            }
+        }
+
+        submitCount++;
+        inFlightBatches.add(batch);
+    }
+
+    /**
+     * Retires every batch whose fence has already signaled. Completes their futures and recycles their staging
+     * memory. Never blocks.
+     */
+    public void poll() {
+        while (!inFlightBatches.isEmpty()) {
+            if (vkGetFenceStatus(logicalDevice.getVkDevice(), inFlightBatches.peek().fence.getFencePtr()) != VK_SUCCESS)
+                return;
+
+            retireOldest(false);
+        }
+    }
+
+    /**
+     * Submits the current batch and blocks until every upload has finished.
+     */
+    public void flushAndWait() {
+        flush();
+
+        while (!inFlightBatches.isEmpty()) {
+            retireOldest(true);
+        }
+    }
+
+    private void retireOldest(boolean wait) {
+        Batch batch = inFlightBatches.poll();
+
+        if (wait)
+            VulkanUtils.check(vkWaitForFences(logicalDevice.getVkDevice(), batch.fence.getFencePtr(), true, UINT64_MAX));
+
+        VulkanUtils.check(vkResetFences(logicalDevice.getVkDevice(), batch.fence.getFencePtr()));
+        batch.commandBuffer.reset();
+
+        if (useTransferQueue)
+            batch.acquireCommandBuffer.reset();
+
+        tail = batch.ringEnd;
+
+        freeBatches.add(batch);
+        batch.future.complete(null);
+    }
+
+    /**
+     * @return How many batches have been submitted so far.
+     */
+    public int getSubmitCount() {
+        return submitCount;
+    }
+
+    /**
+     * @return How many bytes of the staging ring are currently waiting for their batch to retire.
+     */
+    public long getStagingBytesInUse() {
+        return head - tail;
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        flushAndWait();
+
+        for (Batch batch : freeBatches) {
+            batch.fence.destroy(device);
+
+            if (batch.transferSemaphore != null)
+                batch.transferSemaphore.destroy(device);
+        }
+
+        freeBatches.clear();
+        cmdPool.destroy(device);
+
+        if (acquireCmdPool != null)
+            acquireCmdPool.destroy(device);
+        stagingBuffer.destroy(device);
+    }
+}
@@ -0,0 +1,178 @@
+package lib;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.lwjgl.vulkan.VK10.*;
+import static org.lwjgl.vulkan.VK12.*;
+
+/**
+ * A monotonically increasing GPU timeline of a single queue, backed by a Vulkan 1.2 timeline semaphore.
+ * <p>
+ * Every submit to the queue reserves the next value with {@link #next()} and signals it when the GPU is done with
+ * the submit. Values are retired in order, so "has the work of value N finished" is simply
+ * {@code completedValue >= N}. The completed value is cached and refreshed only by {@link #poll()} and
+ * {@link #waitFor(long)}, which means {@link #isRetired(long)} never calls into the driver and can be used freely by
+ * any subsystem that recycles memory (staging ranges, deferred destruction, query readback...).
+ * <p>
+ * The values have to be signaled in the order they were reserved, so the submits of one timeline should be made
+ * from a single thread.
+ */
+public class VulkanTimeline implements VulkanResource {
+
+    private static final long UINT64_MAX = 0xFFFFFFFFFFFFFFFFL;
+
+    private final VkDevice device;
+    private final VkQueue queue;
+    private final long pSemaphore;
+
+    private final AtomicLong lastSubmittedValue = new AtomicLong();
+    private volatile long completedValue = 0L;
+
+    /**
+     * Creates a timeline which starts at 0.
+     *
+     * @param device - A VulkanLogicalDevice object. Timeline semaphores have to be supported.
+     * @param queue  - The queue whose submits signal the timeline.
+     */
+    public VulkanTimeline(VulkanLogicalDevice device, VkQueue queue) {
+        if (!device.isTimelineSemaphoreSupported())
+            throw new UnsupportedOperationException("Timeline semaphores aren't supported by the device!");
+
+        this.device = device.getVkDevice();
+        this.queue = queue;
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkSemaphoreTypeCreateInfo typeCreateInfo = VkSemaphoreTypeCreateInfo.calloc(stack);
+            typeCreateInfo.sType$Default();
+            typeCreateInfo.semaphoreType(VK_SEMAPHORE_TYPE_TIMELINE);
+            typeCreateInfo.initialValue(0L);
+
+            VkSemaphoreCreateInfo createInfo = VkSemaphoreCreateInfo.calloc(stack);
+            createInfo.sType$Default();
+            createInfo.pNext(typeCreateInfo.address());
+
+            LongBuffer pSemaphore = stack.mallocLong(1);
+
+            VulkanUtils.check(vkCreateSemaphore(this.device, createInfo, null, pSemaphore));
+            this.pSemaphore = pSemaphore.get(0);
+        }
+    }
+
+    /**
+     * Reserves the value the next submit to the queue will signal. Every caller gets a different value, even from
+     * several threads.
+     */
+    public long next() {
+        return lastSubmittedValue.incrementAndGet();
+    }
+
+    /**
+     * Submits a command buffer which signals the given value of the timeline once they are executed.
+     *
+     * @param commandBuffer - Command buffer to execute.
+     * @param signalValue   - Value reserved by {@link #next()}.
+     */
+    public void submit(VkCommandBuffer commandBuffer, long signalValue) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkTimelineSemaphoreSubmitInfo timelineInfo = VkTimelineSemaphoreSubmitInfo.calloc(stack);
+            timelineInfo.sType$Default();
+            timelineInfo.pSignalSemaphoreValues(stack.longs(signalValue));
+
+            VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack);
+            submitInfo.sType$Default();
+            submitInfo.pNext(timelineInfo.address());
+            submitInfo.pCommandBuffers(stack.pointers(commandBuffer));
+            submitInfo.pSignalSemaphores(stack.longs(pSemaphore));
+
+            if (vkQueueSubmit(queue, submitInfo, VK_NULL_HANDLE) != VK_SUCCESS) {
+                throw new RuntimeException("Failed to submit command buffer");
+            }
+        }
+    }
+
+    /**
+     * @return true if the GPU has finished the work which signals the given value, as of the last
+     * {@link #poll()} or {@link #waitFor(long)}. Doesn't call into the driver.
+     */
+    public boolean isRetired(long value) {
+        return value <= completedValue;
+    }
+
+    /**
+     * Reads the current value of the semaphore and caches it. Meant to be called once per frame.
+     *
+     * @return The completed value.
+     */
+    public long poll() {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            LongBuffer pValue = stack.mallocLong(1);
+            VulkanUtils.check(vkGetSemaphoreCounterValue(device, pSemaphore, pValue));
+            updateCompleted(pValue.get(0));
+        }
+
+        return completedValue;
+    }
+
+    /**
+     * Blocks until the given value has been signaled. Returns immediately if it is already known to be retired.
+     */
+    public void waitFor(long value) {
+        if (isRetired(value))
+            return;
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkSemaphoreWaitInfo waitInfo = VkSemaphoreWaitInfo.calloc(stack);
+            waitInfo.sType$Default();
+            waitInfo.semaphoreCount(1);
+            waitInfo.pSemaphores(stack.longs(pSemaphore));
+            waitInfo.pValues(stack.longs(value));
+
+            VulkanUtils.check(vkWaitSemaphores(device, waitInfo, UINT64_MAX));
+        }
+
+        updateCompleted(value);
+    }
+
+    /**
+     * Waits until all of the reserved values have been signaled.
+     */
+    public void waitIdle() {
+        waitFor(lastSubmittedValue.get());
+    }
+
+    public long getSemaphorePtr() {
+        return pSemaphore;
+    }
+
+    public VkQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * @return The last value reserved by {@link #next()}.
+     */
+    public long getLastSubmittedValue() {
+        return lastSubmittedValue.get();
+    }
+
+    /**
+     * @return The cached completed value.
+     */
+    public long getCompletedValue() {
+        return completedValue;
+    }
+
+    private synchronized void updateCompleted(long value) {
+        if (value > completedValue)
+            completedValue = value;
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        vkDestroySemaphore(device.getVkDevice(), pSemaphore, null);
+    }
+}
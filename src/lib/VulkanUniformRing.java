@@ -0,0 +1,116 @@
+package lib;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Per-draw uniform data in a shared per-frame {@link VulkanFrameRingBuffer}, read through a single
+ * VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC descriptor. The descriptor is written once, every draw only binds the set
+ * with a different dynamic offset, so per-draw data costs no descriptor update:
+ * <pre>{@code
+ * long set = descriptors.getSet(layout, writer.clear().buffer(0, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC,
+ *         uniforms.getBuffer(), 0L, uniforms.getBlockSize()));
+ * ...
+ * int offset = uniforms.allocate();
+ * transform.getToAddress(uniforms.getAddress(offset));
+ * commandBuffer.bindDescriptorSet(VK_PIPELINE_BIND_POINT_GRAPHICS, pipelineLayout, 1, set, offset);
+ * }</pre>
+ * Every allocation is one block aligned to minUniformBufferOffsetAlignment, so the descriptor range never reaches
+ * past the partition of the frame.
+ */
+public class VulkanUniformRing implements VulkanResource {
+
+    private final VulkanFrameRingBuffer ringBuffer;
+    private final int blockSize;
+    private final long alignment;
+
+    /**
+     * @param devices        - VulkanDevices object which owns the VMA allocator.
+     * @param framesInFlight - How many frames can be processed at once.
+     * @param blockSize      - Size of the uniform block in the shader, the range of the descriptor.
+     * @param blocksPerFrame - How many blocks fit into a single frame.
+     */
+    public VulkanUniformRing(VulkanDevices devices, int framesInFlight, int blockSize, int blocksPerFrame) {
+        int maxRange = devices.getPhysicalDevice().getProperties().limits().maxUniformBufferRange();
+
+        if (blockSize > maxRange)
+            throw new IllegalArgumentException(String.format("Uniform block (%d bytes) exceeds maxUniformBufferRange (%d bytes)!", blockSize, maxRange));
+
+        this.blockSize = blockSize;
+        this.alignment = devices.getPhysicalDevice().getProperties().limits().minUniformBufferOffsetAlignment();
+
+        long alignedBlock = FreeListAllocator.alignUp(blockSize, alignment);
+        ringBuffer = new VulkanFrameRingBuffer(devices, VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT, framesInFlight,
+                alignedBlock * blocksPerFrame);
+    }
+
+    /**
+     * Starts writing the blocks of a frame. The caller guarantees the GPU is done with the previous submit of the frame.
+     */
+    public void beginFrame(int frameIndex) {
+        ringBuffer.beginFrame(frameIndex);
+    }
+
+    /**
+     * Waits until the last submit of the frame has been retired on the timeline, then starts writing the blocks.
+     */
+    public void beginFrame(int frameIndex, VulkanTimeline timeline, long retireValue) {
+        ringBuffer.beginFrame(frameIndex, timeline, retireValue);
+    }
+
+    /**
+     * Reserves a block in the current frame.
+     *
+     * @return The dynamic offset of the block, to be passed when the set is bound.
+     */
+    public int allocate() {
+        return (int) ringBuffer.allocate(blockSize, alignment);
+    }
+
+    /**
+     * Reserves a block and copies the remaining bytes of the buffer into it.
+     *
+     * @return The dynamic offset of the block.
+     */
+    public int write(ByteBuffer data) {
+        if (data.remaining() > blockSize)
+            throw new IllegalArgumentException(String.format("Data (%d bytes) doesn't fit into the uniform block (%d bytes)!", data.remaining(), blockSize));
+
+        int offset = allocate();
+        MemoryUtil.memCopy(MemoryUtil.memAddress(data), getAddress(offset), data.remaining());
+        return offset;
+    }
+
+    /**
+     * @return CPU address of the block, which can be written with MemoryUtil or JOML's getToAddress.
+     */
+    public long getAddress(int offset) {
+        return ringBuffer.getAddress(offset);
+    }
+
+    /**
+     * Makes the blocks of the current frame visible to the GPU. Has to be called before the frame is submitted.
+     */
+    public void endFrame() {
+        ringBuffer.endFrame();
+    }
+
+    /**
+     * @return VkBuffer handle for the dynamic descriptor, bound at offset 0 with the range of {@link #getBlockSize()}.
+     */
+    public long getBuffer() {
+        return ringBuffer.getBuffer().pBuffer;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public void destroy(VulkanLogicalDevice device) {
+        ringBuffer.destroy(device);
+    }
+}
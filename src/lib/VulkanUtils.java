@@ -26,6 +26,12 @@ public class VulkanUtils {
 
 
     public static boolean enableValidationLayers = true;
+
+    /**
+     * Opt-in descriptor indexing (Vulkan 1.2) for {@link VulkanBindlessTable}. Has to be set before the logical device
+     * is created.
+     */
+    public static boolean enableBindlessResources = false;
     final private static VkPhysicalDeviceFeatures gpuFeatures = VkPhysicalDeviceFeatures.malloc();
 
 
@@ -63,6 +69,14 @@ public class VulkanUtils {
         return true;
     }
 
+    /**
+     * Reads a uint32 device limit (LWJGL returns it as a Java int) clamped to Integer.MAX_VALUE. Drivers commonly
+     * report UINT32_MAX as "unlimited", which would turn into -1 otherwise.
+     */
+    public static int clampUnsigned(int limit) {
+        return (int) Math.min(Integer.toUnsignedLong(limit), Integer.MAX_VALUE);
+    }
+
     public static void check(int errcode) {
         if (errcode != 0) {
             throw new IllegalStateException(String.format("Vulkan error [0x%X]", errcode));
@@ -83,6 +97,18 @@ public class VulkanUtils {
 
 
 
+    /**
+     * Initializes Vulkan without GLFW, for rendering on machines without a display (for ex. with lavapipe). The
+     * Vulkan loader is loaded by LWJGL itself.
+     */
+    public static void initVkHeadless() {
+        try {
+            VK.getFunctionProvider();
+        } catch (UnsatisfiedLinkError | IllegalStateException e) {
+            throw new IllegalStateException("Cannot find the Vulkan loader! Is a Vulkan installable client driver (ICD) installed?", e);
+        }
+    }
+
     //TODO: Add a function for enabling GPU Features
     public static void addGpuFeature(int feature, boolean bool) {
     }
@@ -0,0 +1,173 @@
+package mesh;
+
+import lib.VertexStreamBuilder;
+import lib.VulkanBuffers;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.NativeResource;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * An indexed triangle list with interleaved vertices in off-heap memory, as it is handed to the passes of the
+ * {@link MeshOptimizer} and later to the staging uploader.
+ * <p>
+ * The vertices are only compared and moved as raw bytes, the passes don't have to know the vertex layout. Only the
+ * overdraw pass reads the float position, found at {@link #getPositionOffset()}.
+ * <p>
+ * A mesh created by the constructor only wraps the given vertex memory. Meshes returned by the passes own newly
+ * allocated memory, which is released by {@link #free()}.
+ */
+public class Mesh implements NativeResource {
+
+    private ByteBuffer vertices;
+    private final boolean ownsVertices;
+    private final int vertexStride;
+    private final int vertexCount;
+
+    private final int[] indices;
+
+    private int positionOffset = 0;
+    private int positionComponents = 3;
+
+    /**
+     * @param vertices     - Interleaved vertices, from the position to the limit of the buffer. Not copied.
+     * @param vertexStride - Size of a vertex in bytes.
+     * @param indices      - Triangle list indices. Not copied.
+     */
+    public Mesh(ByteBuffer vertices, int vertexStride, int[] indices) {
+        this(vertices, vertexStride, indices, false);
+    }
+
+    Mesh(ByteBuffer vertices, int vertexStride, int[] indices, boolean ownsVertices) {
+        if (vertices.remaining() % vertexStride != 0)
+            throw new IllegalArgumentException(String.format("Vertex data of %d bytes isn't a multiple of the stride %d!",
+                    vertices.remaining(), vertexStride));
+
+        if (indices.length % 3 != 0)
+            throw new IllegalArgumentException(String.format("Index count %d isn't a multiple of 3!", indices.length));
+
+        this.vertices = vertices;
+        this.vertexStride = vertexStride;
+        this.vertexCount = vertices.remaining() / vertexStride;
+        this.indices = indices;
+        this.ownsVertices = ownsVertices;
+    }
+
+    /**
+     * Wraps the vertices written by an interleaved {@link VertexStreamBuilder}. The position is taken from the
+     * given attribute, which has to be a 2 or 3 component 32 bit float attribute.
+     *
+     * @param builder           - Builder with the written vertices. Has to stay alive as long as the mesh is used.
+     * @param layout            - Vertex layout the builder was created with.
+     * @param indices          - Triangle list indices.
+     * @param positionAttribute - Index of the position attribute in the vertex layout.
+     */
+    public static Mesh from(VertexStreamBuilder builder, VulkanBuffers.VertexBuffer layout, int[] indices, int positionAttribute) {
+        if (builder.getLayout() != VertexStreamBuilder.Layout.INTERLEAVED)
+            throw new IllegalArgumentException("Only interleaved vertices can be optimized as a mesh!");
+
+        Mesh mesh = new Mesh(builder.build(), layout.getStride(), indices);
+
+        VulkanBuffers.Attribute position = layout.getAttributes()[positionAttribute];
+
+        switch (position.getFormat()) {
+            case VK_FORMAT_R32G32_SFLOAT:
+                mesh.setPosition(position.getOffset(), 2);
+                break;
+            case VK_FORMAT_R32G32B32_SFLOAT:
+            case VK_FORMAT_R32G32B32A32_SFLOAT:
+                mesh.setPosition(position.getOffset(), 3);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Position attribute has an unsupported format %d!", position.getFormat()));
+        }
+
+        return mesh;
+    }
+
+    /**
+     * Sets where the float position is in a vertex. Defaults to 3 floats at offset 0.
+     *
+     * @param offset     - Byte offset of the position in a vertex.
+     * @param components - 2 or 3. A 2D position has z = 0.
+     */
+    public Mesh setPosition(int offset, int components) {
+        if (components != 2 && components != 3)
+            throw new IllegalArgumentException("Position has to have 2 or 3 components!");
+
+        if (offset + components * 4 > vertexStride)
+            throw new IllegalArgumentException("Position doesn't fit into the vertex!");
+
+        this.positionOffset = offset;
+        this.positionComponents = components;
+        return this;
+    }
+
+    /**
+     * Creates a mesh with the same vertex format and position as this one.
+     */
+    Mesh derive(ByteBuffer vertices, int[] indices, boolean ownsVertices) {
+        Mesh mesh = new Mesh(vertices, vertexStride, indices, ownsVertices);
+        mesh.positionOffset = positionOffset;
+        mesh.positionComponents = positionComponents;
+        return mesh;
+    }
+
+    long vertexAddress(int vertex) {
+        return MemoryUtil.memAddress(vertices) + (long) vertex * vertexStride;
+    }
+
+    /**
+     * Reads a component of the position of a vertex. Components behind the position components are 0.
+     */
+    float getPosition(int vertex, int component) {
+        if (component >= positionComponents)
+            return 0.f;
+
+        return MemoryUtil.memGetFloat(vertexAddress(vertex) + positionOffset + component * 4L);
+    }
+
+    /**
+     * @return The vertices, ready for an upload.
+     */
+    public ByteBuffer getVertices() {
+        return vertices;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public int getVertexStride() {
+        return vertexStride;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getTriangleCount() {
+        return indices.length / 3;
+    }
+
+    public int getPositionOffset() {
+        return positionOffset;
+    }
+
+    public int getPositionComponents() {
+        return positionComponents;
+    }
+
+    /**
+     * Frees the vertex memory if it was allocated by a pass. Wrapped memory is left to its owner.
+     */
+    @Override
+    public void free() {
+        if (ownsVertices)
+            MemoryUtil.memFree(vertices);
+
+        vertices = null;
+    }
+}
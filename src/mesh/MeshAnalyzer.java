@@ -0,0 +1,135 @@
+package mesh;
+
+import java.util.Arrays;
+
+/**
+ * Measures how well an index buffer uses the post-transform vertex cache and the vertex fetch, to compare meshes
+ * before and after the {@link MeshOptimizer}.
+ * <ul>
+ *     <li>ACMR - average cache miss ratio, transformed vertices per triangle. 3 is the worst case, about 0.5 is the
+ *     best a closed mesh can reach.</li>
+ *     <li>ATVR - average transform to vertex ratio, transformed vertices per vertex. 1 is the best.</li>
+ *     <li>Overfetch - bytes read from the vertex buffer per byte of vertex data, with 64 byte cache lines. 1 is the
+ *     best.</li>
+ * </ul>
+ * The indices can be streamed in parts with {@link #add(int[], int, int)}, the memory used doesn't depend on the size
+ * of the mesh.
+ */
+public class MeshAnalyzer {
+
+    private static final int CACHE_LINE_SIZE = 64;
+    // Direct mapped model of the memory cache, 32 KB
+    private static final int CACHE_LINE_COUNT = 512;
+
+    private final int vertexCount;
+    private final int vertexStride;
+
+    private final VertexCacheSimulator vertexCache;
+    private final long[] cacheLines = new long[CACHE_LINE_COUNT];
+
+    private long triangleCount = 0;
+    private long cacheMisses = 0;
+    private long fetchedLines = 0;
+
+    /**
+     * @param vertexCount  - Number of vertices of the mesh.
+     * @param vertexStride - Size of a vertex in bytes.
+     * @param cacheSize    - Size of the simulated FIFO vertex cache.
+     */
+    public MeshAnalyzer(int vertexCount, int vertexStride, int cacheSize) {
+        this.vertexCount = vertexCount;
+        this.vertexStride = vertexStride;
+        this.vertexCache = new VertexCacheSimulator(cacheSize);
+
+        Arrays.fill(cacheLines, -1L);
+    }
+
+    public static Statistics analyze(Mesh mesh, int cacheSize) {
+        MeshAnalyzer analyzer = new MeshAnalyzer(mesh.getVertexCount(), mesh.getVertexStride(), cacheSize);
+        analyzer.add(mesh.getIndices(), 0, mesh.getIndices().length);
+        return analyzer.getStatistics();
+    }
+
+    /**
+     * Adds triangles in draw order.
+     *
+     * @param indices - Index data.
+     * @param offset  - First index.
+     * @param count   - Number of indices, a multiple of 3.
+     */
+    public void add(int[] indices, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            int vertex = indices[i];
+
+            if (!vertexCache.access(vertex))
+                continue;
+
+            cacheMisses++;
+
+            // A transformed vertex is fetched, possibly from 2 cache lines
+            long first = (long) vertex * vertexStride / CACHE_LINE_SIZE;
+            long last = ((long) vertex * vertexStride + vertexStride - 1) / CACHE_LINE_SIZE;
+
+            for (long line = first; line <= last; line++) {
+                int slot = (int) (line % CACHE_LINE_COUNT);
+
+                if (cacheLines[slot] != line) {
+                    cacheLines[slot] = line;
+                    fetchedLines++;
+                }
+            }
+        }
+
+        triangleCount += count / 3;
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(triangleCount, vertexCount, cacheMisses, fetchedLines * CACHE_LINE_SIZE, (long) vertexCount * vertexStride);
+    }
+
+    public static class Statistics {
+        private final long triangleCount;
+        private final int vertexCount;
+        private final long cacheMisses;
+        private final long fetchedBytes;
+        private final long vertexBytes;
+
+        Statistics(long triangleCount, int vertexCount, long cacheMisses, long fetchedBytes, long vertexBytes) {
+            this.triangleCount = triangleCount;
+            this.vertexCount = vertexCount;
+            this.cacheMisses = cacheMisses;
+            this.fetchedBytes = fetchedBytes;
+            this.vertexBytes = vertexBytes;
+        }
+
+        public long getTriangleCount() {
+            return triangleCount;
+        }
+
+        public int getVertexCount() {
+            return vertexCount;
+        }
+
+        public long getCacheMisses() {
+            return cacheMisses;
+        }
+
+        public double getAcmr() {
+            return triangleCount == 0 ? 0.0 : (double) cacheMisses / triangleCount;
+        }
+
+        public double getAtvr() {
+            return vertexCount == 0 ? 0.0 : (double) cacheMisses / vertexCount;
+        }
+
+        public double getOverfetch() {
+            return vertexBytes == 0 ? 0.0 : (double) fetchedBytes / vertexBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("triangles %d vertices %d ACMR %.3f ATVR %.3f overfetch %.3f",
+                    triangleCount, vertexCount, getAcmr(), getAtvr(), getOverfetch());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package mesh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the mesh optimization passes in the right order, before the mesh is handed to the staging uploader:
+ * <ol>
+ *     <li>{@link VertexDeduplicator} - welds identical vertices, so the cache can reuse them,</li>
+ *     <li>{@link VertexCacheOptimizer} - reorders the triangles for the post-transform vertex cache,</li>
+ *     <li>{@link OverdrawOptimizer} - reorders the clusters of triangles to reduce overdraw,</li>
+ *     <li>{@link VertexFetchOptimizer} - reorders the vertices in the order of their use.</li>
+ * </ol>
+ * The whole mesh is reordered at once by default. Huge meshes can be processed in windows of
+ * {@link #setWindowSize(int)} triangles, so the working memory of the reordering passes doesn't grow with the mesh.
+ * Triangles never move between windows, so the windows only work well if the input is already spatially coherent
+ * (for ex. a scanned or streamed mesh written chunk by chunk). The optimizer itself only holds the settings, so it can
+ * optimize several meshes in parallel ({@link #optimizeAll(List, Executor)}).
+ */
+public class MeshOptimizer {
+
+    private int cacheSize = VertexCacheOptimizer.DEFAULT_CACHE_SIZE;
+    private float overdrawThreshold = OverdrawOptimizer.DEFAULT_THRESHOLD;
+    private int windowSize = Integer.MAX_VALUE;
+    private boolean deduplicate = true;
+    private boolean optimizeOverdraw = true;
+
+    /**
+     * @param cacheSize - Vertex cache size the triangles are ordered for.
+     */
+    public MeshOptimizer setCacheSize(int cacheSize) {
+        if (cacheSize <= 0)
+            throw new IllegalArgumentException("Cache size has to be greater than 0!");
+
+        this.cacheSize = cacheSize;
+        return this;
+    }
+
+    /**
+     * @param threshold - How much the ACMR may get worse in favour of less overdraw (1.05 = by 5%).
+     */
+    public MeshOptimizer setOverdrawThreshold(float threshold) {
+        if (threshold < 1.f)
+            throw new IllegalArgumentException("Overdraw threshold has to be at least 1!");
+
+        this.overdrawThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * @param triangles - Number of triangles reordered at once. Triangles never move between windows.
+     */
+    public MeshOptimizer setWindowSize(int triangles) {
+        if (triangles <= 0)
+            throw new IllegalArgumentException("Window size has to be greater than 0!");
+
+        this.windowSize = triangles;
+        return this;
+    }
+
+    public MeshOptimizer setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+        return this;
+    }
+
+    public MeshOptimizer setOptimizeOverdraw(boolean optimizeOverdraw) {
+        this.optimizeOverdraw = optimizeOverdraw;
+        return this;
+    }
+
+    /**
+     * Runs all enabled passes. The source mesh is left untouched.
+     *
+     * @return A new mesh with its own vertex memory, which has to be released with {@link Mesh#free()}.
+     */
+    public Mesh optimize(Mesh mesh) {
+        Mesh source = deduplicate ? VertexDeduplicator.deduplicate(mesh) : mesh;
+
+        try {
+            int[] indices = source.getIndices();
+            int[] ordered = new int[indices.length];
+            int triangleCount = source.getTriangleCount();
+
+            VertexCacheOptimizer cacheOptimizer = new VertexCacheOptimizer(cacheSize);
+
+            for (int first = 0; first < triangleCount; ) {
+                int count = Math.min(windowSize, triangleCount - first);
+
+                cacheOptimizer.optimize(indices, first * 3, count, source.getVertexCount(), ordered, first * 3);
+
+                if (optimizeOverdraw) {
+                    OverdrawOptimizer.optimize(source, ordered, first * 3, count, cacheOptimizer.getClusterStarts(),
+                            cacheOptimizer.getClusterCount(), cacheSize, overdrawThreshold);
+                }
+
+                first += count;
+            }
+
+            return VertexFetchOptimizer.optimize(source.derive(source.getVertices(), ordered, false));
+        } finally {
+            if (source != mesh)
+                source.free();
+        }
+    }
+
+    /**
+     * Schedules the optimization of a mesh.
+     */
+    public CompletableFuture<Mesh> optimizeAsync(Mesh mesh, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> optimize(mesh), executor);
+    }
+
+    /**
+     * Optimizes the meshes in parallel, one task per mesh.
+     *
+     * @return Futures of the optimized meshes, in the order of the source meshes.
+     */
+    public List<CompletableFuture<Mesh>> optimizeAll(List<Mesh> meshes, Executor executor) {
+        List<CompletableFuture<Mesh>> futures = new ArrayList<>(meshes.size());
+
+        for (Mesh mesh : meshes)
+            futures.add(optimizeAsync(mesh, executor));
+
+        return futures;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+}
@@ -0,0 +1,224 @@
+package mesh;
+
+import java.util.Arrays;
+
+/**
+ * Orders clusters of triangles so that the ones facing outwards are drawn first and occlude the rest, which the early
+ * depth test then rejects before they are shaded (Sander, Nehab, Barczak 2007).
+ * <p>
+ * The triangles have to be ordered by the {@link VertexCacheOptimizer} first, its clusters are the input. Clusters
+ * are split further where the cache efficiency allows it, the threshold says how much worse the ACMR of the result may
+ * be (1.05 = by 5%). Only whole clusters are moved, so the vertex cache order inside them is kept.
+ */
+public class OverdrawOptimizer {
+
+    public static final float DEFAULT_THRESHOLD = 1.05f;
+
+    private OverdrawOptimizer() {
+    }
+
+    /**
+     * Optimizes a whole index buffer ordered by the {@link VertexCacheOptimizer}. The indices are reordered in place.
+     */
+    public static void optimize(Mesh mesh, int[] indices, VertexCacheOptimizer cacheOptimizer, float threshold) {
+        optimize(mesh, indices, 0, indices.length / 3, cacheOptimizer.getClusterStarts(), cacheOptimizer.getClusterCount(),
+                cacheOptimizer.getCacheSize(), threshold);
+    }
+
+    /**
+     * Reorders the clusters of a window of triangles in place.
+     *
+     * @param mesh          - Mesh with the positions of the vertices.
+     * @param indices       - Indices ordered by the vertex cache optimizer.
+     * @param offset        - First index of the window.
+     * @param triangleCount - Number of triangles in the window.
+     * @param clusterStarts - First triangles of the clusters, relative to the window.
+     * @param clusterCount  - Number of clusters.
+     * @param cacheSize     - Cache size the indices were optimized for.
+     * @param threshold     - How much the ACMR may get worse by splitting the clusters (>= 1).
+     */
+    public static void optimize(Mesh mesh, int[] indices, int offset, int triangleCount, int[] clusterStarts, int clusterCount,
+                                int cacheSize, float threshold) {
+        if (triangleCount == 0 || clusterCount == 0)
+            return;
+
+        int[] clusters = splitClusters(indices, offset, triangleCount, clusterStarts, clusterCount, cacheSize, threshold);
+        int count = clusters.length - 1;
+
+        // Center of the window, weighted by the triangle areas
+        float[] centroid = new float[3];
+        float[] normal = new float[3];
+        float[] clusterCentroids = new float[count * 3];
+        float[] clusterNormals = new float[count * 3];
+
+        float meshX = 0.f, meshY = 0.f, meshZ = 0.f, meshArea = 0.f;
+
+        for (int c = 0; c < count; c++) {
+            float area = clusterGeometry(mesh, indices, offset, clusters[c], clusters[c + 1], centroid, normal);
+
+            System.arraycopy(centroid, 0, clusterCentroids, c * 3, 3);
+            System.arraycopy(normal, 0, clusterNormals, c * 3, 3);
+
+            meshX += centroid[0] * area;
+            meshY += centroid[1] * area;
+            meshZ += centroid[2] * area;
+            meshArea += area;
+        }
+
+        if (meshArea > 0.f) {
+            meshX /= meshArea;
+            meshY /= meshArea;
+            meshZ /= meshArea;
+        }
+
+        // Sort by how much the cluster faces away from the center. The key is packed with the cluster index into a long.
+        long[] order = new long[count];
+
+        for (int c = 0; c < count; c++) {
+            float dot = (clusterCentroids[c * 3] - meshX) * clusterNormals[c * 3]
+                    + (clusterCentroids[c * 3 + 1] - meshY) * clusterNormals[c * 3 + 1]
+                    + (clusterCentroids[c * 3 + 2] - meshZ) * clusterNormals[c * 3 + 2];
+
+            // Descending order, ties keep the original cluster order
+            order[c] = ((long) sortableBits(-dot) << 32) | c;
+        }
+
+        Arrays.sort(order);
+
+        int[] source = Arrays.copyOfRange(indices, offset, offset + triangleCount * 3);
+        int out = offset;
+
+        for (long key : order) {
+            int c = (int) key;
+            int length = (clusters[c + 1] - clusters[c]) * 3;
+
+            System.arraycopy(source, clusters[c] * 3, indices, out, length);
+            out += length;
+        }
+    }
+
+    /**
+     * Splits the clusters wherever the ACMR of the part before the split is already good enough.
+     *
+     * @return First triangle of every cluster, followed by the triangle count.
+     */
+    private static int[] splitClusters(int[] indices, int offset, int triangleCount, int[] clusterStarts, int clusterCount,
+                                       int cacheSize, float threshold) {
+        VertexCacheSimulator cache = new VertexCacheSimulator(cacheSize);
+
+        int[] clusters = new int[clusterCount + 1];
+        int count = 0;
+
+        for (int c = 0; c < clusterCount; c++) {
+            int start = clusterStarts[c];
+            int end = c + 1 < clusterCount ? clusterStarts[c + 1] : triangleCount;
+
+            // ACMR of the whole cluster
+            cache.reset();
+            int misses = 0;
+            for (int t = start; t < end; t++)
+                misses += cache.accessTriangle(indices, offset + t * 3);
+
+            float limit = (float) misses / (end - start) * threshold;
+
+            cache.reset();
+            misses = 0;
+            clusters = append(clusters, count++, start);
+
+            for (int t = start; t < end - 1; t++) {
+                misses += cache.accessTriangle(indices, offset + t * 3);
+
+                if ((float) misses / (t + 1 - start) <= limit) {
+                    clusters = append(clusters, count++, t + 1);
+                    start = t + 1;
+                    misses = 0;
+                    cache.reset();
+                }
+            }
+        }
+
+        clusters = append(clusters, count++, triangleCount);
+
+        return Arrays.copyOf(clusters, count);
+    }
+
+    private static int[] append(int[] array, int index, int value) {
+        if (index == array.length)
+            array = Arrays.copyOf(array, array.length * 2);
+
+        array[index] = value;
+        return array;
+    }
+
+    /**
+     * Computes the area weighted centroid and the normalized average normal of the triangles [first, end).
+     *
+     * @return Area of the cluster.
+     */
+    private static float clusterGeometry(Mesh mesh, int[] indices, int offset, int first, int end, float[] centroid, float[] normal) {
+        float cx = 0.f, cy = 0.f, cz = 0.f;
+        float nx = 0.f, ny = 0.f, nz = 0.f;
+        float totalArea = 0.f;
+
+        for (int t = first; t < end; t++) {
+            int a = indices[offset + t * 3];
+            int b = indices[offset + t * 3 + 1];
+            int c = indices[offset + t * 3 + 2];
+
+            float ax = mesh.getPosition(a, 0), ay = mesh.getPosition(a, 1), az = mesh.getPosition(a, 2);
+            float bx = mesh.getPosition(b, 0), by = mesh.getPosition(b, 1), bz = mesh.getPosition(b, 2);
+            float qx = mesh.getPosition(c, 0), qy = mesh.getPosition(c, 1), qz = mesh.getPosition(c, 2);
+
+            float e1x = bx - ax, e1y = by - ay, e1z = bz - az;
+            float e2x = qx - ax, e2y = qy - ay, e2z = qz - az;
+
+            // Cross product, its length is twice the area
+            float crossX = e1y * e2z - e1z * e2y;
+            float crossY = e1z * e2x - e1x * e2z;
+            float crossZ = e1x * e2y - e1y * e2x;
+
+            float area = (float) Math.sqrt(crossX * crossX + crossY * crossY + crossZ * crossZ) * 0.5f;
+
+            cx += (ax + bx + qx) / 3.f * area;
+            cy += (ay + by + qy) / 3.f * area;
+            cz += (az + bz + qz) / 3.f * area;
+
+            nx += crossX;
+            ny += crossY;
+            nz += crossZ;
+
+            totalArea += area;
+        }
+
+        if (totalArea > 0.f) {
+            cx /= totalArea;
+            cy /= totalArea;
+            cz /= totalArea;
+        }
+
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length > 0.f) {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+        }
+
+        centroid[0] = cx;
+        centroid[1] = cy;
+        centroid[2] = cz;
+
+        normal[0] = nx;
+        normal[1] = ny;
+        normal[2] = nz;
+
+        return totalArea;
+    }
+
+    /**
+     * @return Bits of the float, ordered the same way as the float when compared as a signed int.
+     */
+    private static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+}
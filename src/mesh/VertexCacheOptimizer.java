@@ -0,0 +1,269 @@
+package mesh;
+
+import java.util.Arrays;
+
+/**
+ * Reorders triangles so that the vertex shader results are reused from the post-transform vertex cache as often as
+ * possible. Implements Tipsify (Sander, Nehab, Barczak: Fast Triangle Reordering for Vertex Locality and Reduced
+ * Overdraw, 2007), which runs in linear time and doesn't depend on the exact cache size of the GPU.
+ * <p>
+ * Large meshes are optimized in windows of triangles ({@link #optimize(int[], int, int, int, int[], int)}). The
+ * working memory is proportional to the window, apart from one int per vertex of the mesh, and is reused between the
+ * windows. An instance is not thread safe, optimize different meshes in parallel with an instance each.
+ * <p>
+ * Where the algorithm has to jump to an unrelated part of the mesh, a new cluster starts. The clusters are used by the
+ * {@link OverdrawOptimizer}.
+ */
+public class VertexCacheOptimizer {
+
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    private final int cacheSize;
+
+    // Vertex of the mesh -> vertex of the current window, -1 if it isn't used by the window
+    private int[] localIds = new int[0];
+    private int[] globalIds = new int[0];
+
+    private int[] live = new int[0];
+    private int[] cacheTime = new int[0];
+    private int[] adjacencyOffsets = new int[0];
+    private int[] adjacency = new int[0];
+    private int[] deadEnd = new int[0];
+    private int[] candidates = new int[0];
+    private boolean[] emitted = new boolean[0];
+
+    private int[] clusterStarts = new int[16];
+    private int clusterCount = 0;
+
+    /**
+     * @param cacheSize - Number of vertices assumed to fit in the cache. Tipsify works well with anything between
+     *                  12 and 32, so the exact size of the GPU isn't important.
+     */
+    public VertexCacheOptimizer(int cacheSize) {
+        if (cacheSize <= 0)
+            throw new IllegalArgumentException("Cache size has to be greater than 0!");
+
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Optimizes a whole index buffer.
+     *
+     * @return The reordered indices.
+     */
+    public static int[] optimize(int[] indices, int vertexCount, int cacheSize) {
+        int[] result = new int[indices.length];
+        new VertexCacheOptimizer(cacheSize).optimize(indices, 0, indices.length / 3, vertexCount, result, 0);
+        return result;
+    }
+
+    /**
+     * Reorders a window of triangles. The triangles stay in the window and their winding is preserved.
+     *
+     * @param src           - Source indices.
+     * @param srcOffset     - First index of the window in the source.
+     * @param triangleCount - Number of triangles in the window.
+     * @param vertexCount   - Number of vertices of the whole mesh.
+     * @param dst           - Destination of the reordered indices. Must not be the source.
+     * @param dstOffset     - First index of the window in the destination.
+     */
+    public void optimize(int[] src, int srcOffset, int triangleCount, int vertexCount, int[] dst, int dstOffset) {
+        clusterCount = 0;
+
+        if (triangleCount == 0)
+            return;
+
+        int indexCount = triangleCount * 3;
+        int localCount = buildLocalIds(src, srcOffset, indexCount, vertexCount);
+
+        buildAdjacency(src, srcOffset, triangleCount, localCount);
+
+        Arrays.fill(cacheTime, 0, localCount, 0);
+        Arrays.fill(emitted, 0, triangleCount, false);
+
+        int time = cacheSize + 1;
+        int deadEndTop = 0;
+        int cursor = 0;
+        int out = dstOffset;
+
+        addCluster(0);
+
+        int fan = 0;
+
+        while (fan >= 0) {
+            int candidateCount = 0;
+
+            // Emit all remaining triangles around the fan vertex
+            for (int a = adjacencyOffsets[fan]; a < adjacencyOffsets[fan + 1]; a++) {
+                int triangle = adjacency[a];
+
+                if (emitted[triangle])
+                    continue;
+
+                for (int k = 0; k < 3; k++) {
+                    int vertex = localIds[src[srcOffset + triangle * 3 + k]];
+
+                    dst[out++] = globalIds[vertex];
+                    deadEnd[deadEndTop++] = vertex;
+                    candidates[candidateCount++] = vertex;
+                    live[vertex]--;
+
+                    if (time - cacheTime[vertex] > cacheSize)
+                        cacheTime[vertex] = time++;
+                }
+
+                emitted[triangle] = true;
+            }
+
+            // The next fan is the candidate which is going to stay in the cache, preferring the oldest one
+            int next = -1;
+            int bestPriority = -1;
+
+            for (int c = 0; c < candidateCount; c++) {
+                int vertex = candidates[c];
+
+                if (live[vertex] == 0)
+                    continue;
+
+                int priority = 0;
+                if (time - cacheTime[vertex] + 2 * live[vertex] <= cacheSize)
+                    priority = time - cacheTime[vertex];
+
+                if (priority > bestPriority) {
+                    bestPriority = priority;
+                    next = vertex;
+                }
+            }
+
+            if (next == -1) {
+                // Dead end, go back to a recently used vertex, or to the next vertex in the input order
+                while (deadEndTop > 0 && next == -1) {
+                    int vertex = deadEnd[--deadEndTop];
+                    if (live[vertex] > 0)
+                        next = vertex;
+                }
+
+                while (next == -1 && cursor < localCount) {
+                    if (live[cursor] > 0)
+                        next = cursor;
+                    cursor++;
+                }
+
+                if (next >= 0)
+                    addCluster((out - dstOffset) / 3);
+            }
+
+            fan = next;
+        }
+
+        for (int i = 0; i < localCount; i++)
+            localIds[globalIds[i]] = -1;
+    }
+
+    /**
+     * Maps the vertices used by the window to consecutive ids in the order of their first use.
+     *
+     * @return Number of vertices used by the window.
+     */
+    private int buildLocalIds(int[] src, int srcOffset, int indexCount, int vertexCount) {
+        if (localIds.length < vertexCount) {
+            localIds = new int[vertexCount];
+            Arrays.fill(localIds, -1);
+        }
+
+        if (globalIds.length < indexCount)
+            globalIds = new int[indexCount];
+
+        int localCount = 0;
+
+        for (int i = 0; i < indexCount; i++) {
+            int vertex = src[srcOffset + i];
+
+            if (vertex < 0 || vertex >= vertexCount) {
+                for (int j = 0; j < localCount; j++)
+                    localIds[globalIds[j]] = -1;
+
+                throw new IllegalArgumentException(String.format("Index %d at position %d is out of range! Vertex count: %d",
+                        vertex, srcOffset + i, vertexCount));
+            }
+
+            if (localIds[vertex] == -1) {
+                localIds[vertex] = localCount;
+                globalIds[localCount++] = vertex;
+            }
+        }
+
+        return localCount;
+    }
+
+    /**
+     * Builds the triangles around every vertex as one array (offsets[v] to offsets[v + 1]) and the number of
+     * triangles using every vertex.
+     */
+    private void buildAdjacency(int[] src, int srcOffset, int triangleCount, int localCount) {
+        int indexCount = triangleCount * 3;
+
+        if (live.length < localCount) {
+            live = new int[localCount];
+            cacheTime = new int[localCount];
+            adjacencyOffsets = new int[localCount + 1];
+        }
+
+        if (adjacency.length < indexCount) {
+            adjacency = new int[indexCount];
+            deadEnd = new int[indexCount];
+        }
+
+        if (emitted.length < triangleCount)
+            emitted = new boolean[triangleCount];
+
+        Arrays.fill(live, 0, localCount, 0);
+
+        for (int i = 0; i < indexCount; i++)
+            live[localIds[src[srcOffset + i]]]++;
+
+        int maxValence = 0;
+        adjacencyOffsets[0] = 0;
+
+        for (int v = 0; v < localCount; v++) {
+            adjacencyOffsets[v + 1] = adjacencyOffsets[v] + live[v];
+            maxValence = Math.max(maxValence, live[v]);
+        }
+
+        if (candidates.length < maxValence * 3)
+            candidates = new int[maxValence * 3];
+
+        // cacheTime is used as the fill cursor, it's cleared before the ordering starts
+        System.arraycopy(adjacencyOffsets, 0, cacheTime, 0, localCount);
+
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int vertex = localIds[src[srcOffset + t * 3 + k]];
+                adjacency[cacheTime[vertex]++] = t;
+            }
+        }
+    }
+
+    private void addCluster(int firstTriangle) {
+        if (clusterCount == clusterStarts.length)
+            clusterStarts = Arrays.copyOf(clusterStarts, clusterCount * 2);
+
+        clusterStarts[clusterCount++] = firstTriangle;
+    }
+
+    /**
+     * @return First triangles (relative to the window) of the clusters found by the last {@link #optimize}.
+     * Valid until the next call, only the first {@link #getClusterCount()} entries are used.
+     */
+    public int[] getClusterStarts() {
+        return clusterStarts;
+    }
+
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+}
@@ -0,0 +1,56 @@
+package mesh;
+
+/**
+ * FIFO model of the post-transform vertex cache. Small enough (16 - 32 entries) that a linear search is the fastest
+ * lookup, and its memory doesn't depend on the size of the mesh.
+ */
+class VertexCacheSimulator {
+
+    private final int[] entries;
+    private int size = 0;
+    private int head = 0;
+
+    VertexCacheSimulator(int cacheSize) {
+        if (cacheSize <= 0)
+            throw new IllegalArgumentException("Cache size has to be greater than 0!");
+
+        entries = new int[cacheSize];
+    }
+
+    /**
+     * @return true if the vertex wasn't in the cache and had to be transformed.
+     */
+    boolean access(int vertex) {
+        for (int i = 0; i < size; i++) {
+            if (entries[i] == vertex)
+                return false;
+        }
+
+        if (size < entries.length) {
+            entries[size++] = vertex;
+        } else {
+            entries[head] = vertex;
+            head = (head + 1) % entries.length;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Number of cache misses of the triangle.
+     */
+    int accessTriangle(int[] indices, int first) {
+        int misses = 0;
+
+        if (access(indices[first])) misses++;
+        if (access(indices[first + 1])) misses++;
+        if (access(indices[first + 2])) misses++;
+
+        return misses;
+    }
+
+    void reset() {
+        size = 0;
+        head = 0;
+    }
+}
@@ -0,0 +1,191 @@
+package mesh;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.NativeResource;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Welds bitwise identical vertices. Vertices are streamed in one by one with {@link #add(long)}, which returns the
+ * index of the unique vertex, so a mesh can be deduplicated while it is being loaded, without keeping the original
+ * vertices around:
+ * <pre>{@code
+ * int index = deduplicator.add(vertexAddress);
+ * }</pre>
+ * Only the unique vertices are kept, in the order they were first seen. The comparison is bitwise, so for ex. 0.0
+ * and -0.0 are different vertices.
+ */
+public class VertexDeduplicator implements NativeResource {
+
+    private static final int EMPTY = -1;
+
+    private final int vertexStride;
+
+    private ByteBuffer vertices;
+    private long address;
+    private int capacity;
+    private int vertexCount = 0;
+
+    // Open addressing hash table of unique vertex indices
+    private int[] table;
+    private int mask;
+
+    /**
+     * @param vertexStride     - Size of a vertex in bytes.
+     * @param expectedVertices - Expected number of unique vertices. The memory grows if there are more.
+     */
+    public VertexDeduplicator(int vertexStride, int expectedVertices) {
+        this.vertexStride = vertexStride;
+        this.capacity = Math.max(16, expectedVertices);
+
+        vertices = MemoryUtil.memAlloc(capacity * vertexStride);
+        address = MemoryUtil.memAddress(vertices);
+
+        table = new int[tableSizeFor(capacity)];
+        mask = table.length - 1;
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * Deduplicates the vertices of a mesh and remaps its indices.
+     *
+     * @return A new mesh with its own vertex memory.
+     */
+    public static Mesh deduplicate(Mesh mesh) {
+        int[] remap = new int[mesh.getVertexCount()];
+
+        try (VertexDeduplicator deduplicator = new VertexDeduplicator(mesh.getVertexStride(), mesh.getVertexCount())) {
+            for (int i = 0; i < mesh.getVertexCount(); i++)
+                remap[i] = deduplicator.add(mesh.vertexAddress(i));
+
+            int[] indices = mesh.getIndices();
+            int[] remapped = new int[indices.length];
+
+            for (int i = 0; i < indices.length; i++)
+                remapped[i] = remap[indices[i]];
+
+            return mesh.derive(deduplicator.copyVertices(), remapped, true);
+        }
+    }
+
+    /**
+     * @param vertexAddress - Address of a vertex of {@code vertexStride} bytes.
+     * @return Index of the unique vertex equal to the given one.
+     */
+    public int add(long vertexAddress) {
+        int slot = hash(vertexAddress) & mask;
+
+        while (table[slot] != EMPTY) {
+            if (equal(vertexAddress, address + (long) table[slot] * vertexStride))
+                return table[slot];
+
+            slot = (slot + 1) & mask;
+        }
+
+        if (vertexCount == capacity) {
+            grow();
+            // The table was rebuilt, find a free slot again
+            slot = hash(vertexAddress) & mask;
+            while (table[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+        }
+
+        MemoryUtil.memCopy(vertexAddress, address + (long) vertexCount * vertexStride, vertexStride);
+        table[slot] = vertexCount;
+
+        return vertexCount++;
+    }
+
+    /**
+     * @param vertex - Vertex data from the position of the buffer. Its position is not altered.
+     */
+    public int add(ByteBuffer vertex) {
+        if (vertex.remaining() < vertexStride)
+            throw new IllegalArgumentException("Buffer doesn't contain a whole vertex!");
+
+        return add(MemoryUtil.memAddress(vertex));
+    }
+
+    /**
+     * @return A view of the unique vertices. Valid until the deduplicator is freed or more vertices are added.
+     */
+    public ByteBuffer getVertices() {
+        return MemoryUtil.memByteBuffer(address, vertexCount * vertexStride);
+    }
+
+    /**
+     * @return A copy of the unique vertices, which has to be released with MemoryUtil.memFree.
+     */
+    public ByteBuffer copyVertices() {
+        ByteBuffer copy = MemoryUtil.memAlloc(vertexCount * vertexStride);
+        MemoryUtil.memCopy(address, MemoryUtil.memAddress(copy), (long) vertexCount * vertexStride);
+        return copy;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    private int hash(long vertexAddress) {
+        long h = 0xCBF29CE484222325L;
+        int i = 0;
+
+        for (; i + 8 <= vertexStride; i += 8)
+            h = (h ^ MemoryUtil.memGetLong(vertexAddress + i)) * 0x100000001B3L;
+
+        for (; i < vertexStride; i++)
+            h = (h ^ MemoryUtil.memGetByte(vertexAddress + i)) * 0x100000001B3L;
+
+        // The multiplications only carry bits upwards, take the well mixed high half
+        return (int) ((h * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    private boolean equal(long a, long b) {
+        int i = 0;
+
+        for (; i + 8 <= vertexStride; i += 8) {
+            if (MemoryUtil.memGetLong(a + i) != MemoryUtil.memGetLong(b + i))
+                return false;
+        }
+
+        for (; i < vertexStride; i++) {
+            if (MemoryUtil.memGetByte(a + i) != MemoryUtil.memGetByte(b + i))
+                return false;
+        }
+
+        return true;
+    }
+
+    private void grow() {
+        capacity *= 2;
+
+        vertices = MemoryUtil.memRealloc(vertices, capacity * vertexStride);
+        address = MemoryUtil.memAddress(vertices);
+
+        table = new int[tableSizeFor(capacity)];
+        mask = table.length - 1;
+        Arrays.fill(table, EMPTY);
+
+        for (int v = 0; v < vertexCount; v++) {
+            int slot = hash(address + (long) v * vertexStride) & mask;
+
+            while (table[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+
+            table[slot] = v;
+        }
+    }
+
+    // Keeps the load factor at most 1/2
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    @Override
+    public void free() {
+        MemoryUtil.memFree(vertices);
+        vertices = null;
+        address = MemoryUtil.NULL;
+    }
+}
@@ -0,0 +1,61 @@
+package mesh;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reorders the vertices in the order the index buffer first uses them, so the vertex fetch reads the vertex buffer
+ * mostly sequentially and every fetched cache line is used. Should run last, after the triangles have been reordered.
+ * Vertices which no triangle uses are dropped.
+ */
+public class VertexFetchOptimizer {
+
+    private VertexFetchOptimizer() {
+    }
+
+    /**
+     * @return A new mesh with its own vertex memory and remapped indices.
+     */
+    public static Mesh optimize(Mesh mesh) {
+        int[] indices = mesh.getIndices();
+        int[] remap = new int[mesh.getVertexCount()];
+        int[] remapped = new int[indices.length];
+
+        int vertexCount = buildRemap(indices, remap);
+
+        for (int i = 0; i < indices.length; i++)
+            remapped[i] = remap[indices[i]];
+
+        int stride = mesh.getVertexStride();
+        ByteBuffer vertices = MemoryUtil.memAlloc(vertexCount * stride);
+        long address = MemoryUtil.memAddress(vertices);
+
+        for (int v = 0; v < remap.length; v++) {
+            if (remap[v] != -1)
+                MemoryUtil.memCopy(mesh.vertexAddress(v), address + (long) remap[v] * stride, stride);
+        }
+
+        return mesh.derive(vertices, remapped, true);
+    }
+
+    /**
+     * Computes the new position of every vertex.
+     *
+     * @param remap - Filled with the new index of every vertex, -1 for unused vertices. Sized for the vertex count.
+     * @return Number of used vertices.
+     */
+    public static int buildRemap(int[] indices, int[] remap) {
+        Arrays.fill(remap, -1);
+
+        int count = 0;
+
+        for (int index : indices) {
+            if (remap[index] == -1)
+                remap[index] = count++;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,384 @@
+package render;
+
+import lib.*;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkCommandBuffer;
+import org.lwjgl.vulkan.VkDevice;
+import org.lwjgl.vulkan.VkPresentInfoKHR;
+import org.lwjgl.vulkan.VkSubmitInfo;
+import org.lwjgl.vulkan.VkTimelineSemaphoreSubmitInfo;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.lwjgl.vulkan.KHRSwapchain.vkAcquireNextImageKHR;
+import static org.lwjgl.vulkan.KHRSwapchain.vkQueuePresentKHR;
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Drives the acquire - submit - present cycle of the frames in flight.
+ * <p>
+ * Every submit and present structure (and every buffer they point to) is allocated once per frame in flight when the
+ * loop is created, and only the command buffer pointer changes from frame to frame. The image to frame mapping is a
+ * plain int array. A frame therefore doesn't allocate anything on the Java heap, nor on the MemoryStack.
+ * <p>
+ * If a {@link VulkanTimeline} is given, the frame fences aren't used at all. Every submit signals the next value of
+ * the timeline, and a frame (or a swapchain image) is reused once the value of its last submit has been reached.
+ * <p>
+ * Without a swapchain (headless) the loop renders into offscreen images, one per frame in flight, so the frame i always
+ * gets the image i. Nothing is acquired nor presented and the submits don't wait on any semaphore, the frame loop
+ * stays the same though, so the throughput of the renderer can be measured without the presentation.
+ */
+public class FrameLoop {
+
+    private static final long UINT64_MAX = 0xFFFFFFFFFFFFFFFFL;
+
+    private final VkDevice device;
+    private final VulkanLogicalDevice logicalDevice;
+    private final VulkanSwapChain swapChain;
+    private final List<VulkanFrame> frames;
+    private final int framesInFlight;
+
+    private final VkSubmitInfo[] submitInfos;
+    private final VkPresentInfoKHR[] presentInfos;
+    private final PointerBuffer[] pCommandBuffers;
+    private final IntBuffer[] pImageIndices;
+
+    // Native memory backing the structures above, freed in destroy()
+    private final LongBuffer[] pWaitSemaphores;
+    private final LongBuffer[] pSignalSemaphores;
+    private final IntBuffer[] pWaitStages;
+    private final LongBuffer pSwapchain;
+    private final boolean headless;
+
+    /**
+     * Index of the frame in flight which last used the swapchain image, or -1.
+     */
+    private final int[] imagesInFlight;
+
+    // Used only with a timeline
+    private final VulkanTimeline timeline;
+    private final VkTimelineSemaphoreSubmitInfo[] timelineInfos;
+    private final LongBuffer[] pSignalValues;
+    private final long[] frameValues;
+    private final long[] imageValues;
+
+    private int currentFrame = 0;
+    private int imageIndex = -1;
+
+    private PhaseTimers timers;
+    private int fenceWaitPhase, acquirePhase, imageWaitPhase, submitPhase, presentPhase;
+
+    /**
+     * @param devices   - Devices whose graphics and present queues are used.
+     * @param swapChain - Swapchain the images are acquired from.
+     * @param frames    - Synchronization objects of every frame in flight.
+     */
+    public FrameLoop(VulkanDevices devices, VulkanSwapChain swapChain, List<VulkanFrame> frames) {
+        this(devices, swapChain, frames, null);
+    }
+
+    /**
+     * @param devices   - Devices whose graphics and present queues are used.
+     * @param swapChain - Swapchain the images are acquired from.
+     * @param frames    - Synchronization objects of every frame in flight. Only the semaphores are used if a timeline is given.
+     * @param timeline  - Timeline of the graphics queue which replaces the frame fences. Can be null.
+     */
+    public FrameLoop(VulkanDevices devices, VulkanSwapChain swapChain, List<VulkanFrame> frames, VulkanTimeline timeline) {
+        this.timeline = timeline;
+        this.device = devices.getVkDevice();
+        this.logicalDevice = devices.getLogicalDevice();
+        this.swapChain = swapChain;
+        this.frames = frames;
+        this.framesInFlight = frames.size();
+        this.headless = swapChain == null;
+
+        imagesInFlight = new int[headless ? framesInFlight : swapChain.getSwapChainImagesSize()];
+        Arrays.fill(imagesInFlight, -1);
+
+        submitInfos = new VkSubmitInfo[framesInFlight];
+        presentInfos = headless ? null : new VkPresentInfoKHR[framesInFlight];
+        pCommandBuffers = new PointerBuffer[framesInFlight];
+        pImageIndices = new IntBuffer[framesInFlight];
+        pWaitSemaphores = new LongBuffer[framesInFlight];
+        pSignalSemaphores = new LongBuffer[framesInFlight];
+        pWaitStages = new IntBuffer[framesInFlight];
+
+        timelineInfos = timeline != null ? new VkTimelineSemaphoreSubmitInfo[framesInFlight] : null;
+        pSignalValues = timeline != null ? new LongBuffer[framesInFlight] : null;
+        frameValues = new long[framesInFlight];
+        imageValues = new long[imagesInFlight.length];
+
+        pSwapchain = headless ? null : MemoryUtil.memAllocLong(1);
+        if (!headless)
+            pSwapchain.put(0, swapChain.getSwapchainPtr());
+
+        for (int i = 0; i < framesInFlight; i++) {
+            VulkanFrame frame = frames.get(i);
+
+            if (headless) {
+                createHeadlessSubmitInfo(i);
+                continue;
+            }
+
+            pWaitSemaphores[i] = MemoryUtil.memAllocLong(1).put(0, frame.getImageAvailableSemaphore().getSemaphorePtr());
+            // With a timeline the submit signals both the binary semaphore for the presentation and the timeline
+            pSignalSemaphores[i] = MemoryUtil.memAllocLong(timeline != null ? 2 : 1).put(0, frame.getRenderFinishedSemaphore().getSemaphorePtr());
+            pWaitStages[i] = MemoryUtil.memAllocInt(1).put(0, VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT);
+            pCommandBuffers[i] = MemoryUtil.memAllocPointer(1);
+            pImageIndices[i] = MemoryUtil.memAllocInt(1);
+
+            submitInfos[i] = VkSubmitInfo.calloc();
+            submitInfos[i].sType$Default();
+            submitInfos[i].waitSemaphoreCount(1);
+            submitInfos[i].pWaitSemaphores(pWaitSemaphores[i]);
+            submitInfos[i].pWaitDstStageMask(pWaitStages[i]);
+            submitInfos[i].pSignalSemaphores(pSignalSemaphores[i]);
+            submitInfos[i].pCommandBuffers(pCommandBuffers[i]);
+
+            if (timeline != null) {
+                pSignalSemaphores[i].put(1, timeline.getSemaphorePtr());
+
+                // The value of the binary semaphore is ignored
+                pSignalValues[i] = MemoryUtil.memAllocLong(2).put(0, 0L);
+
+                timelineInfos[i] = VkTimelineSemaphoreSubmitInfo.calloc();
+                timelineInfos[i].sType$Default();
+                timelineInfos[i].pSignalSemaphoreValues(pSignalValues[i]);
+
+                submitInfos[i].pNext(timelineInfos[i].address());
+            }
+
+            presentInfos[i] = VkPresentInfoKHR.calloc();
+            presentInfos[i].sType$Default();
+            presentInfos[i].pWaitSemaphores(pSignalSemaphores[i].slice(0, 1));
+            presentInfos[i].swapchainCount(1);
+            presentInfos[i].pSwapchains(pSwapchain);
+            presentInfos[i].pImageIndices(pImageIndices[i]);
+        }
+    }
+
+    /**
+     * @param devices  - Devices whose graphics queue is used.
+     * @param frames   - Synchronization objects of every frame in flight. Only the fences are used, and only if there
+     *                 is no timeline.
+     * @param timeline - Timeline of the graphics queue which replaces the frame fences. Can be null.
+     */
+    public FrameLoop(VulkanDevices devices, List<VulkanFrame> frames, VulkanTimeline timeline) {
+        this(devices, null, frames, timeline);
+    }
+
+    /**
+     * The headless submit doesn't wait for an image and signals only the timeline, if there is one.
+     */
+    private void createHeadlessSubmitInfo(int i) {
+        pCommandBuffers[i] = MemoryUtil.memAllocPointer(1);
+        pImageIndices[i] = MemoryUtil.memAllocInt(1).put(0, i);
+
+        submitInfos[i] = VkSubmitInfo.calloc();
+        submitInfos[i].sType$Default();
+        submitInfos[i].pCommandBuffers(pCommandBuffers[i]);
+
+        if (timeline != null) {
+            pSignalSemaphores[i] = MemoryUtil.memAllocLong(1).put(0, timeline.getSemaphorePtr());
+            pSignalValues[i] = MemoryUtil.memAllocLong(1);
+
+            timelineInfos[i] = VkTimelineSemaphoreSubmitInfo.calloc();
+            timelineInfos[i].sType$Default();
+            timelineInfos[i].pSignalSemaphoreValues(pSignalValues[i]);
+
+            submitInfos[i].pSignalSemaphores(pSignalSemaphores[i]);
+            submitInfos[i].pNext(timelineInfos[i].address());
+        }
+    }
+
+    /**
+     * Waits until the current frame in flight can be reused and acquires the next swapchain image.
+     * Headless, the image is always the one of the current frame.
+     *
+     * @return Index of the acquired swapchain image.
+     */
+    public int acquire() {
+        VulkanFrame frame = frames.get(currentFrame);
+
+        long start = timers != null ? timers.start() : 0L;
+
+        if (timeline != null) {
+            timeline.waitFor(frameValues[currentFrame]);
+            // Refreshes the completed value for everyone who asks the timeline during this frame
+            timeline.poll();
+        } else {
+            vkWaitForFences(device, frame.getFence().getFencePtr(), true, UINT64_MAX);
+        }
+
+        if (timers != null)
+            start = timers.stop(fenceWaitPhase, start);
+
+        if (headless) {
+            // The image belongs to the frame only, waiting for the frame was enough
+            imageIndex = currentFrame;
+            return imageIndex;
+        }
+
+        vkAcquireNextImageKHR(device, swapChain.getSwapchainPtr(), UINT64_MAX,
+                frame.getImageAvailableSemaphore().getSemaphorePtr(), VK_NULL_HANDLE, pImageIndices[currentFrame]);
+
+        imageIndex = pImageIndices[currentFrame].get(0);
+
+        if (timers != null)
+            start = timers.stop(acquirePhase, start);
+
+        // The image may still be used by another frame in flight
+        if (timeline != null) {
+            timeline.waitFor(imageValues[imageIndex]);
+        } else {
+            int previousFrame = imagesInFlight[imageIndex];
+            if (previousFrame != -1 && previousFrame != currentFrame) {
+                vkWaitForFences(device, frames.get(previousFrame).getFence().getFencePtr(), true, UINT64_MAX);
+            }
+
+            imagesInFlight[imageIndex] = currentFrame;
+        }
+
+        if (timers != null)
+            timers.stop(imageWaitPhase, start);
+
+        return imageIndex;
+    }
+
+    /**
+     * Submits the command buffer of the current frame to the graphics queue.
+     */
+    public void submit(VkCommandBuffer commandBuffer) {
+        VulkanFrame frame = frames.get(currentFrame);
+
+        long start = timers != null ? timers.start() : 0L;
+
+        pCommandBuffers[currentFrame].put(0, commandBuffer);
+
+        if (timeline != null) {
+            long value = timeline.next();
+            pSignalValues[currentFrame].put(headless ? 0 : 1, value);
+
+            frameValues[currentFrame] = value;
+            imageValues[imageIndex] = value;
+
+            if (vkQueueSubmit(logicalDevice.getGraphicsQueue(), submitInfos[currentFrame], VK_NULL_HANDLE) != VK_SUCCESS) {
+                throw new RuntimeException("Failed to submit draw command buffer");
+            }
+        } else {
+            vkResetFences(device, frame.getFence().getFencePtr());
+
+            if (vkQueueSubmit(logicalDevice.getGraphicsQueue(), submitInfos[currentFrame], frame.getFence().getFencePtr()) != VK_SUCCESS) {
+                throw new RuntimeException("Failed to submit draw command buffer");
+            }
+        }
+
+        if (timers != null)
+            timers.stop(submitPhase, start);
+    }
+
+    /**
+     * Presents the acquired image and advances to the next frame in flight. Headless, it only advances the frame.
+     */
+    public void present() {
+        if (headless) {
+            currentFrame = (currentFrame + 1) % framesInFlight;
+            return;
+        }
+
+        long start = timers != null ? timers.start() : 0L;
+
+        vkQueuePresentKHR(logicalDevice.getPresentQueue(), presentInfos[currentFrame]);
+
+        if (timers != null)
+            timers.stop(presentPhase, start);
+
+        currentFrame = (currentFrame + 1) % framesInFlight;
+    }
+
+    /**
+     * Times the phases of every frame (fence wait, acquire, image wait, submit and present) from now on.
+     */
+    public void setTimers(PhaseTimers timers) {
+        fenceWaitPhase = timers.register("fenceWait");
+        acquirePhase = timers.register("acquire");
+        imageWaitPhase = timers.register("imageWait");
+        submitPhase = timers.register("submit");
+        presentPhase = timers.register("present");
+
+        this.timers = timers;
+    }
+
+    /**
+     * @return Index of the current frame in flight (0 to framesInFlight - 1).
+     */
+    public int getCurrentFrame() {
+        return currentFrame;
+    }
+
+    /**
+     * @return Swapchain image acquired by the last {@link #acquire()}.
+     */
+    public int getImageIndex() {
+        return imageIndex;
+    }
+
+    /**
+     * @return The timeline which replaces the frame fences, or null.
+     */
+    public VulkanTimeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * @return Timeline value signaled by the last submit of the current frame. Once it is retired, the resources of
+     * the frame can be reused. Always 0 without a timeline.
+     */
+    public long getFrameValue() {
+        return frameValues[currentFrame];
+    }
+
+    public VulkanFrame getFrame() {
+        return frames.get(currentFrame);
+    }
+
+    public int getFramesInFlight() {
+        return framesInFlight;
+    }
+
+    /**
+     * @return true if the loop renders into offscreen images instead of a swapchain.
+     */
+    public boolean isHeadless() {
+        return headless;
+    }
+
+    /**
+     * Frees the preallocated structures. The device has to be idle.
+     */
+    public void destroy() {
+        for (int i = 0; i < framesInFlight; i++) {
+            submitInfos[i].free();
+            if (!headless)
+                presentInfos[i].free();
+
+            MemoryUtil.memFree(pWaitSemaphores[i]);
+            MemoryUtil.memFree(pSignalSemaphores[i]);
+            MemoryUtil.memFree(pWaitStages[i]);
+            MemoryUtil.memFree(pCommandBuffers[i]);
+            MemoryUtil.memFree(pImageIndices[i]);
+
+            if (timeline != null) {
+                timelineInfos[i].free();
+                MemoryUtil.memFree(pSignalValues[i]);
+            }
+        }
+
+        if (!headless)
+            MemoryUtil.memFree(pSwapchain);
+    }
+}
@@ -2,6 +2,9 @@ package render;
 
 import lib.*;
 import org.lwjgl.vulkan.VkDebugUtilsMessengerCallbackEXT;
+import org.lwjgl.vulkan.VkExtent2D;
+
+import static org.lwjgl.vulkan.VK10.VK_FORMAT_R8G8B8A8_UNORM;
 
 public class VulkanRenderer {
 
@@ -9,6 +12,7 @@ public class VulkanRenderer {
     private VulkanSurface surface;
     private VulkanDevices devices;
     private VulkanSwapChain swapChain;
+    private VulkanOffscreenTarget offscreenTarget;
 
     public long getGraphicsPipeline() {
         return graphicsPipeline;
@@ -54,4 +58,37 @@ public class VulkanRenderer {
         devices = new VulkanDevices(instance, surface);
         swapChain = new VulkanSwapChain(devices,surface,window);
     }
+
+    /**
+     * Creates a headless renderer without a window, a surface or a swapchain. It renders into the images of a
+     * {@link VulkanOffscreenTarget} instead.
+     *
+     * @param width      - Width of the offscreen images.
+     * @param height     - Height of the offscreen images.
+     * @param imageCount - Number of offscreen images, has to be the number of frames in flight.
+     */
+    public VulkanRenderer(String appName, VkDebugUtilsMessengerCallbackEXT dbgFunc, int width, int height, int imageCount) {
+        instance = new VulkanInstance(appName, dbgFunc, true);
+        devices = new VulkanDevices(instance);
+        offscreenTarget = new VulkanOffscreenTarget(devices, width, height, VK_FORMAT_R8G8B8A8_UNORM,
+                VulkanOffscreenTarget.findDepthFormat(devices.getPhysicalDevice()), imageCount);
+    }
+
+    public boolean isHeadless() {
+        return offscreenTarget != null;
+    }
+
+    /**
+     * @return The offscreen images of a headless renderer, otherwise null.
+     */
+    public VulkanOffscreenTarget getOffscreenTarget() {
+        return offscreenTarget;
+    }
+
+    /**
+     * @return Extent of the swapchain, or of the offscreen images if headless.
+     */
+    public VkExtent2D getExtent() {
+        return isHeadless() ? offscreenTarget.getExtent() : swapChain.getExtent();
+    }
 }
@@ -0,0 +1,107 @@
+package lib;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BindlessHandleAllocatorTest {
+
+    @Test
+    void handsOutFreshHandlesFirst() {
+        BindlessHandleAllocator allocator = new BindlessHandleAllocator(4, 2);
+        allocator.beginFrame(0);
+
+        assertEquals(0, allocator.allocate());
+        assertEquals(1, allocator.allocate());
+
+        allocator.release(0);
+        allocator.beginFrame(1);
+        allocator.beginFrame(0);
+
+        // Handle 0 is free again, but the untouched handles come first
+        assertEquals(2, allocator.allocate());
+        assertEquals(3, allocator.allocate());
+        assertEquals(0, allocator.allocate());
+    }
+
+    @Test
+    void reusesHandlesOnlyOnceTheirFrameSlotBeginsAgain() {
+        BindlessHandleAllocator allocator = new BindlessHandleAllocator(2, 2);
+        allocator.beginFrame(0);
+
+        int first = allocator.allocate();
+        allocator.allocate();
+        allocator.release(first);
+
+        // The other frame in flight could still read the old descriptor
+        assertEquals(BindlessHandleAllocator.NO_HANDLE, allocator.allocate());
+        allocator.beginFrame(1);
+        assertEquals(BindlessHandleAllocator.NO_HANDLE, allocator.allocate());
+
+        allocator.beginFrame(0);
+        assertEquals(first, allocator.allocate());
+        assertEquals(BindlessHandleAllocator.NO_HANDLE, allocator.allocate());
+    }
+
+    @Test
+    void tracksTheLiveHandles() {
+        BindlessHandleAllocator allocator = new BindlessHandleAllocator(8, 3);
+        allocator.beginFrame(0);
+
+        int a = allocator.allocate();
+        int b = allocator.allocate();
+        assertEquals(2, allocator.getLiveCount());
+        assertTrue(allocator.isAllocated(a));
+
+        allocator.release(a);
+        assertEquals(1, allocator.getLiveCount());
+        assertFalse(allocator.isAllocated(a));
+        assertTrue(allocator.isAllocated(b));
+
+        assertFalse(allocator.isAllocated(-1));
+        assertFalse(allocator.isAllocated(8));
+        assertEquals(8, allocator.getCapacity());
+    }
+
+    @Test
+    void rejectsInvalidReleases() {
+        BindlessHandleAllocator allocator = new BindlessHandleAllocator(4, 2);
+        allocator.beginFrame(0);
+
+        int handle = allocator.allocate();
+        allocator.release(handle);
+
+        assertThrows(IllegalArgumentException.class, () -> allocator.release(handle));
+        assertThrows(IllegalArgumentException.class, () -> allocator.release(3));
+        assertThrows(IllegalArgumentException.class, () -> allocator.release(-1));
+        assertThrows(IllegalArgumentException.class, () -> allocator.release(4));
+        assertThrows(IllegalArgumentException.class, () -> new BindlessHandleAllocator(0, 2));
+    }
+
+    @Test
+    void retiresMoreHandlesThanTheInitialLists() {
+        int capacity = 100;
+        BindlessHandleAllocator allocator = new BindlessHandleAllocator(capacity, 2);
+        allocator.beginFrame(0);
+
+        for (int i = 0; i < capacity; i++)
+            allocator.allocate();
+
+        // Grows both the retired list of the frame and the free list past their initial 16 entries
+        for (int i = 0; i < capacity; i++)
+            allocator.release(i);
+
+        allocator.beginFrame(1);
+        allocator.beginFrame(0);
+
+        Set<Integer> handles = new HashSet<>();
+        for (int i = 0; i < capacity; i++)
+            assertTrue(handles.add(allocator.allocate()));
+
+        assertEquals(capacity, allocator.getLiveCount());
+        assertEquals(BindlessHandleAllocator.NO_HANDLE, allocator.allocate());
+    }
+}
@@ -0,0 +1,68 @@
+package lib;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.vulkan.VK10.VK_INDEX_TYPE_UINT16;
+import static org.lwjgl.vulkan.VK10.VK_INDEX_TYPE_UINT32;
+
+class EncodedIndicesTest {
+
+    @Test
+    void narrowsSmallMeshesTo16Bits() {
+        int[] indices = {0, 1, 2, 2, 1, 0xFFFE};
+        EncodedIndices encoded = EncodedIndices.encode(indices, EncodedIndices.MAX_UINT16_VERTEX_COUNT);
+
+        assertEquals(VK_INDEX_TYPE_UINT16, encoded.getIndexType());
+        assertEquals(indices.length, encoded.getIndexCount());
+        assertEquals(indices.length * 2, encoded.getSizeInBytes());
+        assertEquals(indices.length * 2, encoded.getSavedBytes());
+
+        ByteBuffer data = encoded.getData().order(ByteOrder.nativeOrder());
+        for (int i = 0; i < indices.length; i++)
+            assertEquals(indices[i], data.getShort(i * 2) & 0xFFFF);
+
+        encoded.free();
+    }
+
+    @Test
+    void keeps32BitsWhenAnIndexWouldHitThePrimitiveRestartValue() {
+        int[] indices = {0, 0xFFFF, 70_000};
+        EncodedIndices encoded = EncodedIndices.encode(indices, EncodedIndices.MAX_UINT16_VERTEX_COUNT + 70_000);
+
+        assertEquals(VK_INDEX_TYPE_UINT32, encoded.getIndexType());
+        assertEquals(indices.length * 4, encoded.getSizeInBytes());
+        assertEquals(0, encoded.getSavedBytes());
+
+        ByteBuffer data = encoded.getData().order(ByteOrder.nativeOrder());
+        for (int i = 0; i < indices.length; i++)
+            assertEquals(indices[i], data.getInt(i * 4));
+
+        encoded.free();
+    }
+
+    @Test
+    void encodesFromThePositionToTheLimit() {
+        IntBuffer indices = IntBuffer.wrap(new int[]{9, 9, 1, 2, 3, 9});
+        indices.position(2).limit(5);
+
+        EncodedIndices encoded = EncodedIndices.encode(indices, 4);
+        ByteBuffer data = encoded.getData().order(ByteOrder.nativeOrder());
+
+        assertEquals(3, encoded.getIndexCount());
+        assertEquals(1, data.getShort(0));
+        assertEquals(3, data.getShort(4));
+
+        encoded.free();
+    }
+
+    @Test
+    void rejectsIndicesOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> EncodedIndices.encode(new int[]{0, 1, 3}, 3));
+        assertThrows(IllegalArgumentException.class, () -> EncodedIndices.encode(new int[]{0, -1, 2}, 3));
+    }
+}
@@ -0,0 +1,156 @@
+package lib;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FreeListAllocatorTest {
+
+    @Test
+    void allocatesAlignedRanges() {
+        FreeListAllocator allocator = new FreeListAllocator(1024);
+
+        long first = allocator.allocate(10, 1);
+        long second = allocator.allocate(16, 64);
+
+        assertEquals(0, first);
+        assertEquals(64, second);
+        assertEquals(26, allocator.getUsedBytes());
+        assertEquals(2, allocator.getAllocationCount());
+
+        // The padding in front of the aligned range stays free
+        assertEquals(2, allocator.getFreeRangeCount());
+    }
+
+    @Test
+    void returnsNoSpaceWhenFull() {
+        FreeListAllocator allocator = new FreeListAllocator(256);
+
+        assertEquals(0, allocator.allocate(256, 1));
+        assertEquals(FreeListAllocator.NO_SPACE, allocator.allocate(1, 1));
+        assertEquals(0, allocator.getFreeBytes());
+    }
+
+    @Test
+    void choosesTheBestFittingRange() {
+        FreeListAllocator allocator = new FreeListAllocator(1000);
+
+        long a = allocator.allocate(100, 1);
+        allocator.allocate(10, 1);
+        long c = allocator.allocate(50, 1);
+        allocator.allocate(10, 1);
+
+        allocator.free(a);
+        allocator.free(c);
+
+        // The 50 byte hole fits better than the 100 byte one or the tail
+        assertEquals(c, allocator.allocate(40, 1));
+    }
+
+    @Test
+    void coalescesNeighboursOnFree() {
+        FreeListAllocator allocator = new FreeListAllocator(300);
+
+        long a = allocator.allocate(100, 1);
+        long b = allocator.allocate(100, 1);
+        long c = allocator.allocate(100, 1);
+
+        allocator.free(a);
+        allocator.free(c);
+        assertEquals(2, allocator.getFreeRangeCount());
+        assertEquals(100, allocator.getLargestFreeRange());
+
+        allocator.free(b);
+        assertEquals(1, allocator.getFreeRangeCount());
+        assertEquals(300, allocator.getLargestFreeRange());
+        assertEquals(0.0, allocator.getFragmentation());
+        assertTrue(allocator.isEmpty());
+    }
+
+    @Test
+    void reportsFragmentation() {
+        FreeListAllocator allocator = new FreeListAllocator(400);
+
+        long a = allocator.allocate(100, 1);
+        allocator.allocate(100, 1);
+        long c = allocator.allocate(100, 1);
+        allocator.allocate(100, 1);
+
+        allocator.free(a);
+        allocator.free(c);
+
+        assertEquals(200, allocator.getFreeBytes());
+        assertEquals(0.5, allocator.getFragmentation(), 1e-9);
+    }
+
+    @Test
+    void resetFreesEverything() {
+        FreeListAllocator allocator = new FreeListAllocator(128);
+        allocator.allocate(32, 16);
+        allocator.allocate(32, 16);
+
+        allocator.reset();
+
+        assertTrue(allocator.isEmpty());
+        assertEquals(0, allocator.getUsedBytes());
+        assertEquals(128, allocator.getLargestFreeRange());
+    }
+
+    @Test
+    void rejectsInvalidArguments() {
+        FreeListAllocator allocator = new FreeListAllocator(128);
+
+        assertThrows(IllegalArgumentException.class, () -> new FreeListAllocator(0));
+        assertThrows(IllegalArgumentException.class, () -> allocator.allocate(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> allocator.allocate(16, 3));
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(8));
+
+        long offset = allocator.allocate(16, 1);
+        allocator.free(offset);
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(offset));
+    }
+
+    @Test
+    void randomAllocationsNeverOverlap() {
+        FreeListAllocator allocator = new FreeListAllocator(1 << 16);
+        Random random = new Random(42);
+
+        List<long[]> live = new ArrayList<>();
+
+        for (int i = 0; i < 10_000; i++) {
+            if (!live.isEmpty() && random.nextInt(3) == 0) {
+                long[] range = live.remove(random.nextInt(live.size()));
+                allocator.free(range[0]);
+                continue;
+            }
+
+            long size = 1 + random.nextInt(512);
+            long alignment = 1L << random.nextInt(8);
+            long offset = allocator.allocate(size, alignment);
+
+            if (offset == FreeListAllocator.NO_SPACE)
+                continue;
+
+            assertEquals(0, offset % alignment);
+            assertTrue(offset + size <= allocator.getCapacity());
+
+            for (long[] other : live)
+                assertTrue(offset + size <= other[0] || other[0] + other[1] <= offset, "Allocations overlap");
+
+            live.add(new long[]{offset, size});
+        }
+
+        long used = live.stream().mapToLong(range -> range[1]).sum();
+        assertEquals(used, allocator.getUsedBytes());
+
+        for (long[] range : live)
+            allocator.free(range[0]);
+
+        assertEquals(1, allocator.getFreeRangeCount());
+        assertEquals(allocator.getCapacity(), allocator.getLargestFreeRange());
+    }
+}
@@ -0,0 +1,70 @@
+package lib;
+
+import org.junit.jupiter.api.Test;
+import org.lwjgl.vulkan.VkDrawIndexedIndirectCommand;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndirectCommandBuilderTest {
+
+    @Test
+    void writesTightlyPackedCommands() {
+        assertEquals(20, IndirectCommandBuilder.STRIDE);
+
+        // The capacity of 1 makes the memory grow twice
+        IndirectCommandBuilder builder = new IndirectCommandBuilder(1);
+
+        for (int i = 0; i < 3; i++)
+            assertEquals(i, builder.add(36 * (i + 1), 1, 36 * i, 8 * i, i));
+
+        ByteBuffer data = builder.getData();
+        assertEquals(3 * IndirectCommandBuilder.STRIDE, data.remaining());
+        assertEquals(3, builder.getCommandCount());
+
+        VkDrawIndexedIndirectCommand.Buffer commands = new VkDrawIndexedIndirectCommand.Buffer(data);
+        for (int i = 0; i < 3; i++) {
+            VkDrawIndexedIndirectCommand command = commands.get(i);
+
+            assertEquals(36 * (i + 1), command.indexCount());
+            assertEquals(1, command.instanceCount());
+            assertEquals(36 * i, command.firstIndex());
+            assertEquals(8 * i, command.vertexOffset());
+            assertEquals(i, command.firstInstance());
+        }
+
+        builder.free();
+    }
+
+    @Test
+    void changesTheInstanceCountOfAddedCommands() {
+        IndirectCommandBuilder builder = new IndirectCommandBuilder(4);
+        builder.add(3, 1, 0, 0, 0);
+        builder.add(3, 1, 3, 0, 1);
+
+        builder.setInstanceCount(0, 0);
+
+        VkDrawIndexedIndirectCommand.Buffer commands = new VkDrawIndexedIndirectCommand.Buffer(builder.getData());
+        assertEquals(0, commands.get(0).instanceCount());
+        assertEquals(1, commands.get(1).instanceCount());
+
+        assertThrows(IndexOutOfBoundsException.class, () -> builder.setInstanceCount(2, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> builder.setInstanceCount(-1, 0));
+
+        builder.free();
+    }
+
+    @Test
+    void resetDiscardsTheCommands() {
+        IndirectCommandBuilder builder = new IndirectCommandBuilder(2);
+        builder.add(3, 1, 0, 0, 0);
+        builder.reset();
+
+        assertEquals(0, builder.getCommandCount());
+        assertEquals(0, builder.getData().remaining());
+        assertEquals(0, builder.add(6, 2, 0, 0, 0));
+
+        builder.free();
+    }
+}
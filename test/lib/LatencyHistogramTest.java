@@ -0,0 +1,112 @@
+package lib;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsCoverTheirValues() {
+        Random random = new Random(7);
+
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> (20 + random.nextInt(44));
+            int index = LatencyHistogram.bucketIndex(value);
+
+            assertTrue(index >= 0 && index < LatencyHistogram.BUCKET_COUNT);
+            assertTrue(LatencyHistogram.bucketLowerBound(index) <= value);
+
+            if (index + 1 < LatencyHistogram.BUCKET_COUNT)
+                assertTrue(value < LatencyHistogram.bucketLowerBound(index + 1));
+        }
+    }
+
+    @Test
+    void bucketBoundsIncrease() {
+        for (int i = 1; i < LatencyHistogram.BUCKET_COUNT; i++)
+            assertTrue(LatencyHistogram.bucketLowerBound(i - 1) < LatencyHistogram.bucketLowerBound(i));
+
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    void percentilesStayWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        Random random = new Random(11);
+
+        long[] values = new long[50_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1_000 + (long) (random.nextDouble() * random.nextDouble() * 50_000_000L);
+            histogram.record(values[i]);
+        }
+
+        Arrays.sort(values);
+
+        for (double percentile : new double[]{1, 25, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100.0 * values.length) - 1];
+            long reported = histogram.getPercentile(percentile);
+
+            assertEquals(exact, reported, exact / 32.0, "p" + percentile);
+        }
+
+        long max = values[values.length - 1];
+        assertEquals(max, histogram.getMax());
+        assertEquals(max, histogram.getPercentile(100), max / 32.0);
+    }
+
+    @Test
+    void tracksCountMeanAndMax() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0.0, histogram.getMean());
+
+        histogram.record(10);
+        histogram.record(-5);
+        histogram.record(1L << 50);
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(1L << 50, histogram.getMax());
+        assertEquals(((1L << 50) + 10) / 3.0, histogram.getMean(), 1.0);
+
+        // Values past the last bucket are clamped into it, only the maximum stays exact
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(1L << 50));
+        assertTrue(histogram.getPercentile(100) >= LatencyHistogram.bucketLowerBound(LatencyHistogram.BUCKET_COUNT - 1));
+        assertEquals(0, histogram.getPercentile(1));
+    }
+
+    @Test
+    void resetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(123);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    void concurrentRecordsAreNotLost() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++)
+                    histogram.record(i + offset);
+            });
+            threads[t].start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(400_000, histogram.getCount());
+        assertEquals(99_999 + 3, histogram.getMax());
+    }
+}
@@ -0,0 +1,96 @@
+package lib;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhaseTimersTest {
+
+    @Test
+    void registeringANameTwiceReturnsTheSameId() {
+        PhaseTimers timers = new PhaseTimers();
+
+        int acquire = timers.register("acquire");
+        int submit = timers.register("submit");
+
+        assertNotEquals(acquire, submit);
+        assertEquals(acquire, timers.register("acquire"));
+        assertEquals(2, timers.getPhases().size());
+    }
+
+    @Test
+    void stopRecordsIntoThePhase() {
+        PhaseTimers timers = new PhaseTimers();
+        int phase = timers.register("phase");
+
+        long start = timers.start();
+        long next = timers.stop(phase, start);
+        timers.stop(phase, next);
+
+        assertEquals(2, timers.getPhase(phase).getCount());
+        assertTrue(next >= start);
+    }
+
+    @Test
+    void frameTickMeasuresFramesAndJitter() {
+        PhaseTimers timers = new PhaseTimers();
+
+        for (int i = 0; i < 4; i++)
+            timers.frameTick();
+
+        // The first tick only starts the clock, the first frame time has no previous one to differ from
+        assertEquals(3, timers.getFrameTime().getCount());
+        assertEquals(2, timers.getFrameJitter().getCount());
+        assertTrue(timers.getAverageFps() > 0.0);
+    }
+
+    @Test
+    void dumpPrintsEveryPhase() {
+        PhaseTimers timers = new PhaseTimers();
+        timers.register("fenceWait");
+        timers.register("present");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        timers.dump(new PrintStream(out, true));
+
+        String dump = out.toString();
+        assertTrue(dump.contains("frame"));
+        assertTrue(dump.contains("jitter"));
+        assertTrue(dump.contains("fenceWait"));
+        assertTrue(dump.contains("present"));
+    }
+
+    @Test
+    void lateRegistrationDoesntBreakReaders() throws InterruptedException {
+        PhaseTimers timers = new PhaseTimers();
+        int phase = timers.register("phase");
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        PrintStream discard = new PrintStream(new ByteArrayOutputStream());
+
+        Thread reader = new Thread(() -> {
+            try {
+                for (int i = 0; i < 200; i++) {
+                    timers.stop(phase, timers.start());
+                    timers.dump(discard);
+                    timers.reset();
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+
+        for (int i = 0; i < 100; i++)
+            timers.register("late" + i);
+
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(101, timers.getPhases().size());
+    }
+}
@@ -0,0 +1,54 @@
+package lib;
+
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.vulkan.VK10.VK_SHADER_STAGE_VERTEX_BIT;
+
+class PushConstantsTest {
+
+    @Test
+    void acceptsValuesInsideTheRange() {
+        PushConstants constants = new PushConstants(VK_SHADER_STAGE_VERTEX_BIT, 16, 80);
+
+        assertDoesNotThrow(() -> constants
+                .putMatrix4(16, new Matrix4f())
+                .putVector4(80, new Vector4f())
+                .putInt(88, 1)
+                .putFloat(92, 1.f));
+
+        assertEquals(16, constants.getOffset());
+        assertEquals(80, constants.getSize());
+        assertEquals(VK_SHADER_STAGE_VERTEX_BIT, constants.getStageFlags());
+
+        constants.free();
+    }
+
+    @Test
+    void rejectsValuesOutsideTheRange() {
+        PushConstants constants = new PushConstants(VK_SHADER_STAGE_VERTEX_BIT, 16, 64);
+
+        // Before the range
+        assertThrows(IndexOutOfBoundsException.class, () -> constants.putInt(12, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> constants.putFloat(0, 1.f));
+
+        // Starting inside, but ending past the range
+        assertThrows(IndexOutOfBoundsException.class, () -> constants.putInt(80, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> constants.putVector4(72, new Vector4f()));
+        assertThrows(IndexOutOfBoundsException.class, () -> constants.putMatrix4(20, new Matrix4f()));
+
+        // Exactly at the end
+        assertDoesNotThrow(() -> constants.putInt(76, 1).putVector4(64, new Vector4f()));
+
+        constants.free();
+    }
+
+    @Test
+    void rejectsUnalignedRanges() {
+        assertThrows(IllegalArgumentException.class, () -> new PushConstants(VK_SHADER_STAGE_VERTEX_BIT, 2, 16));
+        assertThrows(IllegalArgumentException.class, () -> new PushConstants(VK_SHADER_STAGE_VERTEX_BIT, 0, 6));
+        assertThrows(IllegalArgumentException.class, () -> new PushConstants(VK_SHADER_STAGE_VERTEX_BIT, 0, 0));
+    }
+}
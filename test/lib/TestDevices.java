@@ -0,0 +1,61 @@
+package lib;
+
+import org.junit.jupiter.api.Assumptions;
+
+import static org.lwjgl.vulkan.VK10.*;
+
+/**
+ * Headless instance and devices for the tests which need a GPU. Without a Vulkan driver the test is skipped instead of
+ * failing, a software ICD such as lavapipe (selected through VK_ICD_FILENAMES) is enough to run it.
+ */
+public final class TestDevices implements AutoCloseable {
+
+    public final VulkanInstance instance;
+    public final VulkanDevices devices;
+
+    private TestDevices(VulkanInstance instance, VulkanDevices devices) {
+        this.instance = instance;
+        this.devices = devices;
+    }
+
+    /**
+     * Creates the instance and devices, or aborts the calling test if there isn't any usable Vulkan device.
+     */
+    public static TestDevices createOrSkip() {
+        VulkanInstance instance;
+        try {
+            VulkanUtils.enableValidationLayers = false;
+            instance = new VulkanInstance("test", null, true);
+        } catch (Throwable e) {
+            Assumptions.abort("No Vulkan driver available: " + e);
+            throw new AssertionError(e);
+        }
+
+        try {
+            return new TestDevices(instance, new VulkanDevices(instance));
+        } catch (Throwable e) {
+            vkDestroyInstance(instance.getVkInstance(), null);
+            Assumptions.abort("No usable Vulkan device: " + e);
+            throw new AssertionError(e);
+        }
+    }
+
+    public VulkanLogicalDevice getLogicalDevice() {
+        return devices.getLogicalDevice();
+    }
+
+    @Override
+    public void close() {
+        vkDeviceWaitIdle(devices.getVkDevice());
+
+        devices.destroyTimelines();
+        devices.getVma().destroy(devices.getLogicalDevice());
+
+        // Not through VulkanPipelineCache.destroy(), the tests mustn't write the cache file of the application
+        vkDestroyPipelineCache(devices.getVkDevice(), devices.getPipelineCache().getPipelineCachePtr(), null);
+        devices.getPhysicalDevice().destroy();
+
+        vkDestroyDevice(devices.getVkDevice(), null);
+        vkDestroyInstance(instance.getVkInstance(), null);
+    }
+}
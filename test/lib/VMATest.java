@@ -0,0 +1,56 @@
+package lib;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.util.vma.Vma.VMA_MEMORY_USAGE_CPU_TO_GPU;
+import static org.lwjgl.vulkan.VK10.*;
+
+class VMATest {
+
+    private static final int BUFFER_COUNT = 256;
+
+    @Test
+    void buffersShareMemoryBlocks() {
+        try (TestDevices test = TestDevices.createOrSkip()) {
+            VulkanDevices devices = test.devices;
+            VMA vma = devices.getVma();
+
+            int allocationsBefore = vma.getAllocationCount();
+            int blocksBefore = vma.getBlockCount();
+
+            List<VulkanBuffers.Buffer> buffers = new ArrayList<>();
+
+            for (int i = 0; i < BUFFER_COUNT; i++) {
+                buffers.add(devices.createBuffer(VK_BUFFER_USAGE_VERTEX_BUFFER_BIT, VK_SHARING_MODE_EXCLUSIVE,
+                        VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 1024));
+            }
+
+            assertEquals(allocationsBefore + BUFFER_COUNT, vma.getAllocationCount());
+
+            // Without VMA every buffer would be a vkAllocateMemory call of its own
+            int newBlocks = vma.getBlockCount() - blocksBefore;
+            assertTrue(newBlocks <= 2, String.format("%d buffers took %d memory blocks", BUFFER_COUNT, newBlocks));
+
+            for (VulkanBuffers.Buffer buffer : buffers)
+                buffer.destroy(test.getLogicalDevice());
+
+            assertEquals(allocationsBefore, vma.getAllocationCount());
+        }
+    }
+
+    @Test
+    void mappedBuffersStayMapped() {
+        try (TestDevices test = TestDevices.createOrSkip()) {
+            VulkanBuffers.Buffer buffer = test.devices.getVma().createMappedBuffer(VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT,
+                    VK_SHARING_MODE_EXCLUSIVE, VMA_MEMORY_USAGE_CPU_TO_GPU, 256);
+
+            assertNotEquals(0L, buffer.pMappedData);
+
+            buffer.destroy(test.getLogicalDevice());
+        }
+    }
+}
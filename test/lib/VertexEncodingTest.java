@@ -0,0 +1,173 @@
+package lib;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.vulkan.VK10.*;
+
+class VertexEncodingTest {
+
+    private ByteBuffer scratch;
+    private long address;
+    private final float[] decoded = new float[4];
+
+    @BeforeEach
+    void allocate() {
+        scratch = MemoryUtil.memAlloc(16);
+        address = MemoryUtil.memAddress(scratch);
+    }
+
+    @AfterEach
+    void free() {
+        MemoryUtil.memFree(scratch);
+    }
+
+    @Test
+    void halfRoundTripsEveryHalf() {
+        for (int bits = 0; bits <= 0xFFFF; bits++) {
+            short half = (short) bits;
+            float value = VertexEncoding.halfToFloat(half);
+
+            if (Float.isNaN(value))
+                assertTrue(Float.isNaN(VertexEncoding.halfToFloat(VertexEncoding.floatToHalf(value))));
+            else
+                assertEquals(half, VertexEncoding.floatToHalf(value), String.format("Half 0x%04X", bits));
+        }
+    }
+
+    @Test
+    void halfRoundsToNearestEven() {
+        // 2049 lies exactly between the halves 2048 and 2050, the even mantissa (2048) wins
+        assertEquals(2048.f, VertexEncoding.halfToFloat(VertexEncoding.floatToHalf(2049.f)));
+        assertEquals(2052.f, VertexEncoding.halfToFloat(VertexEncoding.floatToHalf(2051.f)));
+
+        assertEquals(65504.f, VertexEncoding.halfToFloat(VertexEncoding.floatToHalf(65504.f)));
+        assertEquals(Float.POSITIVE_INFINITY, VertexEncoding.halfToFloat(VertexEncoding.floatToHalf(1e6f)));
+        assertEquals(0.f, VertexEncoding.halfToFloat(VertexEncoding.floatToHalf(1e-10f)));
+    }
+
+    @Test
+    void halfKeepsTheRelativeError() {
+        Random random = new Random(3);
+
+        for (int i = 0; i < 10_000; i++) {
+            float value = (random.nextFloat() * 2.f - 1.f) * 1000.f;
+            VertexEncoding.HALF.encode(address, 1, value, 0.f, 0.f, 0.f);
+            VertexEncoding.HALF.decode(address, 1, decoded);
+
+            assertEquals(value, decoded[0], Math.max(Math.abs(value) / 2048.f, 1e-4f));
+        }
+    }
+
+    @Test
+    void unorm8RoundTripsWithinHalfAStep() {
+        for (int i = 0; i <= 1000; i++) {
+            float value = i / 1000.f;
+            VertexEncoding.UNORM8.encode(address, 1, value, 0.f, 0.f, 0.f);
+            VertexEncoding.UNORM8.decode(address, 1, decoded);
+
+            assertEquals(value, decoded[0], 0.5f / 255.f + 1e-6f);
+        }
+
+        VertexEncoding.UNORM8.encode(address, 2, -1.f, 2.f, 0.f, 0.f);
+        VertexEncoding.UNORM8.decode(address, 2, decoded);
+        assertEquals(0.f, decoded[0]);
+        assertEquals(1.f, decoded[1]);
+    }
+
+    @Test
+    void snorm16RoundTripsWithinHalfAStep() {
+        for (int i = -1000; i <= 1000; i++) {
+            float value = i / 1000.f;
+            short encoded = VertexEncoding.toSnorm16(value);
+
+            assertEquals(value, VertexEncoding.fromSnorm16(encoded), 0.5f / 32767.f + 1e-6f);
+        }
+
+        assertEquals(-1.f, VertexEncoding.fromSnorm16(VertexEncoding.toSnorm16(-1.f)));
+        assertEquals(1.f, VertexEncoding.fromSnorm16(VertexEncoding.toSnorm16(1.f)));
+        assertEquals(-1.f, VertexEncoding.fromSnorm16(Short.MIN_VALUE));
+    }
+
+    @Test
+    void octahedralKeepsTheDirection() {
+        Random random = new Random(5);
+        double maxAngle = 0.0;
+
+        for (int i = 0; i < 100_000; i++) {
+            float x = (float) random.nextGaussian();
+            float y = (float) random.nextGaussian();
+            float z = (float) random.nextGaussian();
+            float length = (float) Math.sqrt(x * x + y * y + z * z);
+
+            maxAngle = Math.max(maxAngle, octahedralAngle(x / length, y / length, z / length));
+        }
+
+        float[][] axes = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+        for (float[] axis : axes)
+            maxAngle = Math.max(maxAngle, octahedralAngle(axis[0], axis[1], axis[2]));
+
+        assertTrue(maxAngle < 0.01, String.format("Maximum error %.5f degrees", maxAngle));
+    }
+
+    @Test
+    void formatsAndSizes() {
+        assertEquals(VK_FORMAT_R32G32B32_SFLOAT, VertexEncoding.FLOAT32.getFormat(3));
+        assertEquals(12, VertexEncoding.FLOAT32.getSize(3));
+
+        // 3 components are padded to 4
+        assertEquals(VK_FORMAT_R16G16B16A16_SFLOAT, VertexEncoding.HALF.getFormat(3));
+        assertEquals(8, VertexEncoding.HALF.getSize(3));
+        assertEquals(VK_FORMAT_R8G8B8A8_UNORM, VertexEncoding.UNORM8.getFormat(3));
+        assertEquals(4, VertexEncoding.UNORM8.getSize(3));
+        assertEquals(VK_FORMAT_R16G16_SNORM, VertexEncoding.SNORM16.getFormat(2));
+        assertEquals(4, VertexEncoding.SNORM16.getSize(2));
+
+        assertEquals(VK_FORMAT_R16G16_SNORM, VertexEncoding.OCTAHEDRAL.getFormat(3));
+        assertEquals(4, VertexEncoding.OCTAHEDRAL.getSize(3));
+
+        assertThrows(IllegalArgumentException.class, () -> VertexEncoding.HALF.getFormat(5));
+        assertThrows(IllegalArgumentException.class, () -> VertexEncoding.OCTAHEDRAL.getFormat(2));
+    }
+
+    @Test
+    void builderMeasuresTheEncodingError() {
+        VulkanBuffers.VertexBuffer layout = new VulkanBuffers.VertexBuffer(0, new VulkanBuffers.Attribute[]{
+                new VulkanBuffers.Attribute(0, VertexEncoding.OCTAHEDRAL, 3, 0),
+                new VulkanBuffers.Attribute(1, VertexEncoding.FLOAT32, 2, 4),
+        });
+
+        VertexStreamBuilder builder = new VertexStreamBuilder(layout, VertexStreamBuilder.Layout.INTERLEAVED, 16);
+        builder.setMeasureEncodingErrors(true);
+
+        for (int i = 0; i < 100; i++)
+            builder.vertex().put(0, i, 1.f, -2.f).put(1, i, i);
+
+        VertexEncoding.EncodingError normalError = builder.getEncodingError(0);
+
+        assertEquals(100, normalError.getCount());
+        assertTrue(normalError.getMaxError() < 1e-3);
+        assertTrue(normalError.getMeanError() <= normalError.getMaxError());
+
+        builder.free();
+    }
+
+    private double octahedralAngle(float x, float y, float z) {
+        VertexEncoding.OCTAHEDRAL.encode(address, 3, x, y, z, 0.f);
+        VertexEncoding.OCTAHEDRAL.decode(address, 3, decoded);
+
+        // The cross product keeps the precision for tiny angles, where acos of the dot product wouldn't
+        double cx = (double) y * decoded[2] - (double) z * decoded[1];
+        double cy = (double) z * decoded[0] - (double) x * decoded[2];
+        double cz = (double) x * decoded[1] - (double) y * decoded[0];
+        double dot = (double) x * decoded[0] + (double) y * decoded[1] + (double) z * decoded[2];
+
+        return Math.toDegrees(Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), dot));
+    }
+}
@@ -0,0 +1,195 @@
+package lib;
+
+import org.junit.jupiter.api.Test;
+import org.lwjgl.vulkan.VkVertexInputAttributeDescription;
+import org.lwjgl.vulkan.VkVertexInputBindingDescription;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.vulkan.VK10.*;
+
+class VertexStreamBuilderTest {
+
+    // Position (3 floats) followed by a color of 4 normalized bytes
+    private static final VulkanBuffers.VertexBuffer LAYOUT = new VulkanBuffers.VertexBuffer(0, new VulkanBuffers.Attribute[]{
+            new VulkanBuffers.Attribute(0, VK_FORMAT_R32G32B32_SFLOAT, 0, 12),
+            new VulkanBuffers.Attribute(1, VertexEncoding.UNORM8, 4, 12),
+    });
+
+    private static final int POSITION_SIZE = 12;
+    private static final int COLOR_SIZE = 4;
+
+    @Test
+    void writesInterleavedVertices() {
+        VertexStreamBuilder builder = new VertexStreamBuilder(LAYOUT, VertexStreamBuilder.Layout.INTERLEAVED, 1);
+
+        for (int i = 0; i < 5; i++)
+            builder.vertex().put(0, i, i + 0.5f, -i).put(1, 1.f, 0.f, 1.f, 0.f);
+
+        ByteBuffer data = builder.build().order(ByteOrder.nativeOrder());
+        int stride = LAYOUT.getStride();
+
+        assertEquals(5 * stride, data.remaining());
+        assertEquals(5, builder.getVertexCount());
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i + 0.5f, data.getFloat(i * stride + 4));
+            assertEquals(-i, data.getFloat(i * stride + 8));
+            assertEquals((byte) 0xFF, data.get(i * stride + POSITION_SIZE));
+            assertEquals((byte) 0x00, data.get(i * stride + POSITION_SIZE + 1));
+        }
+
+        builder.free();
+    }
+
+    @Test
+    void packsStructOfArraysStreams() {
+        // The capacity of 2 makes the streams move while they grow
+        VertexStreamBuilder builder = new VertexStreamBuilder(LAYOUT, VertexStreamBuilder.Layout.STRUCT_OF_ARRAYS, 2);
+
+        for (int i = 0; i < 7; i++)
+            builder.vertex().put(0, i, 2 * i, 3 * i).put(1, 0.f, 0.f, 0.f, 1.f);
+
+        ByteBuffer data = builder.build().order(ByteOrder.nativeOrder());
+        assertStructOfArrays(builder, data, 7);
+
+        builder.free();
+    }
+
+    @Test
+    void emptyBuildsAreEmpty() {
+        for (VertexStreamBuilder.Layout layout : VertexStreamBuilder.Layout.values()) {
+            VertexStreamBuilder builder = new VertexStreamBuilder(LAYOUT, layout, 4);
+
+            assertEquals(0, builder.build().remaining());
+            assertEquals(0, builder.getSizeInBytes());
+
+            // Vertices added after an empty build land in valid streams
+            for (int i = 0; i < 9; i++)
+                builder.vertex().put(0, i, 2 * i, 3 * i).put(1, 0.f, 0.f, 0.f, 1.f);
+
+            ByteBuffer data = builder.build().order(ByteOrder.nativeOrder());
+
+            if (layout == VertexStreamBuilder.Layout.STRUCT_OF_ARRAYS)
+                assertStructOfArrays(builder, data, 9);
+            else
+                assertEquals(9 * LAYOUT.getStride(), data.remaining());
+
+            builder.free();
+        }
+    }
+
+    @Test
+    void addingVerticesAfterBuildKeepsTheOldOnes() {
+        VertexStreamBuilder builder = new VertexStreamBuilder(LAYOUT, VertexStreamBuilder.Layout.STRUCT_OF_ARRAYS, 8);
+
+        for (int i = 0; i < 3; i++)
+            builder.vertex().put(0, i, 2 * i, 3 * i).put(1, 0.f, 0.f, 0.f, 1.f);
+
+        builder.build();
+
+        // Stays within the capacity first, then grows past it
+        for (int i = 3; i < 20; i++) {
+            builder.vertex().put(0, i, 2 * i, 3 * i).put(1, 0.f, 0.f, 0.f, 1.f);
+
+            if (i % 5 == 0)
+                builder.build();
+        }
+
+        assertStructOfArrays(builder, builder.build().order(ByteOrder.nativeOrder()), 20);
+
+        builder.free();
+    }
+
+    @Test
+    void attributesWhichArentPutAreZero() {
+        for (VertexStreamBuilder.Layout layout : VertexStreamBuilder.Layout.values()) {
+            VertexStreamBuilder builder = new VertexStreamBuilder(LAYOUT, layout, 2);
+
+            builder.vertex().put(0, 1.f, 2.f, 3.f).put(1, 1.f, 1.f, 1.f, 1.f);
+            builder.reset();
+
+            // Reuses the memory the previous vertex was written to
+            builder.vertex().put(1, 1.f, 1.f, 1.f, 1.f);
+            builder.vertex().put(0, 1.f, 1.f, 1.f);
+
+            ByteBuffer data = builder.build().order(ByteOrder.nativeOrder());
+            long positions = builder.getStreamOffset(0);
+            long colors = builder.getStreamOffset(1);
+            int stride = layout == VertexStreamBuilder.Layout.INTERLEAVED ? LAYOUT.getStride() : 0;
+
+            for (int i = 0; i < 3; i++)
+                assertEquals(0.f, data.getFloat((int) positions + i * 4), layout.name());
+
+            int secondColor = layout == VertexStreamBuilder.Layout.INTERLEAVED
+                    ? stride + POSITION_SIZE
+                    : (int) colors + COLOR_SIZE;
+
+            assertEquals(0, data.getInt(secondColor), layout.name());
+
+            builder.free();
+        }
+    }
+
+    @Test
+    void rejectsInvalidWrites() {
+        VertexStreamBuilder builder = new VertexStreamBuilder(LAYOUT, VertexStreamBuilder.Layout.INTERLEAVED, 2);
+
+        assertThrows(IllegalStateException.class, () -> builder.put(0, 1.f));
+
+        builder.vertex();
+        // 4 floats don't fit into the 12 bytes of the position
+        assertThrows(IllegalArgumentException.class, () -> builder.put(0, 1.f, 2.f, 3.f, 4.f));
+
+        builder.free();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new VertexStreamBuilder(LAYOUT, VertexStreamBuilder.Layout.INTERLEAVED, 0));
+    }
+
+    @Test
+    void describesTheChosenLayout() {
+        VertexStreamBuilder interleaved = new VertexStreamBuilder(LAYOUT, VertexStreamBuilder.Layout.INTERLEAVED, 1);
+        VkVertexInputBindingDescription.Buffer binding = interleaved.createBindingDescriptions(2);
+        VkVertexInputAttributeDescription.Buffer attributes = interleaved.createAttributeDescriptions(2);
+
+        assertEquals(1, binding.capacity());
+        assertEquals(LAYOUT.getStride(), binding.get(0).stride());
+        assertEquals(2, attributes.get(1).binding());
+        assertEquals(POSITION_SIZE, attributes.get(1).offset());
+        interleaved.free();
+
+        VertexStreamBuilder streams = new VertexStreamBuilder(LAYOUT, VertexStreamBuilder.Layout.STRUCT_OF_ARRAYS, 1);
+        binding = streams.createBindingDescriptions(2);
+        attributes = streams.createAttributeDescriptions(2);
+
+        assertEquals(2, binding.capacity());
+        assertEquals(POSITION_SIZE, binding.get(0).stride());
+        assertEquals(COLOR_SIZE, binding.get(1).stride());
+        assertEquals(3, attributes.get(1).binding());
+        assertEquals(0, attributes.get(1).offset());
+        streams.free();
+    }
+
+    /**
+     * The vertices i were written with the position (i, 2i, 3i) and the color (0, 0, 0, 1).
+     */
+    private static void assertStructOfArrays(VertexStreamBuilder builder, ByteBuffer data, int vertexCount) {
+        assertEquals(vertexCount * (POSITION_SIZE + COLOR_SIZE), data.remaining());
+        assertEquals(0, builder.getStreamOffset(0));
+        assertEquals(vertexCount * POSITION_SIZE, builder.getStreamOffset(1));
+
+        int colors = (int) builder.getStreamOffset(1);
+
+        for (int i = 0; i < vertexCount; i++) {
+            assertEquals(i, data.getFloat(i * POSITION_SIZE));
+            assertEquals(2 * i, data.getFloat(i * POSITION_SIZE + 4));
+            assertEquals(3 * i, data.getFloat(i * POSITION_SIZE + 8));
+
+            assertEquals((byte) 0x00, data.get(colors + i * COLOR_SIZE));
+            assertEquals((byte) 0xFF, data.get(colors + i * COLOR_SIZE + 3));
+        }
+    }
+}
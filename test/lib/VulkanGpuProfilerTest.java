@@ -0,0 +1,128 @@
+package lib;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkCommandBufferBeginInfo;
+import org.lwjgl.vulkan.VkSubmitInfo;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.vulkan.VK10.*;
+
+class VulkanGpuProfilerTest {
+
+    private static final int FRAMES_IN_FLIGHT = 2;
+    private static final int FRAME_COUNT = 8;
+
+    @Test
+    void measuresNestedScopes() {
+        try (TestDevices test = TestDevices.createOrSkip()) {
+            VulkanLogicalDevice device = test.getLogicalDevice();
+
+            VulkanGpuProfiler profiler;
+            try {
+                profiler = new VulkanGpuProfiler(test.devices, FRAMES_IN_FLIGHT, 8, 4);
+            } catch (UnsupportedOperationException e) {
+                Assumptions.abort(e.getMessage());
+                return;
+            }
+
+            VulkanFrameCommandAllocator commandAllocator = new VulkanFrameCommandAllocator(device,
+                    test.devices.getPhysicalDevice().getQueueFamilyIndices().getGraphicsFamily().get(), FRAMES_IN_FLIGHT);
+
+            for (int frame = 0; frame < FRAME_COUNT; frame++) {
+                int frameIndex = frame % FRAMES_IN_FLIGHT;
+                commandAllocator.beginFrame(frameIndex);
+
+                VulkanCommandBuffer commandBuffer = commandAllocator.allocate();
+                begin(commandBuffer);
+
+                profiler.beginFrame(frameIndex, commandBuffer);
+                profiler.beginScope(commandBuffer, "frame");
+                profiler.beginScope(commandBuffer, "first");
+                profiler.endScope(commandBuffer);
+                profiler.beginScope(commandBuffer, "second");
+                profiler.endScope(commandBuffer);
+                profiler.endScope(commandBuffer);
+
+                commandBuffer.endCommandBuffer();
+
+                // Waiting for every frame keeps the test simple, the timestamps are then always available
+                submitAndWait(device, commandBuffer);
+            }
+
+            assertNotNull(profiler.getStats("frame"));
+            assertNotNull(profiler.getStats("frame/first"));
+            assertNotNull(profiler.getStats("frame/second"));
+            assertNull(profiler.getStats("first"));
+            assertEquals(3, profiler.getAllStats().size());
+
+            // The results of a frame are collected when its slot comes around again, so the last ones are pending
+            VulkanGpuProfiler.ScopeStats frameStats = profiler.getStats("frame");
+            assertEquals(FRAME_COUNT - FRAMES_IN_FLIGHT, frameStats.getTotalCount());
+            assertEquals(4, frameStats.getSampleCount());
+            assertTrue(frameStats.getMax() >= frameStats.getMin());
+
+            commandAllocator.destroy(device);
+            profiler.destroy(device);
+        }
+    }
+
+    @Test
+    void rejectsUnbalancedScopes() {
+        try (TestDevices test = TestDevices.createOrSkip()) {
+            VulkanLogicalDevice device = test.getLogicalDevice();
+
+            VulkanGpuProfiler profiler;
+            try {
+                profiler = new VulkanGpuProfiler(test.devices, 1, 1, 1);
+            } catch (UnsupportedOperationException e) {
+                Assumptions.abort(e.getMessage());
+                return;
+            }
+
+            VulkanFrameCommandAllocator commandAllocator = new VulkanFrameCommandAllocator(device,
+                    test.devices.getPhysicalDevice().getQueueFamilyIndices().getGraphicsFamily().get(), 1);
+            commandAllocator.beginFrame(0);
+
+            VulkanCommandBuffer commandBuffer = commandAllocator.allocate();
+            begin(commandBuffer);
+
+            assertThrows(IllegalStateException.class, () -> profiler.beginScope(commandBuffer, "early"));
+
+            profiler.beginFrame(0, commandBuffer);
+            assertThrows(IllegalStateException.class, () -> profiler.endScope(commandBuffer));
+
+            profiler.beginScope(commandBuffer, "only");
+            assertThrows(IllegalStateException.class, () -> profiler.beginScope(commandBuffer, "tooMany"));
+            assertThrows(IllegalStateException.class, () -> profiler.beginFrame(0, commandBuffer));
+            profiler.endScope(commandBuffer);
+
+            commandBuffer.endCommandBuffer();
+
+            commandAllocator.destroy(device);
+            profiler.destroy(device);
+        }
+    }
+
+    private static void begin(VulkanCommandBuffer commandBuffer) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc(stack);
+            beginInfo.sType$Default();
+            beginInfo.flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+
+            commandBuffer.beginCommandBuffer(beginInfo);
+        }
+    }
+
+    private static void submitAndWait(VulkanLogicalDevice device, VulkanCommandBuffer commandBuffer) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack);
+            submitInfo.sType$Default();
+            submitInfo.pCommandBuffers(stack.pointers(commandBuffer.getVkCommandBuffer()));
+
+            VulkanUtils.check(vkQueueSubmit(device.getGraphicsQueue(), submitInfo, VK_NULL_HANDLE));
+            VulkanUtils.check(vkQueueWaitIdle(device.getGraphicsQueue()));
+        }
+    }
+}
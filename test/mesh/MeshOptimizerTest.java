@@ -0,0 +1,252 @@
+package mesh;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MeshOptimizerTest {
+
+    private static final int GRID_SIZE = 64;
+    private static final int STRIDE = 12;
+
+    private final List<ByteBuffer> allocations = new ArrayList<>();
+    private final List<Mesh> meshes = new ArrayList<>();
+
+    @AfterEach
+    void free() {
+        meshes.forEach(Mesh::free);
+        allocations.forEach(MemoryUtil::memFree);
+    }
+
+    @Test
+    void deduplicationWeldsIdenticalVertices() {
+        Mesh source = unweldedGrid(GRID_SIZE, true);
+        Mesh welded = track(VertexDeduplicator.deduplicate(source));
+
+        assertEquals(source.getTriangleCount() * 3, source.getVertexCount());
+        assertEquals((GRID_SIZE + 1) * (GRID_SIZE + 1), welded.getVertexCount());
+        assertSameTriangles(source, welded);
+    }
+
+    @Test
+    void cacheOptimizationKeepsTheTriangles() {
+        Mesh welded = track(VertexDeduplicator.deduplicate(unweldedGrid(GRID_SIZE, true)));
+
+        int[] ordered = VertexCacheOptimizer.optimize(welded.getIndices(), welded.getVertexCount(), 16);
+        Mesh reordered = track(welded.derive(welded.getVertices(), ordered, false));
+
+        assertSameTriangles(welded, reordered);
+    }
+
+    /**
+     * Regression bounds of the whole pipeline on a shuffled 64x64 grid. The shuffled input has an ACMR of ~3, Tipsify
+     * reached 0.619 (cache of 16) and 0.563 (cache of 32) when these bounds were set.
+     */
+    @Test
+    void optimizedGridStaysBelowTheMeasuredAcmr() {
+        Mesh source = unweldedGrid(GRID_SIZE, true);
+
+        MeshAnalyzer.Statistics before = MeshAnalyzer.analyze(track(VertexDeduplicator.deduplicate(source)), 16);
+        assertTrue(before.getAcmr() > 2.9, before.toString());
+
+        MeshAnalyzer.Statistics cache16 = MeshAnalyzer.analyze(track(new MeshOptimizer().optimize(source)), 16);
+        assertTrue(cache16.getAcmr() <= 0.63, cache16.toString());
+        assertTrue(cache16.getOverfetch() <= 1.06, cache16.toString());
+
+        MeshAnalyzer.Statistics cache32 = MeshAnalyzer.analyze(track(new MeshOptimizer().setCacheSize(32).optimize(source)), 32);
+        assertTrue(cache32.getAcmr() <= 0.575, cache32.toString());
+    }
+
+    @Test
+    void overdrawPassStaysWithinTheThreshold() {
+        Mesh source = unweldedGrid(GRID_SIZE, true);
+
+        double cacheOnly = MeshAnalyzer.analyze(track(new MeshOptimizer().setOptimizeOverdraw(false).optimize(source)), 16).getAcmr();
+        double withOverdraw = MeshAnalyzer.analyze(track(new MeshOptimizer().setOverdrawThreshold(1.05f).optimize(source)), 16).getAcmr();
+
+        assertTrue(withOverdraw <= cacheOnly * 1.05 + 1e-9, String.format("%.3f vs %.3f", withOverdraw, cacheOnly));
+    }
+
+    @Test
+    void fetchOptimizationOrdersVerticesByFirstUse() {
+        Mesh optimized = track(new MeshOptimizer().optimize(unweldedGrid(8, true)));
+
+        int next = 0;
+        boolean[] seen = new boolean[optimized.getVertexCount()];
+
+        for (int index : optimized.getIndices()) {
+            if (!seen[index]) {
+                assertEquals(next++, index);
+                seen[index] = true;
+            }
+        }
+
+        assertEquals(optimized.getVertexCount(), next);
+    }
+
+    @Test
+    void buildRemapDropsUnusedVertices() {
+        int[] remap = new int[5];
+
+        assertEquals(3, VertexFetchOptimizer.buildRemap(new int[]{4, 1, 4, 2, 1, 2}, remap));
+        assertArrayEquals(new int[]{-1, 1, 2, -1, 0}, remap);
+    }
+
+    @Test
+    void trianglesNeverLeaveTheirWindow() {
+        Mesh source = unweldedGrid(16, false);
+        int window = 100;
+
+        Mesh optimized = track(new MeshOptimizer().setDeduplicate(false).setWindowSize(window).optimize(source));
+
+        // Both meshes have unwelded vertices, so each triangle is identified by its first position
+        for (int first = 0; first < source.getTriangleCount(); first += window) {
+            int end = Math.min(first + window, source.getTriangleCount());
+
+            assertArrayEquals(triangleKeys(source, first, end), triangleKeys(optimized, first, end), "Window at " + first);
+        }
+    }
+
+    @Test
+    void optimizesMeshesInParallel() {
+        List<Mesh> sources = List.of(unweldedGrid(8, true), unweldedGrid(12, true), unweldedGrid(16, true));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            List<CompletableFuture<Mesh>> futures = new MeshOptimizer().optimizeAll(sources, executor);
+
+            for (int i = 0; i < sources.size(); i++) {
+                Mesh optimized = track(futures.get(i).join());
+                assertSameTriangles(sources.get(i), optimized);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void sourceMeshIsLeftUntouched() {
+        Mesh source = unweldedGrid(8, true);
+        int[] indices = source.getIndices().clone();
+
+        track(new MeshOptimizer().optimize(source));
+
+        assertArrayEquals(indices, source.getIndices());
+    }
+
+    @Test
+    void analyzerCountsMisses() {
+        MeshAnalyzer analyzer = new MeshAnalyzer(4, STRIDE, 16);
+        analyzer.add(new int[]{0, 1, 2, 2, 1, 3}, 0, 6);
+
+        MeshAnalyzer.Statistics statistics = analyzer.getStatistics();
+        assertEquals(2, statistics.getTriangleCount());
+        assertEquals(4, statistics.getCacheMisses());
+        assertEquals(2.0, statistics.getAcmr());
+        assertEquals(1.0, statistics.getAtvr());
+    }
+
+    /**
+     * A grid of quads with a copy of the vertex for every triangle corner.
+     */
+    private Mesh unweldedGrid(int gridSize, boolean shuffle) {
+        int triangleCount = gridSize * gridSize * 2;
+        int[] triangles = new int[triangleCount * 3];
+        int t = 0;
+
+        for (int y = 0; y < gridSize; y++) {
+            for (int x = 0; x < gridSize; x++) {
+                int v = y * (gridSize + 1) + x;
+
+                triangles[t++] = v;
+                triangles[t++] = v + 1;
+                triangles[t++] = v + gridSize + 1;
+
+                triangles[t++] = v + 1;
+                triangles[t++] = v + gridSize + 2;
+                triangles[t++] = v + gridSize + 1;
+            }
+        }
+
+        if (shuffle) {
+            Random random = new Random(42);
+
+            for (int i = triangleCount - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+
+                for (int k = 0; k < 3; k++) {
+                    int tmp = triangles[i * 3 + k];
+                    triangles[i * 3 + k] = triangles[j * 3 + k];
+                    triangles[j * 3 + k] = tmp;
+                }
+            }
+        }
+
+        ByteBuffer vertices = MemoryUtil.memAlloc(triangles.length * STRIDE);
+        allocations.add(vertices);
+
+        long address = MemoryUtil.memAddress(vertices);
+        int[] indices = new int[triangles.length];
+
+        for (int i = 0; i < triangles.length; i++) {
+            MemoryUtil.memPutFloat(address + i * (long) STRIDE, triangles[i] % (gridSize + 1));
+            MemoryUtil.memPutFloat(address + i * (long) STRIDE + 4, triangles[i] / (gridSize + 1));
+            MemoryUtil.memPutFloat(address + i * (long) STRIDE + 8, 0.f);
+            indices[i] = i;
+        }
+
+        return new Mesh(vertices, STRIDE, indices);
+    }
+
+    private Mesh track(Mesh mesh) {
+        meshes.add(mesh);
+        return mesh;
+    }
+
+    /**
+     * Compares the triangles by the positions of their corners, so the vertex and triangle order don't matter. The
+     * winding has to be preserved, a triangle may only start at a different corner.
+     */
+    private static void assertSameTriangles(Mesh expected, Mesh actual) {
+        assertEquals(expected.getTriangleCount(), actual.getTriangleCount());
+        assertArrayEquals(triangleKeys(expected, 0, expected.getTriangleCount()), triangleKeys(actual, 0, actual.getTriangleCount()));
+    }
+
+    private static long[] triangleKeys(Mesh mesh, int first, int end) {
+        int[] indices = mesh.getIndices();
+        long[] keys = new long[end - first];
+
+        for (int t = first; t < end; t++) {
+            long a = positionKey(mesh, indices[t * 3]);
+            long b = positionKey(mesh, indices[t * 3 + 1]);
+            long c = positionKey(mesh, indices[t * 3 + 2]);
+
+            // Rotate the smallest corner to the front, which keeps the winding
+            if (b < a && b < c) {
+                long tmp = a; a = b; b = c; c = tmp;
+            } else if (c < a && c < b) {
+                long tmp = c; c = b; b = a; a = tmp;
+            }
+
+            keys[t - first] = (a * 1_000_003L + b) * 1_000_003L + c;
+        }
+
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private static long positionKey(Mesh mesh, int vertex) {
+        return (long) mesh.getPosition(vertex, 0) * 1024 + (long) mesh.getPosition(vertex, 1);
+    }
+}
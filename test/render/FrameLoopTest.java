@@ -0,0 +1,273 @@
+package render;
+
+import lib.*;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkClearValue;
+import org.lwjgl.vulkan.VkCommandBufferBeginInfo;
+import org.lwjgl.vulkan.VkRenderPassBeginInfo;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.lwjgl.util.vma.Vma.VMA_ALLOCATION_CREATE_MAPPED_BIT;
+import static org.lwjgl.util.vma.Vma.VMA_MEMORY_USAGE_CPU_TO_GPU;
+import static org.lwjgl.vulkan.VK10.*;
+
+class FrameLoopTest {
+
+    private static final int FRAMES_IN_FLIGHT = 2;
+    private static final int WARMUP_FRAMES = 2_000;
+    private static final int MEASURED_FRAMES = 2_000;
+
+    // Leaves room for the bookkeeping of the JVM itself, a single allocation per frame would exceed it
+    private static final long MAX_ALLOCATED_BYTES = 16 * 1024;
+
+    // Position (vec2) and color, the input of res/shaders/vertex_shader.vert
+    private static final VulkanBuffers.VertexBuffer VERTEX_LAYOUT = new VulkanBuffers.VertexBuffer(0, new VulkanBuffers.Attribute[]{
+            new VulkanBuffers.Attribute(0, VK_FORMAT_R32G32_SFLOAT, 0, 8),
+            new VulkanBuffers.Attribute(1, VertexEncoding.UNORM8, 4, 8),
+    });
+
+    @Test
+    void steadyStateFramesDontAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeAllocationCounting(threads);
+
+        try (TestDevices test = TestDevices.createOrSkip()) {
+            VulkanDevices devices = test.devices;
+            VulkanLogicalDevice device = test.getLogicalDevice();
+
+            List<VulkanFrame> frames = new ArrayList<>();
+            for (int i = 0; i < FRAMES_IN_FLIGHT; i++) {
+                frames.add(new VulkanFrame(new VulkanSemaphore(device), new VulkanSemaphore(device),
+                        new VulkanFence(device, VK_FENCE_CREATE_SIGNALED_BIT)));
+            }
+
+            FrameLoop frameLoop = new FrameLoop(devices, frames, devices.getGraphicsTimeline());
+            VulkanFrameCommandAllocator commandAllocator = new VulkanFrameCommandAllocator(device,
+                    devices.getPhysicalDevice().getQueueFamilyIndices().getGraphicsFamily().get(), FRAMES_IN_FLIGHT);
+            PhaseTimers timers = new PhaseTimers();
+            frameLoop.setTimers(timers);
+
+            VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc();
+            beginInfo.sType$Default();
+            beginInfo.flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+
+            renderFrames(frameLoop, commandAllocator, beginInfo, timers, WARMUP_FRAMES);
+
+            long threadId = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(threadId);
+
+            renderFrames(frameLoop, commandAllocator, beginInfo, timers, MEASURED_FRAMES);
+
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+            vkDeviceWaitIdle(devices.getVkDevice());
+
+            beginInfo.free();
+            commandAllocator.destroy(device);
+            frameLoop.destroy();
+
+            for (VulkanFrame frame : frames) {
+                frame.getImageAvailableSemaphore().destroy(device);
+                frame.getRenderFinishedSemaphore().destroy(device);
+                frame.getFence().destroy(device);
+            }
+
+            assertTrue(allocated <= MAX_ALLOCATED_BYTES,
+                    String.format("%d frames allocated %d bytes on the heap", MEASURED_FRAMES, allocated));
+        }
+    }
+
+    /**
+     * Same as {@link #steadyStateFramesDontAllocate()}, but every frame draws into a render pass through the
+     * IndirectDrawBatcher, the way the application renders.
+     */
+    @Test
+    void batchedDrawsDontAllocate() throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeAllocationCounting(threads);
+
+        try (TestDevices test = TestDevices.createOrSkip()) {
+            VulkanDevices devices = test.devices;
+            VulkanLogicalDevice device = test.getLogicalDevice();
+
+            List<VulkanFrame> frames = new ArrayList<>();
+            for (int i = 0; i < FRAMES_IN_FLIGHT; i++) {
+                frames.add(new VulkanFrame(new VulkanSemaphore(device), new VulkanSemaphore(device),
+                        new VulkanFence(device, VK_FENCE_CREATE_SIGNALED_BIT)));
+            }
+
+            FrameLoop frameLoop = new FrameLoop(devices, frames, devices.getGraphicsTimeline());
+            VulkanFrameCommandAllocator commandAllocator = new VulkanFrameCommandAllocator(device,
+                    devices.getPhysicalDevice().getQueueFamilyIndices().getGraphicsFamily().get(), FRAMES_IN_FLIGHT);
+            PhaseTimers timers = new PhaseTimers();
+            frameLoop.setTimers(timers);
+
+            VulkanOffscreenTarget target = new VulkanOffscreenTarget(devices, 64, 64, VK_FORMAT_R8G8B8A8_UNORM,
+                    VK_FORMAT_UNDEFINED, FRAMES_IN_FLIGHT);
+            VulkanRenderPass renderPass = target.createRenderPass(device);
+            VulkanFrameBuffer frameBuffers = target.createFrameBuffers(device, renderPass);
+            VulkanGraphicsPipeline pipeline = createPipeline(device, target, renderPass);
+
+            VulkanBuffers.Buffer vertexBuffer = devices.allocateBuffer(VK_BUFFER_USAGE_VERTEX_BUFFER_BIT, VK_SHARING_MODE_EXCLUSIVE,
+                    VMA_MEMORY_USAGE_CPU_TO_GPU, VMA_ALLOCATION_CREATE_MAPPED_BIT, 4L * VERTEX_LAYOUT.getStride());
+            VulkanBuffers.Buffer indexBuffer = devices.allocateBuffer(VK_BUFFER_USAGE_INDEX_BUFFER_BIT, VK_SHARING_MODE_EXCLUSIVE,
+                    VMA_MEMORY_USAGE_CPU_TO_GPU, VMA_ALLOCATION_CREATE_MAPPED_BIT, 6L * Short.BYTES);
+            writeQuad(vertexBuffer, indexBuffer);
+
+            IndirectDrawBatcher batcher = new IndirectDrawBatcher(devices, FRAMES_IN_FLIGHT, 64, 0);
+            IndirectDrawBatcher.MeshRange quad = new IndirectDrawBatcher.MeshRange(vertexBuffer.pBuffer, 0,
+                    indexBuffer.pBuffer, VK_INDEX_TYPE_UINT16, 0, 6);
+
+            VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc();
+            beginInfo.sType$Default();
+            beginInfo.flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+
+            VkClearValue.Buffer clearValues = VkClearValue.calloc(1);
+            VkRenderPassBeginInfo renderPassBeginInfo = VkRenderPassBeginInfo.calloc();
+            renderPassBeginInfo.sType$Default();
+            renderPassBeginInfo.renderPass(renderPass.getRenderPassPtr());
+            renderPassBeginInfo.renderArea().extent(target.getExtent());
+            renderPassBeginInfo.pClearValues(clearValues);
+
+            renderBatchedFrames(frameLoop, commandAllocator, timers, batcher, pipeline, quad, beginInfo,
+                    renderPassBeginInfo, frameBuffers, WARMUP_FRAMES);
+
+            long threadId = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(threadId);
+
+            renderBatchedFrames(frameLoop, commandAllocator, timers, batcher, pipeline, quad, beginInfo,
+                    renderPassBeginInfo, frameBuffers, MEASURED_FRAMES);
+
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+            vkDeviceWaitIdle(devices.getVkDevice());
+
+            beginInfo.free();
+            renderPassBeginInfo.free();
+            clearValues.free();
+            batcher.destroy(device);
+            vertexBuffer.destroy(device);
+            indexBuffer.destroy(device);
+            pipeline.destroy(device);
+            frameBuffers.destroy(device);
+            renderPass.destroy(device);
+            target.destroy(device);
+            commandAllocator.destroy(device);
+            frameLoop.destroy();
+
+            for (VulkanFrame frame : frames) {
+                frame.getImageAvailableSemaphore().destroy(device);
+                frame.getRenderFinishedSemaphore().destroy(device);
+                frame.getFence().destroy(device);
+            }
+
+            assertTrue(allocated <= MAX_ALLOCATED_BYTES,
+                    String.format("%d batched frames allocated %d bytes on the heap", MEASURED_FRAMES, allocated));
+        }
+    }
+
+    /**
+     * Renders frames which draw 8 quads through the batcher. All of them share one batch, so every frame writes one
+     * batch of commands into the ring buffer of the batcher.
+     */
+    private static void renderBatchedFrames(FrameLoop frameLoop, VulkanFrameCommandAllocator commandAllocator, PhaseTimers timers,
+                                            IndirectDrawBatcher batcher, VulkanGraphicsPipeline pipeline,
+                                            IndirectDrawBatcher.MeshRange quad, VkCommandBufferBeginInfo beginInfo,
+                                            VkRenderPassBeginInfo renderPassBeginInfo, VulkanFrameBuffer frameBuffers, int frameCount) {
+        for (int i = 0; i < frameCount; i++) {
+            int imageIndex = frameLoop.acquire();
+            commandAllocator.beginFrame(frameLoop.getCurrentFrame());
+            batcher.beginFrame(frameLoop.getCurrentFrame());
+
+            VulkanCommandBuffer commandBuffer = commandAllocator.allocate();
+            commandBuffer.beginCommandBuffer(beginInfo);
+
+            renderPassBeginInfo.framebuffer(frameBuffers.getFrameBuffers()[imageIndex]);
+            commandBuffer.beginRenderPass(renderPassBeginInfo, VK_SUBPASS_CONTENTS_INLINE);
+
+            for (int draw = 0; draw < 8; draw++)
+                batcher.add(pipeline, quad, 1, 0);
+            batcher.record(commandBuffer);
+
+            commandBuffer.endRenderPass();
+            commandBuffer.endCommandBuffer();
+
+            frameLoop.submit(commandBuffer.getVkCommandBuffer());
+            frameLoop.present();
+
+            timers.frameTick();
+        }
+    }
+
+    private static VulkanGraphicsPipeline createPipeline(VulkanLogicalDevice device, VulkanOffscreenTarget target,
+                                                         VulkanRenderPass renderPass) throws IOException {
+        ShaderUtils.SPIRVShaderCode vertexCode = ShaderUtils.compileShader("vertex_shader.vert",
+                Files.readString(Paths.get("res", "shaders", "vertex_shader.vert")), ShaderUtils.ShaderType.VERTEX_SHADER);
+        ShaderUtils.SPIRVShaderCode fragmentCode = ShaderUtils.compileShader("fragment_shader.frag",
+                Files.readString(Paths.get("res", "shaders", "fragment_shader.frag")), ShaderUtils.ShaderType.FRAGMENT_SHADER);
+
+        VulkanGraphicsPipeline pipeline = new VulkanGraphicsPipeline(new ShaderUtils.ShaderModule[]{
+                ShaderUtils.createShaderModule(device, vertexCode),
+                ShaderUtils.createShaderModule(device, fragmentCode)
+        });
+
+        pipeline.setupVertexStage(VERTEX_LAYOUT)
+                .setupInputAssembly(VK_PRIMITIVE_TOPOLOGY_TRIANGLE_LIST)
+                .setupDefaultViewport(target.getExtent())
+                .setupDefaultRasterization()
+                .setupDefaultMultiSampling(VK_SAMPLE_COUNT_1_BIT, false)
+                .setupColorBlending(false)
+                .initializePipeline(device, renderPass);
+
+        vertexCode.free();
+        fragmentCode.free();
+        return pipeline;
+    }
+
+    private static void writeQuad(VulkanBuffers.Buffer vertexBuffer, VulkanBuffers.Buffer indexBuffer) {
+        float[] positions = {-0.5f, -0.5f, 0.5f, -0.5f, 0.5f, 0.5f, -0.5f, 0.5f};
+        int stride = VERTEX_LAYOUT.getStride();
+
+        for (int i = 0; i < 4; i++) {
+            MemoryUtil.memPutFloat(vertexBuffer.pMappedData + (long) i * stride, positions[2 * i]);
+            MemoryUtil.memPutFloat(vertexBuffer.pMappedData + (long) i * stride + 4, positions[2 * i + 1]);
+            MemoryUtil.memPutInt(vertexBuffer.pMappedData + (long) i * stride + 8, 0xFFFFFFFF);
+        }
+
+        short[] indices = {0, 1, 2, 2, 3, 0};
+        for (int i = 0; i < indices.length; i++)
+            MemoryUtil.memPutShort(indexBuffer.pMappedData + (long) i * Short.BYTES, indices[i]);
+    }
+
+    private static void renderFrames(FrameLoop frameLoop, VulkanFrameCommandAllocator commandAllocator,
+                                     VkCommandBufferBeginInfo beginInfo, PhaseTimers timers, int frameCount) {
+        for (int i = 0; i < frameCount; i++) {
+            frameLoop.acquire();
+            commandAllocator.beginFrame(frameLoop.getCurrentFrame());
+
+            VulkanCommandBuffer commandBuffer = commandAllocator.allocate();
+            commandBuffer.beginCommandBuffer(beginInfo);
+            commandBuffer.endCommandBuffer();
+
+            frameLoop.submit(commandBuffer.getVkCommandBuffer());
+            frameLoop.present();
+
+            timers.frameTick();
+        }
+    }
+
+    private static void assumeAllocationCounting(com.sun.management.ThreadMXBean threads) {
+        Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported(),
+                "The JVM can't count the allocated bytes of a thread");
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+}